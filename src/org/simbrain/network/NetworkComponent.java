@@ -17,6 +17,8 @@
  */
 package org.simbrain.network;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
@@ -24,6 +26,7 @@ import java.util.List;
 
 import org.simbrain.network.core.Network;
 import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronStateStore;
 import org.simbrain.network.core.NeuronUpdateRule;
 import org.simbrain.network.core.Synapse;
 import org.simbrain.network.core.SynapseUpdateRule;
@@ -33,9 +36,14 @@ import org.simbrain.network.groups.SynapseGroup;
 import org.simbrain.network.listeners.NetworkEvent;
 import org.simbrain.network.listeners.NeuronListener;
 import org.simbrain.network.listeners.SynapseListener;
+import org.simbrain.network.util.io_utilities.NetworkSnapshot;
 import org.simbrain.workspace.AttributeType;
+import org.simbrain.workspace.BulkConsumer;
+import org.simbrain.workspace.BulkProducer;
+import org.simbrain.workspace.Consumer;
 import org.simbrain.workspace.PotentialConsumer;
 import org.simbrain.workspace.PotentialProducer;
+import org.simbrain.workspace.Producer;
 import org.simbrain.workspace.WorkspaceComponent;
 
 /**
@@ -43,6 +51,12 @@ import org.simbrain.workspace.WorkspaceComponent;
  */
 public final class NetworkComponent extends WorkspaceComponent {
 
+    /**
+     * Networks with more synapses than this are saved as binary snapshots
+     * (see {@link NetworkSnapshot}) rather than XML.
+     */
+    public static final int SNAPSHOT_THRESHOLD = 100000;
+
     /** Reference to root network, the main model network. */
     private Network network = new Network();
 
@@ -327,6 +341,62 @@ public final class NetworkComponent extends WorkspaceComponent {
         return returnList;
     }
 
+    /**
+     * Neuron group activations can be read in bulk.
+     */
+    @Override
+    public BulkProducer getBulkProducer(final Producer<?> producer) {
+        if (!(producer.getBaseObject() instanceof NeuronGroup)
+                || !producer.getMethodName().equals("getActivations")) {
+            return null;
+        }
+        final NeuronGroup group = (NeuronGroup) producer.getBaseObject();
+        return new BulkProducer() {
+
+            public int getBulkLength() {
+                return group.size();
+            }
+
+            public void readBulk(double[] dest) {
+                group.readActivations(dest);
+            }
+        };
+    }
+
+    /**
+     * Neuron group input values can be written in bulk. For packed groups the
+     * destination is the group's own input array.
+     */
+    @Override
+    public BulkConsumer getBulkConsumer(final Consumer<?> consumer) {
+        if (!(consumer.getBaseObject() instanceof NeuronGroup)
+                || !consumer.getMethodName().equals("setInputValues")) {
+            return null;
+        }
+        final NeuronGroup group = (NeuronGroup) consumer.getBaseObject();
+        return new BulkConsumer() {
+
+            private double[] buffer = new double[0];
+
+            public double[] getBulkBuffer() {
+                NeuronStateStore store = group.getStateStore();
+                if (store != null) {
+                    return store.getInputArray();
+                }
+                if (buffer.length != group.size()) {
+                    buffer = new double[group.size()];
+                }
+                return buffer;
+            }
+
+            public void bulkBufferWritten(int count) {
+                if (group.getStateStore() == null) {
+                    group.setInputValues(buffer, count);
+                }
+            }
+        };
+    }
+
     @Override
     public Object getObjectFromKey(String objectKey) {
         if (objectKey.startsWith("Neuron_")) {
@@ -364,17 +434,60 @@ public final class NetworkComponent extends WorkspaceComponent {
      */
     public static NetworkComponent open(final InputStream input,
             final String name, final String format) {
-        Network newNetwork = (Network) Network.getXStream().fromXML(input);
+        BufferedInputStream in = new BufferedInputStream(input);
+        Network newNetwork;
+        try {
+            byte[] header = new byte[4];
+            in.mark(header.length);
+            int read = 0;
+            while (read < header.length) {
+                int n = in.read(header, read, header.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            in.reset();
+            if (read == header.length && NetworkSnapshot.isSnapshot(header)) {
+                newNetwork = NetworkSnapshot.read(in);
+            } else {
+                newNetwork = (Network) Network.getXStream().fromXML(in);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
         return new NetworkComponent(name, newNetwork);
     }
 
     @Override
     public void save(final OutputStream output, final String format) {
+        if (getTotalSynapseCount() > SNAPSHOT_THRESHOLD) {
+            try {
+                NetworkSnapshot.write(network, output);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
         network.preSaveInit();
         Network.getXStream().toXML(network, output);
         network.postSaveReInit();
     }
 
+    /**
+     * Returns the number of synapses in the network, including those in
+     * synapse groups.
+     *
+     * @return the total number of synapses
+     */
+    private long getTotalSynapseCount() {
+        long count = network.getSynapseCount();
+        for (SynapseGroup group : network.getSynapseGroups()) {
+            count += group.size();
+        }
+        return count;
+    }
+
     /**
      * Returns the root network.
      *
@@ -12,12 +12,14 @@
  */
 package org.simbrain.network.connections;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.Synapse;
+import org.simbrain.network.groups.MappedSynapseMatrix;
 import org.simbrain.network.groups.SynapseGroup;
 import org.simbrain.util.Utils;
 
@@ -147,6 +149,10 @@ public class AllToAll implements ConnectNeurons {
      *            connection class will be added.
      */
     public void connectNeurons(SynapseGroup synGroup) {
+        if (synGroup.getMappedStorage() != null) {
+            connectMapped(synGroup);
+            return;
+        }
         List<Synapse> syns = connectAllToAll(synGroup.getSourceNeurons(),
                 synGroup.getTargetNeurons(), synGroup.isRecurrent(),
                 selfConnectionAllowed, false);
@@ -159,6 +165,41 @@ public class AllToAll implements ConnectNeurons {
         }
     }
 
+    /**
+     * Connects every source neuron to every target neuron by writing the
+     * connections straight into the group's mapped storage (see
+     * {@link SynapseGroup#setMappedStorage(java.io.File)}), without creating
+     * synapse objects.
+     *
+     * @param synGroup the synapse group to connect
+     */
+    private void connectMapped(SynapseGroup synGroup) {
+        int numSrc = synGroup.getSourceNeuronGroup().size();
+        int numTar = synGroup.getTargetNeuronGroup().size();
+        boolean skipSelf = synGroup.isRecurrent() && !selfConnectionAllowed;
+        int[] rowLengths = new int[numTar];
+        for (int t = 0; t < numTar; t++) {
+            rowLengths[t] = skipSelf ? numSrc - 1 : numSrc;
+        }
+        try {
+            MappedSynapseMatrix.Writer writer = synGroup
+                    .createMappedWriter(rowLengths);
+            int k = 0;
+            for (int t = 0; t < numTar; t++) {
+                for (int s = 0; s < numSrc; s++) {
+                    if (!(skipSelf && s == t)) {
+                        synGroup.writeNewSynapse(writer, k++, s);
+                    }
+                }
+            }
+            synGroup.setCompressedMatrix(writer.finish());
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write the connections"
+                    + " of synapse group " + synGroup.getLabel() + " to "
+                    + synGroup.getMappedStorage(), e);
+        }
+    }
+
     /**
      * @return if neurons are allowed to connect to themselves i.e. a synapse
      *         where the source and target neuron are the same neuron is
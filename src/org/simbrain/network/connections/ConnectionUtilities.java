@@ -92,13 +92,15 @@ public class ConnectionUtilities {
                     inhibCount, s);
                 // Set the strength based on the polarity.
                 if (excitatory) {
-                    s.setStrength(exciteRand != null ? exciteRand.getRandom()
+                    s.setStrength(exciteRand != null ? exciteRand.getRandom(
+                        s.getRandomStream())
                         : DEFAULT_EXCITATORY_STRENGTH);
                     exciteCount--;
                     // Change the excitatoryRatio to maintain balance
                     excitatoryRatio = exciteCount / (double) remaining;
                 } else {
-                    s.setStrength(inhibRand != null ? inhibRand.getRandom()
+                    s.setStrength(inhibRand != null ? inhibRand.getRandom(
+                        s.getRandomStream())
                         : DEFAULT_INHIBITORY_STRENGTH);
                     inhibCount--;
                     // Change the excitatoryRatio to maintain balance.
@@ -148,10 +150,12 @@ public class ConnectionUtilities {
                 excitatory = s.getStrength() > 0;
                 // Set the strength based on the polarity.
                 if (excitatory) {
-                    s.setStrength(exciteRand != null ? exciteRand.getRandom()
+                    s.setStrength(exciteRand != null ? exciteRand.getRandom(
+                        s.getRandomStream())
                         : DEFAULT_EXCITATORY_STRENGTH);
                 } else {
-                    s.setStrength(inhibRand != null ? inhibRand.getRandom()
+                    s.setStrength(inhibRand != null ? inhibRand.getRandom(
+                        s.getRandomStream())
                         : DEFAULT_INHIBITORY_STRENGTH);
                 }
             }
@@ -171,7 +175,8 @@ public class ConnectionUtilities {
         for (Synapse s : synapses) {
             if (Polarity.EXCITATORY.equals(s.getSource().getPolarity())
                 || s.getStrength() > 0) {
-                s.setStrength(exciteRand != null ? exciteRand.getRandom()
+                s.setStrength(exciteRand != null ? exciteRand.getRandom(
+                    s.getRandomStream())
                     : DEFAULT_EXCITATORY_STRENGTH);
             }
         }
@@ -190,7 +195,8 @@ public class ConnectionUtilities {
         Collection<Synapse> synapses, PolarizedRandomizer exciteRand) {
         checkPolarityMatches(exciteRand, Polarity.EXCITATORY);
         for (Synapse s : synapses) {
-            s.setStrength(exciteRand != null ? exciteRand.getRandom()
+            s.setStrength(exciteRand != null ? exciteRand.getRandom(
+                s.getRandomStream())
                 : DEFAULT_EXCITATORY_STRENGTH);
         }
     }
@@ -208,7 +214,8 @@ public class ConnectionUtilities {
         for (Synapse s : synapses) {
             if (Polarity.INHIBITORY.equals(s.getSource().getPolarity())
                 || s.getStrength() < 0) {
-                s.setStrength(inhibRand != null ? inhibRand.getRandom()
+                s.setStrength(inhibRand != null ? inhibRand.getRandom(
+                    s.getRandomStream())
                     : DEFAULT_INHIBITORY_STRENGTH);
             }
         }
@@ -227,7 +234,8 @@ public class ConnectionUtilities {
         Collection<Synapse> synapses, PolarizedRandomizer inhibRand) {
         checkPolarityMatches(inhibRand, Polarity.INHIBITORY);
         for (Synapse s : synapses) {
-            s.setStrength(inhibRand != null ? inhibRand.getRandom()
+            s.setStrength(inhibRand != null ? inhibRand.getRandom(
+                s.getRandomStream())
                 : DEFAULT_INHIBITORY_STRENGTH);
         }
     }
@@ -412,7 +420,7 @@ public class ConnectionUtilities {
                     excitatory = true;
                 }
             } else {
-                double exciteOrInhib = Math.random();
+                double exciteOrInhib = s.getRandomStream().nextDouble();
                 if (exciteOrInhib < excitatoryRatio) {
                     excitatory = true;
                 } else {
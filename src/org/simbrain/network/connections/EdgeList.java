@@ -0,0 +1,104 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.connections;
+
+/**
+ * A growable list of connections, each a pair of indices into a synapse
+ * group's source and target neuron lists, kept in primitive arrays so that
+ * connection managers can build very large groups without creating synapse
+ * objects along the way. The finished list is handed to
+ * {@link org.simbrain.network.groups.SynapseGroup#addNewSynapses(int[], int[], int)}.
+ */
+final class EdgeList {
+
+    /** Source index of each edge. */
+    private int[] sources;
+
+    /** Target index of each edge. */
+    private int[] targets;
+
+    /** Number of edges. */
+    private int size;
+
+    /**
+     * @param capacity
+     *            the expected number of edges
+     */
+    EdgeList(final int capacity) {
+        sources = new int[Math.max(capacity, 16)];
+        targets = new int[sources.length];
+    }
+
+    /**
+     * Adds an edge.
+     *
+     * @param source
+     *            index of the source neuron
+     * @param target
+     *            index of the target neuron
+     */
+    void add(final int source, final int target) {
+        if (size == sources.length) {
+            int length = (int) Math.min(Integer.MAX_VALUE - 8,
+                    sources.length * 3L / 2 + 1);
+            int[] newSources = new int[length];
+            int[] newTargets = new int[length];
+            System.arraycopy(sources, 0, newSources, 0, size);
+            System.arraycopy(targets, 0, newTargets, 0, size);
+            sources = newSources;
+            targets = newTargets;
+        }
+        sources[size] = source;
+        targets[size++] = target;
+    }
+
+    /**
+     * Appends all the edges of another list.
+     *
+     * @param other
+     *            the edges to append
+     */
+    void addAll(final EdgeList other) {
+        for (int k = 0; k < other.size; k++) {
+            add(other.sources[k], other.targets[k]);
+        }
+    }
+
+    /**
+     * @return the source indices; only the first {@link #size()} are valid
+     */
+    int[] getSources() {
+        return sources;
+    }
+
+    /**
+     * @return the target indices; only the first {@link #size()} are valid
+     */
+    int[] getTargets() {
+        return targets;
+    }
+
+    /**
+     * @return the number of edges
+     */
+    int size() {
+        return size;
+    }
+
+}
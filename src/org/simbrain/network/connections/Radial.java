@@ -18,8 +18,6 @@
 package org.simbrain.network.connections;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -32,7 +30,9 @@ import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.Synapse;
 import org.simbrain.network.groups.SynapseGroup;
 import org.simbrain.util.SimbrainConstants.Polarity;
-import org.simbrain.util.math.ProbDistribution;
+import org.simbrain.util.math.SplittableRandomStream;
+
+import umontreal.iro.lecuyer.rng.RandomStream;
 
 /**
  *
@@ -76,6 +76,8 @@ public class Radial extends Sparse {
 
     public static final double DEFAULT_LAMBDA = 2.5;
 
+    public static final double DEFAULT_CUTOFF = 4;
+
     /** The connection constant for connections between 2 excitatory neurons. */
     private double eeDistConst = DEFAULT_EE_CONST;
 
@@ -107,6 +109,14 @@ public class Radial extends Sparse {
      */
     private double lambda = DEFAULT_LAMBDA;
     
+    /**
+     * Pairs of neurons further apart than this multiple of lambda are not
+     * considered for connection. Their probability of connection is at most
+     * e^-(cutoff^2) times the connection constant (about 10^-7 of it by
+     * default), so only nearby neurons need to be looked at.
+     */
+    private double cutoff = DEFAULT_CUTOFF;
+
     private SynapseGroup synapseGroup;
 
     /**
@@ -126,82 +136,130 @@ public class Radial extends Sparse {
         final List<Neuron> source, final List<Neuron> target,
         double eeDistConst, double eiDistConst, double ieDistConst,
         double iiDistConst, double distConst, double lambda, boolean loose) {
-        // Pre-allocating assuming that if one is using this as a connector
-        // then they are probably not going to have greater than 25%
-        // connectivity
-        List<Synapse> synapses = new ArrayList<Synapse>(source.size()
-            * target.size() / 4);
-        for (Neuron src : source) {
-            for (Neuron tar : target) {
-                double randVal = Math.random();
+        SpatialGrid grid = new SpatialGrid(target, DEFAULT_CUTOFF * lambda);
+        EdgeList edges = new EdgeList(source.size());
+        connectRadial(source, 0, source.size(), target, grid, eeDistConst,
+            eiDistConst, ieDistConst, iiDistConst, distConst, lambda,
+            DEFAULT_CUTOFF, getRandomStream(source, "Radial"), edges);
+        return toSynapses(source, target, edges, loose);
+    }
+
+    /**
+     *
+     * @param source the source neurons
+     * @param target the target neurons
+     * @param distConst the connection constant for general connections. Used in cases where neurons have no explicit polarity.
+     * @param lambda average connection distance.
+     * @param loose 
+     * @return array of synapses
+     */
+    public static List<Synapse> connectRadialNoPolarity(
+        final List<Neuron> source, final List<Neuron> target, double distConst,
+        double lambda, boolean loose) {
+        SpatialGrid grid = new SpatialGrid(target, DEFAULT_CUTOFF * lambda);
+        EdgeList edges = new EdgeList(source.size());
+        connectRadial(source, 0, source.size(), target, grid, distConst,
+            distConst, distConst, distConst, distConst, lambda,
+            DEFAULT_CUTOFF, getRandomStream(source, "Radial"), edges);
+        return toSynapses(source, target, edges, loose);
+    }
+
+    /**
+     * Makes radial connections from a range of source neurons. Only target
+     * neurons within cutoff * lambda of a source neuron are considered, and
+     * they are found through a grid over the target neurons, so the cost is
+     * proportional to the number of nearby pairs rather than to the number
+     * of all pairs. Each source neuron draws from its own split of the given
+     * stream, so the connections made do not depend on how the sources are
+     * divided among threads.
+     *
+     * @param source the source neurons.
+     * @param lo the first source neuron to connect (inclusive).
+     * @param hi the last source neuron to connect (exclusive).
+     * @param target the target neurons.
+     * @param grid a grid over the target neurons.
+     * @param eeDistConst the connection constant for connections between 2 excitatory neurons.
+     * @param eiDistConst the connection constant for connection from an excitatory to an inhibitory neuron.
+     * @param ieDistConst the connection constant for connection from an inhibitory to an excitatory neuron.
+     * @param iiDistConst the connection constant for connections between 2 inhibitory neurons.
+     * @param distConst the connection constant for general connections. Used in cases where neurons have no explicit polarity.
+     * @param lambda average connection distance.
+     * @param cutoff the multiple of lambda beyond which no connections are made.
+     * @param stream the stream split for each source neuron.
+     * @param edges the list to add the connections to, or null to only count them.
+     * @return the number of connections made
+     */
+    private static int connectRadial(final List<Neuron> source, final int lo,
+        final int hi, final List<Neuron> target, final SpatialGrid grid,
+        double eeDistConst, double eiDistConst, double ieDistConst,
+        double iiDistConst, double distConst, double lambda, double cutoff,
+        SplittableRandomStream stream, EdgeList edges) {
+        SpatialGrid.Hits hits = new SpatialGrid.Hits();
+        int count = 0;
+        for (int i = lo; i < hi; i++) {
+            Neuron src = source.get(i);
+            RandomStream rand = stream.split(i);
+            grid.query(src.getX(), src.getY(), src.getZ(), cutoff * lambda,
+                hits);
+            for (int h = 0; h < hits.size; h++) {
+                Neuron tar = target.get(hits.indices[h]);
                 double probability;
                 if (src.getPolarity() == Polarity.EXCITATORY) {
                     if (tar.getPolarity() == Polarity.EXCITATORY) {
-                        probability = calcConnectProb(src, tar, eeDistConst,
-                            lambda);
+                        probability = calcConnectProb(hits.dist2[h],
+                            eeDistConst, lambda);
                     } else if (tar.getPolarity() == Polarity.INHIBITORY) {
-                        probability = calcConnectProb(src, tar, eiDistConst,
-                            lambda);
+                        probability = calcConnectProb(hits.dist2[h],
+                            eiDistConst, lambda);
                     } else {
-                        probability = calcConnectProb(src, tar, distConst,
-                            lambda);
+                        probability = calcConnectProb(hits.dist2[h],
+                            distConst, lambda);
                     }
                 } else if (src.getPolarity() == Polarity.INHIBITORY) {
                     if (tar.getPolarity() == Polarity.EXCITATORY) {
-                        probability = calcConnectProb(src, tar, ieDistConst,
-                            lambda);
+                        probability = calcConnectProb(hits.dist2[h],
+                            ieDistConst, lambda);
                     } else if (tar.getPolarity() == Polarity.INHIBITORY) {
-                        probability = calcConnectProb(src, tar, iiDistConst,
-                            lambda);
+                        probability = calcConnectProb(hits.dist2[h],
+                            iiDistConst, lambda);
                     } else {
-                        probability = calcConnectProb(src, tar, distConst,
-                            lambda);
+                        probability = calcConnectProb(hits.dist2[h],
+                            distConst, lambda);
                     }
                 } else {
-                    probability = calcConnectProb(src, tar, distConst,
+                    probability = calcConnectProb(hits.dist2[h], distConst,
                         lambda);
                 }
-                if (randVal < probability) {
-                    Synapse s = new Synapse(src, tar);
-                    synapses.add(s);
-                    if (loose) {
-                        src.getNetwork().addSynapse(s);
+                if (rand.nextDouble() < probability) {
+                    if (edges != null) {
+                        edges.add(i, hits.indices[h]);
                     }
+                    count++;
                 }
             }
         }
-        return synapses;
+        return count;
     }
 
     /**
+     * Creates a synapse for each edge of an edge list.
      *
-     * @param source the source neurons
-     * @param target the target neurons
-     * @param distConst the connection constant for general connections. Used in cases where neurons have no explicit polarity.
-     * @param lambda average connection distance.
-     * @param loose 
-     * @return array of synapses
+     * @param source the source neurons.
+     * @param target the target neurons.
+     * @param edges the connections, as indices into source and target.
+     * @param loose whether to add the synapses to the network as loose synapses.
+     * @return the synapses
      */
-    public static List<Synapse> connectRadialNoPolarity(
-        final List<Neuron> source, final List<Neuron> target, double distConst,
-        double lambda, boolean loose) {
-        // Pre-allocating assuming that if one is using this as a connector
-        // then they are probably not going to have greater than 25%
-        // connectivity
-        List<Synapse> synapses = new ArrayList<Synapse>(source.size()
-            * target.size() / 4);
-        for (Neuron src : source) {
-            for (Neuron tar : target) {
-                double randVal = Math.random();
-                double probability = calcConnectProb(src, tar, distConst,
-                    lambda);
-                if (randVal < probability) {
-                    Synapse s = new Synapse(src, tar);
-                    synapses.add(s);
-                    if (loose) {
-                        src.getNetwork().addSynapse(s);
-                    }
-                }
+    private static List<Synapse> toSynapses(final List<Neuron> source,
+        final List<Neuron> target, final EdgeList edges, boolean loose) {
+        List<Synapse> synapses = new ArrayList<Synapse>(edges.size());
+        int[] srcs = edges.getSources();
+        int[] tars = edges.getTargets();
+        for (int k = 0, n = edges.size(); k < n; k++) {
+            Synapse s = new Synapse(source.get(srcs[k]), target.get(tars[k]));
+            synapses.add(s);
+            if (loose) {
+                s.getNetwork().addSynapse(s);
             }
         }
         return synapses;
@@ -253,57 +311,55 @@ public class Radial extends Sparse {
     /**
      * {@inheritDoc} Specifically: Connects neurons based on a probability
      * function related to their distance from one another, which exponentially
-     * decays with distance.
+     * decays with distance. The connections are collected in an edge list and
+     * added to the group in bulk (see
+     * {@link SynapseGroup#addNewSynapses(int[], int[], int)}).
      */
     @Override
     public void connectNeurons(SynapseGroup synGroup) {
         this.synapseGroup = synGroup;
         List<Neuron> source = synGroup.getSourceNeurons();
         List<Neuron> target = synGroup.getTargetNeurons();
-        List<Synapse> synapses;
+        SpatialGrid grid = new SpatialGrid(target, cutoff * lambda);
+        SplittableRandomStream stream = synGroup.getRandomStream().split(
+            "Radial");
+        EdgeList edges;
         if (source.size() < 500) {
-        	synapses = connectRadialPolarized(source, target,
-        			eeDistConst, eiDistConst, ieDistConst, iiDistConst,
-        			distConst, lambda, false);
-            for (Synapse s : synapses) {
-                synGroup.addNewSynapse(s);
-            }
+            edges = new EdgeList(source.size());
+            connectRadial(source, 0, source.size(), target, grid,
+                eeDistConst, eiDistConst, ieDistConst, iiDistConst,
+                distConst, lambda, cutoff, stream, edges);
         } else {
-        	List<Callable<Collection<Synapse>>> workers =
-        			new ArrayList<Callable<Collection<Synapse>>>();
+        	List<Callable<EdgeList>> workers = new ArrayList<Callable<EdgeList>>();
         	int threads = Runtime.getRuntime().availableProcessors();
         	int idealShare = (int) Math.floor(source.size() / threads);
         	int remaining = source.size();
-        	Iterator<Neuron> srcIter = source.iterator();
-        	List<Neuron> srcChunk;
+        	int start = 0;
         	double runningPercentEx = 0;
         	for (int i = 0; i < threads; i++) {
-        		srcChunk = new ArrayList<Neuron>((int) Math.ceil((idealShare
-        				* 2) / 0.75));
         		int share;
         		if (remaining < idealShare * 2) {
         			share = remaining;
         		} else {
         			share = idealShare;
         		}
-        		int j = 0;
-        		while (j < share) {
-        			Neuron n = srcIter.next();
-        			srcChunk.add(n);
+        		for (int j = start; j < start + share; j++) {
+        			Neuron n = source.get(j);
         			if (n.isPolarized()) {
         				if (Polarity.EXCITATORY == n.getPolarity()) {
         					runningPercentEx++;
         				}
         			}
-        			j++;
         		}
-        		remaining -= j;
-        		workers.add(new ConnectorService(srcChunk, target, false));
+        		workers.add(new ConnectorService(source, start, start + share,
+        				target, grid, stream));
+        		start += share;
+        		remaining -= share;
         	}
         	runningPercentEx /= source.size();
         	synGroup.setExcitatoryRatio(runningPercentEx);
         	ExecutorService ex = Executors.newFixedThreadPool(threads);
-        	List<Future<Collection<Synapse>>> generatedSyns;
+        	List<Future<EdgeList>> generatedSyns;
         	try {
 				generatedSyns = ex.invokeAll(workers);
 				ex.shutdown();
@@ -313,24 +369,24 @@ public class Radial extends Sparse {
 				return;
 			}
         	int numSyns = 0;
-        	for (Future<Collection<Synapse>> future : generatedSyns) {
+        	for (Future<EdgeList> future : generatedSyns) {
         		try {
 					numSyns += future.get().size();
 				} catch (InterruptedException | ExecutionException e) {
 					e.printStackTrace();
 				}
         	}
-        	synGroup.preAllocateSynapses(numSyns);
-        	for (Future<Collection<Synapse>> future : generatedSyns) {
+        	edges = new EdgeList(numSyns);
+        	for (Future<EdgeList> future : generatedSyns) {
         		try {
-					for(Synapse s : future.get()) {
-						synGroup.addNewSynapse(s);
-					}
+					edges.addAll(future.get());
 				} catch (InterruptedException | ExecutionException e) {
 					e.printStackTrace();
 				}
         	}
         }
+        synGroup.addNewSynapses(edges.getSources(), edges.getTargets(),
+            edges.size());
 
         if (synGroup.isRecurrent()) {
             connectionDensity = (double) synGroup.size() /
@@ -343,22 +399,20 @@ public class Radial extends Sparse {
         }
         source = null;
         target = null;
-        synapses = null;
+        edges = null;
         Runtime.getRuntime().gc();
     }
 
     /**
      *
-     * @param src the source neuron.
-     * @param tar the target neuron.
+     * @param dist2 the squared distance between the source and target neurons.
      * @param distConst the connection constant for general connections. Used in cases where neurons have no explicit polarity.
      * @param lambda average connection distance.
      * @return
      */
-    private static double calcConnectProb(Neuron src, Neuron tar,
-        double distConst, double lambda) {
-        double dist = -getRawDist(src, tar);
-        double exp = Math.exp(dist / (lambda * lambda));
+    private static double calcConnectProb(double dist2, double distConst,
+        double lambda) {
+        double exp = Math.exp(-dist2 / (lambda * lambda));
         if (exp == 1.0) { // Same location == same neuron: cheapest way to
             // prevent self connections
             exp = 0.0;
@@ -366,22 +420,6 @@ public class Radial extends Sparse {
         return distConst * exp;
     }
 
-    /**
-     *
-     * @param n1 neuron one
-     * @param n2 neuron two
-     * @return
-     */
-    private static double getRawDist(Neuron n1, Neuron n2) {
-        double x2 = (n1.getX() - n2.getX());
-        x2 *= x2;
-        double y2 = (n1.getY() - n2.getY());
-        y2 *= y2;
-        double z2 = (n1.getZ() - n2.getZ());
-        z2 *= z2;
-        return x2 + y2 + z2;
-    }
-
     @Override
     public String toString() {
         return "Radial";
@@ -435,68 +473,59 @@ public class Radial extends Sparse {
         this.lambda = lambda;
     }
 
-    private class ConnectorService implements Callable<Collection<Synapse>> {
+    public double getCutoff() {
+        return cutoff;
+    }
+
+    public void setCutoff(double cutoff) {
+        this.cutoff = cutoff;
+    }
+
+    /**
+     * Gives connectors saved before the cutoff was added the default cutoff,
+     * since field initializers are not run on deserialization.
+     *
+     * @return this connector
+     */
+    private Object readResolve() {
+        if (cutoff == 0) {
+            cutoff = DEFAULT_CUTOFF;
+        }
+        return this;
+    }
+
+    private class ConnectorService implements Callable<EdgeList> {
     	
-    	private final Collection<Neuron> srcColl;
+    	private final List<Neuron> source;
     	
-    	private final Collection<Neuron> targColl;
+    	private final int lo;
     	
-    	private final boolean loose;
+    	private final int hi;
     	
-    	public ConnectorService(final Collection<Neuron> srcColl,
-    			final Collection<Neuron> targColl, final boolean loose) {
-    		this.srcColl = srcColl;
-    		this.targColl = targColl;
-    		this.loose = loose;
+    	private final List<Neuron> target;
+    	
+    	private final SpatialGrid grid;
+    	
+    	private final SplittableRandomStream stream;
+    	
+    	public ConnectorService(final List<Neuron> source, final int lo,
+    			final int hi, final List<Neuron> target,
+    			final SpatialGrid grid, final SplittableRandomStream stream) {
+    		this.source = source;
+    		this.lo = lo;
+    		this.hi = hi;
+    		this.target = target;
+    		this.grid = grid;
+    		this.stream = stream;
     	}
 
 		@Override
-		public Collection<Synapse> call() throws Exception {
-			// Attempting to pre-allocate... assumes that connection density
-			// will be less than #src * #tar * 0.2 or 20% connectivity
-			List<Synapse> synapses = new ArrayList<Synapse>(
-					(int) Math.ceil(srcColl.size() * targColl.size() * 0.2
-							* 0.75));
-			for (Neuron src : srcColl) {
-	            for (Neuron tar : targColl) {
-	                double randVal = ProbDistribution.UNIFORM.nextRand(0, 1);
-	                double probability;
-	                if (src.getPolarity() == Polarity.EXCITATORY) {
-	                    if (tar.getPolarity() == Polarity.EXCITATORY) {
-	                        probability = calcConnectProb(src, tar, eeDistConst,
-	                            lambda);
-	                    } else if (tar.getPolarity() == Polarity.INHIBITORY) {
-	                        probability = calcConnectProb(src, tar, eiDistConst,
-	                            lambda);
-	                    } else {
-	                        probability = calcConnectProb(src, tar, distConst,
-	                            lambda);
-	                    }
-	                } else if (src.getPolarity() == Polarity.INHIBITORY) {
-	                    if (tar.getPolarity() == Polarity.EXCITATORY) {
-	                        probability = calcConnectProb(src, tar, ieDistConst,
-	                            lambda);
-	                    } else if (tar.getPolarity() == Polarity.INHIBITORY) {
-	                        probability = calcConnectProb(src, tar, iiDistConst,
-	                            lambda);
-	                    } else {
-	                        probability = calcConnectProb(src, tar, distConst,
-	                            lambda);
-	                    }
-	                } else {
-	                    probability = calcConnectProb(src, tar, distConst,
-	                        lambda);
-	                }
-	                if (randVal < probability) {
-	                    Synapse s = new Synapse(src, tar);
-	                    synapses.add(s);
-	                    if (loose) {
-	                        src.getNetwork().addSynapse(s);
-	                    }
-	                }
-	            }
-	        }
-	        return synapses;
+		public EdgeList call() throws Exception {
+			EdgeList edges = new EdgeList(hi - lo);
+			connectRadial(source, lo, hi, target, grid, eeDistConst,
+					eiDistConst, ieDistConst, iiDistConst, distConst, lambda,
+					cutoff, stream, edges);
+	        return edges;
 		}
     	
     }
@@ -507,46 +536,12 @@ public class Radial extends Sparse {
 
         @Override
         public void run() {
-            int count = 0;
-            for (Neuron src : synapseGroup.getSourceNeurons()) {
-                for (Neuron tar : synapseGroup.getTargetNeurons()) {
-                    double randVal = Math.random();
-                    double probability;
-                    if (src.getPolarity() == Polarity.EXCITATORY) {
-                        if (tar.getPolarity() == Polarity.EXCITATORY) {
-                            probability =
-                                calcConnectProb(src, tar, eeDistConst,
-                                    lambda);
-                        } else if (tar.getPolarity() == Polarity.INHIBITORY) {
-                            probability =
-                                calcConnectProb(src, tar, eiDistConst,
-                                    lambda);
-                        } else {
-                            probability = calcConnectProb(src, tar, distConst,
-                                lambda);
-                        }
-                    } else if (src.getPolarity() == Polarity.INHIBITORY) {
-                        if (tar.getPolarity() == Polarity.EXCITATORY) {
-                            probability =
-                                calcConnectProb(src, tar, ieDistConst,
-                                    lambda);
-                        } else if (tar.getPolarity() == Polarity.INHIBITORY) {
-                            probability =
-                                calcConnectProb(src, tar, iiDistConst,
-                                    lambda);
-                        } else {
-                            probability = calcConnectProb(src, tar, distConst,
-                                lambda);
-                        }
-                    } else {
-                        probability = calcConnectProb(src, tar, distConst,
-                            lambda);
-                    }
-                    if (randVal < probability) {
-                        count++;
-                    }
-                }
-            }
+            List<Neuron> source = synapseGroup.getSourceNeurons();
+            List<Neuron> target = synapseGroup.getTargetNeurons();
+            int count = connectRadial(source, 0, source.size(), target,
+                new SpatialGrid(target, cutoff * lambda), eeDistConst,
+                eiDistConst, ieDistConst, iiDistConst, distConst, lambda,
+                cutoff, new SplittableRandomStream(), null);
             if (synapseGroup.isRecurrent()) {
                 estimateDensity = (double) count / (synapseGroup
                     .getSourceNeuronGroup().size()
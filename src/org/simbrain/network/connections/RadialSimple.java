@@ -18,13 +18,18 @@
 package org.simbrain.network.connections;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.simbrain.network.core.Network;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.Synapse;
 import org.simbrain.network.groups.SynapseGroup;
 
+import umontreal.iro.lecuyer.rng.RandomStream;
+
 /**
  * For each neuron, consider every neuron in an excitatory and inhibitory radius
  * from it, and make excitatory and inhibitory synapses with them according to
@@ -89,83 +94,65 @@ public class RadialSimple implements ConnectNeurons {
 
 
     /**
-     * Make the connections.
+     * Make the connections. Nearby neurons are found through a grid over the
+     * positions of the source neurons, so the cost depends on the number of
+     * neurons within the radii rather than on the square of the number of
+     * neurons.
      *
      * @param looseSynapses whether loose synapses are being connected.
      * @return the new synapses.
      */
     public List<Synapse> connectNeurons(final boolean looseSynapses) {
         ArrayList<Synapse> syns = new ArrayList<Synapse>();
-        for (Neuron source : sourceNeurons) {
-            makeExcitatory(source, syns, looseSynapses);
-            makeInhibitory(source, syns, looseSynapses);
-        }
-        return syns;
-    }
-
-    /**
-     * Make an inhibitory neuron, in the sense of connecting this neuron with
-     * surrounding neurons via excitatory connections.
-     *
-     * @param source source neuron
-     */
-    private void makeInhibitory(final Neuron source, List<Synapse> syns,
-            boolean looseSynapses) {
-        for (Neuron target : getNeuronsInRadius(source,
-                inhibitoryRadius)) {
-            if (!sourceNeurons.contains(target)) {
-                continue;
-            }
-            // Don't add a connection if there is already one present
-            if (Network.getSynapse(source, target) != null) {
-                continue;
-            }
-            if (!allowSelfConnections) {
-                if (source == target) {
-                    continue;
-                }
-            }
-            if (Math.random() < inhibitoryProbability) {
-                Synapse synapse = new Synapse(source, target);
-                synapse.setStrength(-1);
-                if (looseSynapses) {
-                    network.addSynapse(synapse);
-                }
-                syns.add(synapse);
+        // Only loose neurons of the network are connected
+        Set<Neuron> loose = new HashSet<Neuron>(network.getNeuronList());
+        List<Neuron> candidates = new ArrayList<Neuron>();
+        for (Neuron neuron : new LinkedHashSet<Neuron>(sourceNeurons)) {
+            if (loose.contains(neuron)) {
+                candidates.add(neuron);
             }
         }
-    }
-
-    /**
-     * Return a list of neurons in a specific radius of a specified neuron.
-     *
-     * @param source the source neuron.
-     * @param radius the radius to search within.
-     * @return list of neurons in the given radius.
-     */
-    private List<Neuron> getNeuronsInRadius(Neuron source, double radius) {
-        ArrayList<Neuron> ret = new ArrayList<Neuron>();
-        for (Neuron neuron : network.getNeuronList()) {
-            if (network.getEuclideanDist(source, neuron) < radius) {
-                ret.add(neuron);
-            }
+        SpatialGrid grid = new SpatialGrid(candidates, Math.max(
+                excitatoryRadius, inhibitoryRadius));
+        SpatialGrid.Hits hits = new SpatialGrid.Hits();
+        RandomStream stream = network.getRandomStream("RadialSimple");
+        for (Neuron source : sourceNeurons) {
+            connect(source, candidates, grid, hits, excitatoryRadius,
+                    excitatoryProbability, 1, stream, syns, looseSynapses);
+            connect(source, candidates, grid, hits, inhibitoryRadius,
+                    inhibitoryProbability, -1, stream, syns, looseSynapses);
         }
-        return ret;
+        network.fireSynapsesUpdated();
+        return syns;
     }
 
     /**
-     * Make an excitatory neuron, in the sense of connecting this neuron with
-     * surrounding neurons via excitatory connections.
+     * Connects a neuron to the candidate neurons within a radius of it, each
+     * with some probability.
      *
      * @param source source neuron
+     * @param candidates the neurons which may be connected to
+     * @param grid a grid over the candidates
+     * @param hits query results, reused
+     * @param radius the radius within which to connect
+     * @param probability the probability of each connection
+     * @param strength strength of the new synapses
+     * @param stream the source of randomness
+     * @param syns the list to add the new synapses to
+     * @param looseSynapses whether to add the synapses to the network
      */
-    private void makeExcitatory(final Neuron source, List<Synapse> syns,
-            boolean looseSynapses) {
-        for (Neuron target : getNeuronsInRadius(source,
-                excitatoryRadius)) {
-            if (!sourceNeurons.contains(target)) {
+    private void connect(final Neuron source, final List<Neuron> candidates,
+            final SpatialGrid grid, final SpatialGrid.Hits hits,
+            final double radius, final double probability,
+            final double strength, final RandomStream stream,
+            final List<Synapse> syns,
+            final boolean looseSynapses) {
+        grid.query(source.getX(), source.getY(), source.getZ(), radius, hits);
+        for (int h = 0; h < hits.size; h++) {
+            if (!(hits.dist2[h] < radius * radius)) {
                 continue;
             }
+            Neuron target = candidates.get(hits.indices[h]);
             // Don't add a connection if there is already one present
             if (Network.getSynapse(source, target) != null) {
                 continue;
@@ -175,15 +162,14 @@ public class RadialSimple implements ConnectNeurons {
                     continue;
                 }
             }
-            if (Math.random() < excitatoryProbability) {
+            if (stream.nextDouble() < probability) {
                 Synapse synapse = new Synapse(source, target);
-                synapse.setStrength(1);
+                synapse.setStrength(strength);
                 if (looseSynapses) {
                     network.addSynapse(synapse);
                 }
                 syns.add(synapse);
             }
-            network.fireSynapsesUpdated();
         }
     }
 
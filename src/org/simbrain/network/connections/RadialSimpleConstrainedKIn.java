@@ -1,13 +1,13 @@
 package org.simbrain.network.connections;
 
-import java.util.Collections;
 import java.util.List;
 
 import org.simbrain.network.core.Neuron;
-import org.simbrain.network.core.Synapse;
 import org.simbrain.network.groups.SynapseGroup;
 import org.simbrain.util.SimbrainConstants.Polarity;
 
+import umontreal.iro.lecuyer.rng.RandomStream;
+
 public class RadialSimpleConstrainedKIn extends Sparse {
     /**
      * Probability of designating a given synapse excitatory. If not, it's
@@ -58,9 +58,25 @@ public class RadialSimpleConstrainedKIn extends Sparse {
         		defactoRadius);
     }
     
+	/**
+	 * Connects each target neuron to up to kIN source neurons chosen at
+	 * random from those within its radius. Source neurons are found through a
+	 * grid over their positions, and the connections are added to the group
+	 * in bulk.
+	 */
 	@Override
 	public void connectNeurons(SynapseGroup synGroup) {
-		for (Neuron tar : synGroup.getTargetNeurons()) {
+		List<Neuron> source = synGroup.getSourceNeurons();
+		List<Neuron> target = synGroup.getTargetNeurons();
+		SpatialGrid grid = new SpatialGrid(source, Math.max(defactoRadius,
+				Math.max(excitatoryRadius, inhibitoryRadius)));
+		SpatialGrid.Hits hits = new SpatialGrid.Hits();
+		RandomStream rand = synGroup.getRandomStream().split(
+				"RadialSimpleConstrainedKIn");
+		EdgeList edges = new EdgeList(target.size()
+				* Math.max(defactoKIN, Math.max(excitatoryKIN, inhibitoryKIN)));
+		for (int t = 0, n = target.size(); t < n; t++) {
+			Neuron tar = target.get(t);
 			int radius;
 			int kIN;
 			if (tar.getPolarity() == Polarity.EXCITATORY) {
@@ -73,17 +89,24 @@ public class RadialSimpleConstrainedKIn extends Sparse {
 				radius = defactoRadius;
 				kIN = defactoKIN;
 			}
-			List<Neuron> srcNeuronsInRange = synGroup.getSourceNeuronGroup()
-					.getNeuronsInRadius(tar, radius);
-			Collections.shuffle(srcNeuronsInRange); // TODO: revisit and optimize
-			for (int i = 0; i < kIN; i++) {
-				if (i >= srcNeuronsInRange.size()) {
-					break;
+			grid.query(tar.getX(), tar.getY(), tar.getZ(), radius, hits);
+			// Partial shuffle: the first kIN hits at distance > 0 are a
+			// random choice among them
+			int chosen = 0;
+			for (int h = 0; h < hits.size && chosen < kIN; h++) {
+				int r = rand.nextInt(h, hits.size - 1);
+				int idx = hits.indices[r];
+				double d2 = hits.dist2[r];
+				hits.indices[r] = hits.indices[h];
+				hits.dist2[r] = hits.dist2[h];
+				if (d2 != 0) {
+					edges.add(idx, t);
+					chosen++;
 				}
-				Synapse s = new Synapse(srcNeuronsInRange.get(i), tar);
-				synGroup.addNewSynapse(s);
 			}
 		}
+		synGroup.addNewSynapses(edges.getSources(), edges.getTargets(),
+				edges.size());
 	}
 
 }
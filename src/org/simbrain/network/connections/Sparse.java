@@ -17,18 +17,23 @@
  */
 package org.simbrain.network.connections;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Random;
+import java.util.Set;
 
 import org.simbrain.network.core.Network;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.Synapse;
+import org.simbrain.network.groups.MappedSynapseMatrix;
 import org.simbrain.network.groups.SynapseGroup;
 import org.simbrain.util.math.SimbrainMath;
+import org.simbrain.util.math.SplittableRandomStream;
 
 import umontreal.iro.lecuyer.randvar.BinomialGen;
+import umontreal.iro.lecuyer.rng.RandomStream;
 
 /**
  * A superclass for all connectors whose primary parameter is related to base
@@ -145,7 +150,8 @@ public class Sparse implements ConnectNeurons {
     public List<Synapse> connectSparse(List<Neuron> sourceNeurons,
         List<Neuron> targetNeurons) {
         return connectSparse(sourceNeurons, targetNeurons, connectionDensity,
-            selfConnectionAllowed, equalizeEfferents, true);
+            selfConnectionAllowed, equalizeEfferents, true,
+            getRandomStream(sourceNeurons, "Sparse"));
     }
 
     /**
@@ -160,19 +166,19 @@ public class Sparse implements ConnectNeurons {
      * @param equalizeEfferents whether or not the number of efferents of each
      *            source neurons should be equalized.
      * @param looseSynapses are these loose synapses
+     * @param stream the stream the connections are drawn from
      * @return the new synapses
      */
     public static List<Synapse> connectSparse(List<Neuron> sourceNeurons,
         List<Neuron> targetNeurons, double sparsity,
         boolean selfConnectionAllowed, boolean equalizeEfferents,
-        boolean looseSynapses) {
+        boolean looseSynapses, RandomStream stream) {
         boolean recurrent = ConnectionUtilities.testRecurrence(sourceNeurons,
             targetNeurons);
         Neuron source;
         Neuron target;
         Synapse synapse;
         ArrayList<Synapse> syns = new ArrayList<Synapse>();
-        Random rand = new Random(System.nanoTime());
         if (equalizeEfferents) {
             ArrayList<Integer> targetList = new ArrayList<Integer>();
             ArrayList<Integer> tListCopy;
@@ -208,9 +214,9 @@ public class Sparse implements ConnectNeurons {
                         }
                         tListCopy.add(targetList.get(k));
                     }
-                    randShuffleK(tListCopy, synsPerSource, rand);
+                    randShuffleK(tListCopy, synsPerSource, stream);
                 } else {
-                    randShuffleK(targetList, synsPerSource, rand);
+                    randShuffleK(targetList, synsPerSource, stream);
                     tListCopy = targetList;
                 }
 
@@ -229,7 +235,7 @@ public class Sparse implements ConnectNeurons {
                     if (!selfConnectionAllowed && recurrent && i == j) {
                         continue;
                     } else {
-                        if (Math.random() < sparsity) {
+                        if (stream.nextDouble() < sparsity) {
                             source = sourceNeurons.get(i);
                             target = targetNeurons.get(j);
                             synapse = new Synapse(source, target);
@@ -253,6 +259,11 @@ public class Sparse implements ConnectNeurons {
      */
     public void connectNeurons(SynapseGroup synapseGroup) {
         this.synapseGroup = synapseGroup;
+        if (synapseGroup.getMappedStorage() != null) {
+            setPermitDensityEditing(false);
+            connectMapped(synapseGroup);
+            return;
+        }
         boolean recurrent = synapseGroup.isRecurrent();
         int numSrc = synapseGroup.getSourceNeurons().size();
         int numTar = synapseGroup.getTargetNeurons().size();
@@ -262,15 +273,20 @@ public class Sparse implements ConnectNeurons {
         targetNeurons = recurrent ? sourceNeurons : synapseGroup
             .getTargetNeurons().toArray(new Neuron[numTar]);
         if (isPermitDensityEditing()) {
-            generateSparseOrdering(recurrent);
+            RandomStream stream = synapseGroup.getRandomStream().split(
+                "Sparse");
+            generateSparseOrdering(recurrent, stream);
             if (equalizeEfferents) {
                 connectEqualized(synapseGroup);
             } else {
-                connectRandom(synapseGroup);
+                connectRandom(synapseGroup, stream);
             }
         } else {
-            List<Synapse> syns = this.connectSparse(synapseGroup
-                    .getSourceNeurons(), synapseGroup.getTargetNeurons());
+            List<Synapse> syns = connectSparse(synapseGroup
+                    .getSourceNeurons(), synapseGroup.getTargetNeurons(),
+                    connectionDensity, selfConnectionAllowed,
+                    equalizeEfferents, true, synapseGroup.getRandomStream()
+                    .split("Sparse"));
             for (Synapse s : syns) {
                 synapseGroup.addNewSynapse(s);
             }
@@ -324,7 +340,8 @@ public class Sparse implements ConnectNeurons {
      *
      * @param synapseGroup
      */
-    private void connectRandom(SynapseGroup synapseGroup) {
+    private void connectRandom(SynapseGroup synapseGroup,
+            RandomStream stream) {
         currentOrderingIndices = new int[sourceNeurons.length];
         int numTars =
             synapseGroup.isRecurrent() && !selfConnectionAllowed
@@ -333,14 +350,13 @@ public class Sparse implements ConnectNeurons {
         synapseGroup
             .preAllocateSynapses((int) (sourceNeurons.length * numTars * connectionDensity));
         for (int i = 0, n = sourceNeurons.length; i < n; i++) {
-            currentOrderingIndices[i] = BinomialGen.nextInt(
-                SimbrainMath.DEFAULT_RANDOM_STREAM, numTars,
+            currentOrderingIndices[i] = BinomialGen.nextInt(stream, numTars,
                 connectionDensity);
             Neuron src = sourceNeurons[i];
             Neuron tar;
             int tarLen = targetNeurons.length - 1;
             int [] o = SimbrainMath.randPermuteWithExclusion(0,
-                    tarLen + 1, i);
+                    tarLen + 1, i, stream);
             for (int j = 0; j < currentOrderingIndices[i]; j++) {
                 tar = targetNeurons[o[j]];
                 Synapse s = new Synapse(src, tar);
@@ -350,24 +366,115 @@ public class Sparse implements ConnectNeurons {
 
     }
 
+    /**
+     * Populates the synapse group by writing connections straight into its
+     * mapped storage (see
+     * {@link SynapseGroup#setMappedStorage(java.io.File)}), without creating
+     * synapse objects. Targets are chosen for each source as in
+     * {@link #connectEqualized(SynapseGroup)} or
+     * {@link #connectRandom(SynapseGroup, RandomStream)}, but storage is
+     * ordered by target, so the choices are made twice from the same random stream: once to
+     * count the synapses onto each target and once to write them. Density
+     * editing is not supported for such groups.
+     *
+     * @param synapseGroup the synapse group to connect
+     */
+    private void connectMapped(SynapseGroup synapseGroup) {
+        int numSrc = synapseGroup.getSourceNeuronGroup().size();
+        int numTar = synapseGroup.getTargetNeuronGroup().size();
+        boolean excludeSelf = synapseGroup.isRecurrent()
+                && !selfConnectionAllowed;
+        int numCandidates = excludeSelf ? numTar - 1 : numTar;
+        RandomStream stream = synapseGroup.getRandomStream().split("Sparse");
+        int[] chosen = new int[numCandidates];
+        Set<Integer> taken = new HashSet<Integer>();
+        int[] rowLengths = new int[numTar];
+        for (int i = 0; i < numSrc; i++) {
+            int n = chooseTargets(stream, i, numCandidates, excludeSelf,
+                    chosen, taken);
+            for (int j = 0; j < n; j++) {
+                rowLengths[chosen[j]]++;
+            }
+        }
+        try {
+            MappedSynapseMatrix.Writer writer = synapseGroup
+                    .createMappedWriter(rowLengths);
+            int[] fill = new int[numTar];
+            System.arraycopy(writer.getRowPointers(), 0, fill, 0, numTar);
+            stream.resetStartStream();
+            for (int i = 0; i < numSrc; i++) {
+                int n = chooseTargets(stream, i, numCandidates, excludeSelf,
+                        chosen, taken);
+                for (int j = 0; j < n; j++) {
+                    synapseGroup.writeNewSynapse(writer, fill[chosen[j]]++, i);
+                }
+            }
+            synapseGroup.setCompressedMatrix(writer.finish());
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write the connections"
+                    + " of synapse group " + synapseGroup.getLabel() + " to "
+                    + synapseGroup.getMappedStorage(), e);
+        }
+    }
+
+    /**
+     * Chooses distinct targets for a source neuron using Floyd's algorithm,
+     * drawing every random number from the given stream so that the choice
+     * can be repeated by resetting it.
+     *
+     * @param stream the random stream
+     * @param source index of the source neuron
+     * @param numCandidates number of targets to choose from
+     * @param excludeSelf whether the target with the same index as the source
+     *            is excluded
+     * @param chosen array receiving the indices of the chosen targets
+     * @param taken scratch set
+     * @return the number of targets chosen
+     */
+    private int chooseTargets(RandomStream stream, int source,
+            int numCandidates, boolean excludeSelf, int[] chosen,
+            Set<Integer> taken) {
+        int count;
+        if (equalizeEfferents) {
+            count = (int) (connectionDensity * numCandidates);
+        } else {
+            count = BinomialGen.nextInt(stream, numCandidates,
+                    connectionDensity);
+        }
+        taken.clear();
+        int n = 0;
+        for (int j = numCandidates - count; j < numCandidates; j++) {
+            int t = stream.nextInt(0, j);
+            if (!taken.add(t)) {
+                t = j;
+                taken.add(t);
+            }
+            chosen[n++] = excludeSelf && t >= source ? t + 1 : t;
+        }
+        return n;
+    }
+
     /**
      *
      * @param recurrent
+     * @param stream the source of randomness
      */
-    private void generateSparseOrdering(boolean recurrent) {
+    private void generateSparseOrdering(boolean recurrent,
+            RandomStream stream) {
         int srcLen = sourceNeurons.length;
         if (recurrent && !selfConnectionAllowed) {
             int tarLen = targetNeurons.length - 1;
             sparseOrdering = new int[sourceNeurons.length][tarLen];
             for (int i = 0; i < srcLen; i++) {
                 sparseOrdering[i] = SimbrainMath.randPermuteWithExclusion(0,
-                    tarLen + 1, i);
+                    tarLen + 1, i, stream);
             }
         } else {
             int tarLen = targetNeurons.length;
             sparseOrdering = new int[sourceNeurons.length][tarLen];
             for (int i = 0; i < srcLen; i++) {
-                sparseOrdering[i] = SimbrainMath.randPermute(0, tarLen);
+                sparseOrdering[i] = SimbrainMath.randPermute(0, tarLen,
+                    stream);
             }
         }
     }
@@ -381,13 +488,30 @@ public class Sparse implements ConnectNeurons {
      * @param inds a list of integers. This methods WILL shuffle inds, so pass a
      *            copy unless inds being shuffled is not a problem.
      * @param k how many elements will be shuffled
-     * @param rand a random number generator
+     * @param stream the stream the swaps are drawn from
      */
     public static void
-        randShuffleK(ArrayList<Integer> inds, int k, Random rand) {
+        randShuffleK(ArrayList<Integer> inds, int k, RandomStream stream) {
         for (int i = 0; i < k; i++) {
-            Collections.swap(inds, i, rand.nextInt(inds.size()));
+            Collections.swap(inds, i, stream.nextInt(0, inds.size() - 1));
+        }
+    }
+
+    /**
+     * Returns the stream used to connect loose neurons: the stream stored
+     * under the given key in the network the source neurons belong to, or an
+     * unseeded stream if there is none.
+     *
+     * @param source the source neurons
+     * @param key the key of the stream in the network
+     * @return the stream
+     */
+    public static SplittableRandomStream getRandomStream(
+        final List<Neuron> source, final String key) {
+        if (source.isEmpty() || source.get(0).getNetwork() == null) {
+            return new SplittableRandomStream();
         }
+        return source.get(0).getNetwork().getRandomStream(key);
     }
 
     /**
@@ -419,7 +543,7 @@ public class Sparse implements ConnectNeurons {
         } else {
             for (int i = 0, n = sourceNeurons.length; i < n; i++) {
                 int numToRemove = BinomialGen.nextInt(
-                    SimbrainMath.DEFAULT_RANDOM_STREAM, synapseGroup
+                    synapseGroup.getRandomStream(), synapseGroup
                         .getTargetNeuronGroup().size(), newSparsity);
                 if (numToRemove < currentOrderingIndices[i]) {
                     List<Synapse> remove = decreaseDensity(i, numToRemove);
@@ -471,7 +595,7 @@ public class Sparse implements ConnectNeurons {
         } else {
             for (int i = 0, n = sourceNeurons.length; i < n; i++) {
                 int numToAdd = BinomialGen.nextInt(
-                    SimbrainMath.DEFAULT_RANDOM_STREAM, synapseGroup
+                    synapseGroup.getRandomStream(), synapseGroup
                         .getTargetNeuronGroup().size(), newSparsity);
                 int finalNumConPerSource =
                     numToAdd >= currentOrderingIndices[i]
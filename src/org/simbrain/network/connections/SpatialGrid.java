@@ -0,0 +1,249 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.connections;
+
+import java.util.List;
+
+import org.simbrain.network.core.Neuron;
+
+/**
+ * A uniform grid over the (x, y, z) positions of a list of neurons, used to
+ * find the neurons near a point without checking every neuron. Neurons are
+ * sorted by cell, so each cell is a contiguous run of indices. Cells are at
+ * least as large as the radius the grid is built for, so a query within that
+ * radius looks at no more than 27 cells, but are made larger if needed to
+ * keep the number of cells proportional to the number of neurons.
+ *
+ * Positions are read once when the grid is built. Queries do not change the
+ * grid, so one grid can be shared by several threads, each with its own
+ * {@link Hits}.
+ */
+final class SpatialGrid {
+
+    /** Position of each neuron, by index in the list. */
+    private final double[] xs;
+
+    /** Position of each neuron, by index in the list. */
+    private final double[] ys;
+
+    /** Position of each neuron, by index in the list. */
+    private final double[] zs;
+
+    /** Lower corner of the grid. */
+    private final double minX;
+
+    /** Lower corner of the grid. */
+    private final double minY;
+
+    /** Lower corner of the grid. */
+    private final double minZ;
+
+    /** Edge length of a cell. */
+    private final double cellSize;
+
+    /** Number of cells along each axis. */
+    private final int nx;
+
+    /** Number of cells along each axis. */
+    private final int ny;
+
+    /** Number of cells along each axis. */
+    private final int nz;
+
+    /** The neurons of cell c are order[cellStart[c]..cellStart[c + 1]). */
+    private final int[] cellStart;
+
+    /** Neuron indices sorted by cell. */
+    private final int[] order;
+
+    /**
+     * Builds a grid over the current positions of the neurons.
+     *
+     * @param neurons
+     *            the neurons; query results are indices into this list
+     * @param radius
+     *            the radius which will usually be queried
+     */
+    SpatialGrid(final List<Neuron> neurons, final double radius) {
+        int n = neurons.size();
+        xs = new double[n];
+        ys = new double[n];
+        zs = new double[n];
+        double x0 = Double.POSITIVE_INFINITY;
+        double y0 = Double.POSITIVE_INFINITY;
+        double z0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY;
+        double y1 = Double.NEGATIVE_INFINITY;
+        double z1 = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            Neuron neuron = neurons.get(i);
+            xs[i] = neuron.getX();
+            ys[i] = neuron.getY();
+            zs[i] = neuron.getZ();
+            x0 = Math.min(x0, xs[i]);
+            y0 = Math.min(y0, ys[i]);
+            z0 = Math.min(z0, zs[i]);
+            x1 = Math.max(x1, xs[i]);
+            y1 = Math.max(y1, ys[i]);
+            z1 = Math.max(z1, zs[i]);
+        }
+        if (n == 0) {
+            x0 = y0 = z0 = x1 = y1 = z1 = 0;
+        }
+        minX = x0;
+        minY = y0;
+        minZ = z0;
+        double size = radius > 0 ? radius : 1;
+        while (cells(x1 - x0, size) * cells(y1 - y0, size)
+                * cells(z1 - z0, size) > 2L * n + 1) {
+            size *= 2;
+        }
+        cellSize = size;
+        nx = (int) cells(x1 - x0, size);
+        ny = (int) cells(y1 - y0, size);
+        nz = (int) cells(z1 - z0, size);
+
+        // Counting sort of the neurons by cell
+        int[] cellOf = new int[n];
+        cellStart = new int[nx * ny * nz + 1];
+        for (int i = 0; i < n; i++) {
+            cellOf[i] = (cell(zs[i], minZ, nz) * ny
+                    + cell(ys[i], minY, ny)) * nx + cell(xs[i], minX, nx);
+            cellStart[cellOf[i] + 1]++;
+        }
+        for (int c = 0; c < cellStart.length - 1; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] fill = cellStart.clone();
+        order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[fill[cellOf[i]]++] = i;
+        }
+    }
+
+    /**
+     * @param extent
+     *            extent of the neurons along an axis
+     * @param size
+     *            a cell size
+     * @return the number of cells needed along that axis
+     */
+    private static long cells(final double extent, final double size) {
+        return (long) Math.floor(extent / size) + 1;
+    }
+
+    /**
+     * @param v
+     *            a coordinate
+     * @param min
+     *            lower corner of the grid along its axis
+     * @param num
+     *            number of cells along the axis
+     * @return the index of the cell containing the coordinate, clamped to the
+     *         grid
+     */
+    private int cell(final double v, final double min, final int num) {
+        int c = (int) Math.floor((v - min) / cellSize);
+        return c < 0 ? 0 : (c >= num ? num - 1 : c);
+    }
+
+    /**
+     * Finds the neurons within a radius of a point, i.e. those whose squared
+     * distance from it is at most radius squared, in no particular order.
+     *
+     * @param x
+     *            the point
+     * @param y
+     *            the point
+     * @param z
+     *            the point
+     * @param radius
+     *            the radius
+     * @param hits
+     *            cleared, then filled with the indices and squared distances
+     *            of the neurons found
+     */
+    void query(final double x, final double y, final double z,
+            final double radius, final Hits hits) {
+        hits.size = 0;
+        if (!(radius >= 0) || order.length == 0) {
+            return;
+        }
+        double r2 = radius * radius;
+        int cx0 = cell(x - radius, minX, nx);
+        int cx1 = cell(x + radius, minX, nx);
+        int cy0 = cell(y - radius, minY, ny);
+        int cy1 = cell(y + radius, minY, ny);
+        int cz0 = cell(z - radius, minZ, nz);
+        int cz1 = cell(z + radius, minZ, nz);
+        for (int cz = cz0; cz <= cz1; cz++) {
+            for (int cy = cy0; cy <= cy1; cy++) {
+                int row = (cz * ny + cy) * nx;
+                for (int k = cellStart[row + cx0], end = cellStart[row + cx1
+                        + 1]; k < end; k++) {
+                    int i = order[k];
+                    double dx = xs[i] - x;
+                    double dy = ys[i] - y;
+                    double dz = zs[i] - z;
+                    double d2 = dx * dx + dy * dy + dz * dz;
+                    if (d2 <= r2) {
+                        hits.add(i, d2);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The result of a query. Reused from query to query so that searching
+     * does not allocate.
+     */
+    static final class Hits {
+
+        /** Indices of the neurons found; the first {@link #size} are valid. */
+        int[] indices = new int[16];
+
+        /** Squared distance of each neuron found. */
+        double[] dist2 = new double[16];
+
+        /** Number of neurons found. */
+        int size;
+
+        /**
+         * @param i
+         *            index of a neuron
+         * @param d2
+         *            its squared distance from the query point
+         */
+        private void add(final int i, final double d2) {
+            if (size == indices.length) {
+                int length = indices.length * 2;
+                int[] newIndices = new int[length];
+                double[] newDist2 = new double[length];
+                System.arraycopy(indices, 0, newIndices, 0, size);
+                System.arraycopy(dist2, 0, newDist2, 0, size);
+                indices = newIndices;
+                dist2 = newDist2;
+            }
+            indices[size] = i;
+            dist2[size++] = d2;
+        }
+    }
+
+}
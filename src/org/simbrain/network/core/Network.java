@@ -26,6 +26,8 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -43,12 +45,15 @@ import org.simbrain.network.listeners.SynapseListener;
 import org.simbrain.network.listeners.TextListener;
 import org.simbrain.network.neuron_update_rules.interfaces.BiasedUpdateRule;
 import org.simbrain.network.update_actions.ConcurrentBufferedUpdate;
+import org.simbrain.network.update_actions.EventDrivenUpdate;
+import org.simbrain.network.update_actions.ForkJoinBufferedUpdate;
 import org.simbrain.network.update_actions.CustomUpdate;
 import org.simbrain.util.SimbrainConstants.Polarity;
 import org.simbrain.util.SimbrainPreferences;
 import org.simbrain.util.SimbrainPreferences.PropertyNotFoundException;
 import org.simbrain.util.SimpleId;
 import org.simbrain.util.math.SimbrainMath;
+import org.simbrain.util.math.SplittableRandomStream;
 
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.io.xml.DomDriver;
@@ -159,6 +164,23 @@ public class Network {
      */
     private volatile boolean fireUpdates = true;
 
+    /**
+     * Seed of the random streams handed out by
+     * {@link #getRandomStream(String)}. Chosen at random when first needed
+     * unless set, and saved with the network.
+     */
+    private Long randomSeed;
+
+    /** The random streams handed out so far, by key. */
+    private transient ConcurrentMap<String, SplittableRandomStream> randomStreams =
+            new ConcurrentHashMap<String, SplittableRandomStream>();
+
+    /**
+     * Incremented whenever the random streams are restarted, so objects which
+     * cache their stream know to look it up again.
+     */
+    private transient volatile int randomStreamEpoch;
+
     /** Static initializer */
     {
         try {
@@ -186,10 +208,7 @@ public class Network {
     		networkListeners.get(i).setUpdateComplete(false);
     	}
         // Perform update
-    	for (int i = 0, n = updateManager.getActionList().size(); i < n;
-    			i++) {
-    		updateManager.getActionList().get(i).invoke();
-    	}
+    	updateManager.invokeActions();
 
     	if (fireUpdates) {
     	    // Fire update events for GUI update. Loose items, then groups.
@@ -207,6 +226,62 @@ public class Network {
         setUpdateCompleted(true);
     }
 
+    /**
+     * Returns the random stream for a key, such as the id of a neuron or
+     * group. Each key has its own stream, split from the network's seed (see
+     * {@link SplittableRandomStream#split(String)}), so the numbers an object
+     * draws do not depend on what other objects draw or on which threads
+     * they are updated in. The same key always gets the same stream object,
+     * which like any stream must only be used by one thread at a time.
+     *
+     * @param key
+     *            the key, e.g. a neuron or group id
+     * @return the stream for that key
+     */
+    public SplittableRandomStream getRandomStream(final String key) {
+        SplittableRandomStream stream = randomStreams.get(key);
+        if (stream == null) {
+            SplittableRandomStream created = new SplittableRandomStream(
+                    getRandomSeed()).split(String.valueOf(key));
+            stream = randomStreams.putIfAbsent(key, created);
+            if (stream == null) {
+                stream = created;
+            }
+        }
+        return stream;
+    }
+
+    /**
+     * Sets the seed of the network's random streams and restarts them all.
+     * Running the same simulation again after setting the same seed gives
+     * exactly the same results, even with parallel update actions.
+     *
+     * @param seed
+     *            the seed
+     */
+    public synchronized void setRandomSeed(final long seed) {
+        randomSeed = seed;
+        randomStreams.clear();
+        randomStreamEpoch++;
+    }
+
+    /**
+     * @return the number of times the random streams have been restarted
+     */
+    int getRandomStreamEpoch() {
+        return randomStreamEpoch;
+    }
+
+    /**
+     * @return the seed of the network's random streams
+     */
+    public synchronized long getRandomSeed() {
+        if (randomSeed == null) {
+            randomSeed = new SplittableRandomStream().getSeed();
+        }
+        return randomSeed;
+    }
+
     /**
      * Update all neuron groups and other groups.
      */
@@ -970,11 +1045,36 @@ public class Network {
         xstream.omitField(ConcurrentBufferedUpdate.class, "collectorThread");
         xstream.omitField(ConcurrentBufferedUpdate.class,
                 "synchronizingBarrier");
+        xstream.omitField(ForkJoinBufferedUpdate.class, "network");
+        xstream.omitField(ForkJoinBufferedUpdate.class, "neurons");
+        xstream.omitField(ForkJoinBufferedUpdate.class, "unitStart");
+        xstream.omitField(ForkJoinBufferedUpdate.class, "costs");
+        xstream.omitField(ForkJoinBufferedUpdate.class, "neuronGroups");
+        xstream.omitField(ForkJoinBufferedUpdate.class, "chunkCost");
+        xstream.omitField(ForkJoinBufferedUpdate.class, "listening");
+        xstream.omitField(ForkJoinBufferedUpdate.class, "stale");
+        xstream.omitField(ForkJoinBufferedUpdate.class, "groupListener");
+        xstream.omitField(ForkJoinBufferedUpdate.class, "neuronListener");
+        xstream.omitField(EventDrivenUpdate.class, "network");
+        xstream.omitField(EventDrivenUpdate.class, "neurons");
+        xstream.omitField(EventDrivenUpdate.class, "learns");
+        xstream.omitField(EventDrivenUpdate.class, "neuronGroups");
+        xstream.omitField(EventDrivenUpdate.class, "propagator");
+        xstream.omitField(EventDrivenUpdate.class, "listening");
+        xstream.omitField(EventDrivenUpdate.class, "stale");
+        xstream.omitField(EventDrivenUpdate.class, "groupListener");
+        xstream.omitField(EventDrivenUpdate.class, "neuronListener");
+        xstream.omitField(EventDrivenUpdate.class, "synapseListener");
         xstream.omitField(CustomUpdate.class, "interpreter");
         xstream.omitField(CustomUpdate.class, "theAction");
 
         xstream.omitField(SynapseGroup.class, "exTemp");
         xstream.omitField(SynapseGroup.class, "inTemp");
+        xstream.omitField(SynapseGroup.class, "compressedMatrix");
+        xstream.omitField(SynapseGroup.class, "traceLearner");
+        xstream.omitField(SynapseGroup.class, "srcActBuffer");
+        xstream.omitField(SynapseGroup.class, "srcSpikeBuffer");
+        xstream.omitField(SynapseGroup.class, "tarInputBuffer");
         xstream.omitField(Sparse.class, "sparseOrdering");
         xstream.omitField(Sparse.class, "currentOrderingIndices");
         xstream.omitField(Sparse.class, "sourceNeurons");
@@ -982,6 +1082,11 @@ public class Network {
 
         xstream.omitField(Neuron.class, "fanOut");
         xstream.omitField(Neuron.class, "fanIn");
+        xstream.omitField(Neuron.class, "stateStore");
+        xstream.omitField(Neuron.class, "storeIndex");
+        xstream.omitField(Neuron.class, "propagator");
+        xstream.omitField(Neuron.class, "propagatorIndex");
+        xstream.omitField(NeuronGroup.class, "stateStore");
 
         // TODO: Backwards compatible
         xstream.omitField(Synapse.class, "sendWeightedInput");
@@ -999,6 +1104,7 @@ public class Network {
     private Object readResolve() {
 
     	fireUpdates = true;
+    	randomStreams = new ConcurrentHashMap<String, SplittableRandomStream>();
     	
         // Initialize listener lists
         networkListeners = new ArrayList<NetworkListener>();
@@ -1015,6 +1121,13 @@ public class Network {
             neuron.postUnmarshallingInit();
         }
 
+        // Rebuild packed state stores
+        for (Group group : this.getFlatGroupList()) {
+            if (group instanceof NeuronGroup) {
+                ((NeuronGroup) group).postUnmarshallingInit();
+            }
+        }
+
         // Uncompress compressed matrix rep if needed
         for (SynapseGroup group : this.getSynapseGroups()) {
             group.postUnmarshallingInit();
@@ -1036,6 +1149,11 @@ public class Network {
         for (SynapseGroup group : this.getSynapseGroups()) {
             group.preSaveInit();
         }
+        for (Group group : this.getFlatGroupList()) {
+            if (group instanceof NeuronGroup) {
+                ((NeuronGroup) group).preSaveInit();
+            }
+        }
     }
 
     /**
@@ -1586,6 +1704,16 @@ public class Network {
         neuronListeners.add(listener);
     }
 
+    /**
+     * Remove a neuron listener.
+     *
+     * @param neuronListener
+     *            the observer to remove
+     */
+    public void removeNeuronListener(NeuronListener neuronListener) {
+        neuronListeners.remove(neuronListener);
+    }
+
     /**
      * Register a synapse listener.
      *
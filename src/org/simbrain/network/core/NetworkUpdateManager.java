@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 
 import org.simbrain.network.groups.Group;
 import org.simbrain.network.groups.NeuronGroup;
@@ -29,6 +30,8 @@ import org.simbrain.network.listeners.GroupAdapter;
 import org.simbrain.network.listeners.NetworkEvent;
 import org.simbrain.network.update_actions.BufferedUpdate;
 import org.simbrain.network.update_actions.ConcurrentBufferedUpdate;
+import org.simbrain.network.update_actions.EventDrivenUpdate;
+import org.simbrain.network.update_actions.ForkJoinBufferedUpdate;
 import org.simbrain.network.update_actions.CustomUpdate;
 import org.simbrain.network.update_actions.NeuronGroupRecorder;
 import org.simbrain.network.update_actions.PriorityUpdate;
@@ -59,6 +62,15 @@ public class NetworkUpdateManager {
     /** Reference to parent network. */
     private final Network network;
 
+    /**
+     * If true, actions which do not depend on each other are run concurrently
+     * (see {@link #setParallel(boolean)}).
+     */
+    private boolean parallel;
+
+    /** Schedules the actions when running in parallel. Created when needed. */
+    private transient ParallelUpdateScheduler scheduler;
+
     /**
      * Construct a new update manager.
      *
@@ -80,6 +92,18 @@ public class NetworkUpdateManager {
     public void postUnmarshallingInit() {
         listeners = new ArrayList<UpdateManagerListener>();
         addListeners();
+        // Fork/join and event driven updates are re-created in place so they
+        // listen to the loaded network
+        ListIterator<NetworkUpdateAction> listeningActions = actionList
+                .listIterator();
+        while (listeningActions.hasNext()) {
+            NetworkUpdateAction nua = listeningActions.next();
+            if (nua instanceof ForkJoinBufferedUpdate) {
+                listeningActions.set(new ForkJoinBufferedUpdate(network));
+            } else if (nua instanceof EventDrivenUpdate) {
+                listeningActions.set(new EventDrivenUpdate(network));
+            }
+        }
         Iterator<NetworkUpdateAction> actions = actionList.iterator();
         // TODO: Hack-y solution. Revisit this.
         while (actions.hasNext()) {
@@ -135,6 +159,8 @@ public class NetworkUpdateManager {
         availableActionList.add(new PriorityUpdate(network));
         availableActionList.add(ConcurrentBufferedUpdate
                 .createConcurrentBufferedUpdate(network));
+        availableActionList.add(new ForkJoinBufferedUpdate(network));
+        availableActionList.add(new EventDrivenUpdate(network));
 
         // Add update actions for all groups available
         for (Group group : network.getGroupList()) {
@@ -234,6 +260,11 @@ public class NetworkUpdateManager {
      */
     public void removeAction(NetworkUpdateAction action) {
         actionList.remove(action);
+        if (action instanceof ForkJoinBufferedUpdate) {
+            ((ForkJoinBufferedUpdate) action).shutdown();
+        } else if (action instanceof EventDrivenUpdate) {
+            ((EventDrivenUpdate) action).shutdown();
+        }
         for (UpdateManagerListener listener : listeners) {
             listener.actionRemoved(action);
         }
@@ -264,6 +295,50 @@ public class NetworkUpdateManager {
         void actionOrderChanged();
     }
 
+    /**
+     * Invokes every action once, in order or, in parallel mode, concurrently
+     * where the order cannot matter.
+     */
+    public void invokeActions() {
+        if (parallel) {
+            if (scheduler == null) {
+                scheduler = new ParallelUpdateScheduler(network);
+            }
+            scheduler.invoke(actionList);
+            return;
+        }
+        for (int i = 0, n = actionList.size(); i < n; i++) {
+            actionList.get(i).invoke();
+        }
+    }
+
+    /**
+     * Sets whether actions are run in parallel. In parallel mode the manager
+     * works out which group updates depend on each other, from the synapses
+     * and synapse groups between their neuron groups and from their order in
+     * the action list, and runs independent ones concurrently in waves. The
+     * result is the same as a serial update. Actions other than group updates
+     * (e.g. buffered, priority and custom updates) still run alone and in
+     * order. Worthwhile for networks made of many loosely coupled groups.
+     *
+     * @param parallel
+     *            true to run independent actions concurrently
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+        if (!parallel && scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * @return true if independent actions are run concurrently
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
     /**
      * Remove all actions completely.
      */
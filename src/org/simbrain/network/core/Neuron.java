@@ -33,6 +33,7 @@ import org.simbrain.network.neuron_update_rules.interfaces.ActivityGenerator;
 import org.simbrain.network.neuron_update_rules.interfaces.BiasedUpdateRule;
 import org.simbrain.network.neuron_update_rules.interfaces.BoundedUpdateRule;
 import org.simbrain.util.SimbrainConstants.Polarity;
+import org.simbrain.util.math.SplittableRandomStream;
 
 /**
  * <b>Neuron</b> represents a node in the neural network. Most of the "logic" of
@@ -100,6 +101,12 @@ public class Neuron {
     /** Reference to network this neuron is part of. */
     private final Network parent;
 
+    /** This neuron's random stream, cached from the parent network. */
+    private transient SplittableRandomStream randomStream;
+
+    /** The parent's stream epoch when {@link #randomStream} was cached. */
+    private transient int randomStreamEpoch;
+
     /** List of synapses this neuron attaches to. */
     private Map<Neuron, Synapse> fanOut = new HashMap<Neuron, Synapse>(
             PRE_ALLOCATED_NUM_SYNAPSES);
@@ -151,7 +158,27 @@ public class Neuron {
      * values can be useful in scripts.
      */
     private double auxValue;
-    
+
+    /**
+     * Packed state store backing this neuron's activation, buffer, input and
+     * spike values, or null if those values are held in this object's own
+     * fields. See {@link NeuronStateStore}.
+     */
+    private NeuronStateStore stateStore;
+
+    /** This neuron's slot in {@link #stateStore}, if bound. */
+    private int storeIndex;
+
+    /**
+     * Event-driven propagator supplying this neuron's synaptic input, or null
+     * if synaptic input is pulled from the fan-in each update. See
+     * {@link SpikePropagator}.
+     */
+    private SpikePropagator propagator;
+
+    /** This neuron's target index in {@link #propagator}, if bound. */
+    private int propagatorIndex;
+
     /**
      * Construct a neuron with all default values in the specified network.
      * Sometimes used as the basis for a template neuron which will be edited
@@ -331,6 +358,8 @@ public class Neuron {
     public void setActivation(final double act) {
         if (isClamped()) {
             return;
+        } else if (stateStore != null) {
+            stateStore.setActivation(storeIndex, act);
         } else {
             activation = act;
         }
@@ -357,13 +386,20 @@ public class Neuron {
      *            the new activation value
      */
     public void forceSetActivation(final double act) {
-        activation = act;
+        if (stateStore != null) {
+            stateStore.setActivation(storeIndex, act);
+        } else {
+            activation = act;
+        }
     }
 
     /**
      * @return the level of activation.
      */
     public double getActivation() {
+        if (stateStore != null) {
+            return stateStore.getActivation(storeIndex);
+        }
         return activation;
     }
 
@@ -374,6 +410,24 @@ public class Neuron {
         return id;
     }
 
+    /**
+     * Returns this neuron's own random stream, split from its network's seed
+     * by the neuron's id (see {@link Network#getRandomStream(String)}).
+     * Update rules draw their noise from it, so seeded runs give the same
+     * results however neurons are divided among threads. The stream is
+     * cached until the id or the network's seed changes.
+     *
+     * @return the neuron's random stream
+     */
+    public SplittableRandomStream getRandomStream() {
+        int epoch = parent.getRandomStreamEpoch();
+        if (randomStream == null || randomStreamEpoch != epoch) {
+            randomStream = parent.getRandomStream(id);
+            randomStreamEpoch = epoch;
+        }
+        return randomStream;
+    }
+
     /**
      * Sets the id of the neuron.
      *
@@ -382,6 +436,7 @@ public class Neuron {
      */
     public void setId(final String theName) {
         id = theName;
+        randomStream = null;
     }
 
     /**
@@ -469,7 +524,7 @@ public class Neuron {
      * @return weighted input to this node
      */
     public double getWeightedInputs() {
-        double wtdSum = inputValue;
+        double wtdSum = getInputValue();
         for (int i = 0, n = fanIn.size(); i < n; i++) {
         	wtdSum += fanIn.get(i).calcWeightedSum();
         }
@@ -486,7 +541,10 @@ public class Neuron {
      * neuron.
      */
     public double getSynapticInput() {
-        double wtdSum = inputValue;
+        if (propagator != null) {
+            return getInputValue() + propagator.getInput(propagatorIndex);
+        }
+        double wtdSum = getInputValue();
         for (int i = 0, n = fanIn.size(); i < n; i++) {
         	wtdSum += fanIn.get(i).calcPSR();
         }
@@ -495,11 +553,15 @@ public class Neuron {
 
     /**
      * A helper method which iterates over each afferent synapse to this neuron
-     * and calls their update functions.
+     * and calls their update functions. Synapses whose learning is applied by
+     * their group (see {@link Synapse#isLearnedByGroup()}) are skipped.
      */
     public void updateFanIn() {
-    	for (int i = 0, n = fanIn.size(); i < n; i++) {
-        	fanIn.get(i).update();
+        for (int i = 0, n = fanIn.size(); i < n; i++) {
+            Synapse s = fanIn.get(i);
+            if (!s.isLearnedByGroup()) {
+                s.update();
+            }
         }
     }
 
@@ -577,7 +639,8 @@ public class Neuron {
      * Randomize this neuron to a value between upperBound and lowerBound.
      */
     public void randomize() {
-        forceSetActivation(this.getUpdateRule().getRandomValue());
+        forceSetActivation(this.getUpdateRule().getRandomValue(
+                getRandomStream()));
         getNetwork().fireNeuronChanged(this);
     }
 
@@ -585,7 +648,7 @@ public class Neuron {
      * Randomize this neuron to a value between upperBound and lowerBound.
      */
     public void randomizeBuffer() {
-        setBuffer(getUpdateRule().getRandomValue());
+        setBuffer(getUpdateRule().getRandomValue(getRandomStream()));
     }
 
     /**
@@ -625,13 +688,20 @@ public class Neuron {
      *            temporary value
      */
     public void setBuffer(final double d) {
-        buffer = d;
+        if (stateStore != null) {
+            stateStore.setBuffer(storeIndex, d);
+        } else {
+            buffer = d;
+        }
     }
 
     /**
      * @return Returns the current value in the buffer.
      */
     public double getBuffer() {
+        if (stateStore != null) {
+            return stateStore.getBuffer(storeIndex);
+        }
         return buffer;
     }
 
@@ -639,6 +709,9 @@ public class Neuron {
      * @return Returns the inputValue.
      */
     public double getInputValue() {
+        if (stateStore != null) {
+            return stateStore.getInput(storeIndex);
+        }
         return inputValue;
     }
 
@@ -652,7 +725,11 @@ public class Neuron {
      *            The inputValue to set.
      */
     public void setInputValue(final double inputValue) {
-        this.inputValue = inputValue;
+        if (stateStore != null) {
+            stateStore.setInput(storeIndex, inputValue);
+        } else {
+            this.inputValue = inputValue;
+        }
     }
 
     /**
@@ -960,6 +1037,9 @@ public class Neuron {
      */
     public void setClamped(final boolean clamped) {
         this.clamped = clamped;
+        if (stateStore != null) {
+            stateStore.setClamped(storeIndex, clamped);
+        }
     }
 
     /**
@@ -1010,7 +1090,7 @@ public class Neuron {
     public void randomizeBias(double lower, double upper) {
         if (this.getUpdateRule() instanceof BiasedUpdateRule) {
             ((BiasedUpdateRule) this.getUpdateRule()).setBias((upper - lower)
-                    * Math.random() + lower);
+                    * getRandomStream().nextDouble() + lower);
         }
     }
 
@@ -1192,19 +1272,117 @@ public class Neuron {
     }
 
     public boolean isSpike() {
+        if (stateStore != null) {
+            return stateStore.isSpike(storeIndex);
+        }
         return spike;
     }
 
     public void setSpike(boolean spike) {
-        this.spike = spike;
+        if (stateStore != null) {
+            stateStore.setSpike(storeIndex, spike);
+        } else {
+            this.spike = spike;
+        }
     }
 
     public boolean getSpkBuffer() {
+        if (stateStore != null) {
+            return stateStore.getSpkBuffer(storeIndex);
+        }
         return spkBuffer;
     }
 
     public void setSpkBuffer(boolean spkBuffer) {
-        this.spkBuffer = spkBuffer;
+        if (stateStore != null) {
+            stateStore.setSpkBuffer(storeIndex, spkBuffer);
+        } else {
+            this.spkBuffer = spkBuffer;
+        }
+    }
+
+    /**
+     * Binds this neuron to a slot in a packed state store. The neuron's
+     * current activation, buffer, input and spike values are copied into the
+     * store, and from then on all reads and writes of those values go to the
+     * store.
+     *
+     * @param store
+     *            the store to bind to
+     * @param index
+     *            this neuron's slot in the store
+     */
+    void bindToStore(final NeuronStateStore store, final int index) {
+        unbindFromStore();
+        store.setActivation(index, activation);
+        store.setBuffer(index, buffer);
+        store.setInput(index, inputValue);
+        store.setSpike(index, spike);
+        store.setSpkBuffer(index, spkBuffer);
+        store.setClamped(index, clamped);
+        stateStore = store;
+        storeIndex = index;
+    }
+
+    /**
+     * Copies state back out of this neuron's packed state store, if it has
+     * one, and detaches from it.
+     */
+    void unbindFromStore() {
+        flushStore();
+        stateStore = null;
+    }
+
+    /**
+     * Copies the values held in this neuron's packed state store (if any) into
+     * its own fields without detaching from the store. Used before
+     * serialization, since stores are not saved.
+     */
+    public void flushStore() {
+        if (stateStore == null) {
+            return;
+        }
+        activation = stateStore.getActivation(storeIndex);
+        buffer = stateStore.getBuffer(storeIndex);
+        inputValue = stateStore.getInput(storeIndex);
+        spike = stateStore.isSpike(storeIndex);
+        spkBuffer = stateStore.getSpkBuffer(storeIndex);
+    }
+
+    /**
+     * @return true if this neuron's state lives in a packed state store.
+     */
+    public boolean isPacked() {
+        return stateStore != null;
+    }
+
+    /**
+     * Binds this neuron to an event-driven spike propagator, which from then
+     * on supplies its synaptic input (see {@link #getSynapticInput()}).
+     *
+     * @param prop
+     *            the propagator
+     * @param index
+     *            this neuron's target index in the propagator
+     */
+    void bindToPropagator(final SpikePropagator prop, final int index) {
+        propagator = prop;
+        propagatorIndex = index;
+    }
+
+    /**
+     * Detaches this neuron from its spike propagator, if any, so that synaptic
+     * input is once again pulled from the fan-in.
+     */
+    void unbindFromPropagator() {
+        propagator = null;
+    }
+
+    /**
+     * @return the spike propagator this neuron is bound to, or null
+     */
+    SpikePropagator getPropagator() {
+        return propagator;
     }
 
 }
@@ -0,0 +1,281 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.core;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * <b>NeuronStateStore</b> holds the primary state variables of a set of
+ * neurons (activation, buffer, external input and spike flags) in contiguous
+ * primitive arrays rather than in the fields of individual neuron objects.
+ * Neurons bound to a store act as lightweight views onto one slot of these
+ * arrays, so that whole-group operations (reading activations, writing inputs,
+ * committing buffers) can be performed as array operations.
+ *
+ * Spike flags are held 64 to a long word ({@link #WORD_SIZE}), so the neurons
+ * of different words may be updated from different threads.
+ *
+ * Stores are created and managed by packed neuron groups; see
+ * {@link org.simbrain.network.groups.NeuronGroup#setPacked(boolean)}.
+ */
+public final class NeuronStateStore {
+
+    /** Number of spike flags held in each word. */
+    public static final int WORD_SIZE = Long.SIZE;
+
+    /** Activations, one per neuron. */
+    private final double[] activations;
+
+    /** Activation buffers, one per neuron. */
+    private final double[] buffers;
+
+    /** External input values, one per neuron. */
+    private final double[] inputs;
+
+    /** Spike flags, one bit per neuron. */
+    private final long[] spikes;
+
+    /** Spike buffer flags, one bit per neuron. */
+    private final long[] spkBuffers;
+
+    /**
+     * Clamped flags, one bit per neuron, kept up to date by bound neurons.
+     */
+    private final long[] clamped;
+
+    /**
+     * Creates a store large enough to hold the state of the given neurons and
+     * binds each neuron to its slot (its index in the list). The current state
+     * of each neuron is copied into the store.
+     *
+     * @param neurons
+     *            the neurons to back with this store
+     */
+    public NeuronStateStore(final List<Neuron> neurons) {
+        int size = neurons.size();
+        activations = new double[size];
+        buffers = new double[size];
+        inputs = new double[size];
+        spikes = new long[(size + WORD_SIZE - 1) / WORD_SIZE];
+        spkBuffers = new long[spikes.length];
+        clamped = new long[spikes.length];
+        for (int i = 0; i < size; i++) {
+            neurons.get(i).bindToStore(this, i);
+        }
+    }
+
+    /**
+     * Releases the given neurons from this store, copying the state in each
+     * slot back into the neuron's own fields.
+     *
+     * @param neurons
+     *            the neurons to unbind, in slot order.
+     */
+    public void release(final List<Neuron> neurons) {
+        for (int i = 0, n = neurons.size(); i < n; i++) {
+            neurons.get(i).unbindFromStore();
+        }
+    }
+
+    /**
+     * Moves buffer values into the main state variables for every neuron
+     * which is not clamped. The array equivalent of calling
+     * {@link Neuron#setToBufferVals()} on each neuron.
+     */
+    public void commitBuffers() {
+        int size = activations.length;
+        for (int w = 0; w < clamped.length; w++) {
+            int start = w * WORD_SIZE;
+            int end = Math.min(start + WORD_SIZE, size);
+            long mask = clamped[w];
+            if (mask == 0) {
+                System.arraycopy(buffers, start, activations, start,
+                        end - start);
+                continue;
+            }
+            for (int i = start; i < end; i++) {
+                if ((mask & (1L << i)) == 0) {
+                    activations[i] = buffers[i];
+                }
+            }
+        }
+        System.arraycopy(spkBuffers, 0, spikes, 0, spikes.length);
+    }
+
+    /**
+     * @return a copy of the activations held in this store.
+     */
+    public double[] copyActivations() {
+        double[] ret = new double[activations.length];
+        System.arraycopy(activations, 0, ret, 0, activations.length);
+        return ret;
+    }
+
+    /**
+     * Overwrites activations from the provided array, regardless of clamping.
+     * If the arrays do not match in size, the smaller length is used.
+     *
+     * @param values
+     *            the new activations
+     */
+    public void forceSetActivations(final double[] values) {
+        System.arraycopy(values, 0, activations, 0,
+                Math.min(values.length, activations.length));
+    }
+
+    /**
+     * Overwrites input values from the provided array. If the arrays do not
+     * match in size, the smaller length is used.
+     *
+     * @param values
+     *            the new input values
+     */
+    public void setInputs(final double[] values) {
+        System.arraycopy(values, 0, inputs, 0,
+                Math.min(values.length, inputs.length));
+    }
+
+    /**
+     * Sets all input values to zero.
+     */
+    public void clearInputs() {
+        Arrays.fill(inputs, 0);
+    }
+
+    /**
+     * @return the number of neuron slots in this store.
+     */
+    public int size() {
+        return activations.length;
+    }
+
+    /**
+     * Direct access to the activation array. Callers must not change its
+     * contents except as a deliberate write to neuron state.
+     *
+     * @return the backing activation array
+     */
+    public double[] getActivationArray() {
+        return activations;
+    }
+
+    /**
+     * Direct access to the input array.
+     *
+     * @return the backing input array
+     */
+    public double[] getInputArray() {
+        return inputs;
+    }
+
+    /**
+     * @return a copy of the spike flags
+     */
+    public BitSet getSpikes() {
+        return BitSet.valueOf(spikes);
+    }
+
+    /**
+     * Direct access to the spike flags, {@link #WORD_SIZE} to a word: the
+     * flag of slot i is bit i % WORD_SIZE of word i / WORD_SIZE. Callers must
+     * not change its contents.
+     *
+     * @return the backing spike words
+     */
+    public long[] getSpikeWords() {
+        return spikes;
+    }
+
+    double getActivation(final int i) {
+        return activations[i];
+    }
+
+    void setActivation(final int i, final double val) {
+        activations[i] = val;
+    }
+
+    double getBuffer(final int i) {
+        return buffers[i];
+    }
+
+    void setBuffer(final int i, final double val) {
+        buffers[i] = val;
+    }
+
+    double getInput(final int i) {
+        return inputs[i];
+    }
+
+    void setInput(final int i, final double val) {
+        inputs[i] = val;
+    }
+
+    boolean isSpike(final int i) {
+        return getBit(spikes, i);
+    }
+
+    void setSpike(final int i, final boolean val) {
+        setBit(spikes, i, val);
+    }
+
+    boolean getSpkBuffer(final int i) {
+        return getBit(spkBuffers, i);
+    }
+
+    void setSpkBuffer(final int i, final boolean val) {
+        setBit(spkBuffers, i, val);
+    }
+
+    void setClamped(final int i, final boolean val) {
+        setBit(clamped, i, val);
+    }
+
+    /**
+     * @param words
+     *            flags, one bit per neuron
+     * @param i
+     *            the slot
+     * @return the flag of the slot
+     */
+    private static boolean getBit(final long[] words, final int i) {
+        return (words[i / WORD_SIZE] & (1L << i)) != 0;
+    }
+
+    /**
+     * Sets a flag. Only the word holding the flag is written.
+     *
+     * @param words
+     *            flags, one bit per neuron
+     * @param i
+     *            the slot
+     * @param val
+     *            the new flag
+     */
+    private static void setBit(final long[] words, final int i,
+            final boolean val) {
+        if (val) {
+            words[i / WORD_SIZE] |= 1L << i;
+        } else {
+            words[i / WORD_SIZE] &= ~(1L << i);
+        }
+    }
+
+}
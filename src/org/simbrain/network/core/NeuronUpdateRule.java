@@ -22,6 +22,8 @@ import org.simbrain.network.core.Network.TimeType;
 import org.simbrain.network.neuron_update_rules.interfaces.BoundedUpdateRule;
 import org.simbrain.util.Utils;
 
+import umontreal.iro.lecuyer.rng.RandomStream;
+
 /**
  * A rule for updating a neuron.
  *
@@ -247,16 +249,17 @@ public abstract class NeuronUpdateRule {
      * Update rules that require special randomization should override this
      * method.
      *
+     * @param stream the stream to draw from, normally the neuron's own
      * @return the random value.
      */
-    public double getRandomValue() {
+    public double getRandomValue(RandomStream stream) {
         if (this instanceof BoundedUpdateRule) {
             return (((BoundedUpdateRule) this).getUpperBound() - ((BoundedUpdateRule) this)
                     .getLowerBound())
-                    * Math.random()
+                    * stream.nextDouble()
                     + ((BoundedUpdateRule) this).getLowerBound();
         } else {
-            return 2 * Math.random() - 1;
+            return 2 * stream.nextDouble() - 1;
         }
 
     }
@@ -0,0 +1,489 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.core;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.simbrain.network.groups.Group;
+import org.simbrain.network.groups.NeuronGroup;
+import org.simbrain.network.groups.Subnetwork;
+import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.network.listeners.GroupAdapter;
+import org.simbrain.network.listeners.GroupListener;
+import org.simbrain.network.listeners.NetworkEvent;
+import org.simbrain.network.listeners.NeuronAdapter;
+import org.simbrain.network.listeners.NeuronListener;
+import org.simbrain.network.listeners.SynapseAdapter;
+import org.simbrain.network.listeners.SynapseListener;
+import org.simbrain.network.update_actions.NeuronGroupRecorder;
+import org.simbrain.network.update_actions.UpdateGroup;
+import org.simbrain.network.update_actions.concurrency_tools.SharedForkJoinPool;
+
+/**
+ * Runs the actions of a {@link NetworkUpdateManager} on a shared fork/join
+ * pool, concurrently where the result cannot depend on their order.
+ *
+ * Each group update action is given a footprint: the neuron activations and
+ * afferent weights it reads and writes. A neuron group reads the activations
+ * of every group (or of the loose neurons) that projects to it, whether
+ * through synapse groups or loose synapses, and writes its own activations
+ * and fan-in. Two actions conflict if either writes something the other
+ * touches, and an action may only run once every earlier action it conflicts
+ * with has run. Actions are then grouped into waves: every action in a wave
+ * runs in parallel, and waves run one after another. Since conflicting
+ * actions keep their relative order, and each action keeps its own buffered
+ * semantics, the result is the same as running the list in order.
+ *
+ * Actions whose footprint is unknown (buffered, priority and custom updates,
+ * and updates of groups other than neuron groups, synapse groups and
+ * subnetworks) are barriers which run alone, after everything before them
+ * and before everything after them. Subnetworks which use the default
+ * {@link Subnetwork#update()} are split into their neuron groups, so that
+ * independent groups within a subnetwork run concurrently too.
+ *
+ * The schedule is rebuilt when the action list or the network's structure
+ * changes.
+ */
+final class ParallelUpdateScheduler {
+
+    /** Reference to parent network. */
+    private final Network network;
+
+    /** The action list this schedule was built from. */
+    private NetworkUpdateAction[] scheduled = new NetworkUpdateAction[0];
+
+    /**
+     * The waves: each is an array of actions which can run in parallel. Split
+     * subnetworks contribute one action per neuron group.
+     */
+    private NetworkUpdateAction[][] waves = new NetworkUpdateAction[0][];
+
+    /** True once the listeners below have been registered with the network. */
+    private boolean listening;
+
+    /** True if the network structure has changed since the last rebuild. */
+    private final AtomicBoolean stale = new AtomicBoolean(true);
+
+    /** Marks the schedule stale on any group change. */
+    private final GroupListener groupListener = new GroupAdapter() {
+        @Override
+        public void groupAdded(NetworkEvent<Group> e) {
+            invalidate();
+        }
+
+        @Override
+        public void groupRemoved(NetworkEvent<Group> e) {
+            invalidate();
+        }
+
+        @Override
+        public void groupChanged(NetworkEvent<Group> networkEvent,
+                String changeDescription) {
+            invalidate();
+        }
+    };
+
+    /** Marks the schedule stale when neurons are added or removed. */
+    private final NeuronListener neuronListener = new NeuronAdapter() {
+        @Override
+        public void neuronAdded(NetworkEvent<Neuron> networkEvent) {
+            invalidate();
+        }
+
+        @Override
+        public void neuronRemoved(NetworkEvent<Neuron> networkEvent) {
+            invalidate();
+        }
+    };
+
+    /**
+     * Marks the schedule stale when synapses are added or removed, since a
+     * loose synapse between two groups makes them dependent.
+     */
+    private final SynapseListener synapseListener = new SynapseAdapter() {
+        @Override
+        public void synapseAdded(NetworkEvent<Synapse> networkEvent) {
+            invalidate();
+        }
+
+        @Override
+        public void synapseRemoved(NetworkEvent<Synapse> networkEvent) {
+            invalidate();
+        }
+    };
+
+    /**
+     * @param network
+     *            the network whose actions are scheduled
+     */
+    ParallelUpdateScheduler(final Network network) {
+        this.network = network;
+    }
+
+    /**
+     * Runs the actions once, rebuilding the schedule first if needed.
+     *
+     * @param actions
+     *            the current action list
+     */
+    void invoke(final List<NetworkUpdateAction> actions) {
+        if (!listening) {
+            network.addGroupListener(groupListener);
+            network.addNeuronListener(neuronListener);
+            network.addSynapseListener(synapseListener);
+            listening = true;
+            stale.set(true);
+        }
+        if (stale.getAndSet(false) | !isScheduled(actions)) {
+            rebuild(actions);
+        }
+        for (NetworkUpdateAction[] wave : waves) {
+            if (wave.length == 1) {
+                wave[0].invoke();
+            } else {
+                SharedForkJoinPool.invoke(new WaveTask(wave, 0, wave.length));
+            }
+        }
+    }
+
+    /**
+     * Marks the schedule as stale so that it is rebuilt before the next
+     * update. Safe to call from any thread.
+     */
+    void invalidate() {
+        stale.set(true);
+    }
+
+    /**
+     * Stops listening to the network.
+     */
+    void shutdown() {
+        if (listening) {
+            network.removeGroupListener(groupListener);
+            network.removeNeuronListener(neuronListener);
+            network.removeSynapseListener(synapseListener);
+            listening = false;
+        }
+    }
+
+    /**
+     * @return the number of waves in the current schedule
+     */
+    int getWaveCount() {
+        return waves.length;
+    }
+
+    /**
+     * Returns true if the schedule was built from exactly these actions, in
+     * this order. The action list can be edited directly, so this is checked
+     * on each update.
+     *
+     * @param actions
+     *            the current action list
+     * @return true if the schedule is up to date with the list
+     */
+    private boolean isScheduled(final List<NetworkUpdateAction> actions) {
+        if (actions.size() != scheduled.length) {
+            return false;
+        }
+        for (int i = 0; i < scheduled.length; i++) {
+            if (actions.get(i) != scheduled[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds the footprints of the actions and assigns each to the earliest
+     * wave after all the earlier actions it conflicts with.
+     *
+     * @param actions
+     *            the current action list
+     */
+    private void rebuild(final List<NetworkUpdateAction> actions) {
+        scheduled = actions.toArray(new NetworkUpdateAction[actions.size()]);
+        Footprints footprints = new Footprints();
+        List<NetworkUpdateAction> nodes = new ArrayList<NetworkUpdateAction>();
+        List<BitSet> reads = new ArrayList<BitSet>();
+        List<BitSet> writes = new ArrayList<BitSet>();
+        for (NetworkUpdateAction action : scheduled) {
+            Group group = action instanceof UpdateGroup ? ((UpdateGroup) action)
+                    .getGroup() : null;
+            if (group instanceof Subnetwork && usesDefaultUpdate(group)) {
+                for (NeuronGroup ng : ((Subnetwork) group)
+                        .getNeuronGroupList()) {
+                    BitSet r = new BitSet();
+                    BitSet w = new BitSet();
+                    footprints.addNeuronGroup(ng, r, w);
+                    nodes.add(new UpdateGroup(ng));
+                    reads.add(r);
+                    writes.add(w);
+                }
+                continue;
+            }
+            BitSet r = new BitSet();
+            BitSet w = new BitSet();
+            if (!footprints.add(action, group, r, w)) {
+                r = null;
+                w = null;
+            }
+            nodes.add(action);
+            reads.add(r);
+            writes.add(w);
+        }
+
+        int numNodes = nodes.size();
+        int[] level = new int[numNodes];
+        int numWaves = 0;
+        int barrier = -1;
+        for (int j = 0; j < numNodes; j++) {
+            int lvl = barrier + 1;
+            if (writes.get(j) == null) {
+                lvl = numWaves;
+                barrier = lvl;
+            } else {
+                for (int i = j - 1; i >= 0; i--) {
+                    if (level[i] >= lvl
+                            && conflict(reads.get(i), writes.get(i),
+                                    reads.get(j), writes.get(j))) {
+                        lvl = level[i] + 1;
+                    }
+                }
+            }
+            level[j] = lvl;
+            numWaves = Math.max(numWaves, lvl + 1);
+        }
+
+        int[] sizes = new int[numWaves];
+        for (int j = 0; j < numNodes; j++) {
+            sizes[level[j]]++;
+        }
+        waves = new NetworkUpdateAction[numWaves][];
+        for (int k = 0; k < numWaves; k++) {
+            waves[k] = new NetworkUpdateAction[sizes[k]];
+            sizes[k] = 0;
+        }
+        for (int j = 0; j < numNodes; j++) {
+            waves[level[j]][sizes[level[j]]++] = nodes.get(j);
+        }
+    }
+
+    /**
+     * Returns true if two footprints conflict, i.e. if either writes something
+     * the other reads or writes. Barriers (null footprints) conflict with
+     * everything.
+     *
+     * @param r1
+     *            what the first action reads
+     * @param w1
+     *            what the first action writes
+     * @param r2
+     *            what the second action reads
+     * @param w2
+     *            what the second action writes
+     * @return true if the actions must keep their order
+     */
+    private static boolean conflict(final BitSet r1, final BitSet w1,
+            final BitSet r2, final BitSet w2) {
+        if (w1 == null || w2 == null) {
+            return true;
+        }
+        return w1.intersects(r2) || w1.intersects(w2) || r1.intersects(w2);
+    }
+
+    /**
+     * Returns true if the subnetwork updates its neuron groups in order and
+     * does nothing else, so it can be scheduled group by group.
+     *
+     * @param group
+     *            the subnetwork
+     * @return true if its update method is not overridden
+     */
+    private static boolean usesDefaultUpdate(final Group group) {
+        try {
+            return group.getClass().getMethod("update")
+                    .getDeclaringClass() == Subnetwork.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Numbers the resources actions read and write. Each neuron group has two:
+     * the activations of its neurons and the weights of their fan-in. Loose
+     * neurons share a pair.
+     */
+    private final class Footprints {
+
+        /** Resource pair index of each neuron group, or of the network. */
+        private final Map<Object, Integer> index =
+                new IdentityHashMap<Object, Integer>();
+
+        /**
+         * Adds the footprint of an action.
+         *
+         * @param action
+         *            the action
+         * @param group
+         *            the group it updates, or null
+         * @param reads
+         *            the resources read, filled in
+         * @param writes
+         *            the resources written, filled in
+         * @return false if the footprint is unknown
+         */
+        boolean add(final NetworkUpdateAction action, final Group group,
+                final BitSet reads, final BitSet writes) {
+            if (group instanceof NeuronGroup) {
+                addNeuronGroup((NeuronGroup) group, reads, writes);
+                return true;
+            } else if (group instanceof SynapseGroup) {
+                addSynapseGroup((SynapseGroup) group, reads, writes);
+                return true;
+            } else if (group instanceof Subnetwork) {
+                Subnetwork sub = (Subnetwork) group;
+                for (NeuronGroup ng : sub.getNeuronGroupList()) {
+                    addNeuronGroup(ng, reads, writes);
+                }
+                for (SynapseGroup sg : sub.getSynapseGroupList()) {
+                    addSynapseGroup(sg, reads, writes);
+                }
+                return true;
+            } else if (action instanceof NeuronGroupRecorder) {
+                // Only writes to its own file
+                reads.set(activations(((NeuronGroupRecorder) action)
+                        .getGroup()));
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Adds the footprint of a neuron group update.
+         *
+         * @param ng
+         *            the neuron group
+         * @param reads
+         *            the resources read, filled in
+         * @param writes
+         *            the resources written, filled in
+         */
+        void addNeuronGroup(final NeuronGroup ng, final BitSet reads,
+                final BitSet writes) {
+            writes.set(activations(ng));
+            writes.set(activations(ng) + 1);
+            reads.set(activations(ng));
+            reads.set(activations(ng) + 1);
+            for (SynapseGroup sg : ng.getIncomingSgs()) {
+                reads.set(activations(sg.getSourceNeuronGroup()));
+            }
+            for (Neuron n : ng.getNeuronList()) {
+                for (Synapse s : n.getFanIn()) {
+                    reads.set(activations(s.getSource().getParentGroup()));
+                }
+            }
+        }
+
+        /**
+         * Adds the footprint of a synapse group update, which reads both
+         * groups' activations and writes the target group's fan-in.
+         *
+         * @param sg
+         *            the synapse group
+         * @param reads
+         *            the resources read, filled in
+         * @param writes
+         *            the resources written, filled in
+         */
+        void addSynapseGroup(final SynapseGroup sg, final BitSet reads,
+                final BitSet writes) {
+            int target = activations(sg.getTargetNeuronGroup());
+            reads.set(activations(sg.getSourceNeuronGroup()));
+            reads.set(target);
+            reads.set(target + 1);
+            writes.set(target + 1);
+        }
+
+        /**
+         * @param owner
+         *            a neuron group, or anything else for loose neurons
+         * @return the index of the owner's activations; its fan-in follows
+         */
+        int activations(final Object owner) {
+            Object key = owner instanceof NeuronGroup ? owner : network;
+            Integer i = index.get(key);
+            if (i == null) {
+                i = 2 * index.size();
+                index.put(key, i);
+            }
+            return i;
+        }
+    }
+
+    /**
+     * Runs a range of the actions in a wave.
+     */
+    private static final class WaveTask extends RecursiveAction {
+
+        /** Generated serial id. */
+        private static final long serialVersionUID = 1L;
+
+        /** The wave. */
+        private final NetworkUpdateAction[] wave;
+
+        /** First action of range (inclusive). */
+        private final int lo;
+
+        /** Last action of range (exclusive). */
+        private final int hi;
+
+        /**
+         * @param wave
+         *            the wave
+         * @param lo
+         *            start of range (inclusive)
+         * @param hi
+         *            end of range (exclusive)
+         */
+        WaveTask(final NetworkUpdateAction[] wave, final int lo, final int hi) {
+            this.wave = wave;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new WaveTask(wave, lo, mid), new WaveTask(wave, mid,
+                        hi));
+                return;
+            }
+            wave[lo].invoke();
+        }
+    }
+
+}
@@ -0,0 +1,585 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.simbrain.network.core.NeuronUpdateRule.InputType;
+import org.simbrain.network.neuron_update_rules.AdExIFRule;
+import org.simbrain.network.synapse_update_rules.spikeresponders.ConvolvedJumpAndDecay;
+import org.simbrain.network.synapse_update_rules.spikeresponders.JumpAndDecay;
+import org.simbrain.network.synapse_update_rules.spikeresponders.SpikeResponder;
+
+/**
+ * <b>SpikePropagator</b> delivers spikes to their targets as events, instead
+ * of having every target poll every afferent synapse on every update.
+ *
+ * When a source neuron spikes, a post-synaptic response amplitude is queued
+ * for each of its efferent synapses in a ring of buckets indexed by arrival
+ * step (so synaptic delays cost nothing extra). Each target keeps one
+ * aggregated response per decay channel (a distinct pair of time constant and
+ * base line), which decays as a whole once per update. The work done per
+ * update is thus proportional to the number of neurons plus the number of
+ * spikes times their fan-out, rather than to the number of synapses.
+ *
+ * Synapses with {@link JumpAndDecay} or {@link ConvolvedJumpAndDecay}
+ * responders are handled this way, and the result is identical (up to
+ * rounding) to pulling them with {@link Synapse#calcPSR()}: the residual
+ * response of the individual synapse, needed for the non-additive jump of
+ * JumpAndDecay, is reconstructed from the time and size of its last jump
+ * whenever it receives a new one. Other synapses into a bound target (disabled
+ * ones, or those with other responders) are still pulled each update.
+ *
+ * Only neurons whose update rule uses {@link InputType#SYNAPTIC} input through
+ * {@link Neuron#getSynapticInput()} are bound as targets. While bound, the PSR
+ * fields of event-driven synapses are not updated; they are written back when
+ * the propagator is released. Delay lines are not refilled on release, so
+ * responses in transit on delayed synapses at that moment are lost, unless
+ * the propagator is replaced by one built from it (see
+ * {@link #SpikePropagator(Network, List, SpikePropagator)}), which takes over
+ * its queued events.
+ *
+ * Synapse strengths are read when a spike is queued, so changing them needs no
+ * notice. Other changes to an event-driven synapse (its responder, delay or
+ * enabled state) must be passed to {@link #refresh(Synapse)}.
+ */
+public final class SpikePropagator {
+
+    /** Neurons whose synaptic input this propagator supplies. */
+    private final Neuron[] targets;
+
+    /** Synapses into each target which must still be pulled. */
+    private final Synapse[][] pulled;
+
+    /** Neurons with at least one event-driven efferent synapse. */
+    private final Neuron[] sources;
+
+    /**
+     * Event-driven synapses of source i are outSyn[outPtr[i]..outPtr[i+1]).
+     */
+    private final int[] outPtr;
+
+    /** Event-driven synapse indices, grouped by source. */
+    private final int[] outSyn;
+
+    /** Event-driven synapses. */
+    private final Synapse[] synapses;
+
+    /** Target index of each event-driven synapse. */
+    private final int[] synTarget;
+
+    /** Delay of each event-driven synapse. */
+    private final int[] synDelay;
+
+    /** Decay channel of each event-driven synapse. */
+    private final int[] synChannel;
+
+    /** Jump height of each event-driven synapse's responder. */
+    private final double[] synJump;
+
+    /** True if a synapse's jumps add to its response rather than reset it. */
+    private final boolean[] synAdditive;
+
+    /** Response of each synapse just after its last jump. */
+    private final double[] lastValue;
+
+    /** Step of each synapse's last jump. */
+    private final long[] lastStep;
+
+    /** Decay time constant of each channel. */
+    private final double[] chanTau;
+
+    /** Base line of each channel. */
+    private final double[] chanBase;
+
+    /** Aggregated response per channel and target. */
+    private final double[][] chanPsr;
+
+    /** Sum of the base lines of the synapses per channel and target. */
+    private final double[][] chanBaseSum;
+
+    /** Synapse indices of queued events, one array per bucket. */
+    private final int[][] queueSyn;
+
+    /** Amplitudes of queued events, one array per bucket. */
+    private final double[][] queueAmp;
+
+    /** Number of events queued in each bucket. */
+    private final int[] queueCount;
+
+    /** Network whose time step is used. */
+    private final Network network;
+
+    /**
+     * Marks a queued event which sets the response of a synapse to the event's
+     * amplitude, whatever its responder. Used to replay delay lines.
+     */
+    private static final int RESET_FLAG = 1 << 31;
+
+    /** Index of the most recently completed update. */
+    private long step;
+
+    /** Index of each event-driven synapse, built on first use. */
+    private Map<Synapse, Integer> synIndex;
+
+    /**
+     * Builds a propagator over the given neurons and binds every eligible
+     * target among them. The current PSR of each event-driven synapse is taken
+     * as its starting response, and values waiting in the delay lines of
+     * delayed synapses are queued as events, so the switch is seamless.
+     *
+     * @param network
+     *            the parent network
+     * @param neurons
+     *            the neurons to consider as targets
+     */
+    public SpikePropagator(final Network network, final List<Neuron> neurons) {
+        this(network, neurons, null);
+    }
+
+    /**
+     * Builds a propagator over the given neurons which replaces another one,
+     * taking over the events queued on the previous propagator for synapses
+     * which are still event driven. The previous propagator must have been
+     * released (see {@link #release()}) beforehand. Events queued for synapses
+     * which are no longer event driven are dropped.
+     *
+     * @param network
+     *            the parent network
+     * @param neurons
+     *            the neurons to consider as targets
+     * @param previous
+     *            the released propagator to take queued events from, or null
+     */
+    public SpikePropagator(final Network network, final List<Neuron> neurons,
+            final SpikePropagator previous) {
+        this.network = network;
+        List<Neuron> targetList = new ArrayList<Neuron>();
+        List<Synapse[]> pulledList = new ArrayList<Synapse[]>();
+        List<Synapse> synList = new ArrayList<Synapse>();
+        List<Integer> synTargetList = new ArrayList<Integer>();
+        for (Neuron n : neurons) {
+            if (!isEligibleTarget(n)) {
+                continue;
+            }
+            List<Synapse> pulledSyns = new ArrayList<Synapse>();
+            for (Synapse s : n.getFanIn()) {
+                if (isEventDriven(s)) {
+                    synList.add(s);
+                    synTargetList.add(targetList.size());
+                } else {
+                    pulledSyns.add(s);
+                }
+            }
+            targetList.add(n);
+            pulledList.add(pulledSyns.toArray(new Synapse[pulledSyns.size()]));
+        }
+        targets = targetList.toArray(new Neuron[targetList.size()]);
+        pulled = pulledList.toArray(new Synapse[pulledList.size()][]);
+
+        int numSyns = synList.size();
+        synapses = synList.toArray(new Synapse[numSyns]);
+        synTarget = new int[numSyns];
+        synDelay = new int[numSyns];
+        synChannel = new int[numSyns];
+        synJump = new double[numSyns];
+        synAdditive = new boolean[numSyns];
+        lastValue = new double[numSyns];
+        lastStep = new long[numSyns];
+        // Synapses taken over from the previous propagator
+        boolean[] carried = new boolean[numSyns];
+        if (previous != null) {
+            Map<Synapse, Integer> prevIndex = previous.getSynapseIndex();
+            for (int k = 0; k < numSyns; k++) {
+                carried[k] = prevIndex.containsKey(synList.get(k));
+            }
+        }
+
+        // Assign channels and group synapses by source
+        Map<List<Double>, Integer> channels = new HashMap<List<Double>,
+                Integer>();
+        List<double[]> chanParams = new ArrayList<double[]>();
+        Map<Neuron, List<Integer>> bySource = new HashMap<Neuron,
+                List<Integer>>();
+        List<Neuron> sourceList = new ArrayList<Neuron>();
+        int maxDelay = 0;
+        for (int k = 0; k < numSyns; k++) {
+            Synapse s = synapses[k];
+            SpikeResponder sr = s.getSpikeResponder();
+            double tau;
+            double base;
+            if (sr instanceof ConvolvedJumpAndDecay) {
+                ConvolvedJumpAndDecay cjd = (ConvolvedJumpAndDecay) sr;
+                tau = cjd.getTimeConstant();
+                base = cjd.getBaseLine();
+                synJump[k] = cjd.getJumpHeight();
+                synAdditive[k] = true;
+            } else {
+                JumpAndDecay jd = (JumpAndDecay) sr;
+                tau = jd.getTimeConstant();
+                base = jd.getBaseLine();
+                synJump[k] = jd.getJumpHeight();
+            }
+            List<Double> key = Arrays.asList(tau, base);
+            Integer chan = channels.get(key);
+            if (chan == null) {
+                chan = chanParams.size();
+                channels.put(key, chan);
+                chanParams.add(new double[] { tau, base });
+            }
+            synChannel[k] = chan;
+            synTarget[k] = synTargetList.get(k);
+            synDelay[k] = Math.max(0, s.getDelay());
+            maxDelay = Math.max(maxDelay, synDelay[k]);
+            // Release wrote the current response of carried synapses
+            lastValue[k] = synDelay[k] == 0 || carried[k] ? s.getPsr() : s
+                    .getDelayedValue();
+            List<Integer> out = bySource.get(s.getSource());
+            if (out == null) {
+                out = new ArrayList<Integer>();
+                bySource.put(s.getSource(), out);
+                sourceList.add(s.getSource());
+            }
+            out.add(k);
+        }
+        sources = sourceList.toArray(new Neuron[sourceList.size()]);
+        outPtr = new int[sources.length + 1];
+        outSyn = new int[numSyns];
+        for (int i = 0, p = 0; i < sources.length; i++) {
+            for (int k : bySource.get(sources[i])) {
+                outSyn[p++] = k;
+            }
+            outPtr[i + 1] = p;
+        }
+
+        int numChans = chanParams.size();
+        chanTau = new double[numChans];
+        chanBase = new double[numChans];
+        for (int c = 0; c < numChans; c++) {
+            chanTau[c] = chanParams.get(c)[0];
+            chanBase[c] = chanParams.get(c)[1];
+        }
+        chanPsr = new double[numChans][targets.length];
+        chanBaseSum = new double[numChans][targets.length];
+        for (int k = 0; k < numSyns; k++) {
+            chanPsr[synChannel[k]][synTarget[k]] += lastValue[k];
+            chanBaseSum[synChannel[k]][synTarget[k]] += chanBase[synChannel[k]];
+        }
+
+        // An event queued after an update arrives at least one step later
+        int numBuckets = maxDelay + 2;
+        if (previous != null) {
+            numBuckets = Math.max(numBuckets, previous.queueCount.length);
+        }
+        queueSyn = new int[numBuckets][16];
+        queueAmp = new double[numBuckets][16];
+        queueCount = new int[numBuckets];
+        for (int k = 0; k < numSyns; k++) {
+            if (carried[k]) {
+                continue;
+            }
+            for (int j = 1; j <= synDelay[k]; j++) {
+                enqueue(RESET_FLAG | k, synapses[k].peekDelayed(j), j);
+            }
+        }
+        if (previous != null) {
+            takeQueuedEvents(previous);
+        }
+
+        for (int i = 0; i < targets.length; i++) {
+            targets[i].bindToPropagator(this, i);
+        }
+    }
+
+    /**
+     * Queues the events still pending on another propagator, at the same
+     * number of steps from now, for those of its synapses which this one
+     * drives.
+     *
+     * @param previous
+     *            the propagator being replaced
+     */
+    private void takeQueuedEvents(final SpikePropagator previous) {
+        Map<Synapse, Integer> index = getSynapseIndex();
+        int prevBuckets = previous.queueCount.length;
+        for (int j = 1; j < prevBuckets; j++) {
+            int bucket = (int) ((previous.step + j) % prevBuckets);
+            int[] evSyn = previous.queueSyn[bucket];
+            double[] evAmp = previous.queueAmp[bucket];
+            for (int e = 0, n = previous.queueCount[bucket]; e < n; e++) {
+                Integer k = index.get(previous.synapses[evSyn[e]
+                        & ~RESET_FLAG]);
+                if (k != null) {
+                    enqueue((evSyn[e] & RESET_FLAG) | k, evAmp[e], step + j);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a map from each event-driven synapse to its index
+     */
+    private Map<Synapse, Integer> getSynapseIndex() {
+        if (synIndex == null) {
+            synIndex = new HashMap<Synapse, Integer>(synapses.length * 2);
+            for (int k = 0; k < synapses.length; k++) {
+                synIndex.put(synapses[k], k);
+            }
+        }
+        return synIndex;
+    }
+
+    /**
+     * Takes account of changes to a synapse's spike responder, delay or
+     * enabled state. Call between updates. Events already queued for the
+     * synapse keep their arrival step and amplitude, but on delayed synapses
+     * new decay parameters also apply to responses still in transit.
+     *
+     * @param s
+     *            the changed synapse
+     * @return false if the change cannot be made in place, in which case the
+     *         propagator must be rebuilt
+     */
+    public boolean refresh(final Synapse s) {
+        Integer index = getSynapseIndex().get(s);
+        if (index == null) {
+            // A pulled synapse only needs a rebuild if it can now be driven
+            return s.getTarget() == null
+                    || s.getTarget().getPropagator() != this
+                    || !isEventDriven(s);
+        }
+        if (!isEventDriven(s)) {
+            return false;
+        }
+        final int k = index;
+        SpikeResponder sr = s.getSpikeResponder();
+        double tau;
+        double base;
+        double jump;
+        if (sr instanceof ConvolvedJumpAndDecay) {
+            ConvolvedJumpAndDecay cjd = (ConvolvedJumpAndDecay) sr;
+            tau = cjd.getTimeConstant();
+            base = cjd.getBaseLine();
+            jump = cjd.getJumpHeight();
+        } else {
+            JumpAndDecay jd = (JumpAndDecay) sr;
+            tau = jd.getTimeConstant();
+            base = jd.getBaseLine();
+            jump = jd.getJumpHeight();
+        }
+        int chan = -1;
+        for (int c = 0; c < chanTau.length; c++) {
+            if (chanTau[c] == tau && chanBase[c] == base) {
+                chan = c;
+                break;
+            }
+        }
+        int delay = Math.max(0, s.getDelay());
+        if (chan < 0 || delay + 2 > queueCount.length) {
+            return false;
+        }
+        int old = synChannel[k];
+        if (chan != old) {
+            // Move the synapse's current response to its new channel
+            double f = 1 - network.getTimeStep() / chanTau[old];
+            double current = chanBase[old] + (lastValue[k] - chanBase[old])
+                    * Math.pow(f, step - lastStep[k]);
+            int t = synTarget[k];
+            chanPsr[old][t] -= current;
+            chanBaseSum[old][t] -= chanBase[old];
+            chanPsr[chan][t] += current;
+            chanBaseSum[chan][t] += chanBase[chan];
+            synChannel[k] = chan;
+            lastValue[k] = current;
+            lastStep[k] = step;
+        }
+        synJump[k] = jump;
+        synAdditive[k] = sr instanceof ConvolvedJumpAndDecay;
+        synDelay[k] = delay;
+        return true;
+    }
+
+    /**
+     * Returns true if a neuron's input can be supplied by a propagator, which
+     * is the case if its update rule obtains input through
+     * {@link Neuron#getSynapticInput()}. AdExIF neurons normalize excitatory
+     * and inhibitory input by the number of synapses currently carrying each,
+     * which cannot be recovered from an aggregate, so they are excluded.
+     *
+     * @param n
+     *            the neuron to check
+     * @return true if the neuron can be bound as a target
+     */
+    public static boolean isEligibleTarget(final Neuron n) {
+        NeuronUpdateRule rule = n.getUpdateRule();
+        return !n.isGenerator() && rule.getInputType() == InputType.SYNAPTIC
+                && !(rule instanceof AdExIFRule);
+    }
+
+    /**
+     * Returns true if a synapse can be driven by events.
+     *
+     * @param s
+     *            the synapse to check
+     * @return true if the synapse is enabled and its spike responder is a
+     *         (convolved) jump and decay.
+     */
+    private static boolean isEventDriven(final Synapse s) {
+        if (!s.isEnabled()) {
+            return false;
+        }
+        Class<?> srClass = s.getSpikeResponder() == null ? null : s
+                .getSpikeResponder().getClass();
+        return srClass == JumpAndDecay.class
+                || srClass == ConvolvedJumpAndDecay.class;
+    }
+
+    /**
+     * Begins an update: decays the aggregated responses by one time step and
+     * delivers all events due to arrive in this update. Call before updating
+     * the target neurons.
+     */
+    public void deliver() {
+        step++;
+        double timeStep = network.getTimeStep();
+        for (int c = 0; c < chanTau.length; c++) {
+            double f = 1 - timeStep / chanTau[c];
+            double[] psr = chanPsr[c];
+            double[] baseSum = chanBaseSum[c];
+            for (int i = 0; i < psr.length; i++) {
+                psr[i] = f * psr[i] + (1 - f) * baseSum[i];
+            }
+        }
+        int bucket = (int) (step % queueCount.length);
+        int[] evSyn = queueSyn[bucket];
+        double[] evAmp = queueAmp[bucket];
+        for (int e = 0, n = queueCount[bucket]; e < n; e++) {
+            int k = evSyn[e] & ~RESET_FLAG;
+            int c = synChannel[k];
+            double f = 1 - timeStep / chanTau[c];
+            double base = chanBase[c];
+            // Response of this synapse had it not jumped now
+            double prev = base + (lastValue[k] - base)
+                    * Math.pow(f, step - 1 - lastStep[k]);
+            double decayed = f * prev + (1 - f) * base;
+            double next = synAdditive[k] && evSyn[e] >= 0 ? prev + evAmp[e]
+                    : evAmp[e];
+            chanPsr[c][synTarget[k]] += next - decayed;
+            lastValue[k] = next;
+            lastStep[k] = step;
+        }
+        queueCount[bucket] = 0;
+    }
+
+    /**
+     * Ends an update: queues an event for every efferent synapse of every
+     * source which spiked. Call after spikes have been committed.
+     */
+    public void collectSpikes() {
+        for (int i = 0; i < sources.length; i++) {
+            if (!sources[i].isSpike()) {
+                continue;
+            }
+            for (int p = outPtr[i]; p < outPtr[i + 1]; p++) {
+                int k = outSyn[p];
+                enqueue(k, synJump[k] * synapses[k].getStrength(),
+                        step + 1 + synDelay[k]);
+            }
+        }
+    }
+
+    /**
+     * Adds an event to the bucket for the given arrival step.
+     *
+     * @param k
+     *            the synapse index
+     * @param amp
+     *            the jump amplitude
+     * @param arrival
+     *            the step in which the event arrives
+     */
+    private void enqueue(final int k, final double amp, final long arrival) {
+        int bucket = (int) (arrival % queueCount.length);
+        int n = queueCount[bucket];
+        if (n == queueSyn[bucket].length) {
+            queueSyn[bucket] = Arrays.copyOf(queueSyn[bucket], n * 2);
+            queueAmp[bucket] = Arrays.copyOf(queueAmp[bucket], n * 2);
+        }
+        queueSyn[bucket][n] = k;
+        queueAmp[bucket][n] = amp;
+        queueCount[bucket] = n + 1;
+    }
+
+    /**
+     * Returns the synaptic input to a target: its aggregated responses plus
+     * the responses of any synapses which must be pulled.
+     *
+     * @param i
+     *            the target index
+     * @return the total post-synaptic response
+     */
+    double getInput(final int i) {
+        double sum = 0;
+        for (int c = 0; c < chanPsr.length; c++) {
+            sum += chanPsr[c][i];
+        }
+        Synapse[] syns = pulled[i];
+        for (int j = 0; j < syns.length; j++) {
+            sum += syns[j].calcPSR();
+        }
+        return sum;
+    }
+
+    /**
+     * Writes the current response of every event-driven synapse back to its
+     * PSR field and unbinds all targets, after which they pull their input
+     * from their fan-in again.
+     */
+    public void release() {
+        double timeStep = network.getTimeStep();
+        for (int k = 0; k < synapses.length; k++) {
+            int c = synChannel[k];
+            double f = 1 - timeStep / chanTau[c];
+            synapses[k].setPsr(chanBase[c] + (lastValue[k] - chanBase[c])
+                    * Math.pow(f, step - lastStep[k]));
+        }
+        for (Neuron n : targets) {
+            n.unbindFromPropagator();
+        }
+    }
+
+    /**
+     * @return the number of target neurons bound to this propagator
+     */
+    public int getNumTargets() {
+        return targets.length;
+    }
+
+    /**
+     * @return the number of synapses driven by events
+     */
+    public int getNumEventSynapses() {
+        return synapses.length;
+    }
+
+}
@@ -29,6 +29,7 @@ import org.simbrain.network.synapse_update_rules.spikeresponders.JumpAndDecay;
 import org.simbrain.network.synapse_update_rules.spikeresponders.SpikeResponder;
 import org.simbrain.util.SimbrainConstants.Polarity;
 import org.simbrain.util.Utils;
+import org.simbrain.util.math.SplittableRandomStream;
 
 /**
  * <b>Synapse</b> objects represent "connections" between neurons, which learn
@@ -563,8 +564,8 @@ public class Synapse {
      * Randomize this weight to a value between its upper and lower bounds.
      */
     public void randomize() {
-        strength = (getUpperBound() - getLowerBound()) * Math.random()
-                + getLowerBound();
+        strength = (getUpperBound() - getLowerBound())
+                * getRandomStream().nextDouble() + getLowerBound();
         getNetwork().fireSynapseChanged(this);
     }
 
@@ -693,6 +694,25 @@ public class Synapse {
         return delay;
     }
 
+    /**
+     * @return the value most recently delivered by the delay line.
+     */
+    double getDelayedValue() {
+        return dlyVal;
+    }
+
+    /**
+     * Returns a value waiting in the delay line without removing it.
+     *
+     * @param j
+     *            how many updates from now the value will be delivered, from
+     *            1 to the delay
+     * @return the queued value
+     */
+    double peekDelayed(final int j) {
+        return delayManager[(dlyPtr % delay + j - 1) % delay];
+    }
+
     /**
      * @return the deque.
      */
@@ -903,6 +923,19 @@ public class Synapse {
         return parentGroup;
     }
 
+    /**
+     * Returns the random stream used to randomize this synapse: that of its
+     * synapse group, or of its target neuron if it is a loose synapse.
+     *
+     * @return the random stream
+     */
+    public SplittableRandomStream getRandomStream() {
+        if (parentGroup != null) {
+            return parentGroup.getRandomStream();
+        }
+        return target.getRandomStream();
+    }
+
     /**
      * @param parentGroup
      *            the parentGroup to set
@@ -911,6 +944,16 @@ public class Synapse {
         this.parentGroup = parentGroup;
     }
 
+    /**
+     * @return true if the learning rule of this synapse is applied by its
+     *         parent group, in which case it must not also be applied by
+     *         {@link #update()} (see
+     *         {@link SynapseGroup#setUseSpikeTraceLearning(boolean)}).
+     */
+    public boolean isLearnedByGroup() {
+        return parentGroup != null && parentGroup.isUseSpikeTraceLearning();
+    }
+
     /**
      * Decay this synapse by the indicated percentage. E.g. .5 cuts the strength
      * in half.
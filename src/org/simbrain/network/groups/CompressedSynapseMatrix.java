@@ -0,0 +1,681 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.groups;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.simbrain.network.synapse_update_rules.spikeresponders.JumpAndDecay;
+
+/**
+ * <b>CompressedSynapseMatrix</b> stores the weights, delays and post synaptic
+ * responses of a synapse group in compressed sparse row form, with one row
+ * per <i>target</i> neuron. Each row lists the indices (in the source neuron
+ * group) of the neurons projecting to that target along with the
+ * corresponding weights, so that computing the input to every target is a
+ * single sparse matrix-vector product over the source activations.
+ *
+ * Synapses held here are not represented as {@link
+ * org.simbrain.network.core.Synapse} objects. See
+ * {@link SynapseGroup#compress()}.
+ *
+ * For spiking source neurons post synaptic responses follow jump and decay
+ * dynamics (see {@link JumpAndDecay}), with separate parameters for
+ * excitatory and inhibitory synapses. Delays are applied to the source
+ * activations (or spikes) by keeping a short history of the source state.
+ *
+ * Subclasses may keep the per-synapse arrays outside the heap (see
+ * {@link MappedSynapseMatrix}); they pass ranges of rows to
+ * {@link #propagateRows} instead.
+ */
+public class CompressedSynapseMatrix {
+
+    /** Number of neurons in the source group (columns). */
+    private final int numSources;
+
+    /** Number of neurons in the target group (rows). */
+    private final int numTargets;
+
+    /**
+     * Row pointers: the synapses onto target <i>t</i> occupy indices
+     * rowPtr[t] (inclusive) to rowPtr[t + 1] (exclusive).
+     */
+    private final int[] rowPtr;
+
+    /** Source neuron index of each synapse. */
+    private final int[] srcIdx;
+
+    /** Weight of each synapse. */
+    private final double[] weights;
+
+    /** Delay of each synapse in time steps, or null if none are delayed. */
+    private final int[] delays;
+
+    /** Largest value in {@link #delays}. */
+    private final int maxDelay;
+
+    /** Post synaptic responses, only used if the source is spiking. */
+    private double[] psrs;
+
+    /** True if this matrix propagates spike responses. */
+    private boolean spiking;
+
+    /** Jump height for excitatory spike responses. */
+    private double exJumpHeight = 1;
+
+    /** Baseline for excitatory spike responses. */
+    private double exBaseLine;
+
+    /** Decay time constant for excitatory spike responses. */
+    private double exTimeConstant = 3;
+
+    /** Jump height for inhibitory spike responses. */
+    private double inJumpHeight = 1;
+
+    /** Baseline for inhibitory spike responses. */
+    private double inBaseLine;
+
+    /** Decay time constant for inhibitory spike responses. */
+    private double inTimeConstant = 3;
+
+    /** Recent source activations, used to implement delays. */
+    private double[][] actHistory;
+
+    /** Recent source spike words, used to implement delays. */
+    private long[][] spikeHistory;
+
+    /** Slot in the history buffers holding the current time step. */
+    private int histPtr;
+
+    /**
+     * Construct a matrix directly from its compressed components. The arrays
+     * are adopted, not copied.
+     *
+     * @param numSources
+     *            number of source neurons
+     * @param numTargets
+     *            number of target neurons
+     * @param rowPtr
+     *            row pointers, of length numTargets + 1
+     * @param srcIdx
+     *            source index of each synapse
+     * @param weights
+     *            weight of each synapse
+     * @param delays
+     *            delay of each synapse, or null if there are no delays
+     */
+    public CompressedSynapseMatrix(final int numSources,
+            final int numTargets, final int[] rowPtr, final int[] srcIdx,
+            final double[] weights, final int[] delays) {
+        if (rowPtr.length != numTargets + 1) {
+            throw new IllegalArgumentException("Row pointer array must have"
+                    + " one more entry than there are target neurons.");
+        }
+        if (srcIdx.length != weights.length
+                || (delays != null && delays.length != weights.length)) {
+            throw new IllegalArgumentException("Index, weight and delay"
+                    + " arrays must all have the same length.");
+        }
+        this.numSources = numSources;
+        this.numTargets = numTargets;
+        this.rowPtr = rowPtr;
+        this.srcIdx = srcIdx;
+        this.weights = weights;
+        int mxDly = 0;
+        if (delays != null) {
+            for (int d : delays) {
+                if (d > mxDly) {
+                    mxDly = d;
+                }
+            }
+        }
+        this.delays = mxDly == 0 ? null : delays;
+        this.maxDelay = mxDly;
+    }
+
+    /**
+     * Construct a matrix whose per-synapse arrays are kept elsewhere by a
+     * subclass, which must then override the methods that read them.
+     *
+     * @param numSources
+     *            number of source neurons
+     * @param numTargets
+     *            number of target neurons
+     * @param rowPtr
+     *            row pointers, of length numTargets + 1
+     * @param maxDelay
+     *            largest delay of any synapse
+     */
+    protected CompressedSynapseMatrix(final int numSources,
+            final int numTargets, final int[] rowPtr, final int maxDelay) {
+        if (rowPtr.length != numTargets + 1) {
+            throw new IllegalArgumentException("Row pointer array must have"
+                    + " one more entry than there are target neurons.");
+        }
+        this.numSources = numSources;
+        this.numTargets = numTargets;
+        this.rowPtr = rowPtr;
+        this.srcIdx = null;
+        this.weights = null;
+        this.delays = null;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Build a matrix from an unordered edge list. Edges are bucketed by target
+     * with a counting sort, so construction is linear in the number of edges.
+     *
+     * @param numSources
+     *            number of source neurons
+     * @param numTargets
+     *            number of target neurons
+     * @param sources
+     *            source index of each edge
+     * @param targets
+     *            target index of each edge
+     * @param wts
+     *            weight of each edge
+     * @param dlys
+     *            delay of each edge, or null for no delays
+     * @param numEdges
+     *            number of valid entries in the edge arrays
+     * @return the compressed matrix
+     */
+    public static CompressedSynapseMatrix fromEdgeList(final int numSources,
+            final int numTargets, final int[] sources, final int[] targets,
+            final double[] wts, final int[] dlys, final int numEdges) {
+        int[] rowPtr = new int[numTargets + 1];
+        for (int k = 0; k < numEdges; k++) {
+            rowPtr[targets[k] + 1]++;
+        }
+        for (int t = 0; t < numTargets; t++) {
+            rowPtr[t + 1] += rowPtr[t];
+        }
+        int[] fill = new int[numTargets];
+        System.arraycopy(rowPtr, 0, fill, 0, numTargets);
+        int[] srcIdx = new int[numEdges];
+        double[] weights = new double[numEdges];
+        int[] delays = dlys == null ? null : new int[numEdges];
+        for (int k = 0; k < numEdges; k++) {
+            int slot = fill[targets[k]]++;
+            srcIdx[slot] = sources[k];
+            weights[slot] = wts[k];
+            if (delays != null) {
+                delays[slot] = dlys[k];
+            }
+        }
+        return new CompressedSynapseMatrix(numSources, numTargets, rowPtr,
+                srcIdx, weights, delays);
+    }
+
+    /**
+     * Use jump and decay post synaptic responses for spiking source neurons,
+     * with the parameters of the given responders. Passing null for both
+     * turns spike responses off, in which case the matrix propagates
+     * activations.
+     *
+     * @param exResponder
+     *            responder whose parameters apply to positive weights
+     * @param inResponder
+     *            responder whose parameters apply to negative weights
+     */
+    public void setSpikeResponders(final JumpAndDecay exResponder,
+            final JumpAndDecay inResponder) {
+        if (exResponder == null && inResponder == null) {
+            spiking = false;
+            psrs = null;
+            return;
+        }
+        if (exResponder != null) {
+            exJumpHeight = exResponder.getJumpHeight();
+            exBaseLine = exResponder.getBaseLine();
+            exTimeConstant = exResponder.getTimeConstant();
+        }
+        if (inResponder != null) {
+            inJumpHeight = inResponder.getJumpHeight();
+            inBaseLine = inResponder.getBaseLine();
+            inTimeConstant = inResponder.getTimeConstant();
+        }
+        if (!spiking) {
+            spiking = true;
+            allocateResponses();
+        }
+    }
+
+    /**
+     * Allocate (zeroed) storage for one post synaptic response per synapse.
+     */
+    protected void allocateResponses() {
+        psrs = new double[weights.length];
+    }
+
+    /**
+     * @return true if this matrix propagates spike responses rather than
+     *         activations.
+     */
+    public boolean isSpiking() {
+        return spiking;
+    }
+
+    /**
+     * Adds the input each target receives through this matrix to the
+     * corresponding entry of <code>out</code>. For non-spiking sources this is
+     * the weighted sum of (possibly delayed) source activations; for spiking
+     * sources it is the sum of post synaptic responses, which are updated
+     * here.
+     *
+     * @param srcActs
+     *            the activations of the source neurons
+     * @param srcSpikes
+     *            the spike flags of the source neurons, 64 to a word with
+     *            source i in bit i % 64 of word i / 64; only read if this
+     *            matrix is spiking
+     * @param timeStep
+     *            the network time step, used to decay spike responses
+     * @param out
+     *            array of length numTargets to accumulate into
+     */
+    public void propagate(final double[] srcActs, final long[] srcSpikes,
+            final double timeStep, final double[] out) {
+        if (maxDelay > 0) {
+            pushHistory(srcActs, srcSpikes);
+        }
+        propagateSynapses(srcActs, srcSpikes, timeStep, out);
+    }
+
+    /**
+     * Propagates every row of the matrix. Subclasses which keep synapses
+     * outside the heap override this to call {@link #propagateRows} on
+     * successive ranges of rows.
+     *
+     * @param srcActs
+     *            source activations
+     * @param srcSpikes
+     *            source spikes
+     * @param timeStep
+     *            network time step
+     * @param out
+     *            accumulator
+     */
+    protected void propagateSynapses(final double[] srcActs,
+            final long[] srcSpikes, final double timeStep, final double[] out) {
+        propagateRows(0, numTargets, 0, srcIdx, weights, delays, psrs,
+                srcActs, srcSpikes, timeStep, out);
+    }
+
+    /**
+     * Propagates the rows for targets t0 (inclusive) to t1 (exclusive). The
+     * per-synapse arrays hold the synapses of those rows starting with
+     * synapse <code>base</code>, that is synapse k is at index k - base.
+     *
+     * @param t0
+     *            first target row
+     * @param t1
+     *            end of the range of target rows
+     * @param base
+     *            index of the first synapse held by the arrays
+     * @param idx
+     *            source index of each synapse
+     * @param wts
+     *            weight of each synapse
+     * @param dlys
+     *            delay of each synapse, or null if there are no delays
+     * @param psr
+     *            post synaptic responses, updated in place; only used if
+     *            this matrix is spiking
+     * @param srcActs
+     *            source activations
+     * @param srcSpikes
+     *            source spikes
+     * @param timeStep
+     *            network time step
+     * @param out
+     *            accumulator
+     */
+    protected final void propagateRows(final int t0, final int t1,
+            final int base, final int[] idx, final double[] wts,
+            final int[] dlys, final double[] psr, final double[] srcActs,
+            final long[] srcSpikes, final double timeStep, final double[] out) {
+        if (!spiking) {
+            propagateActivations(t0, t1, base, idx, wts, dlys, srcActs, out);
+        } else {
+            propagateSpikes(t0, t1, base, idx, wts, dlys, psr, srcSpikes,
+                    timeStep, out);
+        }
+    }
+
+    /**
+     * Weighted sum of source activations into each target row in a range.
+     * See {@link #propagateRows} for the arguments.
+     */
+    private void propagateActivations(final int t0, final int t1,
+            final int base, final int[] idx, final double[] wts,
+            final int[] dlys, final double[] srcActs, final double[] out) {
+        if (dlys == null) {
+            for (int t = t0; t < t1; t++) {
+                double sum = 0;
+                for (int k = rowPtr[t] - base, end = rowPtr[t + 1] - base;
+                        k < end; k++) {
+                    sum += wts[k] * srcActs[idx[k]];
+                }
+                out[t] += sum;
+            }
+        } else {
+            int len = actHistory.length;
+            for (int t = t0; t < t1; t++) {
+                double sum = 0;
+                for (int k = rowPtr[t] - base, end = rowPtr[t + 1] - base;
+                        k < end; k++) {
+                    double[] acts = actHistory[(histPtr - dlys[k] + len)
+                            % len];
+                    sum += wts[k] * acts[idx[k]];
+                }
+                out[t] += sum;
+            }
+        }
+    }
+
+    /**
+     * Jump and decay update of every post synaptic response in a range of
+     * rows, summed into each target row. See {@link #propagateRows} for the
+     * arguments.
+     */
+    private void propagateSpikes(final int t0, final int t1, final int base,
+            final int[] idx, final double[] wts, final int[] dlys,
+            final double[] psr, final long[] srcSpikes,
+            final double timeStep, final double[] out) {
+        double exDecay = timeStep / exTimeConstant;
+        double inDecay = timeStep / inTimeConstant;
+        int len = spikeHistory == null ? 0 : spikeHistory.length;
+        for (int t = t0; t < t1; t++) {
+            double sum = 0;
+            for (int k = rowPtr[t] - base, end = rowPtr[t + 1] - base;
+                    k < end; k++) {
+                long[] words = dlys == null ? srcSpikes
+                        : spikeHistory[(histPtr - dlys[k] + len) % len];
+                int i = idx[k];
+                boolean spiked = (words[i >>> 6] & (1L << i)) != 0;
+                double w = wts[k];
+                double p = psr[k];
+                if (w > 0) {
+                    p = spiked ? exJumpHeight * w : p + exDecay
+                            * (exBaseLine - p);
+                } else {
+                    p = spiked ? inJumpHeight * w : p + inDecay
+                            * (inBaseLine - p);
+                }
+                psr[k] = p;
+                sum += p;
+            }
+            out[t] += sum;
+        }
+    }
+
+    /**
+     * Record the current source state in the history buffers used for
+     * delays.
+     *
+     * @param srcActs
+     *            source activations
+     * @param srcSpikes
+     *            source spikes
+     */
+    private void pushHistory(final double[] srcActs, final long[] srcSpikes) {
+        if (!spiking) {
+            if (actHistory == null) {
+                actHistory = new double[maxDelay + 1][numSources];
+            }
+            histPtr = (histPtr + 1) % actHistory.length;
+            System.arraycopy(srcActs, 0, actHistory[histPtr], 0, numSources);
+        } else {
+            if (spikeHistory == null) {
+                spikeHistory = new long[maxDelay + 1][(numSources + 63) >>> 6];
+            }
+            histPtr = (histPtr + 1) % spikeHistory.length;
+            System.arraycopy(srcSpikes, 0, spikeHistory[histPtr], 0,
+                    spikeHistory[histPtr].length);
+        }
+    }
+
+    /**
+     * @return a dense [source][target] weight matrix. Only use on small
+     *         matrices.
+     */
+    public double[][] toDenseMatrix() {
+        int[] counts = countSourceSynapses();
+        int[] ptr = new int[numSources + 1];
+        for (int s = 0; s < numSources; s++) {
+            ptr[s + 1] = ptr[s] + counts[s];
+        }
+        int[] tars = new int[ptr[numSources]];
+        double[] wts = new double[ptr[numSources]];
+        readSourceRows(0, ptr, tars, wts);
+        double[][] mat = new double[numSources][numTargets];
+        for (int s = 0; s < numSources; s++) {
+            for (int j = ptr[s]; j < ptr[s + 1]; j++) {
+                mat[s][tars[j]] = wts[j];
+            }
+        }
+        return mat;
+    }
+
+    /**
+     * @return the number of synapses of each source
+     */
+    public int[] countSourceSynapses() {
+        int[] counts = new int[numSources];
+        for (int k = 0, n = rowPtr[numTargets]; k < n; k++) {
+            counts[srcIdx[k]]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Reads the synapses of a range of sources grouped by source, in a single
+     * pass over the matrix, so that the [source][target] matrix can be
+     * written out row by row. The synapses of each source are in order of
+     * target.
+     *
+     * @param firstSource
+     *            the first source of the range
+     * @param ptr
+     *            offsets: the synapses of source firstSource + i go in
+     *            [ptr[i], ptr[i + 1]) of the arrays below, so the range has
+     *            ptr.length - 1 sources (see {@link #countSourceSynapses()})
+     * @param targets
+     *            filled with the target index of each synapse
+     * @param wts
+     *            filled with the weight of each synapse
+     */
+    public void readSourceRows(final int firstSource, final int[] ptr,
+            final int[] targets, final double[] wts) {
+        int[] next = Arrays.copyOf(ptr, ptr.length - 1);
+        for (int t = 0; t < numTargets; t++) {
+            for (int k = rowPtr[t], end = rowPtr[t + 1]; k < end; k++) {
+                int s = srcIdx[k] - firstSource;
+                if (s >= 0 && s < next.length) {
+                    int j = next[s]++;
+                    targets[j] = t;
+                    wts[j] = weights[k];
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of synapses with weights greater than zero.
+     */
+    public int getNumExcitatory() {
+        int count = 0;
+        for (double w : weights) {
+            if (w > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of synapses stored in this matrix.
+     */
+    public int getNumSynapses() {
+        return weights.length;
+    }
+
+    /**
+     * @param k
+     *            index of a synapse
+     * @return its weight
+     */
+    public double getWeight(final int k) {
+        return weights[k];
+    }
+
+    /**
+     * Sets the weight of a synapse. Changing its sign changes which spike
+     * response parameters apply from the next time step.
+     *
+     * @param k
+     *            index of a synapse
+     * @param w
+     *            the new weight
+     */
+    public void setWeight(final int k, final double w) {
+        weights[k] = w;
+    }
+
+    /**
+     * @return number of source neurons
+     */
+    public int getNumSources() {
+        return numSources;
+    }
+
+    /**
+     * @return number of target neurons
+     */
+    public int getNumTargets() {
+        return numTargets;
+    }
+
+    /**
+     * @return the row pointers (one per target, plus one). Not a copy.
+     */
+    public int[] getRowPointers() {
+        return rowPtr;
+    }
+
+    /**
+     * @return the source index of each synapse. Not a copy.
+     */
+    public int[] getSourceIndices() {
+        return srcIdx;
+    }
+
+    /**
+     * @return the weight of each synapse. Not a copy, so writes change the
+     *         weights.
+     */
+    public double[] getWeights() {
+        return weights;
+    }
+
+    /**
+     * @return largest delay of any synapse, in time steps
+     */
+    public int getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * @return the delay of each synapse, or null if none are delayed.
+     */
+    public int[] getDelays() {
+        return delays;
+    }
+
+    /**
+     * Encode the structure, weights and delays of this matrix. Post synaptic
+     * responses and delay histories are transient and are not encoded.
+     *
+     * @return the byte encoding of this matrix
+     */
+    public byte[] toByteArray() {
+        int nnz = weights.length;
+        int numBytes = 4 * 4 + 4 * rowPtr.length + nnz * (4 + 8)
+                + (delays == null ? 0 : 4 * nnz);
+        ByteBuffer buff = ByteBuffer.allocate(numBytes);
+        buff.putInt(numSources);
+        buff.putInt(numTargets);
+        buff.putInt(nnz);
+        buff.putInt(delays == null ? 0 : 1);
+        for (int p : rowPtr) {
+            buff.putInt(p);
+        }
+        for (int i : srcIdx) {
+            buff.putInt(i);
+        }
+        for (double w : weights) {
+            buff.putDouble(w);
+        }
+        if (delays != null) {
+            for (int d : delays) {
+                buff.putInt(d);
+            }
+        }
+        return buff.array();
+    }
+
+    /**
+     * Decode a matrix encoded with {@link #toByteArray()}.
+     *
+     * @param bytes
+     *            the encoded matrix
+     * @return the decoded matrix
+     */
+    public static CompressedSynapseMatrix fromByteArray(final byte[] bytes) {
+        ByteBuffer buff = ByteBuffer.wrap(bytes);
+        int numSources = buff.getInt();
+        int numTargets = buff.getInt();
+        int nnz = buff.getInt();
+        boolean hasDelays = buff.getInt() != 0;
+        int[] rowPtr = new int[numTargets + 1];
+        for (int i = 0; i < rowPtr.length; i++) {
+            rowPtr[i] = buff.getInt();
+        }
+        int[] srcIdx = new int[nnz];
+        for (int i = 0; i < nnz; i++) {
+            srcIdx[i] = buff.getInt();
+        }
+        double[] weights = new double[nnz];
+        for (int i = 0; i < nnz; i++) {
+            weights[i] = buff.getDouble();
+        }
+        int[] delays = null;
+        if (hasDelays) {
+            delays = new int[nnz];
+            for (int i = 0; i < nnz; i++) {
+                delays[i] = buff.getInt();
+            }
+        }
+        return new CompressedSynapseMatrix(numSources, numTargets, rowPtr,
+                srcIdx, weights, delays);
+    }
+
+}
@@ -19,6 +19,7 @@
 package org.simbrain.network.groups;
 
 import org.simbrain.network.core.Network;
+import org.simbrain.util.math.SplittableRandomStream;
 
 /**
  * <b>Group</b>: a logical group of neurons and / or synapses. Its gui
@@ -119,6 +120,18 @@ public abstract class Group {
         return id;
     }
 
+    /**
+     * Returns this group's own random stream, split from its network's seed
+     * by the group's id (see {@link Network#getRandomStream(String)}), for
+     * randomness which belongs to the group as a whole, e.g. making
+     * connections.
+     *
+     * @return the group's random stream
+     */
+    public SplittableRandomStream getRandomStream() {
+        return parentNetwork.getRandomStream(getId());
+    }
+
     /**
      * @param id the id to set
      */
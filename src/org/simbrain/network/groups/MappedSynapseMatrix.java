@@ -0,0 +1,809 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.groups;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * <b>MappedSynapseMatrix</b> is a {@link CompressedSynapseMatrix} whose
+ * source indices, weights and delays live in a memory-mapped file rather than
+ * on the heap, so that a synapse group can hold more connections than fit in
+ * memory. Only the row pointers (one per target neuron) are kept on the heap.
+ * During propagation rows are read a window at a time, so the operating
+ * system pages the file in as it is needed and can evict pages which have
+ * been used. Post synaptic responses, if used, are kept in a mapped scratch
+ * file which is deleted on exit.
+ *
+ * Weights changed with {@link #setWeight(int, double)} are written straight
+ * to the mapping; the pages they fall in are tracked so that {@link #flush()}
+ * only forces the parts of the file that changed out to disk.
+ *
+ * File layout (big-endian): a header of seven ints (magic number, version,
+ * number of sources, number of targets, number of synapses, whether delays
+ * are stored, largest delay), the row pointers, the source indices, padding
+ * to a multiple of 8 bytes, the weights, and the delays if any.
+ *
+ * Use {@link Writer} to create a file and {@link #open(File)} to map an
+ * existing one.
+ */
+public class MappedSynapseMatrix extends CompressedSynapseMatrix {
+
+    /** Magic number at the start of every file: "SBMM". */
+    private static final int MAGIC = 0x53424D4D;
+
+    /** Version of the file layout. */
+    private static final int VERSION = 1;
+
+    /** Size of the file header in bytes. */
+    private static final int HEADER_BYTES = 7 * 4;
+
+    /** Log2 of the number of elements in each mapped segment. */
+    private static final int SEGMENT_SHIFT = 26;
+
+    /** Number of elements in each mapped segment. */
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+
+    /** Mask giving the index of an element within its segment. */
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    /** Log2 of the number of weights in a page tracked for writes. */
+    private static final int PAGE_SHIFT = 12;
+
+    /** Number of synapses read into the heap at a time when propagating. */
+    private static final int WINDOW = 1 << 16;
+
+    /** The file holding the matrix. */
+    private final File file;
+
+    /** Number of synapses. */
+    private final int numSynapses;
+
+    /** Source indices, in segments. */
+    private final IntBuffer[] srcSegments;
+
+    /** Weights, in segments. */
+    private final DoubleBuffer[] weightSegments;
+
+    /** The mappings underlying {@link #weightSegments}, for flushing. */
+    private final MappedByteBuffer[] weightMaps;
+
+    /** Delays, in segments, or null if none are delayed. */
+    private final IntBuffer[] delaySegments;
+
+    /** Post synaptic responses, in segments, once allocated. */
+    private DoubleBuffer[] psrSegments;
+
+    /** Pages of weights changed since the last flush. */
+    private final BitSet dirtyPages = new BitSet();
+
+    /** Window of source indices. */
+    private int[] srcWindow = new int[0];
+
+    /** Window of weights. */
+    private double[] weightWindow = new double[0];
+
+    /** Window of delays. */
+    private int[] delayWindow = new int[0];
+
+    /** Window of post synaptic responses. */
+    private double[] psrWindow = new double[0];
+
+    /**
+     * Maps a matrix file.
+     *
+     * @param file
+     *            the file
+     * @param numSources
+     *            number of source neurons
+     * @param numTargets
+     *            number of target neurons
+     * @param rowPtr
+     *            row pointers, read from the file
+     * @param numSynapses
+     *            number of synapses
+     * @param hasDelays
+     *            whether the file stores delays
+     * @param maxDelay
+     *            largest delay
+     * @param channel
+     *            open channel on the file
+     * @throws IOException
+     *             if the file cannot be mapped
+     */
+    private MappedSynapseMatrix(final File file, final int numSources,
+            final int numTargets, final int[] rowPtr, final int numSynapses,
+            final boolean hasDelays, final int maxDelay,
+            final FileChannel channel) throws IOException {
+        super(numSources, numTargets, rowPtr, maxDelay);
+        this.file = file;
+        this.numSynapses = numSynapses;
+        Layout layout = new Layout(numTargets, numSynapses, hasDelays);
+        srcSegments = mapInts(channel, layout.srcOffset, numSynapses);
+        weightMaps = map(channel, layout.weightOffset, numSynapses, 8);
+        weightSegments = new DoubleBuffer[weightMaps.length];
+        for (int i = 0; i < weightMaps.length; i++) {
+            weightSegments[i] = weightMaps[i].asDoubleBuffer();
+        }
+        delaySegments = hasDelays && maxDelay > 0 ? mapInts(channel,
+                layout.delayOffset, numSynapses) : null;
+    }
+
+    /**
+     * Maps an existing matrix file for reading and writing.
+     *
+     * @param file
+     *            the file, as written by {@link Writer}
+     * @return the matrix
+     * @throws IOException
+     *             if the file cannot be read or is not a matrix file
+     */
+    public static MappedSynapseMatrix open(final File file)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException(file + " is truncated");
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a synapse matrix file");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported synapse matrix version "
+                        + version);
+            }
+            int numSources = header.getInt();
+            int numTargets = header.getInt();
+            int numSynapses = header.getInt();
+            boolean hasDelays = header.getInt() != 0;
+            int maxDelay = header.getInt();
+            int[] rowPtr = new int[numTargets + 1];
+            IntBuffer rows = channel.map(MapMode.READ_ONLY, HEADER_BYTES,
+                    4L * rowPtr.length).asIntBuffer();
+            rows.get(rowPtr);
+            return new MappedSynapseMatrix(file, numSources, numTargets,
+                    rowPtr, numSynapses, hasDelays, maxDelay, channel);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Builds a matrix file from an unordered edge list, as
+     * {@link CompressedSynapseMatrix#fromEdgeList} does on the heap, and maps
+     * it.
+     *
+     * @param file
+     *            the file to create (any existing file is replaced)
+     * @param numSources
+     *            number of source neurons
+     * @param numTargets
+     *            number of target neurons
+     * @param sources
+     *            source index of each edge
+     * @param targets
+     *            target index of each edge
+     * @param wts
+     *            weight of each edge
+     * @param dlys
+     *            delay of each edge, or null for no delays
+     * @param numEdges
+     *            number of valid entries in the edge arrays
+     * @return the matrix
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public static MappedSynapseMatrix fromEdgeList(final File file,
+            final int numSources, final int numTargets, final int[] sources,
+            final int[] targets, final double[] wts, final int[] dlys,
+            final int numEdges) throws IOException {
+        int[] rowLengths = new int[numTargets];
+        for (int k = 0; k < numEdges; k++) {
+            rowLengths[targets[k]]++;
+        }
+        Writer writer = new Writer(file, numSources, numTargets, rowLengths,
+                dlys != null);
+        int[] fill = new int[numTargets];
+        System.arraycopy(writer.getRowPointers(), 0, fill, 0, numTargets);
+        for (int k = 0; k < numEdges; k++) {
+            writer.set(fill[targets[k]]++, sources[k], wts[k],
+                    dlys == null ? 0 : dlys[k]);
+        }
+        return writer.finish();
+    }
+
+    @Override
+    protected void propagateSynapses(final double[] srcActs,
+            final long[] srcSpikes, final double timeStep, final double[] out) {
+        int[] rowPtr = getRowPointers();
+        int numTargets = getNumTargets();
+        boolean spiking = isSpiking();
+        int t0 = 0;
+        while (t0 < numTargets) {
+            int start = rowPtr[t0];
+            int t1 = t0 + 1;
+            while (t1 < numTargets && rowPtr[t1 + 1] - start <= WINDOW) {
+                t1++;
+            }
+            int len = rowPtr[t1] - start;
+            ensureWindow(len);
+            read(srcSegments, start, srcWindow, len);
+            read(weightSegments, start, weightWindow, len);
+            if (delaySegments != null) {
+                read(delaySegments, start, delayWindow, len);
+            }
+            if (spiking) {
+                read(psrSegments, start, psrWindow, len);
+            }
+            propagateRows(t0, t1, start, srcWindow, weightWindow,
+                    delaySegments == null ? null : delayWindow, psrWindow,
+                    srcActs, srcSpikes, timeStep, out);
+            if (spiking) {
+                write(psrSegments, start, psrWindow, len);
+            }
+            t0 = t1;
+        }
+    }
+
+    /**
+     * Grows the heap windows to hold at least the given number of synapses.
+     *
+     * @param len
+     *            number of synapses
+     */
+    private void ensureWindow(final int len) {
+        if (srcWindow.length < len) {
+            srcWindow = new int[len];
+            weightWindow = new double[len];
+            if (delaySegments != null) {
+                delayWindow = new int[len];
+            }
+            if (psrSegments != null) {
+                psrWindow = new double[len];
+            }
+        }
+    }
+
+    /**
+     * Maps a zeroed scratch file to hold post synaptic responses.
+     */
+    @Override
+    protected void allocateResponses() {
+        try {
+            File scratch = File.createTempFile("simbrain-psr", ".tmp");
+            scratch.deleteOnExit();
+            RandomAccessFile raf = new RandomAccessFile(scratch, "rw");
+            try {
+                raf.setLength(8L * numSynapses);
+                MappedByteBuffer[] maps = map(raf.getChannel(), 0,
+                        numSynapses, 8);
+                psrSegments = new DoubleBuffer[maps.length];
+                for (int i = 0; i < maps.length; i++) {
+                    psrSegments[i] = maps[i].asDoubleBuffer();
+                }
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not create scratch file"
+                    + " for post synaptic responses.", e);
+        }
+        psrWindow = new double[srcWindow.length];
+    }
+
+    @Override
+    public int[] countSourceSynapses() {
+        int[] counts = new int[getNumSources()];
+        ensureWindow(Math.min(WINDOW, numSynapses));
+        for (int start = 0; start < numSynapses; start += WINDOW) {
+            int len = Math.min(WINDOW, numSynapses - start);
+            read(srcSegments, start, srcWindow, len);
+            for (int i = 0; i < len; i++) {
+                counts[srcWindow[i]]++;
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public void readSourceRows(final int firstSource, final int[] ptr,
+            final int[] targets, final double[] wts) {
+        int[] next = Arrays.copyOf(ptr, ptr.length - 1);
+        int[] rowPtr = getRowPointers();
+        ensureWindow(Math.min(WINDOW, numSynapses));
+        int t = 0;
+        for (int start = 0; start < numSynapses; start += WINDOW) {
+            int len = Math.min(WINDOW, numSynapses - start);
+            read(srcSegments, start, srcWindow, len);
+            read(weightSegments, start, weightWindow, len);
+            for (int i = 0; i < len; i++) {
+                while (rowPtr[t + 1] <= start + i) {
+                    t++;
+                }
+                int s = srcWindow[i] - firstSource;
+                if (s >= 0 && s < next.length) {
+                    int j = next[s]++;
+                    targets[j] = t;
+                    wts[j] = weightWindow[i];
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getNumExcitatory() {
+        int count = 0;
+        ensureWindow(Math.min(WINDOW, numSynapses));
+        for (int start = 0; start < numSynapses; start += WINDOW) {
+            int len = Math.min(WINDOW, numSynapses - start);
+            read(weightSegments, start, weightWindow, len);
+            for (int i = 0; i < len; i++) {
+                if (weightWindow[i] > 0) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int getNumSynapses() {
+        return numSynapses;
+    }
+
+    /**
+     * @return a copy of the source index of each synapse, read from the
+     *         file.
+     */
+    @Override
+    public int[] getSourceIndices() {
+        int[] copy = new int[numSynapses];
+        read(srcSegments, 0, copy, numSynapses);
+        return copy;
+    }
+
+    /**
+     * @return a copy of the weight of each synapse, read from the file.
+     *         Writes to the copy do not change the weights; use
+     *         {@link #setWeight(int, double)}.
+     */
+    @Override
+    public double[] getWeights() {
+        double[] copy = new double[numSynapses];
+        read(weightSegments, 0, copy, numSynapses);
+        return copy;
+    }
+
+    /**
+     * @return a copy of the delay of each synapse read from the file, or null
+     *         if none are delayed.
+     */
+    @Override
+    public int[] getDelays() {
+        if (delaySegments == null) {
+            return null;
+        }
+        int[] copy = new int[numSynapses];
+        read(delaySegments, 0, copy, numSynapses);
+        return copy;
+    }
+
+    @Override
+    public double getWeight(final int k) {
+        return weightSegments[k >>> SEGMENT_SHIFT].get(k & SEGMENT_MASK);
+    }
+
+    /**
+     * Sets the weight of a synapse in the mapped file and marks its page
+     * dirty.
+     *
+     * @param k
+     *            index of a synapse
+     * @param w
+     *            the new weight
+     */
+    @Override
+    public void setWeight(final int k, final double w) {
+        weightSegments[k >>> SEGMENT_SHIFT].put(k & SEGMENT_MASK, w);
+        dirtyPages.set(k >>> PAGE_SHIFT);
+    }
+
+    /**
+     * Forces the segments of the file holding changed weights out to disk
+     * and clears the dirty pages.
+     */
+    public void flush() {
+        int pagesPerSegment = 1 << (SEGMENT_SHIFT - PAGE_SHIFT);
+        for (int page = dirtyPages.nextSetBit(0); page >= 0; page = dirtyPages
+                .nextSetBit(page + 1)) {
+            int segment = page / pagesPerSegment;
+            weightMaps[segment].force();
+            page = (segment + 1) * pagesPerSegment - 1;
+        }
+        dirtyPages.clear();
+    }
+
+    /**
+     * @return the number of pages of weights changed since the last flush
+     */
+    public int getNumDirtyPages() {
+        return dirtyPages.cardinality();
+    }
+
+    /**
+     * Encodes the whole matrix on the heap. Only use on matrices which fit in
+     * memory; synapse groups save the path of the file instead.
+     *
+     * @return the byte encoding of this matrix
+     */
+    @Override
+    public byte[] toByteArray() {
+        return new CompressedSynapseMatrix(getNumSources(), getNumTargets(),
+                getRowPointers(), getSourceIndices(), getWeights(),
+                getDelays()).toByteArray();
+    }
+
+    /**
+     * @return the file holding this matrix
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Copies elements from segmented storage into an array.
+     *
+     * @param segments
+     *            the segments
+     * @param start
+     *            index of the first element
+     * @param dest
+     *            the array, filled from index 0
+     * @param len
+     *            number of elements
+     */
+    private static void read(final IntBuffer[] segments, final int start,
+            final int[] dest, final int len) {
+        int done = 0;
+        while (done < len) {
+            int k = start + done;
+            int off = k & SEGMENT_MASK;
+            int n = Math.min(len - done, SEGMENT_SIZE - off);
+            IntBuffer seg = segments[k >>> SEGMENT_SHIFT].duplicate();
+            seg.position(off);
+            seg.get(dest, done, n);
+            done += n;
+        }
+    }
+
+    /**
+     * Copies elements from segmented storage into an array.
+     *
+     * @param segments
+     *            the segments
+     * @param start
+     *            index of the first element
+     * @param dest
+     *            the array, filled from index 0
+     * @param len
+     *            number of elements
+     */
+    private static void read(final DoubleBuffer[] segments, final int start,
+            final double[] dest, final int len) {
+        int done = 0;
+        while (done < len) {
+            int k = start + done;
+            int off = k & SEGMENT_MASK;
+            int n = Math.min(len - done, SEGMENT_SIZE - off);
+            DoubleBuffer seg = segments[k >>> SEGMENT_SHIFT].duplicate();
+            seg.position(off);
+            seg.get(dest, done, n);
+            done += n;
+        }
+    }
+
+    /**
+     * Copies elements from an array into segmented storage.
+     *
+     * @param segments
+     *            the segments
+     * @param start
+     *            index of the first element
+     * @param src
+     *            the array, read from index 0
+     * @param len
+     *            number of elements
+     */
+    private static void write(final DoubleBuffer[] segments, final int start,
+            final double[] src, final int len) {
+        int done = 0;
+        while (done < len) {
+            int k = start + done;
+            int off = k & SEGMENT_MASK;
+            int n = Math.min(len - done, SEGMENT_SIZE - off);
+            DoubleBuffer seg = segments[k >>> SEGMENT_SHIFT].duplicate();
+            seg.position(off);
+            seg.put(src, done, n);
+            done += n;
+        }
+    }
+
+    /**
+     * Maps a region of a file holding ints, in segments.
+     *
+     * @param channel
+     *            channel on the file
+     * @param offset
+     *            byte offset of the region
+     * @param count
+     *            number of ints
+     * @return the segments
+     * @throws IOException
+     *             if the region cannot be mapped
+     */
+    private static IntBuffer[] mapInts(final FileChannel channel,
+            final long offset, final int count) throws IOException {
+        MappedByteBuffer[] maps = map(channel, offset, count, 4);
+        IntBuffer[] segments = new IntBuffer[maps.length];
+        for (int i = 0; i < maps.length; i++) {
+            segments[i] = maps[i].asIntBuffer();
+        }
+        return segments;
+    }
+
+    /**
+     * Maps a region of a file in segments of {@link #SEGMENT_SIZE} elements.
+     *
+     * @param channel
+     *            channel on the file
+     * @param offset
+     *            byte offset of the region
+     * @param count
+     *            number of elements
+     * @param elementSize
+     *            size of each element in bytes
+     * @return the mapped segments
+     * @throws IOException
+     *             if the region cannot be mapped
+     */
+    private static MappedByteBuffer[] map(final FileChannel channel,
+            final long offset, final int count, final int elementSize)
+            throws IOException {
+        int numSegments = (int) ((count + (long) SEGMENT_SIZE - 1)
+                >>> SEGMENT_SHIFT);
+        MappedByteBuffer[] maps = new MappedByteBuffer[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            long first = (long) i << SEGMENT_SHIFT;
+            long n = Math.min(SEGMENT_SIZE, count - first);
+            maps[i] = channel.map(MapMode.READ_WRITE, offset + first
+                    * elementSize, n * elementSize);
+        }
+        return maps;
+    }
+
+    /**
+     * Byte offsets of the regions of a matrix file.
+     */
+    private static final class Layout {
+
+        /** Offset of the source indices. */
+        private final long srcOffset;
+
+        /** Offset of the weights. */
+        private final long weightOffset;
+
+        /** Offset of the delays. */
+        private final long delayOffset;
+
+        /** Total length of the file. */
+        private final long length;
+
+        /**
+         * @param numTargets
+         *            number of target neurons
+         * @param numSynapses
+         *            number of synapses
+         * @param hasDelays
+         *            whether delays are stored
+         */
+        Layout(final int numTargets, final int numSynapses,
+                final boolean hasDelays) {
+            srcOffset = HEADER_BYTES + 4L * (numTargets + 1);
+            long end = srcOffset + 4L * numSynapses;
+            weightOffset = (end + 7) & ~7L;
+            delayOffset = weightOffset + 8L * numSynapses;
+            length = delayOffset + (hasDelays ? 4L * numSynapses : 0);
+        }
+    }
+
+    /**
+     * Writes a new matrix file whose row lengths are known in advance, so that
+     * connection managers can fill it one synapse at a time without ever
+     * holding the connections on the heap. Slots may be filled in any order;
+     * the synapses of target t occupy slots
+     * {@link #getRowPointers()}[t] to {@link #getRowPointers()}[t + 1].
+     */
+    public static final class Writer {
+
+        /** The file being written. */
+        private final File file;
+
+        /** Number of source neurons. */
+        private final int numSources;
+
+        /** Number of target neurons. */
+        private final int numTargets;
+
+        /** Row pointers. */
+        private final int[] rowPtr;
+
+        /** Whether delays are stored. */
+        private final boolean hasDelays;
+
+        /** Largest delay written. */
+        private int maxDelay;
+
+        /** Source indices. */
+        private final IntBuffer[] srcSegments;
+
+        /** Weights. */
+        private final DoubleBuffer[] weightSegments;
+
+        /** Delays, or null. */
+        private final IntBuffer[] delaySegments;
+
+        /** The file, open until {@link #finish()} is called. */
+        private final RandomAccessFile raf;
+
+        /**
+         * Creates (or replaces) a matrix file with room for the given number
+         * of synapses onto each target. All weights start at zero.
+         *
+         * @param file
+         *            the file to write
+         * @param numSources
+         *            number of source neurons
+         * @param numTargets
+         *            number of target neurons
+         * @param rowLengths
+         *            number of synapses onto each target
+         * @param hasDelays
+         *            whether to store delays
+         * @throws IOException
+         *             if the file cannot be created
+         */
+        public Writer(final File file, final int numSources,
+                final int numTargets, final int[] rowLengths,
+                final boolean hasDelays) throws IOException {
+            this.file = file;
+            this.numSources = numSources;
+            this.numTargets = numTargets;
+            this.hasDelays = hasDelays;
+            rowPtr = new int[numTargets + 1];
+            for (int t = 0; t < numTargets; t++) {
+                long next = (long) rowPtr[t] + rowLengths[t];
+                if (next > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Too many synapses for"
+                            + " one matrix.");
+                }
+                rowPtr[t + 1] = (int) next;
+            }
+            int numSynapses = rowPtr[numTargets];
+            Layout layout = new Layout(numTargets, numSynapses, hasDelays);
+            raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(0);
+                raf.setLength(layout.length);
+                FileChannel channel = raf.getChannel();
+                MappedByteBuffer rows = channel.map(MapMode.READ_WRITE,
+                        HEADER_BYTES, 4L * rowPtr.length);
+                rows.asIntBuffer().put(rowPtr);
+                srcSegments = mapInts(channel, layout.srcOffset, numSynapses);
+                MappedByteBuffer[] maps = map(channel, layout.weightOffset,
+                        numSynapses, 8);
+                weightSegments = new DoubleBuffer[maps.length];
+                for (int i = 0; i < maps.length; i++) {
+                    weightSegments[i] = maps[i].asDoubleBuffer();
+                }
+                delaySegments = hasDelays ? mapInts(channel,
+                        layout.delayOffset, numSynapses) : null;
+            } catch (IOException e) {
+                raf.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return the row pointers. Not a copy.
+         */
+        public int[] getRowPointers() {
+            return rowPtr;
+        }
+
+        /**
+         * Sets the synapse in a slot.
+         *
+         * @param k
+         *            the slot
+         * @param source
+         *            index of the source neuron
+         * @param weight
+         *            the weight
+         * @param delay
+         *            the delay, ignored if delays are not stored
+         */
+        public void set(final int k, final int source, final double weight,
+                final int delay) {
+            int seg = k >>> SEGMENT_SHIFT;
+            int off = k & SEGMENT_MASK;
+            srcSegments[seg].put(off, source);
+            weightSegments[seg].put(off, weight);
+            if (delaySegments != null) {
+                delaySegments[seg].put(off, delay);
+                if (delay > maxDelay) {
+                    maxDelay = delay;
+                }
+            }
+        }
+
+        /**
+         * Writes the header, closes the file and maps it as a matrix.
+         *
+         * @return the matrix
+         * @throws IOException
+         *             if the file cannot be written
+         */
+        public MappedSynapseMatrix finish() throws IOException {
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC);
+                header.putInt(VERSION);
+                header.putInt(numSources);
+                header.putInt(numTargets);
+                header.putInt(rowPtr[numTargets]);
+                header.putInt(hasDelays ? 1 : 0);
+                header.putInt(maxDelay);
+                header.flip();
+                FileChannel channel = raf.getChannel();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+            } finally {
+                raf.close();
+            }
+            return open(file);
+        }
+    }
+
+}
@@ -23,6 +23,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -33,6 +34,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import org.simbrain.network.core.Network;
 import org.simbrain.network.core.NetworkUpdateAction;
 import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronStateStore;
 import org.simbrain.network.core.NeuronUpdateRule;
 import org.simbrain.network.core.SpikingNeuronUpdateRule;
 import org.simbrain.network.core.Synapse;
@@ -42,6 +44,8 @@ import org.simbrain.network.layouts.LineLayout;
 import org.simbrain.network.layouts.LineLayout.LineOrientation;
 import org.simbrain.network.neuron_update_rules.interfaces.BiasedUpdateRule;
 import org.simbrain.network.update_actions.ConcurrentBufferedUpdate;
+import org.simbrain.network.update_actions.EventDrivenUpdate;
+import org.simbrain.network.update_actions.ForkJoinBufferedUpdate;
 import org.simbrain.util.Utils;
 
 /**
@@ -146,6 +150,23 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
      */
     private int writeCounter = 0;
 
+    /**
+     * Whether the activations, buffers, inputs and spikes of the neurons in
+     * this group are held in a packed {@link NeuronStateStore} rather than in
+     * the neurons themselves.
+     */
+    private boolean packed = false;
+
+    /** The packed state store, if {@link #packed} is true. Not serialized. */
+    private NeuronStateStore stateStore;
+
+    /**
+     * True if neurons have been added since the state store was built. The
+     * store is then rebuilt the next time it is needed, so that adding many
+     * neurons one at a time does not rebuild it for each one.
+     */
+    private transient boolean storeStale;
+
     /**
      * Construct a new neuron group from a list of neurons.
      *
@@ -239,6 +260,9 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
             this.addNeuron(new Neuron(network, neuron));
         }
         this.updateRule = toCopy.updateRule;
+        if (toCopy.isPacked()) {
+            setPacked(true);
+        }
     }
 
     @Override
@@ -266,12 +290,14 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
             }
         }
         stopRecording();
+        releaseStore();
         neuronList.clear();
         Runtime.getRuntime().gc();
     }
 
     @Override
     public void update() {
+        propagateCompressedInputs();
         if (inputMode) {
             if (testData == null) {
                 throw new NullPointerException("Test data variable is null,"
@@ -297,11 +323,113 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
                 forceSetActivations(testData[inputIndex]);
             }
             inputIndex++;
+        } else if (getStateStore() != null) {
+            for (int i = 0, n = neuronList.size(); i < n; i++) {
+                neuronList.get(i).update();
+            }
+            stateStore.commitBuffers();
         } else {
             Network.updateNeurons(neuronList);
         }
     }
 
+    /**
+     * Adds the input arriving through compressed incoming synapse groups
+     * (see {@link SynapseGroup#compress()}) to the input values of the
+     * neurons in this group. Must be called before the neurons are updated;
+     * {@link #update()} does this automatically.
+     */
+    public void propagateCompressedInputs() {
+        for (SynapseGroup sg : incomingSgs) {
+            if (sg.isCompressed()) {
+                sg.propagate();
+            }
+        }
+    }
+
+    /**
+     * Sets whether this group keeps the activations, buffers, inputs and spike
+     * flags of its neurons in contiguous primitive arrays (a
+     * {@link NeuronStateStore}) instead of in each neuron object. In packed
+     * mode the neurons act as views onto the store, and whole-group operations
+     * like {@link #getActivations()} and {@link #setInputValues(double[])}
+     * work directly on the arrays. Recommended for large groups.
+     *
+     * @param packed
+     *            true to pack neuron state into arrays, false to return it to
+     *            the neurons.
+     */
+    public void setPacked(boolean packed) {
+        this.packed = packed;
+        if (packed) {
+            repack();
+        } else {
+            releaseStore();
+        }
+    }
+
+    /**
+     * @return true if neuron state is held in a packed state store.
+     */
+    public boolean isPacked() {
+        return packed;
+    }
+
+    /**
+     * @return the packed state store of this group, or null if it is not
+     *         packed.
+     */
+    public NeuronStateStore getStateStore() {
+        if (storeStale) {
+            repack();
+        }
+        return stateStore;
+    }
+
+    /**
+     * Rebuilds the packed state store so that its slots match the current
+     * neuron list. Called whenever the neuron list of a packed group changes.
+     */
+    private void repack() {
+        releaseStore();
+        stateStore = new NeuronStateStore(neuronList);
+        storeStale = false;
+    }
+
+    /**
+     * Returns neuron state to the neurons and discards the state store, if
+     * there is one.
+     */
+    private void releaseStore() {
+        if (stateStore != null) {
+            stateStore.release(neuronList);
+            stateStore = null;
+        }
+        storeStale = false;
+    }
+
+    /**
+     * Copies packed state back into the neurons so that it is serialized with
+     * them. The store itself is not saved.
+     */
+    public void preSaveInit() {
+        if (getStateStore() != null) {
+            for (Neuron n : neuronList) {
+                n.flushStore();
+            }
+        }
+    }
+
+    /**
+     * Rebuild the packed state store (if the group was saved packed) after
+     * the neurons have been deserialized.
+     */
+    public void postUnmarshallingInit() {
+        if (packed) {
+            repack();
+        }
+    }
+
     /**
      * Creates a file which activations will be written to and activates the
      * necessary output streams. Uses the name of the the group for the name of
@@ -568,6 +696,9 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
     public void addNeuron(Neuron neuron, boolean fireEvent) {
         neuronList.add(neuron);
         neuron.setParentGroup(this);
+        if (packed) {
+            storeStale = true;
+        }
         if (getParentNetwork() != null) {
             neuron.setId(getParentNetwork().getNeuronIdGenerator().getId());
             if (fireEvent) {
@@ -593,7 +724,13 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
      *            the neuron to delete
      */
     public void removeNeuron(Neuron toDelete) {
-        neuronList.remove(toDelete);
+        if (packed) {
+            releaseStore();
+            neuronList.remove(toDelete);
+            repack();
+        } else {
+            neuronList.remove(toDelete);
+        }
         if (isEmpty()) {
             delete();
         }
@@ -603,6 +740,7 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
      * Removes all neurons with no incoming or outgoing synapses from the group.
      */
     public void prune() {
+        releaseStore();
         Iterator<Neuron> reaper = neuronList.iterator();
         while (reaper.hasNext()) {
             Neuron n = reaper.next();
@@ -610,6 +748,9 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
                 reaper.remove();
             }
         }
+        if (packed) {
+            repack();
+        }
     }
 
     @Override
@@ -659,9 +800,28 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
      *            the input vector as a double array.
      */
     public void setInputValues(double[] inputs) {
+        setInputValues(inputs, inputs.length);
+    }
+
+    /**
+     * Set input values of the first <code>count</code> neurons from the start
+     * of an array of doubles. Lets callers reuse a single array whose length
+     * need not match the size of this group.
+     *
+     * @param inputs
+     *            the input vector as a double array.
+     * @param count
+     *            the number of values to use
+     */
+    public void setInputValues(double[] inputs, int count) {
+        if (getStateStore() != null) {
+            System.arraycopy(inputs, 0, stateStore.getInputArray(), 0,
+                    Math.min(count, stateStore.size()));
+            return;
+        }
         int i = 0;
         for (Neuron neuron : neuronList) {
-            if (i >= inputs.length) {
+            if (i >= count) {
                 break;
             }
             neuron.setInputValue(inputs[i++]);
@@ -680,6 +840,10 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
      *            the input vector as a double array.
      */
     public void forceSetActivations(double[] inputs) {
+        if (getStateStore() != null) {
+            stateStore.forceSetActivations(inputs);
+            return;
+        }
         int i = 0;
         for (Neuron neuron : neuronList) {
             if (i >= inputs.length) {
@@ -695,15 +859,44 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
      * @return the activation array
      */
     public double[] getActivations() {
+        if (getStateStore() != null) {
+            return stateStore.copyActivations();
+        }
         double[] retArray = new double[neuronList.size()];
+        readActivations(retArray);
+        return retArray;
+    }
+
+    /**
+     * Copy activations into an existing array, which must be at least as long
+     * as this group. Unlike {@link #getActivations()} nothing is allocated.
+     *
+     * @param dest
+     *            the array to copy activations into
+     */
+    public void readActivations(double[] dest) {
+        if (getStateStore() != null) {
+            System.arraycopy(stateStore.getActivationArray(), 0, dest, 0,
+                    stateStore.size());
+            return;
+        }
         int i = 0;
         for (Neuron neuron : neuronList) {
-            retArray[i++] = neuron.getActivation();
+            dest[i++] = neuron.getActivation();
         }
-        return retArray;
     }
     
     public double[] getSpikeIndexes() {
+        if (getStateStore() != null) {
+            BitSet spikes = stateStore.getSpikes();
+            double[] vals = new double[spikes.cardinality()];
+            int j = 0;
+            for (int i = spikes.nextSetBit(0); i >= 0;
+                    i = spikes.nextSetBit(i + 1)) {
+                vals[j++] = i;
+            }
+            return vals;
+        }
         List<Double> inds = new ArrayList<Double>(size());
         int i = 0;
         for (Neuron n : neuronList) {
@@ -1381,6 +1574,7 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
      * Clear the neuron list.
      */
     public void clearNeuronList() {
+        releaseStore();
         neuronList.clear();
     }
 
@@ -1442,8 +1636,9 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
      * mode the neuron group will draw activations from its {@link #testData}
      *  field instead of from any impinging synapses or its own neuron update
      *  functions. This function removes the neurons from the neuron set in
-     *  ConcurrentBufferedUpdate, preventing it from updating the neurons in
-     *  this group, and re-adds those neurons when input mode is turned off.
+     *  ConcurrentBufferedUpdate (and ForkJoinBufferedUpdate), preventing it
+     *  from updating the neurons in this group, and re-adds those neurons
+     *  when input mode is turned off.
      *  Thus the update action associated with this neuron group MUST be added
      *  to the network update sequence even if ParallelBufferedUpdate is
      *  selected in order for input values to update the group properly.
@@ -1467,6 +1662,10 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
                 if (nua instanceof ConcurrentBufferedUpdate) {
                     ((ConcurrentBufferedUpdate) nua).excludeNeurons(
                             getNeuronList());
+                } else if (nua instanceof ForkJoinBufferedUpdate) {
+                    ((ForkJoinBufferedUpdate) nua).invalidate();
+                } else if (nua instanceof EventDrivenUpdate) {
+                    ((EventDrivenUpdate) nua).invalidate();
                 }
             }
         } else {
@@ -1476,6 +1675,10 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
                 if (nua instanceof ConcurrentBufferedUpdate) {
                     ((ConcurrentBufferedUpdate) nua).includeNeurons(
                             getNeuronList());
+                } else if (nua instanceof ForkJoinBufferedUpdate) {
+                    ((ForkJoinBufferedUpdate) nua).invalidate();
+                } else if (nua instanceof EventDrivenUpdate) {
+                    ((EventDrivenUpdate) nua).invalidate();
                 }
             }
         }
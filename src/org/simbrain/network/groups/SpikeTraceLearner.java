@@ -0,0 +1,331 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.groups;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.Synapse;
+import org.simbrain.network.core.SynapseUpdateRule;
+import org.simbrain.network.synapse_update_rules.StaticSynapseRule;
+import org.simbrain.network.synapse_update_rules.interfaces.SpikeTraceRule;
+
+/**
+ * <b>SpikeTraceLearner</b> applies spike-based learning to a synapse group in
+ * bulk. It keeps an exponentially decaying trace for every source and target
+ * neuron and applies {@link SpikeTraceRule}s only to the efferent synapses of
+ * sources which spiked and the afferent synapses of targets which spiked, so
+ * that synapses whose neurons are silent cost nothing.
+ *
+ * Synapses whose rule is a spike trace rule but whose source does not use a
+ * spiking update rule, and synapses with other non-static rules, are updated
+ * every step as usual.
+ */
+final class SpikeTraceLearner {
+
+    /** The group whose synapses are trained. */
+    private final SynapseGroup group;
+
+    /** Source neurons, in the order of {@link #preTrace}. */
+    private final Neuron[] sources;
+
+    /** Target neurons, in the order of {@link #postTrace}. */
+    private final Neuron[] targets;
+
+    /** Trace per source neuron. */
+    private final double[] preTrace;
+
+    /** Trace per target neuron. */
+    private final double[] postTrace;
+
+    /** Synapses driven by spikes. */
+    private final Synapse[] synapses;
+
+    /** Source index of each synapse. */
+    private final int[] synSource;
+
+    /** Target index of each synapse. */
+    private final int[] synTarget;
+
+    /** Step at which each synapse's source last spiked. */
+    private final long[] lastPreSpike;
+
+    /**
+     * Step at which each source neuron last spiked, or -1 if it has not.
+     * Unlike {@link #lastPreSpike} it is not reset by {@link #flush()}.
+     */
+    private final long[] lastSourceSpike;
+
+    /** Synapses of source i are outSyn[outPtr[i]..outPtr[i+1]). */
+    private final int[] outPtr;
+
+    /** Synapse indices grouped by source. */
+    private final int[] outSyn;
+
+    /** Synapses of target j are inSyn[inPtr[j]..inPtr[j+1]). */
+    private final int[] inPtr;
+
+    /** Synapse indices grouped by target. */
+    private final int[] inSyn;
+
+    /** Synapses which must still be updated every step. */
+    private final Synapse[] others;
+
+    /** The rule whose time constants are used for the traces. */
+    private final SpikeTraceRule traceRule;
+
+    /** Size of the group when this learner was built. */
+    private final int groupSize;
+
+    /** Number of updates performed. */
+    private long step;
+
+    /**
+     * Creates a learner for the current synapses of a group.
+     *
+     * @param group
+     *            the synapse group
+     */
+    SpikeTraceLearner(final SynapseGroup group) {
+        this.group = group;
+        groupSize = group.size();
+        List<Neuron> srcList = group.getSourceNeurons();
+        List<Neuron> tarList = group.getTargetNeurons();
+        sources = srcList.toArray(new Neuron[srcList.size()]);
+        targets = tarList.toArray(new Neuron[tarList.size()]);
+        preTrace = new double[sources.length];
+        postTrace = new double[targets.length];
+        lastSourceSpike = new long[sources.length];
+        Arrays.fill(lastSourceSpike, -1);
+        Map<Neuron, Integer> srcIndex = indexMap(sources);
+        Map<Neuron, Integer> tarIndex = indexMap(targets);
+
+        List<Synapse> traced = new ArrayList<Synapse>();
+        List<Synapse> otherList = new ArrayList<Synapse>();
+        SpikeTraceRule firstRule = null;
+        for (Synapse s : group.getAllSynapses()) {
+            SynapseUpdateRule rule = s.getLearningRule();
+            if (rule instanceof SpikeTraceRule
+                    && s.getSource().getUpdateRule().isSpikingNeuron()) {
+                traced.add(s);
+                if (firstRule == null) {
+                    firstRule = (SpikeTraceRule) rule;
+                }
+            } else if (!(rule instanceof StaticSynapseRule)) {
+                otherList.add(s);
+            }
+        }
+        others = otherList.toArray(new Synapse[otherList.size()]);
+        traceRule = pickTraceRule(group, firstRule);
+
+        int n = traced.size();
+        synapses = traced.toArray(new Synapse[n]);
+        synSource = new int[n];
+        synTarget = new int[n];
+        lastPreSpike = new long[n];
+        outPtr = new int[sources.length + 1];
+        inPtr = new int[targets.length + 1];
+        for (int k = 0; k < n; k++) {
+            synSource[k] = srcIndex.get(synapses[k].getSource());
+            synTarget[k] = tarIndex.get(synapses[k].getTarget());
+            outPtr[synSource[k] + 1]++;
+            inPtr[synTarget[k] + 1]++;
+        }
+        outSyn = new int[n];
+        inSyn = new int[n];
+        fill(synSource, outPtr, outSyn);
+        fill(synTarget, inPtr, inSyn);
+    }
+
+    /**
+     * Picks the rule whose time constants set the trace decay: that of the
+     * excitatory prototype if it is a spike trace rule, otherwise that of the
+     * inhibitory prototype, otherwise that of the first traced synapse.
+     *
+     * @param group
+     *            the synapse group
+     * @param firstRule
+     *            rule of the first traced synapse, or null if there are none
+     * @return the rule to take trace time constants from, or null if there is
+     *         none
+     */
+    private static SpikeTraceRule pickTraceRule(final SynapseGroup group,
+            final SpikeTraceRule firstRule) {
+        if (group.isUseGroupLevelSettings()) {
+            SynapseUpdateRule ex = group.getExcitatoryPrototype()
+                    .getLearningRule();
+            if (ex instanceof SpikeTraceRule && group.hasExcitatory()) {
+                return (SpikeTraceRule) ex;
+            }
+            SynapseUpdateRule in = group.getInhibitoryPrototype()
+                    .getLearningRule();
+            if (in instanceof SpikeTraceRule && group.hasInhibitory()) {
+                return (SpikeTraceRule) in;
+            }
+        }
+        return firstRule;
+    }
+
+    /**
+     * @param neurons
+     *            an array of neurons
+     * @return a map from each neuron to its index in the array
+     */
+    private static Map<Neuron, Integer> indexMap(final Neuron[] neurons) {
+        Map<Neuron, Integer> map = new HashMap<Neuron, Integer>(
+                neurons.length * 2);
+        for (int i = 0; i < neurons.length; i++) {
+            map.put(neurons[i], i);
+        }
+        return map;
+    }
+
+    /**
+     * Fills a row index with a counting sort.
+     *
+     * @param rows
+     *            the row of each synapse
+     * @param ptr
+     *            row counts, offset by one; turned into row start pointers
+     * @param out
+     *            receives synapse indices grouped by row
+     */
+    private static void fill(final int[] rows, final int[] ptr,
+            final int[] out) {
+        for (int i = 1; i < ptr.length; i++) {
+            ptr[i] += ptr[i - 1];
+        }
+        int[] next = new int[ptr.length - 1];
+        System.arraycopy(ptr, 0, next, 0, next.length);
+        for (int k = 0; k < rows.length; k++) {
+            out[next[rows[k]]++] = k;
+        }
+    }
+
+    /**
+     * @return true if the group's membership has changed since this learner
+     *         was built.
+     */
+    boolean isStale() {
+        return group.size() != groupSize;
+    }
+
+    /**
+     * Decays the traces, applies the learning rules to the synapses of every
+     * neuron which spiked in the current update, and then adds those spikes to
+     * the traces.
+     */
+    void update() {
+        step++;
+        final double timeStep = group.getParentNetwork().getTimeStep();
+        if (traceRule != null) {
+            decay(preTrace, traceRule.getPreTraceTau(), timeStep);
+            decay(postTrace, traceRule.getPostTraceTau(), timeStep);
+        }
+        // Depression and potentiation both see traces from before this step
+        for (int i = 0; i < sources.length; i++) {
+            if (!sources[i].isSpike()) {
+                continue;
+            }
+            lastSourceSpike[i] = step;
+            for (int p = outPtr[i]; p < outPtr[i + 1]; p++) {
+                int k = outSyn[p];
+                Synapse s = synapses[k];
+                SynapseUpdateRule rule = s.getLearningRule();
+                if (!s.isFrozen() && rule instanceof SpikeTraceRule) {
+                    ((SpikeTraceRule) rule).onPreSpike(s,
+                            postTrace[synTarget[k]], step - lastPreSpike[k],
+                            timeStep);
+                }
+                lastPreSpike[k] = step;
+            }
+        }
+        for (int j = 0; j < targets.length; j++) {
+            if (!targets[j].isSpike()) {
+                continue;
+            }
+            for (int p = inPtr[j]; p < inPtr[j + 1]; p++) {
+                int k = inSyn[p];
+                Synapse s = synapses[k];
+                SynapseUpdateRule rule = s.getLearningRule();
+                if (!s.isFrozen() && rule instanceof SpikeTraceRule) {
+                    long last = lastSourceSpike[synSource[k]];
+                    ((SpikeTraceRule) rule).onPostSpike(s,
+                            preTrace[synSource[k]], last < 0 ? Long.MAX_VALUE
+                                    : step - last, timeStep);
+                }
+            }
+        }
+        for (int i = 0; i < sources.length; i++) {
+            if (sources[i].isSpike()) {
+                preTrace[i] += 1;
+            }
+        }
+        for (int j = 0; j < targets.length; j++) {
+            if (targets[j].isSpike()) {
+                postTrace[j] += 1;
+            }
+        }
+        for (int k = 0; k < others.length; k++) {
+            others[k].update();
+        }
+    }
+
+    /**
+     * Brings every synapse up to date with changes due to the passing of time
+     * since its source last spiked (see {@link SpikeTraceRule#catchUp}).
+     */
+    void flush() {
+        for (int k = 0; k < synapses.length; k++) {
+            Synapse s = synapses[k];
+            SynapseUpdateRule rule = s.getLearningRule();
+            if (!s.isFrozen() && rule instanceof SpikeTraceRule
+                    && step > lastPreSpike[k]) {
+                ((SpikeTraceRule) rule).catchUp(s, step - lastPreSpike[k]);
+            }
+            lastPreSpike[k] = step;
+        }
+    }
+
+    /**
+     * Decays a set of traces by one time step.
+     *
+     * @param traces
+     *            the traces
+     * @param tau
+     *            time constant, or 0 if the traces are unused
+     * @param timeStep
+     *            the network time step
+     */
+    private static void decay(final double[] traces, final double tau,
+            final double timeStep) {
+        if (tau <= 0) {
+            return;
+        }
+        double f = Math.exp(-timeStep / tau);
+        for (int i = 0; i < traces.length; i++) {
+            traces[i] *= f;
+        }
+    }
+
+}
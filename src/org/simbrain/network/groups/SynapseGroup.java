@@ -12,6 +12,7 @@
  */
 package org.simbrain.network.groups;
 
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -36,15 +37,19 @@ import org.simbrain.network.connections.ConnectionUtilities.SynapseParameterSett
 import org.simbrain.network.connections.Sparse;
 import org.simbrain.network.core.Network;
 import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronStateStore;
 import org.simbrain.network.core.Synapse;
 import org.simbrain.network.core.SynapseUpdateRule;
 import org.simbrain.network.synapse_update_rules.StaticSynapseRule;
+import org.simbrain.network.synapse_update_rules.interfaces.SpikeTraceRule;
+import org.simbrain.network.synapse_update_rules.spikeresponders.JumpAndDecay;
 import org.simbrain.network.synapse_update_rules.spikeresponders.SpikeResponder;
 import org.simbrain.network.util.io_utilities.GroupDeserializer;
 import org.simbrain.network.util.io_utilities.GroupSerializer;
 import org.simbrain.network.util.io_utilities.GroupSerializer.Precision;
 import org.simbrain.util.SimbrainConstants;
 import org.simbrain.util.SimbrainConstants.Polarity;
+import org.simbrain.util.math.SplittableRandomStream;
 import org.simbrain.util.randomizer.PolarizedRandomizer;
 
 /**
@@ -76,6 +81,18 @@ public class SynapseGroup extends Group {
      */
     public static final double DEFAULT_EXCITATORY_RATIO = 1.0;
 
+    /**
+     * Largest number of weights {@link #getWeightMatrix()} returns for a
+     * compressed group.
+     */
+    public static final long MAX_DENSE_COMPRESSED_SIZE = 1L << 24;
+
+    /**
+     * Number of synapses read into memory at a time when a compressed group
+     * is saved as a matrix.
+     */
+    private static final int SAVE_BLOCK_SYNAPSES = 1 << 22;
+
     /** All to All. */
     public static final ConnectNeurons DEFAULT_CONNECTION_MANAGER =
             new AllToAll();
@@ -231,6 +248,68 @@ public class SynapseGroup extends Group {
     /** Whether or not to use the compressed rep or the full rep. */
     private boolean useFullRepOnSave = true;
 
+    /**
+     * Compressed sparse row storage of this group's connections. If non-null
+     * the group is in compressed mode: its connections are not represented by
+     * synapse objects and are propagated directly from this matrix. See
+     * {@link #compress()}. Not serialized directly; see {@link #csrRep}.
+     */
+    private CompressedSynapseMatrix compressedMatrix;
+
+    /**
+     * Byte encoding of {@link #compressedMatrix} populated just before saving
+     * a compressed group. Null otherwise.
+     */
+    private byte[] csrRep = null;
+
+    /**
+     * Path of the file in which this group keeps its connections when it
+     * uses memory-mapped storage, or null if they are kept on the heap. See
+     * {@link #setMappedStorage(File)}.
+     */
+    private String mappedStorage;
+
+    /**
+     * Index of the block holding this group's saved connections in a binary
+     * network snapshot, or -1 if they are held in {@link #csrRep},
+     * {@link #compressedMatrixRep} or {@link #fullSynapseRep} as usual. See
+     * {@link #takeSavedRep(int)}.
+     */
+    private int snapshotBlock = -1;
+
+    /** Kind of saved representation: none. */
+    public static final byte NO_REP = 0;
+
+    /** Kind of saved representation: {@link #csrRep}. */
+    public static final byte CSR_REP = 1;
+
+    /** Kind of saved representation: {@link #compressedMatrixRep}. */
+    public static final byte COMPRESSED_REP = 2;
+
+    /** Kind of saved representation: {@link #fullSynapseRep}. */
+    public static final byte FULL_REP = 3;
+
+    /**
+     * Whether spike-based learning rules are applied in bulk, on spikes only.
+     * See {@link #setUseSpikeTraceLearning(boolean)}.
+     */
+    private boolean useSpikeTraceLearning;
+
+    /**
+     * Applies learning when {@link #useSpikeTraceLearning} is on. Built lazily
+     * and rebuilt when the group's synapses change; not serialized.
+     */
+    private SpikeTraceLearner traceLearner;
+
+    /** Reusable source activation buffer for unpacked source groups. */
+    private double[] srcActBuffer;
+
+    /** Reusable source spike words for unpacked source groups. */
+    private long[] srcSpikeBuffer;
+
+    /** Reusable target input buffer for unpacked target groups. */
+    private double[] tarInputBuffer;
+
     /**
      * Completely creates a synapse group between the two neuron groups with all
      * default parameters. This method creates the individual connections.
@@ -453,6 +532,14 @@ public class SynapseGroup extends Group {
      * call super.update() some time during the custom update.
      */
     public void update() {
+        if (useSpikeTraceLearning && compressedMatrix == null) {
+            if (traceLearner == null || traceLearner.isStale()) {
+                releaseTraceLearner();
+                traceLearner = new SpikeTraceLearner(this);
+            }
+            traceLearner.update();
+            return;
+        }
         if (useGroupLevelSettings) {
             if (!exStatic) { // Only iterate if excitatory synapses aren't
                              // static
@@ -497,6 +584,9 @@ public class SynapseGroup extends Group {
 
     /** {@inheritDoc} */
     public int size() {
+        if (compressedMatrix != null) {
+            return compressedMatrix.getNumSynapses();
+        }
         return exSynapseSet.size() + inSynapseSet.size();
     }
 
@@ -505,9 +595,454 @@ public class SynapseGroup extends Group {
      */
     @Override
     public boolean isEmpty() {
+        if (compressedMatrix != null) {
+            return compressedMatrix.getNumSynapses() == 0;
+        }
         return exSynapseSet.isEmpty() && inSynapseSet.isEmpty();
     }
 
+    /**
+     * Sets whether spike-based learning rules (those implementing
+     * {@link SpikeTraceRule}, e.g. STDP) are applied in bulk using per-neuron
+     * spike traces. When on, such synapses are visited only when their source
+     * or target spikes instead of on every update, which changes STDP from
+     * its continuous per-step form to the standard pair-based form. Other
+     * learning rules are unaffected.
+     *
+     * @param useSpikeTraceLearning
+     *            true to learn from spike traces
+     */
+    public void setUseSpikeTraceLearning(boolean useSpikeTraceLearning) {
+        this.useSpikeTraceLearning = useSpikeTraceLearning;
+        releaseTraceLearner();
+        if (getParentNetwork() != null) {
+            getParentNetwork().fireGroupChanged(this, this,
+                    "spikeTraceLearningChanged");
+        }
+    }
+
+    /**
+     * Brings synapse strengths up to date and discards the spike trace
+     * learner, if there is one.
+     */
+    private void releaseTraceLearner() {
+        if (traceLearner != null) {
+            traceLearner.flush();
+            traceLearner = null;
+        }
+    }
+
+    /**
+     * @return true if spike-based learning rules are applied from spike
+     *         traces. See {@link #setUseSpikeTraceLearning(boolean)}.
+     */
+    public boolean isUseSpikeTraceLearning() {
+        return useSpikeTraceLearning;
+    }
+
+    /**
+     * Whether this group can be put into compressed mode. That requires group
+     * level settings, static learning rules (compressed connections cannot
+     * learn) and, for spiking sources, jump and decay spike responders.
+     *
+     * @return true if {@link #compress()} can be called on this group.
+     */
+    public boolean canCompress() {
+        if (!useGroupLevelSettings) {
+            return false;
+        }
+        for (Synapse s : new Synapse[] { excitatoryPrototype,
+                inhibitoryPrototype }) {
+            if (!(s.getLearningRule() instanceof StaticSynapseRule)) {
+                return false;
+            }
+            if (s.getSpikeResponder() != null
+                    && !(s.getSpikeResponder() instanceof JumpAndDecay)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Puts this group into compressed mode. The weights and delays of all the
+     * synapses in the group are moved into a {@link CompressedSynapseMatrix},
+     * the synapse objects are detached from their source and target neurons,
+     * and from then on the group's input to its target neuron group is
+     * computed as a single sparse matrix-vector product over the source
+     * activations (see {@link #propagate()}). This greatly reduces the memory
+     * used by large groups. Use {@link #decompress()} to recover synapse
+     * objects, e.g. for editing or learning.
+     *
+     * @throws IllegalStateException if {@link #canCompress()} is false.
+     */
+    public void compress() throws IllegalStateException {
+        if (compressedMatrix != null) {
+            return;
+        }
+        if (!canCompress()) {
+            throw new IllegalStateException("Synapse group " + getLabel()
+                    + " cannot be compressed: compressed groups require group"
+                    + " level settings, static synapses and jump and decay"
+                    + " spike responders.");
+        }
+        Map<Neuron, Integer> srcMap = new HashMap<Neuron, Integer>(
+                (int) (sourceNeuronGroup.size() / 0.75));
+        Map<Neuron, Integer> tarMap = new HashMap<Neuron, Integer>(
+                (int) (targetNeuronGroup.size() / 0.75));
+        int i = 0;
+        for (Neuron n : sourceNeuronGroup.getNeuronList()) {
+            srcMap.put(n, i++);
+        }
+        i = 0;
+        for (Neuron n : targetNeuronGroup.getNeuronList()) {
+            tarMap.put(n, i++);
+        }
+        int numSyns = size();
+        int[] srcs = new int[numSyns];
+        int[] tars = new int[numSyns];
+        double[] wts = new double[numSyns];
+        int[] dlys = new int[numSyns];
+        int k = 0;
+        for (Set<Synapse> set : Arrays.asList(exSynapseSet, inSynapseSet)) {
+            for (Synapse s : set) {
+                srcs[k] = srcMap.get(s.getSource());
+                tars[k] = tarMap.get(s.getTarget());
+                wts[k] = s.isEnabled() ? s.getStrength() : 0;
+                dlys[k++] = s.getDelay();
+                s.getSource().removeEfferent(s);
+                s.getTarget().removeAfferent(s);
+                if (isDisplaySynapses()) {
+                    s.getNetwork().fireSynapseRemoved(s);
+                }
+            }
+        }
+        exSynapseSet.clear();
+        inSynapseSet.clear();
+        if (mappedStorage == null) {
+            setCompressedMatrix(CompressedSynapseMatrix.fromEdgeList(
+                    sourceNeuronGroup.size(), targetNeuronGroup.size(), srcs,
+                    tars, wts, dlys, numSyns));
+            return;
+        }
+        try {
+            setCompressedMatrix(MappedSynapseMatrix.fromEdgeList(
+                    getMappedStorage(), sourceNeuronGroup.size(),
+                    targetNeuronGroup.size(), srcs, tars, wts, dlys,
+                    numSyns));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write the connections"
+                    + " of synapse group " + getLabel() + " to "
+                    + mappedStorage, e);
+        }
+    }
+
+    /**
+     * Adopts a compressed matrix as the connections of this group, putting it
+     * in compressed mode without ever creating synapse objects. Any existing
+     * synapses are removed. Connection managers can use this to build very
+     * large groups directly. Sizes must match the source and target groups.
+     *
+     * @param matrix
+     *            the connections, as a matrix from the source group to the
+     *            target group.
+     */
+    public void setCompressedMatrix(CompressedSynapseMatrix matrix) {
+        if (matrix.getNumSources() != sourceNeuronGroup.size()
+                || matrix.getNumTargets() != targetNeuronGroup.size()) {
+            throw new IllegalArgumentException("Compressed matrix dimensions"
+                    + " do not match the source and target neuron groups.");
+        }
+        if (compressedMatrix == null) {
+            clear();
+        }
+        compressedMatrix = matrix;
+        configureCompressedResponders();
+        sourceNeuronGroup.addOutgoingSg(this);
+        targetNeuronGroup.addIncomingSg(this);
+        excitatoryRatio = getExcitatoryRatioPrecise();
+        displaySynapses = false;
+        getParentNetwork().fireGroupChanged(this, this, "synapseRemoved");
+    }
+
+    /**
+     * Set up post synaptic response parameters of the compressed matrix from
+     * the group's prototype synapses.
+     */
+    private void configureCompressedResponders() {
+        if (sourceNeuronGroup.getNeuronList().isEmpty()
+                || !sourceNeuronGroup.getNeuronList().get(0).getUpdateRule()
+                        .isSpikingNeuron()) {
+            compressedMatrix.setSpikeResponders(null, null);
+            return;
+        }
+        JumpAndDecay ex = excitatoryPrototype.getSpikeResponder()
+                instanceof JumpAndDecay ? (JumpAndDecay) excitatoryPrototype
+                .getSpikeResponder() : new JumpAndDecay();
+        JumpAndDecay in = inhibitoryPrototype.getSpikeResponder()
+                instanceof JumpAndDecay ? (JumpAndDecay) inhibitoryPrototype
+                .getSpikeResponder() : new JumpAndDecay();
+        compressedMatrix.setSpikeResponders(ex, in);
+    }
+
+    /**
+     * Returns a compressed group to normal mode by creating a synapse object
+     * for every connection in its compressed matrix, based on the group's
+     * prototype synapses.
+     */
+    public void decompress() {
+        if (compressedMatrix == null) {
+            return;
+        }
+        CompressedSynapseMatrix matrix = compressedMatrix;
+        compressedMatrix = null;
+        List<Neuron> srcs = sourceNeuronGroup.getNeuronList();
+        List<Neuron> tars = targetNeuronGroup.getNeuronList();
+        int[] rowPtr = matrix.getRowPointers();
+        int[] srcIdx = matrix.getSourceIndices();
+        double[] wts = matrix.getWeights();
+        int[] dlys = matrix.getDelays();
+        for (int t = 0, n = matrix.getNumTargets(); t < n; t++) {
+            for (int k = rowPtr[t]; k < rowPtr[t + 1]; k++) {
+                Synapse proto = wts[k] > 0 ? excitatoryPrototype
+                        : inhibitoryPrototype;
+                Synapse s = new Synapse(srcs.get(srcIdx[k]), tars.get(t),
+                        proto.getLearningRule().deepCopy(), proto);
+                s.forceSetStrength(wts[k]);
+                s.setDelay(dlys == null ? 0 : dlys[k]);
+                if (wts[k] > 0) {
+                    addExcitatorySynapseUnsafe(s);
+                } else {
+                    addInhibitorySynapseUnsafe(s);
+                }
+            }
+        }
+        initializeSynapseVisibility();
+        getParentNetwork().fireGroupChanged(this, this, "synapseAdded");
+    }
+
+    /**
+     * @return true if this group is in compressed mode.
+     */
+    public boolean isCompressed() {
+        return compressedMatrix != null;
+    }
+
+    /**
+     * @return the compressed matrix backing this group, or null if the group
+     *         is not compressed.
+     */
+    public CompressedSynapseMatrix getCompressedMatrix() {
+        return compressedMatrix;
+    }
+
+    /**
+     * Sets the file in which this group keeps its connections, so that groups
+     * larger than the heap can be simulated. From then on
+     * {@link #compress()} writes the connections to this file and maps it
+     * (see {@link MappedSynapseMatrix}) instead of holding them on the heap,
+     * and connection managers which support it write new connections to the
+     * file directly, without creating synapse objects. The file is reopened
+     * when the network is. Pass null to go back to heap storage; connections
+     * already mapped stay mapped until the group is reconnected or
+     * decompressed.
+     *
+     * @param file
+     *            the file, or null
+     */
+    public void setMappedStorage(final File file) {
+        mappedStorage = file == null ? null : file.getAbsolutePath();
+    }
+
+    /**
+     * @return the file in which this group keeps its connections, or null if
+     *         they are kept on the heap
+     */
+    public File getMappedStorage() {
+        return mappedStorage == null ? null : new File(mappedStorage);
+    }
+
+    /**
+     * Creates a writer for new connections in this group's mapped storage.
+     * Connection managers fill it with
+     * {@link #writeNewSynapse(MappedSynapseMatrix.Writer, int, int)} and pass
+     * the finished matrix to {@link #setCompressedMatrix}.
+     *
+     * @param rowLengths
+     *            the number of synapses onto each target neuron
+     * @return the writer
+     * @throws IOException
+     *             if the file cannot be created
+     */
+    public MappedSynapseMatrix.Writer createMappedWriter(
+            final int[] rowLengths) throws IOException {
+        boolean delays = excitatoryPrototype.getDelay() > 0
+                || inhibitoryPrototype.getDelay() > 0;
+        return new MappedSynapseMatrix.Writer(getMappedStorage(),
+                sourceNeuronGroup.size(), targetNeuronGroup.size(),
+                rowLengths, delays);
+    }
+
+    /**
+     * Writes a new synapse to a slot of a mapped matrix. Its polarity, weight
+     * and delay are chosen just as for a blank synapse added with
+     * {@link #addNewSynapse(Synapse)}.
+     *
+     * @param writer
+     *            the writer, from {@link #createMappedWriter(int[])}
+     * @param k
+     *            the slot
+     * @param sourceIndex
+     *            index of the source neuron in the source group
+     */
+    public void writeNewSynapse(final MappedSynapseMatrix.Writer writer,
+            final int k, final int sourceIndex) {
+        Neuron src = sourceNeuronGroup.getNeuronList().get(sourceIndex);
+        boolean excitatory;
+        if (src.isPolarized()) {
+            excitatory = Polarity.EXCITATORY.equals(src.getPolarity());
+        } else {
+            excitatory = getRandomStream().nextDouble() < excitatoryRatio;
+        }
+        Synapse proto;
+        double strength;
+        if (excitatory) {
+            proto = excitatoryPrototype;
+            strength = exciteRand != null ? exciteRand
+                    .getRandom(getRandomStream())
+                    : ConnectionUtilities.DEFAULT_EXCITATORY_STRENGTH;
+        } else {
+            proto = inhibitoryPrototype;
+            strength = inhibRand != null ? inhibRand
+                    .getRandom(getRandomStream())
+                    : ConnectionUtilities.DEFAULT_INHIBITORY_STRENGTH;
+        }
+        writer.set(k, sourceIndex, proto.isEnabled() ? strength : 0,
+                proto.getDelay());
+    }
+
+    /**
+     * Adds new synapses in bulk, one for each edge of an edge list, with
+     * polarities, weights and delays chosen as by
+     * {@link #addNewSynapse(Synapse)}. If the group has mapped storage (see
+     * {@link #setMappedStorage(File)}) the connections are written straight
+     * to the file and replace any existing ones, and no synapse objects are
+     * created. Connection managers which find their connections in bulk
+     * should use this.
+     *
+     * @param sources
+     *            index in the source group of the source of each edge
+     * @param targets
+     *            index in the target group of the target of each edge
+     * @param numEdges
+     *            number of valid entries in the edge arrays
+     */
+    public void addNewSynapses(final int[] sources, final int[] targets,
+            final int numEdges) {
+        List<Neuron> srcs = sourceNeuronGroup.getNeuronList();
+        List<Neuron> tars = targetNeuronGroup.getNeuronList();
+        if (mappedStorage == null) {
+            if (isEmpty()) {
+                preAllocateSynapses(numEdges);
+            }
+            for (int k = 0; k < numEdges; k++) {
+                addNewSynapse(new Synapse(srcs.get(sources[k]), tars
+                        .get(targets[k])));
+            }
+            return;
+        }
+        int[] rowLengths = new int[tars.size()];
+        for (int k = 0; k < numEdges; k++) {
+            rowLengths[targets[k]]++;
+        }
+        try {
+            MappedSynapseMatrix.Writer writer = createMappedWriter(rowLengths);
+            int[] fill = new int[rowLengths.length];
+            System.arraycopy(writer.getRowPointers(), 0, fill, 0, fill.length);
+            for (int k = 0; k < numEdges; k++) {
+                writeNewSynapse(writer, fill[targets[k]]++, sources[k]);
+            }
+            setCompressedMatrix(writer.finish());
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write the connections"
+                    + " of synapse group " + getLabel() + " to "
+                    + mappedStorage, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc} Synapse groups are usually connected before they are
+     * added to the network and given an id, so until then the stream is
+     * keyed by the ids of the source and target groups.
+     */
+    @Override
+    public SplittableRandomStream getRandomStream() {
+        if (getId() != null) {
+            return super.getRandomStream();
+        }
+        return getParentNetwork().getRandomStream(sourceNeuronGroup.getId()
+                + "->" + targetNeuronGroup.getId());
+    }
+
+    /**
+     * Sends the input from a compressed group to its target neurons, adding
+     * the result of the sparse matrix-vector product to each target neuron's
+     * input value. The activations and spike words of packed source groups,
+     * and the inputs of packed target groups (see
+     * {@link NeuronGroup#setPacked(boolean)}), are read and written in place
+     * without any copying. Does nothing if the group is not compressed.
+     * Called by the target neuron group just before it updates.
+     */
+    public void propagate() {
+        if (compressedMatrix == null) {
+            return;
+        }
+        double[] srcActs;
+        long[] srcSpikes;
+        NeuronStateStore srcStore = sourceNeuronGroup.getStateStore();
+        if (srcStore != null) {
+            srcActs = srcStore.getActivationArray();
+            srcSpikes = srcStore.getSpikeWords();
+        } else {
+            int n = sourceNeuronGroup.size();
+            if (srcActBuffer == null || srcActBuffer.length != n) {
+                srcActBuffer = new double[n];
+                srcSpikeBuffer = new long[(n + NeuronStateStore.WORD_SIZE - 1)
+                        / NeuronStateStore.WORD_SIZE];
+            }
+            Arrays.fill(srcSpikeBuffer, 0);
+            List<Neuron> srcs = sourceNeuronGroup.getNeuronList();
+            for (int i = 0; i < n; i++) {
+                Neuron src = srcs.get(i);
+                srcActBuffer[i] = src.getActivation();
+                if (src.isSpike()) {
+                    srcSpikeBuffer[i / NeuronStateStore.WORD_SIZE] |= 1L << i;
+                }
+            }
+            srcActs = srcActBuffer;
+            srcSpikes = srcSpikeBuffer;
+        }
+        double timeStep = getParentNetwork().getTimeStep();
+        NeuronStateStore tarStore = targetNeuronGroup.getStateStore();
+        if (tarStore != null) {
+            compressedMatrix.propagate(srcActs, srcSpikes, timeStep,
+                    tarStore.getInputArray());
+        } else {
+            int n = targetNeuronGroup.size();
+            if (tarInputBuffer == null || tarInputBuffer.length != n) {
+                tarInputBuffer = new double[n];
+            }
+            Arrays.fill(tarInputBuffer, 0);
+            compressedMatrix.propagate(srcActs, srcSpikes, timeStep,
+                    tarInputBuffer);
+            List<Neuron> tars = targetNeuronGroup.getNeuronList();
+            for (int i = 0; i < n; i++) {
+                Neuron tar = tars.get(i);
+                tar.setInputValue(tar.getInputValue() + tarInputBuffer[i]);
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -600,6 +1135,7 @@ public class SynapseGroup extends Group {
      * @return the deleted synapse
      */
     public Synapse removeSynapse(Synapse toDelete) {
+        releaseTraceLearner();
         exSynapseSet.remove(toDelete);
         inSynapseSet.remove(toDelete);
         toDelete.getSource().removeEfferent(toDelete);
@@ -631,6 +1167,7 @@ public class SynapseGroup extends Group {
      * synapses in this group.
      */
     public void clear() {
+        releaseTraceLearner();
         for (Synapse toDelete : exSynapseSet) {
             // Remove references to this synapse from parent neurons
             toDelete.getSource().removeEfferent(toDelete);
@@ -649,6 +1186,7 @@ public class SynapseGroup extends Group {
         }
         exSynapseSet.clear();
         inSynapseSet.clear();
+        compressedMatrix = null;
     }
 
     /**
@@ -670,7 +1208,7 @@ public class SynapseGroup extends Group {
                 addNewInhibitorySynapse(synapse);
             }
         } else {
-            double rand = Math.random();
+            double rand = getRandomStream().nextDouble();
             double correctionTerm = size() == 0 ? 0 : excitatoryRatio
                     - (exSynapseSet.size() / (double) size());
             if (rand < (excitatoryRatio + correctionTerm)) {
@@ -690,7 +1228,7 @@ public class SynapseGroup extends Group {
         synapse.setId(getParentNetwork().getSynapseIdGenerator().getId());
         synapse.setParentGroup(this);
         if (exciteRand != null) {
-            synapse.setStrength(exciteRand.getRandom());
+            synapse.setStrength(exciteRand.getRandom(getRandomStream()));
         } else {
             synapse.setStrength(ConnectionUtilities
                     .DEFAULT_EXCITATORY_STRENGTH);
@@ -716,7 +1254,7 @@ public class SynapseGroup extends Group {
         synapse.setId(getParentNetwork().getSynapseIdGenerator().getId());
         synapse.setParentGroup(this);
         if (inhibRand != null) {
-            synapse.setStrength(inhibRand.getRandom());
+            synapse.setStrength(inhibRand.getRandom(getRandomStream()));
         } else {
             synapse.setStrength(ConnectionUtilities
                     .DEFAULT_INHIBITORY_STRENGTH);
@@ -836,7 +1374,8 @@ public class SynapseGroup extends Group {
                 if (!s.getSource().isPolarized() && numSwitch > 0) {
                     setIterator.remove();
                     if (inhibRand != null) {
-                        s.setStrength(inhibRand.getRandom());
+                        s.setStrength(inhibRand.getRandom(
+                                getRandomStream()));
                     } else {
                         s.setStrength(ConnectionUtilities
                                 .DEFAULT_INHIBITORY_STRENGTH);
@@ -864,7 +1403,8 @@ public class SynapseGroup extends Group {
                 if (!s.getSource().isPolarized() && numSwitch > 0) {
                     setIterator.remove();
                     if (exciteRand != null) {
-                        s.setStrength(exciteRand.getRandom());
+                        s.setStrength(exciteRand.getRandom(
+                                getRandomStream()));
                     } else {
                         s.setStrength(ConnectionUtilities
                                 .DEFAULT_EXCITATORY_STRENGTH);
@@ -903,6 +1443,9 @@ public class SynapseGroup extends Group {
      *         excitatory synapses divided by the total.
      */
     public double getExcitatoryRatioPrecise() {
+        if (compressedMatrix != null) {
+            return compressedMatrix.getNumExcitatory() / (double) size();
+        }
         return exSynapseSet.size() / (double) size();
     }
 
@@ -937,6 +1480,12 @@ public class SynapseGroup extends Group {
      * @return weights
      */
     public double[] getWeightVector() {
+        if (compressedMatrix != null) {
+            return Arrays.copyOf(compressedMatrix.getWeights(), size());
+        }
+        if (traceLearner != null) {
+            traceLearner.flush();
+        }
         double[] retArray = new double[size()];
         int i = 0;
         for (Synapse synapse : exSynapseSet) {
@@ -978,8 +1527,24 @@ public class SynapseGroup extends Group {
      *
      * @return a representation of the synapse strengths in this synapse group
      * as a weight matrix between two activation vectors (neuron groups).
-     */
-    public double[][] getWeightMatrix() {
+     * @throws IllegalStateException if the group is compressed and the matrix
+     * would have more than {@link #MAX_DENSE_COMPRESSED_SIZE} entries. Use
+     * {@link #saveToFileAsMatrix(String)} or
+     * {@link #getCompressedMatrix()} instead.
+     */
+    public double[][] getWeightMatrix() throws IllegalStateException {
+        if (compressedMatrix != null) {
+            if ((long) compressedMatrix.getNumSources()
+                    * compressedMatrix.getNumTargets()
+                    > MAX_DENSE_COMPRESSED_SIZE) {
+                throw new IllegalStateException("Weight matrix of "
+                        + getLabel() + " is too large to hold densely.");
+            }
+            return compressedMatrix.toDenseMatrix();
+        }
+        if (traceLearner != null) {
+            traceLearner.flush();
+        }
         double[][] weightMatrix =
                 new double[getSourceNeurons().size()][getTargetNeurons()
                         .size()];
@@ -1126,6 +1691,10 @@ public class SynapseGroup extends Group {
      * out of memory error for being to large.
      */
     public void saveToFileAsMatrix(String filename) throws OutOfMemoryError {
+        if (compressedMatrix != null) {
+            saveCompressedToFileAsMatrix(filename);
+            return;
+        }
         try (FileWriter fw = new FileWriter(filename);
                 PrintWriter pw = new PrintWriter(fw);)
         {
@@ -1143,6 +1712,60 @@ public class SynapseGroup extends Group {
         }
     }
 
+    /**
+     * Saves the weight matrix of a compressed group to a file row by row, so
+     * the dense matrix is never held in memory. The synapses are read grouped
+     * by source, as many sources at a time as fit in
+     * {@link #SAVE_BLOCK_SYNAPSES}, so a matrix with no more synapses than
+     * that is read in a single pass.
+     * @param filename the name of the file to be used
+     */
+    private void saveCompressedToFileAsMatrix(String filename) {
+        int numTars = compressedMatrix.getNumTargets();
+        int numSrcs = compressedMatrix.getNumSources();
+        int[] counts = compressedMatrix.countSourceSynapses();
+        int capacity = Math.min(compressedMatrix.getNumSynapses(),
+                SAVE_BLOCK_SYNAPSES);
+        for (int count : counts) {
+            capacity = Math.max(capacity, count);
+        }
+        int[] tars = new int[capacity];
+        double[] wts = new double[capacity];
+        int[] ptr = new int[numSrcs + 1];
+        try (FileWriter fw = new FileWriter(filename);
+                PrintWriter pw = new PrintWriter(fw);)
+        {
+            int first = 0;
+            while (first < numSrcs) {
+                int last = first;
+                ptr[0] = 0;
+                while (last < numSrcs && ptr[last - first]
+                        + counts[last] <= capacity) {
+                    ptr[last - first + 1] = ptr[last - first] + counts[last];
+                    last++;
+                }
+                compressedMatrix.readSourceRows(first,
+                        Arrays.copyOf(ptr, last - first + 1), tars, wts);
+                for (int s = 0; s < last - first; s++) {
+                    int j = ptr[s];
+                    for (int t = 0; t < numTars; t++) {
+                        double w = 0;
+                        while (j < ptr[s + 1] && tars[j] == t) {
+                            w = wts[j++];
+                        }
+                        pw.print(w + ", ");
+                    }
+                    pw.println();
+                }
+                first = last;
+            }
+        } catch (IOException ie) {
+            System.err.println("Failed to save Synapse Group " + getLabel()
+                    + " as matrix. File IO issue.");
+            ie.printStackTrace();
+        }
+    }
+
     /**
      * Saves to a file using the numeric indexes instead of as a full weight
      * matrix.
@@ -1220,8 +1843,8 @@ public class SynapseGroup extends Group {
      * {@link #revalidateSynapseSets()} first.
      */
     public void randomizeExcitatoryConnections() {
-        ConnectionUtilities.randomizeExcitatorySynapsesUnsafe(exSynapseSet,
-                exciteRand);
+        randomizeConnections(exSynapseSet, exciteRand,
+                ConnectionUtilities.DEFAULT_EXCITATORY_STRENGTH);
     }
 
     /**
@@ -1232,8 +1855,31 @@ public class SynapseGroup extends Group {
      * {@link #revalidateSynapseSets()} first.
      */
     public void randomizeInhibitoryConnections() {
-        ConnectionUtilities.randomizeInhibitorySynapsesUnsafe(inSynapseSet,
-                inhibRand);
+        randomizeConnections(inSynapseSet, inhibRand,
+                ConnectionUtilities.DEFAULT_INHIBITORY_STRENGTH);
+    }
+
+    /**
+     * Sets the strengths of a set of synapses to numbers drawn in one call
+     * from this group's stream.
+     *
+     * @param synapses the synapses to randomize
+     * @param rand the randomizer, or null to use the default strength
+     * @param defaultStrength the strength used if there is no randomizer
+     */
+    private void randomizeConnections(final Set<Synapse> synapses,
+            final PolarizedRandomizer rand, final double defaultStrength) {
+        double[] strengths = new double[synapses.size()];
+        if (rand != null) {
+            rand.fillRandom(getRandomStream(), strengths, 0,
+                    strengths.length);
+        } else {
+            Arrays.fill(strengths, defaultStrength);
+        }
+        int i = 0;
+        for (Synapse s : synapses) {
+            s.setStrength(strengths[i++]);
+        }
     }
 
     /**
@@ -1521,6 +2167,7 @@ public class SynapseGroup extends Group {
             }
         };
         setSynapses(setSUR, sur, polarity);
+        releaseTraceLearner();
         if (Polarity.EXCITATORY == polarity) {
             exStatic = sur instanceof StaticSynapseRule;
         } else if (Polarity.INHIBITORY == polarity) {
@@ -1815,6 +2462,18 @@ public class SynapseGroup extends Group {
      * Perform operations required before saving a synapse group.
      */
     public void preSaveInit() {
+        if (compressedMatrix instanceof MappedSynapseMatrix) {
+            // The file itself is the saved representation
+            ((MappedSynapseMatrix) compressedMatrix).flush();
+            return;
+        }
+        if (compressedMatrix != null) {
+            csrRep = compressedMatrix.toByteArray();
+            return;
+        }
+        if (traceLearner != null) {
+            traceLearner.flush();
+        }
         if (isUseFullRepOnSave()) {
             preSaveInitFull();
             return;
@@ -1890,6 +2549,10 @@ public class SynapseGroup extends Group {
      * process sets the synapse sets to null.
      */
     public void postSaveReInit() {
+        if (compressedMatrix != null) {
+            csrRep = null;
+            return;
+        }
         if (isUseGroupLevelSettings()) {
             inSynapseSet = inTemp;
             exSynapseSet = exTemp;
@@ -1898,13 +2561,142 @@ public class SynapseGroup extends Group {
         }
     }
 
+    /**
+     * Returns which byte representation of this group's connections
+     * {@link #preSaveInit()} produced, if any.
+     *
+     * @return one of {@link #NO_REP}, {@link #CSR_REP},
+     *         {@link #COMPRESSED_REP} or {@link #FULL_REP}
+     */
+    public byte getSavedRepKind() {
+        if (csrRep != null) {
+            return CSR_REP;
+        } else if (compressedMatrixRep != null) {
+            return COMPRESSED_REP;
+        } else if (fullSynapseRep != null) {
+            return FULL_REP;
+        }
+        return NO_REP;
+    }
+
+    /**
+     * Removes the byte representation produced by {@link #preSaveInit()} so
+     * that it can be stored outside the XML, in block <code>block</code> of a
+     * binary snapshot. Deserializing this group then leaves it empty until
+     * {@link #restoreSavedRep(byte, byte[])} is called.
+     *
+     * @param block
+     *            index of the block the representation will be stored in
+     * @return the representation, or null if there is none
+     */
+    public byte[] takeSavedRep(final int block) {
+        byte[] data;
+        switch (getSavedRepKind()) {
+        case CSR_REP:
+            data = csrRep;
+            csrRep = null;
+            break;
+        case COMPRESSED_REP:
+            data = compressedMatrixRep;
+            compressedMatrixRep = null;
+            break;
+        case FULL_REP:
+            data = fullSynapseRep;
+            fullSynapseRep = null;
+            break;
+        default:
+            return null;
+        }
+        snapshotBlock = block;
+        return data;
+    }
+
+    /**
+     * Undoes {@link #takeSavedRep(int)} after saving, so that the save can be
+     * completed in the usual way with {@link #postSaveReInit()}.
+     *
+     * @param kind
+     *            the kind of representation
+     * @param data
+     *            the representation
+     */
+    public void returnSavedRep(final byte kind, final byte[] data) {
+        snapshotBlock = -1;
+        switch (kind) {
+        case CSR_REP:
+            csrRep = data;
+            break;
+        case COMPRESSED_REP:
+            compressedMatrixRep = data;
+            break;
+        case FULL_REP:
+            fullSynapseRep = data;
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Returns the index of the snapshot block holding this group's
+     * connections, if it was deserialized without them.
+     *
+     * @return the block index, or -1
+     */
+    public int getSnapshotBlock() {
+        return snapshotBlock;
+    }
+
+    /**
+     * Rebuilds this group's connections from a representation read from a
+     * binary snapshot, as {@link #postUnmarshallingInit()} would have done had
+     * it been stored in the XML.
+     *
+     * @param kind
+     *            the kind of representation
+     * @param data
+     *            the representation
+     */
+    public void restoreSavedRep(final byte kind, final byte[] data) {
+        returnSavedRep(kind, data);
+        postUnmarshallingInit();
+    }
+
     /**
      * Perform operations required after opening a synapse group.
      */
     public void postUnmarshallingInit() {
 
+        // Connections are restored separately from a binary snapshot
+        if (snapshotBlock >= 0) {
+            exSynapseSet = new HashSet<Synapse>();
+            inSynapseSet = new HashSet<Synapse>();
+            return;
+        }
+
         // Rebuild weight matrix if needed.
-        if (this.isUseGroupLevelSettings() && compressedMatrixRep != null) {
+        if (csrRep != null) {
+            exSynapseSet = new HashSet<Synapse>();
+            inSynapseSet = new HashSet<Synapse>();
+            compressedMatrix = CompressedSynapseMatrix.fromByteArray(csrRep);
+            configureCompressedResponders();
+            csrRep = null;
+        } else if (mappedStorage != null && compressedMatrixRep == null
+                && fullSynapseRep == null && getMappedStorage().exists()) {
+            exSynapseSet = new HashSet<Synapse>();
+            inSynapseSet = new HashSet<Synapse>();
+            try {
+                compressedMatrix = MappedSynapseMatrix.open(
+                        getMappedStorage());
+                configureCompressedResponders();
+            } catch (IOException e) {
+                System.err.println("Could not open the connections of synapse"
+                        + " group " + getLabel() + " in " + mappedStorage);
+                e.printStackTrace();
+                compressedMatrix = null;
+            }
+        } else if (this.isUseGroupLevelSettings()
+                && compressedMatrixRep != null) {
             exSynapseSet = new HashSet<Synapse>();
             inSynapseSet = new HashSet<Synapse>();
             GroupDeserializer.reconstructCompressedSynapseStrengths(
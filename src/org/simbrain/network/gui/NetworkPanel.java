@@ -22,7 +22,6 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Dialog;
-import java.awt.EventQueue;
 import java.awt.FlowLayout;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
@@ -40,7 +39,6 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.Action;
 import javax.swing.JCheckBoxMenuItem;
@@ -364,12 +362,9 @@ public class NetworkPanel extends JPanel {
     // "initial position". Cries out for some more encapsulated solution.
     private Point2D.Double whereToAdd = new Point2D.Double(0, 0);
 
-    
-    /** 
-     * Set to 3 since update neurons, synapses, and groups each decrement it by 1. If 0, update
-     * is complete.
-     */
-    private AtomicInteger updateComplete = new AtomicInteger(0);
+
+    /** Redraws nodes at a capped frame rate as the network is updated. */
+    private final RenderScheduler renderScheduler;
     
     /**
      * Create a new Network panel.
@@ -379,6 +374,8 @@ public class NetworkPanel extends JPanel {
         super();
 
         this.network = Network;
+        renderScheduler = new RenderScheduler(this,
+            RenderScheduler.DEFAULT_FRAME_RATE);
         canvas = new PCanvas();
 
         // Always render in high quality
@@ -439,12 +436,16 @@ public class NetworkPanel extends JPanel {
 
         addNetworkListeners();
 
-        // Don't show text when the canvas is sufficiently zoomed in
+        // Don't show text when the canvas is sufficiently zoomed in, and
+        // draw large groups as images when zoomed out
         PropertyChangeListener zoomListener = new PropertyChangeListener() {
             @Override
             public void propertyChange(PropertyChangeEvent evt) {
+                updateRasterViews();
                 for (NeuronNode node : getNeuronNodes()) {
-                    node.updateTextVisibility();
+                    if (node.getVisible()) {
+                        node.updateTextVisibility();
+                    }
                 }
 
             }
@@ -502,11 +503,7 @@ public class NetworkPanel extends JPanel {
                 if(!guiOn) {
                     return;
                 }
-                EventQueue.invokeLater(new Runnable() {
-                    public void run() {
-                        NetworkPanel.this.updateNeuronNodes();
-                    }
-                });
+                renderScheduler.refreshAll();
             }
 
             @Override
@@ -514,11 +511,7 @@ public class NetworkPanel extends JPanel {
                 if(!guiOn) {
                     return;
                 }
-                EventQueue.invokeLater(new Runnable() {
-                    public void run() {
-                        NetworkPanel.this.updateNeuronNodes(neurons);
-                    }
-                });
+                renderScheduler.refreshAll();
             }
 
             @Override
@@ -526,11 +519,7 @@ public class NetworkPanel extends JPanel {
                 if(!guiOn) {
                     return;
                 }
-                EventQueue.invokeLater(new Runnable() {
-                    public void run() {
-                        NetworkPanel.this.updateSynapseNodes();
-                    }
-                });
+                renderScheduler.refreshAll();
             }
 
             @Override
@@ -538,17 +527,14 @@ public class NetworkPanel extends JPanel {
                 if(!guiOn) {
                     return;
                 }
-                EventQueue.invokeLater(new Runnable() {
-                    public void run() {
-                        NetworkPanel.this.updateSynapseNodes(synapses);
-                    }
-                });
+                renderScheduler.refreshAll();
             }
 
 			@Override
 			public void setUpdateComplete(boolean updateComplete) {
-				NetworkPanel.this.setUpdateComplete(updateComplete);
-				
+				if (!updateComplete) {
+					renderScheduler.stepStarted();
+				}
 			}
         });
 
@@ -659,11 +645,9 @@ public class NetworkPanel extends JPanel {
                 Group group = e.getObject();
                 PNode groupNode = objectNodeMap.get(group);
                 if (groupNode != null) {
-                	updateComplete.incrementAndGet();
                 	NetworkPanel.this.setRunning(true);
                 	((GroupNode) groupNode).updateConstituentNodes();
                 	NetworkPanel.this.setRunning(false);
-                	updateComplete.decrementAndGet();
                 }
                 if (description
                     .equals(SynapseGroupNode.SYNAPSE_VISIBILITY_CHANGED)) {
@@ -687,11 +671,9 @@ public class NetworkPanel extends JPanel {
                 Group group = event.getObject();
                 PNode groupNode = objectNodeMap.get(group);
                 if (groupNode != null) {
-                	updateComplete.incrementAndGet();
                 	NetworkPanel.this.setRunning(true);
                 	((GroupNode) groupNode).updateConstituentNodes();
                 	NetworkPanel.this.setRunning(false);
-                	updateComplete.decrementAndGet();
                 }
                 if (group instanceof NeuronGroup) {
                     NeuronGroupNode node = (NeuronGroupNode) objectNodeMap
@@ -723,53 +705,17 @@ public class NetworkPanel extends JPanel {
                 if (!guiOn) {
                     return;
                 }
-                PNode groupNode = objectNodeMap.get(group);
-                if (groupNode != null) {
-                    ((GroupNode) groupNode).updateConstituentNodes();
-                }
+                renderScheduler.groupUpdated(group);
             }
 
         });
 
     }
 
-    /**
-     * Update visible state of all neurons nodes. This is not used much
-     * internally, because it is preferred to updated the specific nodes that
-     * need to be updated. It is here mainly for convenience (e.g. for use in
-     * scripts).
-     */
-    private void updateNeuronNodes() {
-        // System.out.println("In update neuron nodes");
-        for (NeuronNode node : getNeuronNodes()) {
-            node.update();
-        }
-        timeLabel.update();
-        updateComplete.decrementAndGet();
-    }
-
     public void updateTime() {
         timeLabel.update();
     }
     
-    /**
-     * Update visible state of nodes corresponding to specified neurons.
-     *
-     * @param neurons the neurons whose corresponding pnode should be updated.
-     */
-    private void updateNeuronNodes(Collection<Neuron> neurons) {
-        // System.out.println("In update neuron nodes.  Updating " +
-        // neurons.size() + " neurons");
-        for (Neuron neuron : neurons) {
-            NeuronNode neuronNode = ((NeuronNode) objectNodeMap.get(neuron));
-            if (neuronNode != null) {
-                neuronNode.update();
-            }
-        }
-        timeLabel.update();
-        updateComplete.decrementAndGet();
-    }
-
     /**
      * Update visible state of group nodes.
      *
@@ -783,47 +729,8 @@ public class NetworkPanel extends JPanel {
     			((GroupNode) groupNode).updateConstituentNodes();
     		}
     	}
-    	updateComplete.decrementAndGet();
     }
     
-    /**
-     * Update visible state of all synapse nodes. This is not used much
-     * internally, because it is preferred to updated the specific nodes that
-     * need to be updated. It is here mainly for convenience (e.g. for use in
-     * scripts).
-     */
-    private void updateSynapseNodes() {
-        // System.out.println("In update synapse nodes");
-        for (SynapseNode node : this.getSynapseNodes()) {
-            if (node.getVisible()) {
-                node.updateColor();
-                node.updateDiameter();
-            }
-        }
-        timeLabel.update();
-        updateComplete.decrementAndGet();
-    }
-
-    /**
-     * Update visible state of nodes corresponding to specified synapses.
-     *
-     * @param synapses the synapses whose corresponding pnodes should be
-     *            updated.
-     */
-    private void updateSynapseNodes(Collection<Synapse> synapses) {
-        // System.out.println("In update synapse nodes.  Updating " +
-        // synapses.size() + " synapses");
-        for (Synapse synapse : synapses) {
-            SynapseNode node = ((SynapseNode) objectNodeMap.get(synapse));
-            if (node != null) {
-                node.updateColor();
-                node.updateDiameter();
-            }
-        }
-        timeLabel.update();
-        updateComplete.decrementAndGet();
-    }
-
     /**
      * Use the GUI to add a new neuron to the underlying network model.
      */
@@ -1102,9 +1009,61 @@ public class NetworkPanel extends JPanel {
         // Add neuron group to canvas
         canvas.getLayer().addChild(neuronGroupNode);
         objectNodeMap.put(neuronGroup, neuronGroupNode);
+        neuronGroupNode.updateRasterView(canvas.getCamera().getViewScale());
         // neuronGroupNode.updateBounds();
     }
 
+    /**
+     * Draws large neuron groups as single images when the view is zoomed out,
+     * and node by node otherwise (see
+     * {@link NeuronGroupNode#updateRasterView(double)}).
+     * Synapse groups whose synapses are not shown get an image of their
+     * weight matrix while their source or target group is drawn as an image.
+     */
+    private void updateRasterViews() {
+        double viewScale = canvas.getCamera().getViewScale();
+        List<NeuronGroupNode> neuronGroupNodes =
+            new ArrayList<NeuronGroupNode>();
+        List<SynapseGroupNode> synapseGroupNodes =
+            new ArrayList<SynapseGroupNode>();
+        synchronized (objectNodeMap) {
+            for (PNode node : objectNodeMap.values()) {
+                if (node instanceof NeuronGroupNode) {
+                    neuronGroupNodes.add((NeuronGroupNode) node);
+                } else if (node instanceof SynapseGroupNode
+                    && !(node instanceof SynapseGroupNodeVisible)) {
+                    synapseGroupNodes.add((SynapseGroupNode) node);
+                }
+            }
+        }
+        for (NeuronGroupNode node : neuronGroupNodes) {
+            node.updateRasterView(viewScale);
+        }
+        for (SynapseGroupNode node : synapseGroupNodes) {
+            updateWeightRaster(node);
+        }
+    }
+
+    /**
+     * Shows the weight matrix image of a synapse group node if its source or
+     * target group is drawn as an image.
+     *
+     * @param node the synapse group node
+     */
+    private void updateWeightRaster(final SynapseGroupNode node) {
+        SynapseGroup group = node.getSynapseGroup();
+        boolean shown = false;
+        for (NeuronGroup ng : new NeuronGroup[] {
+            group.getSourceNeuronGroup(), group.getTargetNeuronGroup() }) {
+            PNode ngNode = objectNodeMap.get(ng);
+            if (ngNode instanceof NeuronGroupNode
+                && ((NeuronGroupNode) ngNode).isRasterShown()) {
+                shown = true;
+            }
+        }
+        node.setRasterShown(shown);
+    }
+
     /**
      * Add a SynapseGroup representation to the canvas. Depending on the
      * whether visibility is turned on, and if not, whether we are dealing
@@ -1162,6 +1121,9 @@ public class NetworkPanel extends JPanel {
         }
         SynapseGroupNode synapseGroupNode = (SynapseGroupNode) objectNodeMap
             .get(synapseGroup);
+        if (!(synapseGroupNode instanceof SynapseGroupNodeVisible)) {
+            updateWeightRaster(synapseGroupNode);
+        }
 
         // TODO: Clean up listeners if the synapsegroup is removed.
         NeuronGroupNode srcNode = (NeuronGroupNode) objectNodeMap
@@ -2863,10 +2825,7 @@ public class NetworkPanel extends JPanel {
      */
     public void setGuiOn(final boolean guiOn) {
         if (guiOn) {
-        	this.setUpdateComplete(false);
-            this.updateNeuronNodes();
-            this.updateSynapseNodes();
-            updateComplete.decrementAndGet();
+            renderScheduler.refreshAll();
             network.setFireUpdates(true);
         } else {
         	network.setFireUpdates(false);
@@ -3289,13 +3248,30 @@ public class NetworkPanel extends JPanel {
         return quickConnector;
     }
 
+    /**
+     * @return true if every change to the network has been drawn
+     */
 	public boolean getUpdateComplete() {
-		return updateComplete.get() == 0;
+		return renderScheduler.isIdle();
 	}
 
-	public void setUpdateComplete(boolean updateComplete) {
-		if (!updateComplete && this.updateComplete.get() != 0) { return; }
-		this.updateComplete.set(updateComplete ? 0 : 3);
-	}
+    /**
+     * @return the maximum number of times per second the panel is redrawn
+     *         while the network runs
+     */
+    public int getFrameRate() {
+        return renderScheduler.getFrameRate();
+    }
+
+    /**
+     * Sets the maximum number of times per second the panel is redrawn while
+     * the network runs. The network is updated as fast as it can be either
+     * way.
+     *
+     * @param frameRate the frame rate
+     */
+    public void setFrameRate(final int frameRate) {
+        renderScheduler.setFrameRate(frameRate);
+    }
 
 }
@@ -0,0 +1,698 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.gui;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.Timer;
+
+import org.piccolo2d.PNode;
+import org.simbrain.network.core.Network;
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.Synapse;
+import org.simbrain.network.groups.Group;
+import org.simbrain.network.groups.NeuronGroup;
+import org.simbrain.network.groups.Subnetwork;
+import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.network.gui.nodes.NeuronGroupNode;
+import org.simbrain.network.gui.nodes.NeuronGroupRaster;
+import org.simbrain.network.gui.nodes.NeuronNode;
+import org.simbrain.network.gui.nodes.SynapseGroupNode;
+import org.simbrain.network.gui.nodes.SynapseGroupRaster;
+import org.simbrain.network.gui.nodes.SynapseNode;
+import org.simbrain.network.synapse_update_rules.StaticSynapseRule;
+
+/**
+ * Redraws the nodes of a network panel at a capped frame rate, independently
+ * of how fast the network is updated.
+ * <p>
+ * Update events from the network only mark the loose neurons, loose synapses
+ * or a group as changed. On each frame the Swing thread requests a snapshot
+ * of whatever has changed. The next update event for that object copies its
+ * state (activations and spikes, or strengths) into a back buffer on the
+ * update thread, and on the following frame the Swing thread swaps that
+ * buffer to the front and draws from it. Any number of network updates
+ * between frames therefore cost one snapshot, and the update thread never
+ * waits for drawing. When the network is not running, snapshots are taken on
+ * the Swing thread.
+ */
+final class RenderScheduler {
+
+    /** Default number of frames drawn per second. */
+    static final int DEFAULT_FRAME_RATE = 30;
+
+    /** No snapshot is wanted. */
+    private static final int IDLE = 0;
+
+    /** A snapshot is wanted on the next update event. */
+    private static final int REQUESTED = 1;
+
+    /** A snapshot is being taken. */
+    private static final int CAPTURING = 2;
+
+    /** A snapshot is in the back buffer, waiting to be drawn. */
+    private static final int READY = 3;
+
+    /** The panel whose nodes are drawn. */
+    private final NetworkPanel panel;
+
+    /** The network shown in the panel. */
+    private final Network network;
+
+    /** Swing timer which draws the frames. Only runs while there is work. */
+    private final Timer timer;
+
+    /** True while the timer is running or about to be started. */
+    private final AtomicBoolean ticking = new AtomicBoolean();
+
+    /** Number of network updates begun, used to tell if the network is idle. */
+    private final AtomicLong steps = new AtomicLong();
+
+    /** Value of {@link #steps} at the previous frame. Swing thread only. */
+    private long lastSteps = -1;
+
+    /** Frame of the loose neurons, read through the network's live view. */
+    private final Frame looseNeurons;
+
+    /** Frame of the loose synapses. */
+    private final Frame looseSynapses;
+
+    /**
+     * Frames of the groups, by group. Replaced rather than modified, so that
+     * update events can read it without locking.
+     */
+    private volatile Map<Group, Frame> groupFrames =
+            new IdentityHashMap<Group, Frame>();
+
+    /**
+     * Create a render scheduler for a network panel.
+     *
+     * @param panel the panel to draw
+     * @param frameRate the number of frames to draw per second at most
+     */
+    RenderScheduler(final NetworkPanel panel, final int frameRate) {
+        this.panel = panel;
+        this.network = panel.getNetwork();
+        looseNeurons = new NeuronFrame(null, network.getNeuronList());
+        looseSynapses = new SynapseFrame(network.getSynapseList());
+        timer = new Timer(1000 / frameRate, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                drawFrame();
+            }
+        });
+    }
+
+    /**
+     * Sets the maximum number of frames drawn per second.
+     *
+     * @param frameRate the frame rate
+     */
+    void setFrameRate(final int frameRate) {
+        timer.setDelay(1000 / frameRate);
+    }
+
+    /**
+     * @return the maximum number of frames drawn per second
+     */
+    int getFrameRate() {
+        return 1000 / timer.getDelay();
+    }
+
+    /**
+     * Called at the start of each network update.
+     */
+    void stepStarted() {
+        steps.incrementAndGet();
+    }
+
+    /**
+     * The state of a group has changed.
+     *
+     * @param group the group
+     */
+    void groupUpdated(final Group group) {
+        groupChanged(group, true);
+    }
+
+    /**
+     * Marks everything shown in the panel as changed. This only sets a flag
+     * for each group, so it is cheap enough to call on every update.
+     */
+    void refreshAll() {
+        changed(looseNeurons);
+        changed(looseSynapses);
+        for (Group group : network.getGroupList()) {
+            groupChanged(group, false);
+        }
+    }
+
+    /**
+     * Marks the frame of a group, or the frames of the groups in a
+     * subnetwork, as changed.
+     *
+     * @param group the group
+     * @param updated true if the group has been updated, in which case a
+     *            requested snapshot is taken now; otherwise the group is only
+     *            marked for a snapshot on the next frame
+     */
+    private void groupChanged(final Group group, final boolean updated) {
+        if (group instanceof Subnetwork) {
+            Subnetwork subnetwork = (Subnetwork) group;
+            for (NeuronGroup ng : subnetwork.getNeuronGroupList()) {
+                groupChanged(ng, updated);
+            }
+            for (SynapseGroup sg : subnetwork.getSynapseGroupList()) {
+                groupChanged(sg, updated);
+            }
+            return;
+        }
+        Frame frame = groupFrames.get(group);
+        if (frame == null) {
+            frame = addGroupFrame(group);
+            if (frame == null) {
+                return;
+            }
+        }
+        if (updated) {
+            changed(frame);
+        } else {
+            frame.dirty = true;
+        }
+    }
+
+    /**
+     * @return true if every change has been drawn
+     */
+    boolean isIdle() {
+        if (looseNeurons.isPending() || looseSynapses.isPending()) {
+            return false;
+        }
+        for (Frame frame : groupFrames.values()) {
+            if (frame.isPending()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes a snapshot of a frame if one was requested, or otherwise marks it
+     * as changed, and makes sure the timer is running.
+     *
+     * @param frame the frame which has changed
+     */
+    private void changed(final Frame frame) {
+        frame.stepped();
+        if (frame.state.compareAndSet(REQUESTED, CAPTURING)) {
+            frame.capture();
+        } else {
+            frame.dirty = true;
+        }
+        if (!ticking.get() && ticking.compareAndSet(false, true)) {
+            timer.start();
+        }
+    }
+
+    /**
+     * Adds the frame for a group.
+     *
+     * @param group the group
+     * @return the frame, or null if the group is not drawn
+     */
+    private synchronized Frame addGroupFrame(final Group group) {
+        Frame frame = groupFrames.get(group);
+        if (frame != null) {
+            return frame;
+        }
+        if (group instanceof NeuronGroup) {
+            frame = new NeuronFrame(group,
+                    ((NeuronGroup) group).getNeuronList());
+        } else if (group instanceof SynapseGroup) {
+            if (((SynapseGroup) group).isDisplaySynapses()) {
+                frame = new SynapseGroupFrame((SynapseGroup) group);
+            } else {
+                frame = new WeightFrame((SynapseGroup) group);
+            }
+        } else {
+            return null;
+        }
+        Map<Group, Frame> frames = new IdentityHashMap<Group, Frame>(
+                groupFrames);
+        frames.put(group, frame);
+        groupFrames = frames;
+        return frame;
+    }
+
+    /**
+     * Removes the frame of a group which is no longer shown.
+     *
+     * @param group the group
+     */
+    private synchronized void removeGroupFrame(final Group group) {
+        Map<Group, Frame> frames = new IdentityHashMap<Group, Frame>(
+                groupFrames);
+        frames.remove(group);
+        groupFrames = frames;
+    }
+
+    /**
+     * Draws whatever snapshots are ready and requests snapshots of whatever
+     * has changed. Called by the timer on the Swing thread.
+     */
+    private void drawFrame() {
+        long now = steps.get();
+        boolean idle = now == lastSteps;
+        lastSteps = now;
+        boolean drawn = advance(looseNeurons, idle);
+        drawn |= advance(looseSynapses, idle);
+        for (Map.Entry<Group, Frame> entry : groupFrames.entrySet()) {
+            if (panel.getObjectNodeMap().get(entry.getKey()) == null) {
+                removeGroupFrame(entry.getKey());
+            } else {
+                drawn |= advance(entry.getValue(), idle);
+            }
+        }
+        if (drawn) {
+            panel.updateTime();
+        }
+        if (isIdle()) {
+            timer.stop();
+            ticking.set(false);
+            // A change may have come in after the check above
+            if (!isIdle() && ticking.compareAndSet(false, true)) {
+                timer.start();
+            }
+        }
+    }
+
+    /**
+     * Draws a frame if its snapshot is ready, and requests a new snapshot if
+     * it has changed since. If the network is idle the snapshot is taken here.
+     *
+     * @param frame the frame
+     * @param idle true if the network has not been updated since the last
+     *            frame
+     * @return true if anything was drawn
+     */
+    private boolean advance(final Frame frame, final boolean idle) {
+        boolean drawn = false;
+        if (frame.state.get() == READY) {
+            frame.draw();
+            drawn = true;
+        }
+        if (frame.state.get() == IDLE && frame.dirty) {
+            frame.dirty = false;
+            if (frame.isWanted()) {
+                frame.state.set(REQUESTED);
+            }
+        }
+        if (idle && frame.state.compareAndSet(REQUESTED, CAPTURING)) {
+            frame.capture();
+            if (frame.state.get() == READY) {
+                frame.draw();
+                drawn = true;
+            }
+        }
+        return drawn;
+    }
+
+    /**
+     * Double-buffered snapshot of the state of some model objects.
+     */
+    private abstract class Frame {
+
+        /** One of IDLE, REQUESTED, CAPTURING and READY. */
+        final AtomicInteger state = new AtomicInteger(IDLE);
+
+        /** True if the objects have changed since the last snapshot. */
+        volatile boolean dirty = true;
+
+        /** The objects in the snapshot being taken or drawn. */
+        Object[] backItems = new Object[0], frontItems = new Object[0];
+
+        /** Activations or strengths of the objects. */
+        double[] backValues = new double[0], frontValues = new double[0];
+
+        /** Spikes of the neurons, or of the synapses' source neurons. */
+        boolean[] backSpikes = new boolean[0], frontSpikes = new boolean[0];
+
+        /** Number of objects in the back and front buffers. */
+        int backSize, frontSize;
+
+        /**
+         * @return true if the frame has changes which have not been drawn
+         */
+        boolean isPending() {
+            return dirty || state.get() != IDLE;
+        }
+
+        /**
+         * Called on each update event, before any snapshot is taken.
+         */
+        void stepped() {
+        }
+
+        /**
+         * Called on the Swing thread before a snapshot is requested.
+         *
+         * @return false if there is nothing to draw
+         */
+        boolean isWanted() {
+            return true;
+        }
+
+        /**
+         * Makes room for a number of objects in the back buffer.
+         *
+         * @param capacity the number of objects
+         */
+        final void reserve(final int capacity) {
+            if (backItems.length < capacity) {
+                int n = Math.max(capacity, backItems.length * 2);
+                backItems = Arrays.copyOf(backItems, n);
+                backValues = Arrays.copyOf(backValues, n);
+                backSpikes = Arrays.copyOf(backSpikes, n);
+            }
+        }
+
+        /**
+         * Copies the state of the objects into the back buffer. Called with
+         * the state set to CAPTURING, and leaves it set to READY.
+         */
+        final void capture() {
+            backSize = 0;
+            try {
+                snapshot();
+            } catch (ConcurrentModificationException e) {
+                // Objects were added or removed meanwhile; try again later
+                state.set(REQUESTED);
+                return;
+            }
+            state.set(READY);
+        }
+
+        /**
+         * Swaps the buffers and draws the front one. Called on the Swing
+         * thread with the state set to READY, and leaves it set to IDLE.
+         */
+        final void draw() {
+            Object[] items = frontItems;
+            frontItems = backItems;
+            backItems = items;
+            double[] values = frontValues;
+            frontValues = backValues;
+            backValues = values;
+            boolean[] spikes = frontSpikes;
+            frontSpikes = backSpikes;
+            backSpikes = spikes;
+            frontSize = backSize;
+            state.set(IDLE);
+            apply();
+            // Don't hold on to removed objects
+            Arrays.fill(frontItems, 0, frontSize, null);
+        }
+
+        /**
+         * Adds an object to the back buffer.
+         *
+         * @param item the object
+         * @param value its activation or strength
+         * @param spike whether it, or its source neuron, spiked
+         */
+        final void add(final Object item, final double value,
+                final boolean spike) {
+            if (backSize == backItems.length) {
+                reserve(Math.max(16, backSize * 2));
+            }
+            backItems[backSize] = item;
+            backValues[backSize] = value;
+            backSpikes[backSize] = spike;
+            backSize++;
+        }
+
+        /**
+         * Adds the state of each object to the back buffer.
+         */
+        abstract void snapshot();
+
+        /**
+         * Draws the front buffer.
+         */
+        abstract void apply();
+    }
+
+    /**
+     * Frame of some neurons, either loose or in a neuron group.
+     */
+    private class NeuronFrame extends Frame {
+
+        /** The neuron group, or null for loose neurons. */
+        private final Group group;
+
+        /** The neurons. */
+        private final Collection<? extends Neuron> neurons;
+
+        /**
+         * True while the group is drawn as a spike raster, which shows every
+         * spike since the last frame rather than only those of the last
+         * update.
+         */
+        private volatile boolean accumulateSpikes;
+
+        /** Neurons which spiked since the last snapshot, by index. */
+        private boolean[] spiked = new boolean[0];
+
+        /**
+         * @param group the neuron group, or null for loose neurons
+         * @param neurons the neurons
+         */
+        NeuronFrame(final Group group,
+                final Collection<? extends Neuron> neurons) {
+            this.group = group;
+            this.neurons = neurons;
+        }
+
+        @Override
+        void stepped() {
+            if (!accumulateSpikes) {
+                return;
+            }
+            if (spiked.length < neurons.size()) {
+                spiked = Arrays.copyOf(spiked, neurons.size());
+            }
+            int i = 0;
+            for (Neuron neuron : neurons) {
+                if (neuron.isSpike()) {
+                    spiked[i] = true;
+                }
+                i++;
+            }
+        }
+
+        @Override
+        void snapshot() {
+            boolean[] since = spiked;
+            int i = 0;
+            for (Neuron neuron : neurons) {
+                add(neuron, neuron.getActivation(), neuron.isSpike()
+                        || (i < since.length && since[i]));
+                i++;
+            }
+            Arrays.fill(since, false);
+        }
+
+        @Override
+        void apply() {
+            Map<Object, PNode> nodes = panel.getObjectNodeMap();
+            PNode groupNode = group == null ? null : nodes.get(group);
+            if (groupNode instanceof NeuronGroupNode
+                    && ((NeuronGroupNode) groupNode).isRasterShown()) {
+                NeuronGroupRaster raster = ((NeuronGroupNode) groupNode)
+                        .getRaster();
+                accumulateSpikes = raster.getMode()
+                        == NeuronGroupRaster.Mode.SPIKE_RASTER;
+                raster.draw(frontValues, frontSpikes, frontSize);
+                return;
+            }
+            accumulateSpikes = false;
+            for (int i = 0; i < frontSize; i++) {
+                PNode node = nodes.get(frontItems[i]);
+                if (node instanceof NeuronNode) {
+                    ((NeuronNode) node).update(frontValues[i],
+                            frontSpikes[i]);
+                }
+            }
+            if (groupNode instanceof NeuronGroupNode && !panel.isRunning()) {
+                ((NeuronGroupNode) groupNode).updateText();
+            }
+        }
+    }
+
+    /**
+     * Frame of some synapses.
+     */
+    private class SynapseFrame extends Frame {
+
+        /** The synapses. */
+        private final Collection<Synapse> synapses;
+
+        /**
+         * @param synapses the synapses
+         */
+        SynapseFrame(final Collection<Synapse> synapses) {
+            this.synapses = synapses;
+        }
+
+        @Override
+        void snapshot() {
+            for (Synapse synapse : synapses) {
+                add(synapse, synapse.getStrength(), synapse.getSource()
+                        .isSpike());
+            }
+        }
+
+        @Override
+        void apply() {
+            Map<Object, PNode> nodes = panel.getObjectNodeMap();
+            for (int i = 0; i < frontSize; i++) {
+                PNode node = nodes.get(frontItems[i]);
+                if (node instanceof SynapseNode) {
+                    ((SynapseNode) node).update(frontValues[i],
+                            frontSpikes[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Frame of the synapses of a synapse group whose synapses are displayed.
+     */
+    private class SynapseGroupFrame extends SynapseFrame {
+
+        /** The synapse group. */
+        private final SynapseGroup group;
+
+        /**
+         * @param group the synapse group
+         */
+        SynapseGroupFrame(final SynapseGroup group) {
+            super(null);
+            this.group = group;
+        }
+
+        @Override
+        void snapshot() {
+            if (!group.isDisplaySynapses()) {
+                return;
+            }
+            for (Synapse synapse : group.getExcitatorySynapses()) {
+                add(synapse, synapse.getStrength(), synapse.getSource()
+                        .isSpike());
+            }
+            for (Synapse synapse : group.getInhibitorySynapses()) {
+                add(synapse, synapse.getStrength(), synapse.getSource()
+                        .isSpike());
+            }
+        }
+    }
+
+    /**
+     * Frame of the weight matrix image of a synapse group whose synapses are
+     * not displayed. Only taken while the image is shown and the weights can
+     * change through learning.
+     */
+    private class WeightFrame extends Frame {
+
+        /** The synapse group. */
+        private final SynapseGroup group;
+
+        /** The image being drawn, or null if it is not shown. */
+        private volatile SynapseGroupRaster raster;
+
+        /**
+         * @param group the synapse group
+         */
+        WeightFrame(final SynapseGroup group) {
+            this.group = group;
+        }
+
+        @Override
+        boolean isWanted() {
+            PNode node = panel.getObjectNodeMap().get(group);
+            if (node instanceof SynapseGroupNode
+                    && ((SynapseGroupNode) node).isRasterShown()
+                    && learns()) {
+                raster = ((SynapseGroupNode) node).getRaster();
+            } else {
+                raster = null;
+            }
+            return raster != null;
+        }
+
+        /**
+         * @return false if the weights of the group cannot change by
+         *         learning
+         */
+        private boolean learns() {
+            if (group.isCompressed()) {
+                return false;
+            }
+            if (group.isUseSpikeTraceLearning()
+                    || !group.isUseGroupLevelSettings()) {
+                return true;
+            }
+            return !(group.getExcitatoryPrototype().getLearningRule()
+                    instanceof StaticSynapseRule)
+                    || !(group.getInhibitoryPrototype().getLearningRule()
+                    instanceof StaticSynapseRule);
+        }
+
+        @Override
+        void snapshot() {
+            SynapseGroupRaster image = raster;
+            if (image == null) {
+                return;
+            }
+            reserve(image.getNumCells());
+            backSize = image.readWeights(backValues);
+        }
+
+        @Override
+        void apply() {
+            PNode node = panel.getObjectNodeMap().get(group);
+            if (frontSize > 0 && node instanceof SynapseGroupNode
+                    && ((SynapseGroupNode) node).isRasterShown()
+                    && ((SynapseGroupNode) node).getRaster()
+                    .getNumCells() == frontSize) {
+                ((SynapseGroupNode) node).getRaster().draw(frontValues);
+            }
+        }
+    }
+
+}
@@ -538,7 +538,7 @@ public class SparseConnectionPanel extends AbstractConnectionPanel implements
             } else {
                 return Sparse.connectSparse(source, target, density,
                     allowSelfConnect, equalizeEfferentsChkBx.isSelected(),
-                    true);
+                    true, Sparse.getRandomStream(source, "Sparse"));
             }
         }
         return null;
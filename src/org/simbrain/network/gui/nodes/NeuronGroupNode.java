@@ -108,6 +108,12 @@ public class NeuronGroupNode extends PNode implements GroupNode, PropertyChangeL
 	/** The outlined objects (neurons) for this neuron group. */
 	private final OutlinedObjects outlinedObjects;
 
+	/** Image drawn instead of the neuron nodes, or null if never shown. */
+	private NeuronGroupRaster raster;
+
+	/** True if the group is drawn as an image instead of neuron nodes. */
+	private boolean rasterShown;
+
 	/** List of custom menu items added by subclasses. */
 	private final List<JMenuItem> customMenuItems = new ArrayList<JMenuItem>();
 
@@ -153,6 +159,9 @@ public class NeuronGroupNode extends PNode implements GroupNode, PropertyChangeL
 					+ OutlinedObjects.ROUNDING_WIDTH_HEIGHT / 2, outlinedObjects
 					.getFullBounds().getY()
 					- interactionBox.getFullBounds().getHeight() + 1);
+			if (rasterShown) {
+				raster.updateBounds();
+			}
 		}
 	}
 
@@ -219,8 +228,12 @@ public class NeuronGroupNode extends PNode implements GroupNode, PropertyChangeL
 
 	@Override
 	public void updateConstituentNodes() {
-		for (Object object : outlinedObjects.getChildrenReference()) {
-			((NeuronNode) object).update();
+		if (rasterShown) {
+			raster.drawCurrent();
+		} else {
+			for (Object object : outlinedObjects.getChildrenReference()) {
+				((NeuronNode) object).update();
+			}
 		}
 		if (networkPanel.isRunning()) {
 			return;
@@ -238,6 +251,67 @@ public class NeuronGroupNode extends PNode implements GroupNode, PropertyChangeL
 		}
 	}
 
+	/**
+	 * Draws the group as a single image when it is large and the view is
+	 * zoomed out far enough that its neuron nodes would be tiny, and node by
+	 * node otherwise. See {@link NeuronGroupRaster}.
+	 *
+	 * @param viewScale
+	 *            the view scale of the canvas camera
+	 */
+	public void updateRasterView(final double viewScale) {
+		setRasterShown(neuronGroup.size() >= NeuronGroupRaster.MIN_NEURONS
+				&& viewScale < NeuronGroupRaster.MAX_VIEW_SCALE);
+	}
+
+	/**
+	 * Sets whether the group is drawn as a single image. While it is, the
+	 * neuron nodes are hidden and are not updated, and individual neurons
+	 * cannot be picked.
+	 *
+	 * @param shown
+	 *            true to draw the group as an image
+	 */
+	public void setRasterShown(final boolean shown) {
+		if (shown == rasterShown) {
+			return;
+		}
+		rasterShown = shown;
+		for (Object object : outlinedObjects.getChildrenReference()) {
+			PNode node = (PNode) object;
+			node.setVisible(!shown);
+			node.setPickable(!shown);
+			node.setChildrenPickable(!shown);
+		}
+		if (shown) {
+			if (raster == null) {
+				raster = new NeuronGroupRaster(neuronGroup);
+			} else {
+				raster.layoutPixels();
+			}
+			addChild(raster);
+			raster.drawCurrent();
+		} else {
+			removeChild(raster);
+			updateConstituentNodes();
+		}
+	}
+
+	/**
+	 * @return true if the group is drawn as a single image
+	 */
+	public boolean isRasterShown() {
+		return rasterShown;
+	}
+
+	/**
+	 * @return the image the group is drawn as when it is large, or null if it
+	 *         has never been drawn that way
+	 */
+	public NeuronGroupRaster getRaster() {
+		return raster;
+	}
+
 	/**
 	 * Add a neuron node to the group node.
 	 *
@@ -245,6 +319,12 @@ public class NeuronGroupNode extends PNode implements GroupNode, PropertyChangeL
 	 */
 	public void addNeuronNode(NeuronNode node) {
 		outlinedObjects.addChild(node);
+		if (rasterShown) {
+			node.setVisible(false);
+			node.setPickable(false);
+			node.setChildrenPickable(false);
+			raster.layoutPixels();
+		}
 	}
 
 	/**
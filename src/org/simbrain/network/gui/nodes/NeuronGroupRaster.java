@@ -0,0 +1,343 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.gui.nodes;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.List;
+
+import org.piccolo2d.PNode;
+import org.piccolo2d.util.PPaintContext;
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronUpdateRule;
+import org.simbrain.network.groups.NeuronGroup;
+
+/**
+ * Draws the neurons of a large neuron group as a single image, instead of
+ * one {@link NeuronNode} per neuron. The image is either a heat map of
+ * activations, with one pixel per neuron placed according to the neuron's
+ * position, or a spike raster, with one row per neuron (or per block of
+ * neurons) and one column per frame, scrolling to the left. Pixels are written
+ * straight from arrays of activations and spikes.
+ *
+ * @see NeuronGroupNode#updateRasterView(double)
+ */
+public class NeuronGroupRaster extends PNode {
+
+    /** Ways of drawing the group. */
+    public enum Mode {
+
+        /** One pixel per neuron, colored by activation. */
+        HEAT_MAP,
+
+        /** One row per neuron and one column per frame, marking spikes. */
+        SPIKE_RASTER
+    }
+
+    /** Groups with fewer neurons than this are always drawn node by node. */
+    public static final int MIN_NEURONS = 1000;
+
+    /**
+     * View scale below which large groups are drawn as an image. Above it
+     * the neuron nodes are large enough on screen to be worth drawing.
+     */
+    public static final double MAX_VIEW_SCALE = 1.0;
+
+    /** Largest width or height of the image in pixels. */
+    private static final int MAX_SIDE = 512;
+
+    /** Number of frames shown by the spike raster. */
+    private static final int HISTORY = 200;
+
+    /** Number of color levels for positive and negative activations. */
+    private static final int LEVELS = 256;
+
+    /** Color of the background of the spike raster. */
+    private static final int RASTER_BACKGROUND = Color.white.getRGB();
+
+    /** The group drawn. */
+    private final NeuronGroup group;
+
+    /** How the group is drawn. */
+    private Mode mode;
+
+    /** The image, of type TYPE_INT_ARGB. */
+    private BufferedImage image;
+
+    /** The pixels of the image. */
+    private int[] pixels;
+
+    /** Pixel of each neuron (heat map) or row of each neuron (raster). */
+    private int[] pixelOf = new int[0];
+
+    /** Next column written by the spike raster. */
+    private int column;
+
+    /** Colors of positive activations, from white to the hot color. */
+    private final int[] hotColors = new int[LEVELS];
+
+    /** Colors of negative activations, from white to the cool color. */
+    private final int[] coolColors = new int[LEVELS];
+
+    /** Activation shown with the full hot color. */
+    private double upperBound = 1;
+
+    /** Activation shown with the full cool color. */
+    private double lowerBound = -1;
+
+    /** Activations read by {@link #drawCurrent()}, reused between calls. */
+    private double[] currentActivations = new double[0];
+
+    /** Spikes read by {@link #drawCurrent()}, reused between calls. */
+    private boolean[] currentSpikes = new boolean[0];
+
+    /**
+     * Create a raster for a neuron group. Spiking groups are drawn as a spike
+     * raster and others as a heat map.
+     *
+     * @param group the neuron group
+     */
+    public NeuronGroupRaster(final NeuronGroup group) {
+        this.group = group;
+        this.mode = group.isSpikingNeuronGroup() ? Mode.SPIKE_RASTER
+                : Mode.HEAT_MAP;
+        setPickable(false);
+        layoutPixels();
+    }
+
+    /**
+     * Works out the size of the image, which pixel shows which neuron, and
+     * where the image goes. Call when the neurons of the group change or are
+     * moved.
+     */
+    public void layoutPixels() {
+        List<Neuron> neurons = group.getNeuronList();
+        int n = Math.max(1, neurons.size());
+        pixelOf = new int[neurons.size()];
+        double minX = group.getMinX();
+        double minY = group.getMinY();
+        double w = group.getMaxX() - minX;
+        double h = group.getMaxY() - minY;
+        double diameter = NeuronNode.getDIAMETER();
+        int width;
+        int height;
+        if (mode == Mode.HEAT_MAP) {
+            // About one pixel per neuron, with the aspect ratio of the group
+            double aspect = (w + diameter) / (h + diameter);
+            width = (int) Math.min(MAX_SIDE,
+                    Math.max(1, Math.ceil(Math.sqrt(n * aspect))));
+            height = (int) Math.min(MAX_SIDE,
+                    Math.max(1, Math.ceil(n / (double) width)));
+            for (int i = 0; i < pixelOf.length; i++) {
+                Neuron neuron = neurons.get(i);
+                int x = w == 0 ? 0 : (int) Math.round((neuron.getX() - minX)
+                        / w * (width - 1));
+                int y = h == 0 ? 0 : (int) Math.round((neuron.getY() - minY)
+                        / h * (height - 1));
+                pixelOf[i] = y * width + x;
+            }
+        } else {
+            width = HISTORY;
+            height = Math.min(n, MAX_SIDE);
+            for (int i = 0; i < pixelOf.length; i++) {
+                pixelOf[i] = (int) ((long) i * height / n);
+            }
+            column = 0;
+        }
+        if (image == null || image.getWidth() != width
+                || image.getHeight() != height) {
+            image = new BufferedImage(width, height,
+                    BufferedImage.TYPE_INT_ARGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer())
+                    .getData();
+        }
+        Arrays.fill(pixels, mode == Mode.HEAT_MAP ? 0 : RASTER_BACKGROUND);
+        if (!neurons.isEmpty()) {
+            NeuronUpdateRule rule = neurons.get(0).getUpdateRule();
+            upperBound = rule.getGraphicalUpperBound();
+            lowerBound = rule.getGraphicalLowerBound();
+        }
+        float hot = NeuronNode.getHotColor();
+        float cool = NeuronNode.getCoolColor();
+        for (int k = 0; k < LEVELS; k++) {
+            float saturation = k / (float) (LEVELS - 1);
+            hotColors[k] = Color.HSBtoRGB(hot, saturation, 1);
+            coolColors[k] = Color.HSBtoRGB(cool, saturation, 1);
+        }
+        updateBounds();
+    }
+
+    /**
+     * Places the image over the neurons of the group. Call when the group is
+     * moved.
+     */
+    public void updateBounds() {
+        double minX = group.getMinX();
+        double minY = group.getMinY();
+        double diameter = NeuronNode.getDIAMETER();
+        setBounds(minX - diameter / 2, minY - diameter / 2, group.getMaxX()
+                - minX + diameter, group.getMaxY() - minY + diameter);
+        invalidatePaint();
+    }
+
+    /**
+     * Draws the state of the neurons of the group.
+     *
+     * @param activations the activation of each neuron, in group order
+     * @param spikes whether each neuron spiked (since the last frame, for
+     *            the spike raster)
+     * @param size the number of neurons
+     */
+    public void draw(final double[] activations, final boolean[] spikes,
+            final int size) {
+        if (size != pixelOf.length) {
+            layoutPixels();
+            if (size != pixelOf.length) {
+                return;
+            }
+        }
+        if (mode == Mode.HEAT_MAP) {
+            for (int i = 0; i < size; i++) {
+                pixels[pixelOf[i]] = spikes[i] ? NeuronNode.getSpikingColor()
+                        .getRGB() : color(activations[i]);
+            }
+        } else {
+            int width = image.getWidth();
+            for (int p = column; p < pixels.length; p += width) {
+                pixels[p] = RASTER_BACKGROUND;
+            }
+            int spikeColor = Color.black.getRGB();
+            for (int i = 0; i < size; i++) {
+                if (spikes[i]) {
+                    pixels[pixelOf[i] * width + column] = spikeColor;
+                }
+            }
+            column = (column + 1) % width;
+        }
+        invalidatePaint();
+    }
+
+    /**
+     * Draws the current state of the neurons of the group, read from the
+     * model, without starting a new frame. The heat map is redrawn; the spike
+     * raster only gains a column per frame (see
+     * {@link #draw(double[], boolean[], int)}), so it is just repainted.
+     */
+    public void drawCurrent() {
+        List<Neuron> neurons = group.getNeuronList();
+        int n = neurons.size();
+        if (n != pixelOf.length) {
+            layoutPixels();
+        }
+        if (mode == Mode.SPIKE_RASTER) {
+            invalidatePaint();
+            return;
+        }
+        if (currentActivations.length != n) {
+            currentActivations = new double[n];
+            currentSpikes = new boolean[n];
+        }
+        for (int i = 0; i < n; i++) {
+            Neuron neuron = neurons.get(i);
+            currentActivations[i] = neuron.getActivation();
+            currentSpikes[i] = neuron.isSpike();
+        }
+        draw(currentActivations, currentSpikes, n);
+    }
+
+    /**
+     * Returns the color of an activation, as drawn by {@link NeuronNode}.
+     *
+     * @param activation the activation
+     * @return the color as an ARGB int
+     */
+    private int color(final double activation) {
+        if (activation > -.1 && activation < .1) {
+            return hotColors[0];
+        } else if (activation > 0) {
+            return hotColors[level(activation / upperBound)];
+        } else {
+            return coolColors[level(activation / lowerBound)];
+        }
+    }
+
+    /**
+     * @param saturation a saturation, clipped to [0, 1]
+     * @return the color level of the saturation
+     */
+    private static int level(final double saturation) {
+        double s = Math.abs(saturation);
+        if (!(s < 1)) {
+            return LEVELS - 1;
+        }
+        return (int) (s * (LEVELS - 1));
+    }
+
+    @Override
+    protected void paint(final PPaintContext paintContext) {
+        Graphics2D g = paintContext.getGraphics();
+        Object interpolation = g
+                .getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        int x = (int) Math.floor(getX());
+        int y = (int) Math.floor(getY());
+        int w = (int) Math.ceil(getWidth());
+        int h = (int) Math.ceil(getHeight());
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (mode == Mode.HEAT_MAP || column == 0) {
+            g.drawImage(image, x, y, x + w, y + h, 0, 0, width, height, null);
+        } else {
+            // Oldest column on the left, newest on the right
+            int split = x + (int) Math.round(w * (width - column)
+                    / (double) width);
+            g.drawImage(image, x, y, split, y + h, column, 0, width, height,
+                    null);
+            g.drawImage(image, split, y, x + w, y + h, 0, 0, column, height,
+                    null);
+        }
+        if (interpolation != null) {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    interpolation);
+        }
+    }
+
+    /**
+     * @return how the group is drawn
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Sets how the group is drawn, and clears the image.
+     *
+     * @param mode the mode
+     */
+    public void setMode(final Mode mode) {
+        this.mode = mode;
+        layoutPixels();
+    }
+
+}
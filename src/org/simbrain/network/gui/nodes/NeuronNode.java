@@ -159,8 +159,19 @@ public class NeuronNode extends ScreenElement implements PropertyChangeListener
      * Update the neuron view based on the model neuron.
      */
     public void update() {
-        updateColor();
-        updateText();
+        update(neuron.getActivation(), neuron.isSpike());
+    }
+
+    /**
+     * Update the neuron view from a snapshot of the model neuron's state,
+     * taken by the network panel's render scheduler.
+     *
+     * @param activation the activation of the neuron
+     * @param spike whether the neuron spiked
+     */
+    public void update(final double activation, final boolean spike) {
+        updateColor(activation, spike);
+        updateText(activation);
     }
 
     /**
@@ -168,10 +179,18 @@ public class NeuronNode extends ScreenElement implements PropertyChangeListener
      * TODO: Redo by scaling the text object.
      */
     private void updateText() {
+        updateText(neuron.getActivation());
+    }
+
+    /**
+     * Determine what font to use for this neuron based on an activation level.
+     *
+     * @param act the activation to show
+     */
+    private void updateText(final double act) {
         if (!currentTextVisibility) {
             return;
         }
-        double act = neuron.getActivation();
         activationText.setScale(1);
         setActivationTextPosition();
 
@@ -180,7 +199,7 @@ public class NeuronNode extends ScreenElement implements PropertyChangeListener
         priorityText.setText("" + neuron.getUpdatePriority()); // todo: respond
         // to listener
 
-        if ((act > 0) && (neuron.getActivation() < 1)) { // Between 0 and 1
+        if ((act > 0) && (act < 1)) { // Between 0 and 1
             activationText.setFont(NEURON_FONT_BOLD);
             String text = Utils.round(act, 1);
             if (text.startsWith("0.")) {
@@ -259,7 +278,16 @@ public class NeuronNode extends ScreenElement implements PropertyChangeListener
      * Sets the color of this neuron based on its activation level.
      */
     private void updateColor() {
-        double activation = neuron.getActivation();
+        updateColor(neuron.getActivation(), neuron.isSpike());
+    }
+
+    /**
+     * Sets the color of this neuron based on an activation level.
+     *
+     * @param activation the activation to show
+     * @param spike whether to show the neuron as spiking
+     */
+    private void updateColor(final double activation, final boolean spike) {
         // Force to blank if 0 (or close to it)
         if ((activation > -.1) && (activation < .1)) {
             circle.setPaint(Color.white);
@@ -273,7 +301,7 @@ public class NeuronNode extends ScreenElement implements PropertyChangeListener
             circle.setPaint(Color.getHSBColor(coolColor, saturation, 1));
         }
 
-        if (neuron.isSpike()) {
+        if (spike) {
             circle.setStrokePaint(spikingColor);
             circle.setPaint(spikingColor);
         } else {
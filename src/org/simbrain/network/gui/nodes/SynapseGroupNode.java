@@ -51,6 +51,12 @@ public class SynapseGroupNode extends PNode implements GroupNode,
     /** The interaction box for this neuron group. */
     protected SynapseGroupInteractionBox interactionBox;
 
+    /** Image of the weight matrix, or null if never shown. */
+    private SynapseGroupRaster raster;
+
+    /** True if the weight matrix image is shown. */
+    private boolean rasterShown;
+
     /**
      * Constant for use in group changed events, indicating that the visibility
      * of synpases in a synapse group has changed.
@@ -118,9 +124,49 @@ public class SynapseGroupNode extends PNode implements GroupNode,
 
     @Override
     public void updateConstituentNodes() {
-        // Do nothing since there are no constituent nodes. Synapses are
-        // invisible.
-    }    
+        // There are no constituent nodes, since synapses are invisible, but
+        // the weight matrix image may need redrawing
+        if (rasterShown) {
+            raster.drawCurrent();
+        }
+    }
+
+    /**
+     * Sets whether an image of the weight matrix is shown above the
+     * interaction box. It is shown while the source or target group is drawn
+     * as an image (see {@link NeuronGroupNode#isRasterShown()}).
+     *
+     * @param shown true to show the image
+     */
+    public void setRasterShown(final boolean shown) {
+        if (shown == rasterShown) {
+            return;
+        }
+        rasterShown = shown;
+        if (shown) {
+            if (raster == null) {
+                raster = new SynapseGroupRaster(synapseGroup);
+            }
+            interactionBox.addChild(raster);
+            raster.drawCurrent();
+        } else {
+            interactionBox.removeChild(raster);
+        }
+    }
+
+    /**
+     * @return true if the weight matrix image is shown
+     */
+    public boolean isRasterShown() {
+        return rasterShown;
+    }
+
+    /**
+     * @return the weight matrix image, or null if it has never been shown
+     */
+    public SynapseGroupRaster getRaster() {
+        return raster;
+    }
 
     @Override
     public List<InteractionBox> getInteractionBoxes() {
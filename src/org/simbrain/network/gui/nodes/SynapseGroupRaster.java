@@ -0,0 +1,263 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.gui.nodes;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.piccolo2d.PNode;
+import org.piccolo2d.util.PPaintContext;
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.Synapse;
+import org.simbrain.network.groups.CompressedSynapseMatrix;
+import org.simbrain.network.groups.SynapseGroup;
+
+/**
+ * Draws the weights of a synapse group as an image of its weight matrix, with
+ * source neurons as rows and target neurons as columns. Large matrices are
+ * shown at a coarser grain, each pixel holding the weight of largest magnitude
+ * among the synapses it covers. Pixels with no synapses are left clear.
+ * Shown above the interaction box of a {@link SynapseGroupNode} while its
+ * source or target group is drawn as a {@link NeuronGroupRaster}.
+ */
+public class SynapseGroupRaster extends PNode {
+
+    /** Largest number of rows or columns of the image. */
+    private static final int MAX_SIDE = 128;
+
+    /** Size of the longer side of the image, in interaction box units. */
+    private static final double SIZE = 40;
+
+    /** The group drawn. */
+    private final SynapseGroup group;
+
+    /** Number of rows (source blocks) of the image. */
+    private int rows;
+
+    /** Number of columns (target blocks) of the image. */
+    private int cols;
+
+    /** The image, of type TYPE_INT_ARGB. */
+    private BufferedImage image;
+
+    /** The pixels of the image. */
+    private int[] pixels;
+
+    /** Index of each source neuron, for groups made of synapse objects. */
+    private Map<Neuron, Integer> sourceIndex;
+
+    /** Cells read by {@link #drawCurrent()}, reused between calls. */
+    private double[] currentCells = new double[0];
+
+    /**
+     * Create a weight matrix image for a synapse group.
+     *
+     * @param group the synapse group
+     */
+    public SynapseGroupRaster(final SynapseGroup group) {
+        this.group = group;
+        setPickable(false);
+        layout();
+    }
+
+    /**
+     * Sizes the image to the source and target groups, if their sizes have
+     * changed since it was last sized, and places it above the interaction
+     * box.
+     *
+     * @return true if the image was resized, clearing it
+     */
+    private boolean layout() {
+        int newRows = Math.max(1, Math.min(MAX_SIDE, group
+                .getSourceNeuronGroup().size()));
+        int newCols = Math.max(1, Math.min(MAX_SIDE, group
+                .getTargetNeuronGroup().size()));
+        synchronized (this) {
+            if (image != null && newRows == rows && newCols == cols) {
+                return false;
+            }
+            rows = newRows;
+            cols = newCols;
+            image = new BufferedImage(cols, rows,
+                    BufferedImage.TYPE_INT_ARGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer())
+                    .getData();
+            sourceIndex = null;
+        }
+        double scale = SIZE / Math.max(newRows, newCols);
+        setBounds(0, -newRows * scale - 2, newCols * scale, newRows * scale);
+        invalidatePaint();
+        return true;
+    }
+
+    /**
+     * @return the number of cells in the image
+     */
+    public synchronized int getNumCells() {
+        return rows * cols;
+    }
+
+    /**
+     * Reads the weights of the group into a coarse, row major matrix of
+     * cells. Cells with no synapses are set to NaN. May be called off the
+     * Swing thread.
+     *
+     * @param cells the cells to fill, normally {@link #getNumCells()} long
+     * @return the number of cells filled, or 0 if the array is too short
+     *         because the image has been resized
+     */
+    public synchronized int readWeights(final double[] cells) {
+        int numCells = rows * cols;
+        if (cells.length < numCells) {
+            return 0;
+        }
+        Arrays.fill(cells, 0, numCells, Double.NaN);
+        int numSrcs = group.getSourceNeuronGroup().size();
+        List<Neuron> targets = group.getTargetNeuronGroup().getNeuronList();
+        int numTars = targets.size();
+        if (numSrcs == 0 || numTars == 0) {
+            return numCells;
+        }
+        CompressedSynapseMatrix matrix = group.getCompressedMatrix();
+        if (matrix != null) {
+            int[] rowPtr = matrix.getRowPointers();
+            int[] srcIdx = matrix.getSourceIndices();
+            double[] weights = matrix.getWeights();
+            for (int t = 0; t < numTars; t++) {
+                int col = (int) ((long) t * cols / numTars);
+                for (int k = rowPtr[t], end = rowPtr[t + 1]; k < end; k++) {
+                    int row = (int) ((long) srcIdx[k] * rows / numSrcs);
+                    accumulate(cells, row * cols + col, weights[k]);
+                }
+            }
+            return numCells;
+        }
+        List<Neuron> sources = group.getSourceNeuronGroup().getNeuronList();
+        if (sourceIndex == null || sourceIndex.size() != numSrcs) {
+            sourceIndex = new IdentityHashMap<Neuron, Integer>(numSrcs);
+            for (int i = 0; i < numSrcs; i++) {
+                sourceIndex.put(sources.get(i), i);
+            }
+        }
+        for (int t = 0; t < numTars; t++) {
+            int col = (int) ((long) t * cols / numTars);
+            List<Synapse> fanIn = targets.get(t).getFanIn();
+            for (int k = 0, n = fanIn.size(); k < n; k++) {
+                Synapse s = fanIn.get(k);
+                if (s.getParentGroup() != group) {
+                    continue;
+                }
+                Integer i = sourceIndex.get(s.getSource());
+                if (i != null) {
+                    int row = (int) ((long) i * rows / numSrcs);
+                    accumulate(cells, row * cols + col, s.getStrength());
+                }
+            }
+        }
+        return numCells;
+    }
+
+    /**
+     * Keeps the weight of largest magnitude in a cell.
+     *
+     * @param cells the cells
+     * @param cell the cell
+     * @param weight a weight in the cell
+     */
+    private static void accumulate(final double[] cells, final int cell,
+            final double weight) {
+        double old = cells[cell];
+        if (Double.isNaN(old) || Math.abs(weight) > Math.abs(old)) {
+            cells[cell] = weight;
+        }
+    }
+
+    /**
+     * Draws a coarse weight matrix read by {@link #readWeights(double[])}. If
+     * the source or target group has been resized since, the image is resized
+     * and the current weights are drawn instead.
+     *
+     * @param cells the cells
+     */
+    public void draw(final double[] cells) {
+        if (layout()) {
+            drawCurrent();
+            return;
+        }
+        int n = rows * cols;
+        double max = 0;
+        for (int c = 0; c < n; c++) {
+            if (Math.abs(cells[c]) > max) {
+                max = Math.abs(cells[c]);
+            }
+        }
+        float hot = NeuronNode.getHotColor();
+        float cool = NeuronNode.getCoolColor();
+        for (int c = 0; c < n; c++) {
+            double w = cells[c];
+            if (Double.isNaN(w)) {
+                pixels[c] = 0;
+            } else if (w == 0 || max == 0) {
+                pixels[c] = Color.white.getRGB();
+            } else {
+                pixels[c] = Color.HSBtoRGB(w > 0 ? hot : cool,
+                        (float) (Math.abs(w) / max), 1);
+            }
+        }
+        invalidatePaint();
+    }
+
+    /**
+     * Draws the current weights of the group.
+     */
+    public void drawCurrent() {
+        layout();
+        if (currentCells.length != getNumCells()) {
+            currentCells = new double[getNumCells()];
+        }
+        readWeights(currentCells);
+        draw(currentCells);
+    }
+
+    @Override
+    protected void paint(final PPaintContext paintContext) {
+        Graphics2D g = paintContext.getGraphics();
+        Object interpolation = g
+                .getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        g.setPaint(Color.lightGray);
+        g.fill(getBoundsReference());
+        g.drawImage(image, new AffineTransform(getWidth() / cols, 0, 0,
+                getHeight() / rows, getX(), getY()), null);
+        if (interpolation != null) {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    interpolation);
+        }
+    }
+
+}
@@ -200,14 +200,36 @@ public final class SynapseNode extends ScreenElement {
      * Positive values are (for example) red, negative values blue.
      */
     public void updateColor() {
-        if (synapse.getStrength() < 0) {
+        updateColor(synapse.getStrength(), source.getNeuron().isSpike());
+    }
+
+    /**
+     * Update the color and diameter of the weight from a snapshot of the
+     * model synapse's state, taken by the network panel's render scheduler.
+     *
+     * @param strength the strength of the synapse
+     * @param sourceSpike whether the source neuron spiked
+     */
+    public void update(final double strength, final boolean sourceSpike) {
+        updateColor(strength, sourceSpike);
+        updateDiameter(strength);
+    }
+
+    /**
+     * Calculates the color for a weight of a given strength.
+     *
+     * @param strength the strength to show
+     * @param sourceSpike whether to show the source neuron as spiking
+     */
+    private void updateColor(final double strength, final boolean sourceSpike) {
+        if (strength < 0) {
             circle.setPaint(inhibitoryColor);
-        } else if (synapse.getStrength() == 0) {
+        } else if (strength == 0) {
             circle.setPaint(zeroWeightColor);
         } else {
             circle.setPaint(excitatoryColor);
         }
-        if (source.getNeuron().isSpike()) {
+        if (sourceSpike) {
         	line.setStrokePaint(NeuronNode.getSpikingColor());
         } else {
         	line.setStrokePaint(lineColor);
@@ -219,11 +241,20 @@ public final class SynapseNode extends ScreenElement {
      * strength.
      */
     public void updateDiameter() {
+        updateDiameter(synapse.getStrength());
+    }
+
+    /**
+     * Update the diameter of the drawn weight for a given strength.
+     *
+     * @param weight the strength to show
+     */
+    private void updateDiameter(final double weight) {
         double diameter;
 
         double upperBound = synapse.getUpperBound();
         double lowerBound = synapse.getLowerBound();
-        double strength = synapse.getStrength();
+        double strength = weight;
 
         // If upper or lower bound are set to zero use a proxy to prevent
         // division errors
@@ -244,9 +275,9 @@ public final class SynapseNode extends ScreenElement {
             strength = upperBound;
         }
 
-        if (synapse.getStrength() == 0) {
+        if (weight == 0) {
             diameter = minDiameter;
-        } else if (synapse.getStrength() > 0) {
+        } else if (weight > 0) {
             diameter = ((maxDiameter - minDiameter) * (strength / upperBound) + minDiameter);
         } else {
             diameter = (((maxDiameter - minDiameter) * (Math.abs(strength
@@ -153,7 +153,7 @@ public class AdExIFRule extends SpikingNeuronUpdateRule implements
 
         // Add noise if there is any to be added
 		if (addNoise) {
-			dVdt += noiseGenerator.getRandom();
+			dVdt += noiseGenerator.getRandom(neuron.getRandomStream());
 		}
 
 		// Factor in membane capacitance...
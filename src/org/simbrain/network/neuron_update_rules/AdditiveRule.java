@@ -83,7 +83,7 @@ public class AdditiveRule extends NeuronUpdateRule {
                 * (-neuron.getActivation() / resistance + wtdSum);
 
         if (addNoise) {
-            val += noiseGenerator.getRandom();
+            val += noiseGenerator.getRandom(neuron.getRandomStream());
         }
 
         neuron.setBuffer(val);
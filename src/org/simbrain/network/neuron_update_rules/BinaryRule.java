@@ -18,12 +18,12 @@
  */
 package org.simbrain.network.neuron_update_rules;
 
-import java.util.Random;
-
 import org.simbrain.network.core.Network.TimeType;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.NeuronUpdateRule;
 
+import umontreal.iro.lecuyer.rng.RandomStream;
+
 /**
  * <b>BinaryNeuron</b> takes one of two values.
  */
@@ -79,9 +79,8 @@ public class BinaryRule extends NeuronUpdateRule {
      * {@inheritDoc}
      */
     @Override
-    public double getRandomValue() {
-        Random rand = new Random();
-        return rand.nextBoolean() ? getUpperBound() : getLowerBound();
+    public double getRandomValue(RandomStream stream) {
+        return stream.nextDouble() < 0.5 ? getUpperBound() : getLowerBound();
     }
 
     /**
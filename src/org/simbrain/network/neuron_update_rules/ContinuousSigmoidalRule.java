@@ -126,7 +126,7 @@ public class ContinuousSigmoidalRule extends AbstractSigmoidalRule {
 
         if (addNoise) {
             inputTerm = (dt / tau) * (inputType.getInput(neuron) + bias
-                + noiseGenerator.getRandom());
+                + noiseGenerator.getRandom(neuron.getRandomStream()));
         } else {
             inputTerm = (dt / tau) * (inputType.getInput(neuron) + bias);
         }
@@ -128,7 +128,7 @@ public class DecayRule extends NeuronUpdateRule implements BoundedUpdateRule,
         }
 
         if (addNoise) {
-            val += noiseGenerator.getRandom();
+            val += noiseGenerator.getRandom(neuron.getRandomStream());
         }
 
         if (clipping) {
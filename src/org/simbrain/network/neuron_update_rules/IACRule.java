@@ -114,7 +114,7 @@ public class IACRule extends NeuronUpdateRule implements BoundedUpdateRule,
                 * (effect - decay * (neuron.getActivation() - rest));
 
         if (addNoise) {
-            act += noiseGenerator.getRandom();
+            act += noiseGenerator.getRandom(neuron.getRandomStream());
         }
 
         if (clipping) {
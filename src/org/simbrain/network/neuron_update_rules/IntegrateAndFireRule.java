@@ -23,6 +23,8 @@ import org.simbrain.network.core.SpikingNeuronUpdateRule;
 import org.simbrain.network.neuron_update_rules.interfaces.NoisyUpdateRule;
 import org.simbrain.util.randomizer.Randomizer;
 
+import umontreal.iro.lecuyer.rng.RandomStream;
+
 /**
  * <b>IntegrateAndFireNeuron</b> implements an integrate and fire neuron.
  * Parameters taken from recordings of rat cortex from: Maass (2002) Real Time
@@ -91,7 +93,7 @@ public class IntegrateAndFireRule extends SpikingNeuronUpdateRule implements
         double iSyn = inputType.getInput(neuron);
 
         if (addNoise) {
-            iSyn += noiseGenerator.getRandom();
+            iSyn += noiseGenerator.getRandom(neuron.getRandomStream());
         }
 
         double timeStep = neuron.getNetwork().getTimeStep();
@@ -134,10 +136,10 @@ public class IntegrateAndFireRule extends SpikingNeuronUpdateRule implements
      * {@inheritDoc}
      */
     @Override
-    public double getRandomValue() {
+    public double getRandomValue(RandomStream stream) {
         // Equal chance of spiking or not spiking, taking on any value between
         // the resting potential and the threshold if not.
-        return 2 * (threshold - restingPotential) * Math.random()
+        return 2 * (threshold - restingPotential) * stream.nextDouble()
             + restingPotential;
     }
 
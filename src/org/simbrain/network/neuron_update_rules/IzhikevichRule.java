@@ -23,6 +23,8 @@ import org.simbrain.network.core.SpikingNeuronUpdateRule;
 import org.simbrain.network.neuron_update_rules.interfaces.NoisyUpdateRule;
 import org.simbrain.util.randomizer.Randomizer;
 
+import umontreal.iro.lecuyer.rng.RandomStream;
+
 /**
  * <b>IzhikevichNeuron</b>. Default values correspond to "tonic spiking". TODO:
  * Store a bunch of useful parameters, and add a combo box to switch between the
@@ -94,7 +96,7 @@ public class IzhikevichRule extends SpikingNeuronUpdateRule implements
         double inputs = 0;
         inputs = inputType.getInput(neuron);
         if (addNoise) {
-            inputs += noiseGenerator.getRandom();
+            inputs += noiseGenerator.getRandom(neuron.getRandomStream());
         }
         inputs += iBg + getAppliedInput();
         recovery += (timeStep * (a * ((b * activation) - recovery)));
@@ -121,10 +123,10 @@ public class IzhikevichRule extends SpikingNeuronUpdateRule implements
      * {@inheritDoc}
      */
     @Override
-    public double getRandomValue() {
+    public double getRandomValue(RandomStream stream) {
         // Equal chance of spiking or not spiking, taking on any value between
         // the resting potential and the threshold if not.
-        return 2 * (threshold - c) * Math.random() + c;
+        return 2 * (threshold - c) * stream.nextDouble() + c;
     }
 
     /**
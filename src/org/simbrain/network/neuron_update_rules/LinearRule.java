@@ -95,7 +95,7 @@ public class LinearRule extends NeuronUpdateRule implements BiasedUpdateRule,
         double val = (slope * wtdInput) + bias;
 
         if (addNoise) {
-            val += noiseGenerator.getRandom();
+            val += noiseGenerator.getRandom(neuron.getRandomStream());
         }
 
         if (clipping) {
@@ -11,6 +11,8 @@ import org.simbrain.network.neuron_update_rules.interfaces.NoisyUpdateRule;
 import org.simbrain.util.math.ProbDistribution;
 import org.simbrain.util.randomizer.Randomizer;
 
+import umontreal.iro.lecuyer.rng.RandomStream;
+
 public class MorrisLecarRule extends SpikingNeuronUpdateRule
 	implements NoisyUpdateRule {
 
@@ -74,7 +76,8 @@ public class MorrisLecarRule extends SpikingNeuronUpdateRule
 		// Under normal circumstances this will cause no change.
 		double vMembrane = neuron.getActivation();
 		
-		double dVdt = dVdt(vMembrane, i_syn);
+		RandomStream stream = neuron.getRandomStream();
+		double dVdt = dVdt(vMembrane, i_syn, stream);
 		double dWdt = dWdt(vMembrane, w_K);
 
 		
@@ -82,7 +85,7 @@ public class MorrisLecarRule extends SpikingNeuronUpdateRule
 		
 		double vmFut = vMembrane + dt * dVdt;
 		double wKFut = w_K + dt * dWdt;
-		vMembrane = vMembrane + (dt/2) * ((dVdt) + dVdt(vmFut, i_syn));
+		vMembrane = vMembrane + (dt/2) * ((dVdt) + dVdt(vmFut, i_syn, stream));
 		w_K = w_K + (dt/2) * ((dWdt) + dWdt(vMembrane, wKFut));
 		
 		neuron.setSpkBuffer(vMembrane > threshold);
@@ -92,7 +95,8 @@ public class MorrisLecarRule extends SpikingNeuronUpdateRule
 		
 	}
 	
-	private double dVdt(double vMembrane, double i_syn) {
+	private double dVdt(double vMembrane, double i_syn,
+			RandomStream stream) {
 		double i_Ca = g_Ca * membraneFunction(vMembrane)
 				* (vMembrane - vRest_Ca);
 		double i_K = g_K * w_K * (vMembrane - vRest_k);
@@ -100,7 +104,7 @@ public class MorrisLecarRule extends SpikingNeuronUpdateRule
 		double i_ion = i_Ca + i_K + i_L;
 		
 		return (((getAppliedInput() + i_bg - i_ion - i_syn) / cMembrane)
-				+ noiseGenerator.getRandom());
+				+ noiseGenerator.getRandom(stream));
 	}
 	
 	private double dWdt(double vMembrane, double w_K) {
@@ -130,7 +130,7 @@ public class NakaRushtonRule extends NeuronUpdateRule implements
         if (addNoise) {
             val +=
                 (neuron.getNetwork().getTimeStep() * (((1 / timeConstant) * (-val + s)) + noiseGenerator
-                    .getRandom()));
+                    .getRandom(neuron.getRandomStream())));
         } else {
             val +=
                 (neuron.getNetwork().getTimeStep() * ((1 / timeConstant) * (-val + s)));
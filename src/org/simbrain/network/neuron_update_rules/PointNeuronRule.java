@@ -19,7 +19,6 @@
 package org.simbrain.network.neuron_update_rules;
 
 import java.util.ArrayList;
-import java.util.Random;
 
 import org.simbrain.network.core.Network.TimeType;
 import org.simbrain.network.core.Neuron;
@@ -31,6 +30,8 @@ import org.simbrain.network.listeners.SynapseListener;
 import org.simbrain.network.neuron_update_rules.interfaces.BiasedUpdateRule;
 import org.simbrain.util.math.SimbrainMath;
 
+import umontreal.iro.lecuyer.rng.RandomStream;
+
 /**
  * <b>PointNeuron</b> from O'Reilley and Munakata, Computational Explorations in
  * Cognitive Neuroscience, chapter 2. All page references below are are to this
@@ -339,19 +340,18 @@ public class PointNeuronRule extends NeuronUpdateRule implements
      * {@inheritDoc}
      */
     @Override
-    public double getRandomValue() {
-        Random rand = new Random();
+    public double getRandomValue(RandomStream stream) {
         if (outputFunction == OutputFunction.DISCRETE_SPIKING) {
-            return rand.nextBoolean() ? 1.0 : 0.0;
+            return stream.nextDouble() < 0.5 ? 1.0 : 0.0;
         } else if (outputFunction == OutputFunction.RATE_CODE) {
-            return rand.nextDouble();
+            return stream.nextDouble();
         } else if (outputFunction == OutputFunction.LINEAR) {
             // TODO: better value for this?
-            return gain * thresholdPotential * rand.nextDouble();
+            return gain * thresholdPotential * stream.nextDouble();
         } else if (outputFunction == OutputFunction.NOISY_RATE_CODE) {
             return 0; // TODO: COmplete implementation
         } else {
-            return rand.nextDouble(); // TODO: Better value for this?
+            return stream.nextDouble(); // TODO: Better value for this?
         }
     }
 
@@ -67,7 +67,7 @@ public class SigmoidalRule extends AbstractSigmoidalRule {
 
         // TODO: Discuss how noise is added
         if (addNoise) {
-            val += noiseGenerator.getRandom();
+            val += noiseGenerator.getRandom(neuron.getRandomStream());
         }
 
         val =
@@ -18,13 +18,13 @@
  */
 package org.simbrain.network.neuron_update_rules;
 
-import java.util.Random;
-
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.SpikingNeuronUpdateRule;
 import org.simbrain.network.neuron_update_rules.interfaces.NoisyUpdateRule;
 import org.simbrain.util.randomizer.Randomizer;
 
+import umontreal.iro.lecuyer.rng.RandomStream;
+
 /**
  * A simple spiking neuron that fires when weighted inputs exceed a threshold.
  * TODO: Has no documentation.
@@ -51,7 +51,7 @@ public class SpikingThresholdRule extends SpikingNeuronUpdateRule implements
     @Override
     public void update(Neuron neuron) {
         final double input = inputType.getInput(neuron) + getAppliedInput()
-                + (addNoise ? noiseGenerator.getRandom() : 0);
+                + (addNoise ? noiseGenerator.getRandom(neuron.getRandomStream()) : 0);
         if (input >= threshold) {
             neuron.setSpkBuffer(true);
             setHasSpiked(true, neuron);
@@ -68,9 +68,8 @@ public class SpikingThresholdRule extends SpikingNeuronUpdateRule implements
      * {@inheritDoc}
      */
     @Override
-    public double getRandomValue() {
-        Random rand = new Random();
-        return rand.nextBoolean() ? 1 : 0;
+    public double getRandomValue(RandomStream stream) {
+        return stream.nextDouble() < 0.5 ? 1 : 0;
     }
 
     /**
@@ -18,12 +18,12 @@
  */
 package org.simbrain.network.neuron_update_rules;
 
-import java.util.Random;
-
 import org.simbrain.network.core.Network.TimeType;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.NeuronUpdateRule;
 
+import umontreal.iro.lecuyer.rng.RandomStream;
+
 /**
  * <b>ThreeValuedNeuron</b> is a natural extension of a binary neuron, which
  * takes one of three values depending on the inputs to the neuron in relation
@@ -90,9 +90,8 @@ public class ThreeValueRule extends NeuronUpdateRule {
      * {@inheritDoc}
      */
     @Override
-    public double getRandomValue() {
-        Random rand = new Random();
-        int d = rand.nextInt(3);
+    public double getRandomValue(RandomStream stream) {
+        int d = stream.nextInt(0, 2);
         if (d == 0) {
             return lowerValue;
         } else if (d == 1) {
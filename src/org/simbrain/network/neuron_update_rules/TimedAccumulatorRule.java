@@ -1,7 +1,5 @@
 package org.simbrain.network.neuron_update_rules;
 
-import java.util.concurrent.ThreadLocalRandom;
-
 import org.simbrain.network.core.Network.TimeType;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.NeuronUpdateRule;
@@ -43,7 +41,7 @@ public class TimedAccumulatorRule extends SpikingThresholdRule {
             setHasSpiked(false, neuron);
             return;
         }
-        if (ThreadLocalRandom.current().nextDouble() < baseProb) {
+        if (neuron.getRandomStream().nextDouble() < baseProb) {
             currentState++;
             neuron.setBuffer(1);
             neuron.setSpkBuffer(true);
@@ -56,7 +54,7 @@ public class TimedAccumulatorRule extends SpikingThresholdRule {
                 // Using the exp weight value stored in the PSR from before
                 // divide that by the exp sum to get the softmax value
                 // then set this to a 1 state from a 0 with that probability.
-                if (ThreadLocalRandom.current().nextDouble() < kappa
+                if (neuron.getRandomStream().nextDouble() < kappa
                 		* neuron.getFanIn().get(i).getPsr() / expSum) {
                     currentState++;
                     neuron.setBuffer(1);
@@ -25,6 +25,8 @@ import org.simbrain.network.neuron_update_rules.interfaces.ActivityGenerator;
 import org.simbrain.network.neuron_update_rules.interfaces.BoundedUpdateRule;
 import org.simbrain.util.randomizer.Randomizer;
 
+import umontreal.iro.lecuyer.rng.RandomStream;
+
 /**
  * <b>RandomNeuron</b> produces random activations within specified parameters.
  *
@@ -82,7 +84,7 @@ public class RandomNeuronRule extends NeuronUpdateRule implements
      * {@inheritDoc}
      */
     public void update(Neuron neuron) {
-        neuron.setBuffer(randomizer.getRandom());
+        neuron.setBuffer(randomizer.getRandom(neuron.getRandomStream()));
     }
 
     /**
@@ -105,8 +107,8 @@ public class RandomNeuronRule extends NeuronUpdateRule implements
     }
 
     @Override
-    public double getRandomValue() {
-        return randomizer.getRandom();
+    public double getRandomValue(RandomStream stream) {
+        return randomizer.getRandom(stream);
     }
 
     @Override
@@ -25,6 +25,8 @@ import org.simbrain.network.neuron_update_rules.interfaces.ActivityGenerator;
 import org.simbrain.network.neuron_update_rules.interfaces.BoundedUpdateRule;
 import org.simbrain.util.randomizer.Randomizer;
 
+import umontreal.iro.lecuyer.rng.RandomStream;
+
 /**
  * <b>SinusoidalNeuron</b> produces a sine wave; inputs are ignored.
  *
@@ -90,7 +92,7 @@ public class SinusoidalRule extends NeuronUpdateRule implements
                 + ((upperBound + lowerBound) / 2);
 
         if (addNoise) {
-            val += noiseGenerator.getRandom();
+            val += noiseGenerator.getRandom(neuron.getRandomStream());
         }
 
         neuron.setBuffer(val);
@@ -168,8 +170,8 @@ public class SinusoidalRule extends NeuronUpdateRule implements
     }
 
     @Override
-    public double getRandomValue() {
-        double rand = (2 * Math.PI) * Math.random();
+    public double getRandomValue(RandomStream stream) {
+        double rand = (2 * Math.PI) * stream.nextDouble();
         double range = getUpperBound() - getLowerBound();
         return ((range / 2) * Math.sin(frequency * rand + phase))
                 + ((getUpperBound() + getLowerBound()) / 2);
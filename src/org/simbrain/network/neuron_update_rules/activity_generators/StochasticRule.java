@@ -70,7 +70,7 @@ public class StochasticRule extends SpikingNeuronUpdateRule implements
      * {@inheritDoc}
      */
     public void update(Neuron neuron) {
-        double rand = Math.random();
+        double rand = neuron.getRandomStream().nextDouble();
         if (rand > firingProbability) {
             neuron.setBuffer(upperValue);
         } else {
@@ -19,6 +19,7 @@
 package org.simbrain.network.subnetworks;
 
 import java.util.Iterator;
+import java.util.List;
 
 import org.simbrain.network.connections.ConnectNeurons;
 import org.simbrain.network.core.Network;
@@ -27,6 +28,7 @@ import org.simbrain.network.core.Synapse;
 import org.simbrain.network.groups.NeuronGroup;
 import org.simbrain.network.groups.SynapseGroup;
 import org.simbrain.network.neuron_update_rules.LinearRule;
+import org.simbrain.network.trainers.PrototypeMatrix;
 
 /**
  * <b>Competitive</b> implements a simple competitive network.
@@ -73,6 +75,21 @@ public class CompetitiveGroup extends NeuronGroup {
     /** Current update method. */
     private UpdateMethod updateMethod = UpdateMethod.RUMM_ZIPSER;
 
+    /** Whether to split the work of each update across threads. */
+    private boolean parallel;
+
+    /**
+     * The units' incoming weights, while they are held in a dense matrix (see
+     * {@link #holdWeights()}), and kept afterwards for reuse.
+     */
+    private transient PrototypeMatrix prototypes;
+
+    /** True while updates work on the prototype matrix. */
+    private transient boolean holding;
+
+    /** Scratch array for the units' activations. */
+    private transient double[] activations;
+
     /**
      * Specific implementation of competitive learning.
      */
@@ -134,6 +151,7 @@ public class CompetitiveGroup extends NeuronGroup {
     	this.activation = oldNet.activation;
     	this.winner = oldNet.winner;
     	this.updateMethod = oldNet.updateMethod;
+    	this.parallel = oldNet.parallel;
         setLabel("Competitive Group (copy)");
     }
     
@@ -150,6 +168,11 @@ public class CompetitiveGroup extends NeuronGroup {
     @Override
     public void update() {
 
+        if (holding) {
+            updatePrototypes();
+            return;
+        }
+
         super.update();
 
         max = 0;
@@ -191,6 +214,96 @@ public class CompetitiveGroup extends NeuronGroup {
         // normalizeIncomingWeights();
     }
 
+    /**
+     * Same as the update above, but working on the prototype matrix. The
+     * activations are computed from the matrix and the learning rules are
+     * applied to whole rows of it, in the same order as above.
+     */
+    private void updatePrototypes() {
+        double sumOfInputs = prototypes.loadInput();
+        prototypes.activations(activations);
+        max = 0;
+        winner = 0;
+        for (int i = 0; i < activations.length; i++) {
+            if (activations[i] > max) {
+                max = activations[i];
+                winner = i;
+            }
+        }
+        List<Neuron> neurons = getNeuronList();
+        for (int i = 0, n = neurons.size(); i < n; i++) {
+            Neuron neuron = neurons.get(i);
+            neuron.setActivation(i == winner ? winValue : loseValue);
+            neuron.setSpkBuffer(neuron.isSpike());
+        }
+        double divisor = 1;
+        if (normalizeInputs && sumOfInputs != 0) {
+            divisor = sumOfInputs;
+        }
+        if (useLeakyLearning) {
+            prototypes.moveToward(0, winner, leakyLearningRate, divisor);
+        }
+        if (updateMethod == UpdateMethod.RUMM_ZIPSER) {
+            prototypes.moveToward(winner, winner + 1, learningRate, divisor);
+        } else if (updateMethod == UpdateMethod.ALVAREZ_SQUIRE) {
+            prototypes.addInput(winner, learningRate
+                    * neurons.get(winner).getActivation(), sumOfInputs
+                    / prototypes.getNumInputs());
+            prototypes.decay(synpaseDecayPercent);
+        }
+        if (useLeakyLearning) {
+            prototypes.moveToward(winner + 1, activations.length,
+                    leakyLearningRate, divisor);
+        }
+    }
+
+    /**
+     * Copies the units' incoming weights into a dense matrix, which updates
+     * then work on directly, without touching the synapses, until
+     * {@link #commitWeights()} is called. Trainers use this to run through a
+     * whole training set at a time. Changes made to the synapses in the
+     * meantime are overwritten.
+     *
+     * @return false if the weights cannot be held (see
+     *         {@link PrototypeMatrix}), or the units' activations cannot be
+     *         computed from them, in which case updates work on the synapses
+     *         as usual
+     */
+    public boolean holdWeights() {
+        if (holding) {
+            return true;
+        }
+        if (isInputMode()) {
+            return false;
+        }
+        if (prototypes == null || !prototypes.isCurrent(getNeuronList())) {
+            prototypes = PrototypeMatrix.create(getNeuronList());
+        }
+        if (prototypes == null) {
+            return false;
+        }
+        activations = new double[prototypes.getNumUnits()];
+        prototypes.setParallel(parallel);
+        prototypes.load();
+        prototypes.loadInput();
+        if (!prototypes.activations(activations)) {
+            return false;
+        }
+        holding = true;
+        return true;
+    }
+
+    /**
+     * Writes held weights back into the synapses, and returns updates to
+     * working on the synapses.
+     */
+    public void commitWeights() {
+        if (holding) {
+            prototypes.store();
+            holding = false;
+        }
+    }
+
     /**
      * Update winning neuron's weights in accordance with Alvarez and Squire
      * 1994, eq 2. TODO: rate is unused... in fact everything before
@@ -474,4 +587,22 @@ public class CompetitiveGroup extends NeuronGroup {
         this.updateMethod = updateMethod;
     }
 
+    /**
+     * @return whether the work of each update is split across threads
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * @param parallel
+     *            whether to split the work of each update across threads
+     */
+    public void setParallel(final boolean parallel) {
+        this.parallel = parallel;
+        if (prototypes != null) {
+            prototypes.setParallel(parallel);
+        }
+    }
+
 }
@@ -34,6 +34,8 @@ import org.simbrain.network.groups.SynapseGroup;
 import org.simbrain.network.neuron_update_rules.LinearRule;
 import org.simbrain.network.neuron_update_rules.SigmoidalRule;
 import org.simbrain.network.trainers.LMSOffline;
+import org.simbrain.network.trainers.NormalEquations;
+import org.simbrain.network.trainers.StateStream;
 import org.simbrain.network.trainers.Trainable;
 import org.simbrain.network.trainers.Trainer;
 import org.simbrain.network.trainers.TrainerListener;
@@ -41,6 +43,7 @@ import org.simbrain.network.trainers.TrainingSet;
 import org.simbrain.network.util.NetworkLayoutManager;
 import org.simbrain.network.util.NetworkLayoutManager.Direction;
 import org.simbrain.network.util.SimnetUtils;
+import org.simbrain.network.util.SpectralRadiusEstimator;
 import org.simbrain.util.math.NumericMatrix;
 import org.simbrain.util.math.SquashingFunction;
 import org.simbrain.util.randomizer.Randomizer;
@@ -70,6 +73,12 @@ public class EchoStateNetwork extends Subnetwork {
      */
     private double spectralRadius;
 
+    /**
+     * Estimator used to scale the reservoir, kept so that repeated rescaling
+     * starts each estimate from the last.
+     */
+    private transient SpectralRadiusEstimator radiusEstimator;
+
     /**
      * Whether the network has weights from the output to the reservoir (not
      * trained.)
@@ -134,6 +143,14 @@ public class EchoStateNetwork extends Subnetwork {
      */
     private double[][] targetData;
 
+    /**
+     * Whether the trainer harvests reservoir states as it trains, accumulating
+     * the correlation matrices directly instead of first building the whole
+     * state matrix. Needed for input sequences too long for their state
+     * matrix to fit in memory.
+     */
+    private boolean streaming;
+
     /**
      * Constructor with size of layers specified.
      *
@@ -214,8 +231,7 @@ public class EchoStateNetwork extends Subnetwork {
         addNeuronGroup(neuronGroup);
         addSynapseGroup(synapseGroup);
         // Scale the reservoir's weights to have the desired spectral radius
-        SimnetUtils.scaleEigenvalue(reservoirLayer.getNeuronList(),
-            reservoirLayer.getNeuronList(), spectralRadius);
+        rescaleReservoir(spectralRadius);
     }
 
     /**
@@ -303,11 +319,26 @@ public class EchoStateNetwork extends Subnetwork {
         }
 
         // Scale the reservoir's weights to have the desired spectral radius
-        SimnetUtils.scaleEigenvalue(reservoirLayer.getNeuronList(),
-            reservoirLayer.getNeuronList(), spectralRadius);
+        rescaleReservoir(spectralRadius);
 
     }
 
+    /**
+     * Scales the reservoir's recurrent weights to have the given spectral
+     * radius, and sets the spectral radius of this esn accordingly.
+     *
+     * @param spectralRadius
+     *            the desired spectral radius
+     */
+    public void rescaleReservoir(double spectralRadius) {
+        this.spectralRadius = spectralRadius;
+        if (radiusEstimator == null) {
+            radiusEstimator = new SpectralRadiusEstimator();
+        }
+        SimnetUtils.scaleEigenvalue(reservoirLayer.getNeuronList(),
+            reservoirLayer.getNeuronList(), spectralRadius, radiusEstimator);
+    }
+
     /**
      * Fills and returns an ArrayList with neurons governed by the specified
      * node type.
@@ -376,6 +407,29 @@ public class EchoStateNetwork extends Subnetwork {
             }
         }
 
+        // Streaming: states are harvested by the trainer as it runs
+        if (streaming) {
+            TrainingSet trainingSet = new TrainingSet();
+            trainingSet.setTargetData(targetData);
+            return new LMSOffline(createTrainable(full, trainingSet),
+                new StateStream() {
+                    @Override
+                    public int getNumStates() {
+                        return full.size();
+                    }
+
+                    @Override
+                    public int getNumTargets() {
+                        return numOutputs;
+                    }
+
+                    @Override
+                    public void harvest(NormalEquations equations) {
+                        harvestData(null, equations);
+                    }
+                });
+        }
+
         // Make the training set by harvesting reservoir states
         final double[][] harvestedData = harvestData();
         if (harvestedData[0].length != full.size()) {
@@ -388,8 +442,26 @@ public class EchoStateNetwork extends Subnetwork {
         trainingSet.setInputData(harvestedData);
         trainingSet.setTargetData(targetData);
 
-        // Make Trainable object
-        Trainable trainable = new Trainable() {
+        // Create the offline trainer.
+        LMSOffline trainer = new LMSOffline(createTrainable(full,
+            trainingSet));
+        return trainer;
+
+    }
+
+    /**
+     * Make the Trainable object used by the trainer, whose inputs are the
+     * neurons whose states are harvested.
+     *
+     * @param full
+     *            the neurons whose states are harvested
+     * @param trainingSet
+     *            the training set
+     * @return the trainable object
+     */
+    private Trainable createTrainable(final List<Neuron> full,
+        final TrainingSet trainingSet) {
+        return new Trainable() {
 
             @Override
             public List<Neuron> getInputNeurons() {
@@ -416,10 +488,6 @@ public class EchoStateNetwork extends Subnetwork {
             }
 
         };
-        // Create the offline trainer.
-        LMSOffline trainer = new LMSOffline(trainable);
-        return trainer;
-
     }
 
     /**
@@ -433,6 +501,23 @@ public class EchoStateNetwork extends Subnetwork {
      * @return a matrix of data to be used for training
      */
     private double[][] harvestData() {
+        double[][] returnMatrix = new double[inputData.length][];
+        harvestData(returnMatrix, null);
+        return returnMatrix;
+    }
+
+    /**
+     * Harvests state data as described in {@link #harvestData()}, either into
+     * a matrix or, one row at a time, into normal equations.
+     *
+     * @param returnMatrix
+     *            the matrix to fill, with one (null) row per row of input
+     *            data, or null
+     * @param equations
+     *            the equations to add rows to if there is no matrix
+     */
+    private void harvestData(double[][] returnMatrix,
+        NormalEquations equations) {
 
         // The minimum number of state matrix columns
         int columnNumber = numResNodes;
@@ -446,8 +531,8 @@ public class EchoStateNetwork extends Subnetwork {
             columnNumber += numOutputs;
         }
 
-        // State matrix
-        double[][] returnMatrix = new double[inputData.length][columnNumber];
+        // Row of the state matrix; reused when streaming
+        double[] state = new double[columnNumber];
 
         boolean harvest = false;
 
@@ -459,6 +544,10 @@ public class EchoStateNetwork extends Subnetwork {
             for (int row = 0; row < inputData.length; row++) {
 
                 int col = 0;
+                if (harvest && returnMatrix != null) {
+                    state = new double[columnNumber];
+                    returnMatrix[row] = state;
+                }
 
                 // Clamp input neurons based on input data
                 for (Neuron neuron : getInputLayer().getNeuronList()) {
@@ -467,7 +556,7 @@ public class EchoStateNetwork extends Subnetwork {
                     if (directInOutWeights && harvest) {
                         // Add input states to state matrix if direct in to out
                         // connections are desired
-                        returnMatrix[row][col] = neuron.getActivation();
+                        state[col] = neuron.getActivation();
                         col++;
                     }
 
@@ -500,7 +589,7 @@ public class EchoStateNetwork extends Subnetwork {
                     }
 
                     if (harvest) {
-                        returnMatrix[row][col] = n.getActivation();
+                        state[col] = n.getActivation();
                     }
                     col++;
                 }
@@ -510,15 +599,17 @@ public class EchoStateNetwork extends Subnetwork {
                 if (recurrentOutWeights && harvest) {
                     for (int i = 0; i < targetData[0].length; i++) {
                         // Teacher-forcing
-                        returnMatrix[row][col] = targetData[row][i];
+                        state[col] = targetData[row][i];
                         col++;
                     }
                 }
+
+                if (harvest && returnMatrix == null) {
+                    equations.add(state, targetData[row]);
+                }
             }
             harvest = true;
         }
-
-        return returnMatrix;
     }
 
     /**
@@ -527,7 +618,7 @@ public class EchoStateNetwork extends Subnetwork {
      * @return noise reservoir noise.
      */
     private double reservoirNoise() {
-        return noiseGenerator.getRandom();
+        return noiseGenerator.getRandom(getRandomStream());
     }
 
     /**
@@ -656,6 +747,22 @@ public class EchoStateNetwork extends Subnetwork {
         this.noise = noise;
     }
 
+    /**
+     * @return whether the trainer harvests reservoir states as it trains
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * @param streaming
+     *            whether the trainer should harvest reservoir states as it
+     *            trains rather than building the whole state matrix first
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
     @Override
     public String getUpdateMethodDesecription() {
         return "Input layer, reservoir, output layer";
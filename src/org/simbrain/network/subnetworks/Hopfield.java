@@ -26,10 +26,17 @@ import org.simbrain.network.connections.AllToAll;
 import org.simbrain.network.core.Network;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.Synapse;
+import org.simbrain.network.core.SynapseUpdateRule;
 import org.simbrain.network.groups.Group;
 import org.simbrain.network.groups.NeuronGroup;
 import org.simbrain.network.groups.Subnetwork;
+import org.simbrain.network.listeners.GroupAdapter;
+import org.simbrain.network.listeners.GroupListener;
+import org.simbrain.network.listeners.NetworkEvent;
+import org.simbrain.network.listeners.SynapseAdapter;
+import org.simbrain.network.listeners.SynapseListener;
 import org.simbrain.network.neuron_update_rules.BinaryRule;
+import org.simbrain.network.trainers.HopfieldMatrix;
 import org.simbrain.network.trainers.Trainable;
 import org.simbrain.network.trainers.TrainingSet;
 import org.simbrain.util.SimbrainConstants.Polarity;
@@ -68,6 +75,36 @@ public class Hopfield extends Subnetwork implements Trainable {
      */
     private final TrainingSet trainingSet = new TrainingSet();
 
+    /**
+     * If true, updates are computed on a {@link HopfieldMatrix} instead of by
+     * updating each neuron from its fan-in. Falls back to the usual update
+     * when the network is not supported (see {@link HopfieldMatrix}) or when
+     * updating sequentially by priority. In this mode random updates draw a
+     * new order each time without shuffling the neuron list.
+     */
+    private boolean matrixMode;
+
+    /** Whether matrix mode may split work across threads. */
+    private boolean parallel;
+
+    /** The weights and states used in matrix mode. */
+    private transient HopfieldMatrix matrix;
+
+    /** True once the matrix has been built (or found to be unsupported). */
+    private transient boolean matrixBuilt;
+
+    /** False if the current weights are not supported in matrix mode. */
+    private transient boolean matrixUsable;
+
+    /** Order of a random update in matrix mode. */
+    private transient int[] order;
+
+    /** Network listeners which discard the matrix when the network changes. */
+    private transient SynapseListener synapseListener;
+
+    /** See above. */
+    private transient GroupListener groupListener;
+
     /**
      * Creates a new Hopfield network.
      *
@@ -113,7 +150,18 @@ public class Hopfield extends Subnetwork implements Trainable {
      * sequential.
      */
     public void randomizeSequence() {
-        Collections.shuffle(this.getModifiableNeuronList());
+        shuffle(this.getModifiableNeuronList());
+    }
+
+    /**
+     * Shuffles a list of neurons with this network's random stream.
+     *
+     * @param neurons the neurons to shuffle
+     */
+    private void shuffle(List<Neuron> neurons) {
+        for (int i = neurons.size() - 1; i > 0; i--) {
+            Collections.swap(neurons, i, getRandomStream().nextInt(0, i));
+        }
     }
 
     /**
@@ -136,14 +184,148 @@ public class Hopfield extends Subnetwork implements Trainable {
                 }
             }
         }
+        invalidateWeights();
         getParentNetwork().fireGroupUpdated(this.getSynapseGroup());
     }
 
     @Override
     public void update() {
+        if (matrixMode && updateMatrix()) {
+            return;
+        }
         updateFunc.update(this);
     }
 
+    /**
+     * Updates the network on a {@link HopfieldMatrix}, building it first if
+     * needed.
+     *
+     * @return false if the network could not be updated this way
+     */
+    private boolean updateMatrix() {
+        if (updateFunc == HopfieldUpdate.SEQ && byPriority) {
+            return false;
+        }
+        if (synapseListener == null) {
+            listen();
+        }
+        List<Neuron> neurons = getFlatNeuronList();
+        if (!matrixBuilt || (matrix != null && !matrix.isCurrent(neurons))) {
+            matrixBuilt = true;
+            matrix = HopfieldMatrix.create(neurons);
+            matrixUsable = matrix != null && matrix.load();
+            if (matrix != null) {
+                matrix.setParallel(parallel);
+            }
+        }
+        if (!matrixUsable || !matrix.loadState()) {
+            return false;
+        }
+        if (updateFunc == HopfieldUpdate.SYNC) {
+            matrix.updateSynchronous();
+        } else {
+            int n = matrix.getNumNeurons();
+            if (order == null || order.length != n) {
+                order = new int[n];
+                for (int i = 0; i < n; i++) {
+                    order[i] = i;
+                }
+            }
+            if (updateFunc == HopfieldUpdate.RAND) {
+                for (int i = n - 1; i > 0; i--) {
+                    int j = getRandomStream().nextInt(0, i);
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    order[i] = i;
+                }
+            }
+            matrix.updateSequential(order);
+        }
+        matrix.storeState();
+        return true;
+    }
+
+    /**
+     * Registers listeners which discard the matrix used in matrix mode when
+     * synapses or groups change.
+     */
+    private void listen() {
+        synapseListener = new SynapseAdapter() {
+            @Override
+            public void synapseAdded(NetworkEvent<Synapse> networkEvent) {
+                invalidateWeights();
+            }
+
+            @Override
+            public void synapseRemoved(NetworkEvent<Synapse> networkEvent) {
+                invalidateWeights();
+            }
+
+            @Override
+            public void synapseChanged(NetworkEvent<Synapse> networkEvent) {
+                invalidateWeights();
+            }
+
+            @Override
+            public void synapseTypeChanged(
+                    NetworkEvent<SynapseUpdateRule> networkEvent) {
+                invalidateWeights();
+            }
+        };
+        groupListener = new GroupAdapter() {
+            @Override
+            public void groupAdded(NetworkEvent<Group> e) {
+                invalidateWeights();
+            }
+
+            @Override
+            public void groupRemoved(NetworkEvent<Group> e) {
+                invalidateWeights();
+            }
+
+            @Override
+            public void groupChanged(NetworkEvent<Group> networkEvent,
+                    String changeDescription) {
+                invalidateWeights();
+            }
+        };
+        getParentNetwork().addSynapseListener(synapseListener);
+        getParentNetwork().addGroupListener(groupListener);
+    }
+
+    /**
+     * Removes the listeners registered by {@link #listen()}.
+     */
+    private void stopListening() {
+        if (synapseListener != null) {
+            getParentNetwork().removeSynapseListener(synapseListener);
+            getParentNetwork().removeGroupListener(groupListener);
+            synapseListener = null;
+            groupListener = null;
+        }
+    }
+
+    /**
+     * Discards the weights copied for matrix mode, so that they are copied
+     * again before the next update. Most changes are detected, but strengths
+     * set directly on synapses without firing an event require this.
+     */
+    public void invalidateWeights() {
+        matrixBuilt = false;
+    }
+
+    @Override
+    public void delete() {
+        stopListening();
+        matrix = null;
+        matrixBuilt = false;
+        super.delete();
+    }
+
     /**
      * @return The number of neurons.
      */
@@ -188,6 +370,7 @@ public class Hopfield extends Subnetwork implements Trainable {
                 w.getStrength() + bipolar(src.getActivation())
                     * bipolar(tar.getActivation()));
         }
+        invalidateWeights();
         getParentNetwork().fireGroupUpdated(getSynapseGroup());
     }
 
@@ -246,6 +429,42 @@ public class Hopfield extends Subnetwork implements Trainable {
         this.byPriority = byPriority;
     }
 
+    /**
+     * @return whether updates are computed on a weight matrix
+     */
+    public boolean isMatrixMode() {
+        return matrixMode;
+    }
+
+    /**
+     * @param matrixMode
+     *            whether to compute updates on a weight matrix
+     */
+    public void setMatrixMode(boolean matrixMode) {
+        this.matrixMode = matrixMode;
+        if (!matrixMode) {
+            stopListening();
+            matrix = null;
+            matrixBuilt = false;
+        }
+    }
+
+    /**
+     * @return whether matrix mode may split work across threads
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * @param parallel
+     *            whether matrix mode may split work across threads
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+        invalidateWeights();
+    }
+
     @Override
     public Group getNetwork() {
         return this;
@@ -261,7 +480,7 @@ public class Hopfield extends Subnetwork implements Trainable {
             public void update(Hopfield hop) {
                 List<Neuron> neurons = hop.getModifiableNeuronList();
                 Neuron neuron = null;
-                Collections.shuffle(neurons);
+                hop.shuffle(neurons);
                 for (int i = 0, n = neurons.size(); i < n; i++) {
                     neuron = neurons.get(i);
                     neuron.update();
@@ -28,6 +28,7 @@ import org.simbrain.network.groups.NeuronGroup;
 import org.simbrain.network.layouts.HexagonalGridLayout;
 import org.simbrain.network.layouts.Layout;
 import org.simbrain.network.neuron_update_rules.LinearRule;
+import org.simbrain.network.trainers.PrototypeMatrix;
 
 /**
  * <b>SOM</b> implements a Self-Organizing Map network.
@@ -89,6 +90,21 @@ public class SOMGroup extends NeuronGroup {
     /** The amount that the neighborhood decrements. */
     private double neighborhoodDecayAmount = DEFAULT_NEIGHBORHOOD_DECAY_AMOUNT;
 
+    /** Whether to split the work of each update across threads. */
+    private boolean parallel;
+
+    /**
+     * The units' prototype vectors, while they are held in a dense matrix
+     * (see {@link #holdWeights()}), and kept afterwards for reuse.
+     */
+    private transient PrototypeMatrix prototypes;
+
+    /** True while updates work on the prototype matrix. */
+    private transient boolean holding;
+
+    /** Scratch array for the units in a neighborhood. */
+    private transient int[] neighbors;
+
     /**
      * Default layout for neuron groups. Used to set layout defaults in SOM
      * Creation dialog. Overrides superclass DEFAULT_LAYOUT.
@@ -126,6 +142,7 @@ public class SOMGroup extends NeuronGroup {
         this.batchSize = oldNet.getBatchSize();
         this.alphaDecayRate = oldNet.getAlphaDecayRate();
         this.neighborhoodDecayAmount = oldNet.getNeighborhoodDecayAmount();
+        this.parallel = oldNet.isParallel();
         setLabel("SOM Group (copy)");
     }
     
@@ -147,7 +164,8 @@ public class SOMGroup extends NeuronGroup {
         for (Neuron n : getNeuronList()) {
             for (Synapse s : n.getFanIn()) {
                 s.setLowerBound(0);
-                s.setStrength(s.getUpperBound() * Math.random());
+                s.setStrength(s.getUpperBound()
+                        * getRandomStream().nextDouble());
             }
         }
     }
@@ -198,6 +216,11 @@ public class SOMGroup extends NeuronGroup {
     @Override
     public void update() {
 
+        if (holding) {
+            updatePrototypes();
+            return;
+        }
+
         winDistance = Double.POSITIVE_INFINITY;
         // winner = 0;
         double physicalDistance;
@@ -232,7 +255,13 @@ public class SOMGroup extends NeuronGroup {
             }
         }
 
-        // Update alpha and neighborhood size
+        decayParameters();
+    }
+
+    /**
+     * Update alpha and neighborhood size.
+     */
+    private void decayParameters() {
         alpha = (alpha - alphaDecayRate * alpha);
         if (neighborhoodSize - neighborhoodDecayAmount > 0) {
             neighborhoodSize -= neighborhoodDecayAmount;
@@ -241,6 +270,108 @@ public class SOMGroup extends NeuronGroup {
         }
     }
 
+    /**
+     * Same as the update above, but working on the prototype matrix: the
+     * winner is found by a (possibly parallel) pass over the matrix and the
+     * neighborhood comes from the matrix's table of unit positions.
+     */
+    private void updatePrototypes() {
+        prototypes.loadInput();
+        int winner = prototypes.nearest();
+        List<Neuron> neurons = getNeuronList();
+        for (int i = 0, n = neurons.size(); i < n; i++) {
+            neurons.get(i).setActivation(i == winner ? 1 : 0);
+        }
+        if (winner >= 0) {
+            prototypes.prepareNeighbors(neighborhoodSize);
+            int n = prototypes.neighbors(winner, neighborhoodSize, neighbors);
+            for (int m = 0; m < n; m++) {
+                prototypes.moveToward(neighbors[m], neighbors[m] + 1, alpha,
+                        1);
+            }
+        }
+        decayParameters();
+    }
+
+    /**
+     * Copies the units' incoming weights into a dense matrix, which updates
+     * then work on directly, without touching the synapses, until
+     * {@link #commitWeights()} is called. Trainers use this to run through a
+     * whole training set at a time. Changes made to the synapses in the
+     * meantime are overwritten.
+     *
+     * @return false if the weights cannot be held (see
+     *         {@link PrototypeMatrix}), in which case updates work on the
+     *         synapses as usual
+     */
+    public boolean holdWeights() {
+        if (holding) {
+            return true;
+        }
+        if (prototypes == null || !prototypes.isCurrent(getNeuronList())) {
+            prototypes = PrototypeMatrix.create(getNeuronList());
+        }
+        if (prototypes == null) {
+            return false;
+        }
+        prototypes.setParallel(parallel);
+        prototypes.load();
+        neighbors = new int[prototypes.getNumUnits()];
+        holding = true;
+        return true;
+    }
+
+    /**
+     * Writes held weights back into the synapses, and returns updates to
+     * working on the synapses.
+     */
+    public void commitWeights() {
+        if (holding) {
+            prototypes.store();
+            holding = false;
+        }
+    }
+
+    /**
+     * Trains the map on a whole data set at once with the batch version of
+     * the SOM rule: each unit's weights become the mean of the input vectors
+     * won by the units in its neighborhood. The neighborhood size is that at
+     * the start of the batch, and afterwards alpha and the neighborhood size
+     * are decayed once per row, as they would have been by updating on each
+     * row in turn. The units' activations are left showing the winner for the
+     * last row.
+     *
+     * @param data the input vectors, one per row
+     * @param inputNeurons the input neurons, in the order of the columns of
+     *            the data
+     * @return false if the weights cannot be held or some unit has an input
+     *         not in the list, in which case nothing is done
+     */
+    public boolean trainBatch(final double[][] data,
+            final List<Neuron> inputNeurons) {
+        boolean held = holding;
+        if (!holdWeights()) {
+            return false;
+        }
+        int[] columns = prototypes.columnsOf(inputNeurons);
+        if (columns != null && data.length > 0) {
+            int[] winners = prototypes.batchUpdate(data, columns,
+                    neighborhoodSize);
+            int winner = winners[data.length - 1];
+            List<Neuron> neurons = getNeuronList();
+            for (int i = 0, n = neurons.size(); i < n; i++) {
+                neurons.get(i).setActivation(i == winner ? 1 : 0);
+            }
+            for (int r = 0; r < data.length; r++) {
+                decayParameters();
+            }
+        }
+        if (!held) {
+            commitWeights();
+        }
+        return columns != null;
+    }
+
     /**
      * Find the SOM neuron which is closest to the input vector.
      *
@@ -429,4 +560,22 @@ public class SOMGroup extends NeuronGroup {
         this.numNeurons = numNeurons;
     }
 
+    /**
+     * @return whether the work of each update is split across threads
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * @param parallel whether to split the work of each update across
+     *            threads
+     */
+    public void setParallel(final boolean parallel) {
+        this.parallel = parallel;
+        if (prototypes != null) {
+            prototypes.setParallel(parallel);
+        }
+    }
+
 }
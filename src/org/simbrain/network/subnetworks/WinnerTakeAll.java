@@ -18,8 +18,6 @@
  */
 package org.simbrain.network.subnetworks;
 
-import java.util.Random;
-
 import org.simbrain.network.core.Network;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.groups.CopyableGroup;
@@ -98,7 +96,7 @@ public class WinnerTakeAll extends NeuronGroup {
         // Determine the winning neuron
         int winnerIndex;
         if (useRandom) {
-            if (Math.random() < randomProb) {
+            if (getRandomStream().nextDouble() < randomProb) {
                 winnerIndex = getRandomWinnerIndex();
             } else {
                 winnerIndex = getWinningIndex();
@@ -124,7 +122,7 @@ public class WinnerTakeAll extends NeuronGroup {
      * @return index of random winner
      */
     private int getRandomWinnerIndex() {
-        return new Random().nextInt(getNeuronList().size());
+        return getRandomStream().nextInt(0, getNeuronList().size() - 1);
     }
 
     /**
@@ -101,7 +101,8 @@ public class LogSTDPRule extends STDPRule {
 //        			- (src.getLastSpikeTime());
 //        }
         if (synapse.getStrength() >= 0) {
-	        double noise = (1 + ProbDistribution.NORMAL.nextRand(0, noiseVar));
+	        double noise = (1 + ProbDistribution.NORMAL.nextRand(synapse
+	                .getTarget().getRandomStream(), 0, noiseVar));
 	        if (delta_t < 0) {
 	            calcW_plusTerm(synapse);
 	            delta_w = timeStep * learningRate * (W_plus * Math.exp(delta_t
@@ -144,6 +145,51 @@ public class LogSTDPRule extends STDPRule {
         }
     }
 
+    /**
+     * Trace based Log-STDP, on a source spike. Excitatory synapses are
+     * depressed by an amount depending logarithmically on their strength;
+     * inhibitory synapses are strengthened, then weakened by a fixed amount,
+     * as in {@link #update(Synapse)}. Excitatory changes are scaled by the
+     * time step and noise is drawn from the target neuron's stream, also as
+     * in {@link #update(Synapse)}.
+     */
+    @Override
+    public void onPreSpike(Synapse synapse, double postTrace, long elapsed,
+            double timeStep) {
+        double strength = synapse.getStrength();
+        if (strength > 0) {
+            double noise = (1 + ProbDistribution.NORMAL.nextRand(synapse
+                    .getTarget().getRandomStream(), 0, noiseVar));
+            strength -= timeStep * learningRate * calcW_minusTerm(synapse)
+                    * postTrace * (1 + noise);
+        } else {
+            strength -= learningRate * 1.5 * postTrace;
+            strength += learningRate * 0.2;
+        }
+        synapse.setStrength(synapse.clip(strength));
+    }
+
+    /**
+     * Trace based Log-STDP, on a target spike. Excitatory synapses are
+     * potentiated by an amount which falls off with their strength and then
+     * weakened by a fixed amount, inhibitory synapses are weakened.
+     */
+    @Override
+    public void onPostSpike(Synapse synapse, double preTrace,
+            long sincePreSpike, double timeStep) {
+        double strength = synapse.getStrength();
+        if (strength > 0) {
+            double noise = (1 + ProbDistribution.NORMAL.nextRand(synapse
+                    .getTarget().getRandomStream(), 0, noiseVar));
+            strength += timeStep * learningRate * calcW_plusTerm(synapse)
+                    * preTrace * (1 + noise);
+            strength -= learningRate * 0.05;
+        } else {
+            strength += learningRate * preTrace;
+        }
+        synapse.setStrength(synapse.clip(strength));
+    }
+
     /**
      * @param s
      * @return
@@ -18,9 +18,17 @@
  */
 package org.simbrain.network.synapse_update_rules;
 
+import org.simbrain.network.connections.AllToAll;
+import org.simbrain.network.core.Network;
+import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.SpikingNeuronUpdateRule;
 import org.simbrain.network.core.Synapse;
 import org.simbrain.network.core.SynapseUpdateRule;
+import org.simbrain.network.groups.NeuronGroup;
+import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.network.neuron_update_rules.IntegrateAndFireRule;
+import org.simbrain.network.synapse_update_rules.interfaces.SpikeTraceRule;
+import org.simbrain.util.SimbrainConstants.Polarity;
 
 /**
  * <b>STDPSynapse</b> models spike time dependent plasticity.
@@ -31,8 +39,15 @@ import org.simbrain.network.core.SynapseUpdateRule;
  * Neuroscience. Nonperiodic Synchronization in Heterogeneous Networks of
  * Spiking Neurons. Also drew on the Scholarpedia article.
  *
+ * When used with spike trace learning, weights change only on spikes, by the
+ * standard pair-based rule: a target spike adds W+ times the source trace
+ * (time constant tau+), a source spike subtracts W- times the target trace
+ * (time constant tau-), both scaled by the learning rate and the time step.
+ * As in {@link #update(Synapse)}, source spikes count as reaching the synapse
+ * after its delay, so each pairing changes the weight by the amount
+ * {@link #update(Synapse)} gives on the step of the later spike.
  */
-public class STDPRule extends SynapseUpdateRule {
+public class STDPRule extends SynapseUpdateRule implements SpikeTraceRule {
 
     /** Default tau plus. */
     public static final double TAU_PLUS_DEFAULT = 30;
@@ -120,6 +135,55 @@ public class STDPRule extends SynapseUpdateRule {
                 + (delta_w * timeStep)));
     }
 
+    @Override
+    public double getPreTraceTau() {
+        return tau_plus;
+    }
+
+    @Override
+    public double getPostTraceTau() {
+        return tau_minus;
+    }
+
+    @Override
+    public void onPreSpike(Synapse synapse, double postTrace, long elapsed,
+            double timeStep) {
+        // Target spikes so far are paired with the spike's delayed arrival
+        final double delay = synapse.getDelay() * timeStep;
+        synapse.setStrength(synapse.clip(synapse.getStrength() - W_minus
+                * postTrace * Math.exp(-delay / tau_minus) * learningRate
+                * timeStep));
+    }
+
+    @Override
+    public void catchUp(Synapse synapse, long elapsed) {
+    }
+
+    /**
+     * Source spikes which have arrived count as earlier than this spike, and
+     * their trace is shifted by the delay. The source's last spike, if it has
+     * not arrived yet, counts as later, as it does in {@link #update(Synapse)}.
+     * Earlier spikes still in transit are rare and are treated as arrived.
+     */
+    @Override
+    public void onPostSpike(Synapse synapse, double preTrace,
+            long sincePreSpike, double timeStep) {
+        final int delaySteps = synapse.getDelay();
+        final double delay = delaySteps * timeStep;
+        final double since = sincePreSpike * timeStep;
+        double arrived = preTrace;
+        double delta_w = 0;
+        if (sincePreSpike > 0 && sincePreSpike <= delaySteps) {
+            arrived -= Math.exp(-since / tau_plus);
+        }
+        if (sincePreSpike < delaySteps) {
+            delta_w -= W_minus * Math.exp(-(delay - since) / tau_minus);
+        }
+        delta_w += W_plus * Math.max(0, arrived) * Math.exp(delay / tau_plus);
+        synapse.setStrength(synapse.clip(synapse.getStrength() + delta_w
+                * learningRate * timeStep));
+    }
+
     /**
      * @return the tau_plus
      */
@@ -195,4 +259,102 @@ public class STDPRule extends SynapseUpdateRule {
         this.learningRate = learningRate;
     }
 
+    /**
+     * Checks that spike trace learning and per-step updating give the same
+     * weight change for single pre/post pairings, with and without a delay.
+     * For per-step updating the change on the step of the later spike is
+     * compared, since {@link #update(Synapse)} keeps applying the pairing on
+     * every step after it.
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        int[][] pairings = { { 5, 12, 0 }, { 12, 5, 0 }, { 5, 12, 3 },
+            { 5, 7, 4 }, { 12, 5, 3 }, { 5, 5, 0 } };
+        boolean ok = true;
+        for (int[] p : pairings) {
+            double perStep = pairing(false, p[0], p[1], p[2]);
+            double traced = pairing(true, p[0], p[1], p[2]);
+            boolean agree = Math.abs(perStep - traced) < 1e-12;
+            ok &= agree;
+            System.out.println("pre " + p[0] + ", post " + p[1] + ", delay "
+                    + p[2] + ": per-step " + perStep + ", traced " + traced
+                    + (agree ? "" : "  <-- DIFFER"));
+        }
+        System.out.println(ok ? "SUCCESS!" : "FAILURE.");
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Drives one synapse through a single source and a single target spike.
+     *
+     * @param traced
+     *            true to learn from spike traces, false to update every step
+     * @param preStep
+     *            update on which the source spikes
+     * @param postStep
+     *            update on which the target spikes
+     * @param delay
+     *            synaptic delay in updates
+     * @return the weight change: over the whole run when traced, otherwise on
+     *         the update of the later spike
+     */
+    private static double pairing(final boolean traced, final int preStep,
+            final int postStep, final int delay) {
+        Network net = new Network();
+        net.setTimeStep(0.5);
+        NeuronGroup src = new NeuronGroup(net, 1);
+        NeuronGroup tar = new NeuronGroup(net, 1);
+        src.setNeuronType(new IntegrateAndFireRule());
+        tar.setNeuronType(new IntegrateAndFireRule());
+        SynapseGroup sg = SynapseGroup.createSynapseGroup(src, tar,
+                new AllToAll(), 1.0);
+        sg.setLearningRule(new STDPRule(), Polarity.BOTH);
+        sg.setUpperBound(100, Polarity.BOTH);
+        sg.setLowerBound(-100, Polarity.BOTH);
+        sg.setStrength(1, Polarity.BOTH);
+        sg.setDelay(delay, Polarity.BOTH);
+        sg.setUseSpikeTraceLearning(traced);
+        Synapse synapse = sg.getAllSynapses().get(0);
+        Neuron pre = src.getNeuronList().get(0);
+        Neuron post = tar.getNeuronList().get(0);
+        final int last = Math.max(preStep, postStep);
+        double change = 0;
+        for (int t = 1; t <= last; t++) {
+            net.setTime(t * net.getTimeStep());
+            spike(pre, t == preStep, net.getTime());
+            spike(post, t == postStep, net.getTime());
+            double before = synapse.getStrength();
+            if (traced) {
+                sg.update();
+                change += synapse.getStrength() - before;
+            } else if (t == last) {
+                synapse.getLearningRule().update(synapse);
+                change = synapse.getStrength() - before;
+            }
+        }
+        return change;
+    }
+
+    /**
+     * Sets whether a neuron spikes on the current update.
+     *
+     * @param neuron
+     *            a neuron with a spiking update rule
+     * @param spike
+     *            true if it spikes
+     * @param time
+     *            the current network time
+     */
+    private static void spike(final Neuron neuron, final boolean spike,
+            final double time) {
+        neuron.setSpike(spike);
+        if (spike) {
+            ((SpikingNeuronUpdateRule) neuron.getUpdateRule())
+                    .setLastSpikeTime(time);
+        }
+    }
+
 }
@@ -21,11 +21,13 @@ package org.simbrain.network.synapse_update_rules;
 import org.simbrain.network.core.SpikingNeuronUpdateRule;
 import org.simbrain.network.core.Synapse;
 import org.simbrain.network.core.SynapseUpdateRule;
+import org.simbrain.network.synapse_update_rules.interfaces.SpikeTraceRule;
 
 /**
  * <b>ShortTermPlasticitySynapse</b>.
  */
-public class ShortTermPlasticityRule extends SynapseUpdateRule {
+public class ShortTermPlasticityRule extends SynapseUpdateRule implements
+        SpikeTraceRule {
 
     // TODO: Enum
 
@@ -124,6 +126,46 @@ public class ShortTermPlasticityRule extends SynapseUpdateRule {
         synapse.setStrength(synapse.clip(strength));
     }
 
+    @Override
+    public double getPreTraceTau() {
+        return 0;
+    }
+
+    @Override
+    public double getPostTraceTau() {
+        return 0;
+    }
+
+    /**
+     * Applies the decay toward base line strength which would have happened
+     * on every update since the previous spike, and then the bump for this
+     * one.
+     */
+    @Override
+    public void onPreSpike(Synapse synapse, double postTrace, long elapsed,
+            double timeStep) {
+        catchUp(synapse, elapsed - 1);
+        double strength = synapse.getStrength();
+        if (plasticityType == STD) {
+            strength -= (bumpRate * (strength - synapse.getLowerBound()));
+        } else {
+            strength += (bumpRate * (synapse.getUpperBound() - strength));
+        }
+        synapse.setStrength(synapse.clip(strength));
+    }
+
+    @Override
+    public void catchUp(Synapse synapse, long elapsed) {
+        synapse.setStrength(synapse.clip(baseLineStrength
+                + (synapse.getStrength() - baseLineStrength)
+                * Math.pow(1 - decayRate, elapsed)));
+    }
+
+    @Override
+    public void onPostSpike(Synapse synapse, double preTrace,
+            long sincePreSpike, double timeStep) {
+    }
+
     /**
      * @return Returns the baseLineStrength.
      */
@@ -0,0 +1,84 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.synapse_update_rules.interfaces;
+
+import org.simbrain.network.core.Synapse;
+
+/**
+ * <b>SpikeTraceRule</b> is for spike-based learning rules which can be applied
+ * only when spikes occur, e.g. STDP. Instead of being updated every time step,
+ * synapses with such rules in a synapse group using spike trace learning are
+ * visited only when their source or target neuron spikes. Time elapsed since
+ * earlier spikes is summarized by exponentially decaying traces kept per
+ * neuron (incremented by one on each spike).
+ *
+ * See {@link org.simbrain.network.groups.SynapseGroup#setUseSpikeTraceLearning(boolean)}.
+ */
+public interface SpikeTraceRule {
+
+    /**
+     * @return the decay time constant of the pre-synaptic (source) trace, or 0
+     *         if the rule does not use it
+     */
+    double getPreTraceTau();
+
+    /**
+     * @return the decay time constant of the post-synaptic (target) trace, or
+     *         0 if the rule does not use it
+     */
+    double getPostTraceTau();
+
+    /**
+     * Applies the rule when the source neuron of a synapse spikes.
+     *
+     * @param synapse the synapse to change
+     * @param postTrace the current trace of the target neuron
+     * @param elapsed number of updates since this synapse's source last
+     *            spiked (or since tracing began)
+     * @param timeStep the network time step
+     */
+    void onPreSpike(Synapse synapse, double postTrace, long elapsed,
+            double timeStep);
+
+    /**
+     * Brings a synapse up to date with any changes due to the passing of time
+     * since its source last spiked, without a new spike. Called before synapse
+     * strengths are read in bulk or saved.
+     *
+     * @param synapse the synapse to change
+     * @param elapsed number of updates since this synapse's source last
+     *            spiked (or since it was last brought up to date)
+     */
+    void catchUp(Synapse synapse, long elapsed);
+
+    /**
+     * Applies the rule when the target neuron of a synapse spikes.
+     *
+     * @param synapse the synapse to change
+     * @param preTrace the current trace of the source neuron
+     * @param sincePreSpike number of updates since the source neuron last
+     *            spiked (0 if it spiked in this update), or
+     *            {@link Long#MAX_VALUE} if it has not spiked; lets rules with
+     *            synaptic delays tell whether that spike has arrived yet
+     * @param timeStep the network time step
+     */
+    void onPostSpike(Synapse synapse, double preTrace, long sincePreSpike,
+            double timeStep);
+
+}
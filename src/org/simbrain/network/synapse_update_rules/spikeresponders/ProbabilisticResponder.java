@@ -52,7 +52,8 @@ public class ProbabilisticResponder extends SpikeResponder {
      */
     public void update(Synapse s) {
         if (s.getSource().isSpike()) {
-            if (Math.random() > (1 - activationProbability)) {
+            if (s.getTarget().getRandomStream().nextDouble()
+                > (1 - activationProbability)) {
                 value = responseValue * s.getStrength();
             } else {
                 value = 0;
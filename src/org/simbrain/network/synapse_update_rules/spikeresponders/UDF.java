@@ -23,6 +23,8 @@ import org.simbrain.util.SimbrainConstants.Polarity;
 import org.simbrain.util.math.ProbDistribution;
 import org.simbrain.util.randomizer.Randomizer;
 
+import umontreal.iro.lecuyer.rng.RandomStream;
+
 /**
  * An experimental no-GUI only implementation of the UDF synapse. This is a
  * stop gap implementation. UDF isn't really a spike responder, as it determines
@@ -133,68 +135,69 @@ public class UDF extends JumpAndDecay {
         rand.setClipping(true);
         rand.setUpperBound(Double.MAX_VALUE);
         rand.setLowerBound(0.0000001);
+        RandomStream stream = s.getRandomStream();
         if (s.getSource().getPolarity() == Polarity.EXCITATORY
                 && s.getTarget().getPolarity() == Polarity.EXCITATORY)
         {
             rand.setParam1(0.5);
             rand.setParam2(0.25);
-            U = rand.getRandom();
+            U = rand.getRandom(stream);
             rand.setParam1(1100);
             rand.setParam2(550);
-            D = rand.getRandom();
+            D = rand.getRandom(stream);
             rand.setParam1(50);
             rand.setParam2(25);
-            F = rand.getRandom();
+            F = rand.getRandom(stream);
             spikeDecay.setTimeConstant(3);
         } else if (s.getSource().getPolarity() == Polarity.EXCITATORY
                 && s.getTarget().getPolarity() == Polarity.INHIBITORY)
         {
             rand.setParam1(0.05);
             rand.setParam2(0.025);
-            U = rand.getRandom();
+            U = rand.getRandom(stream);
             rand.setParam1(125);
             rand.setParam2(62.5);
-            D = rand.getRandom();
+            D = rand.getRandom(stream);
             rand.setParam1(120);
             rand.setParam2(60);
-            F = rand.getRandom();
+            F = rand.getRandom(stream);
             spikeDecay.setTimeConstant(3);
         } else if (s.getSource().getPolarity() == Polarity.INHIBITORY
                 && s.getTarget().getPolarity() == Polarity.EXCITATORY)
         {
             rand.setParam1(0.25);
             rand.setParam2(0.125);
-            U = rand.getRandom();
+            U = rand.getRandom(stream);
             rand.setParam1(700);
             rand.setParam2(350);
-            D = rand.getRandom();
+            D = rand.getRandom(stream);
             rand.setParam1(20);
             rand.setParam2(10);
-            F = rand.getRandom();
+            F = rand.getRandom(stream);
             spikeDecay.setTimeConstant(6);
         } else if (s.getSource().getPolarity() == Polarity.INHIBITORY
                 && s.getTarget().getPolarity() == Polarity.INHIBITORY)
         {
             rand.setParam1(0.32);
             rand.setParam2(0.16);
-            U = rand.getRandom();
+            U = rand.getRandom(stream);
             rand.setParam1(144);
             rand.setParam2(72);
-            D = rand.getRandom();
+            D = rand.getRandom(stream);
             rand.setParam1(60);
             rand.setParam2(30);
-            F = rand.getRandom();
+            F = rand.getRandom(stream);
             spikeDecay.setTimeConstant(6);
         } else {
             rand.setParam1(0.5);
             rand.setParam2(0.25);
-            U = rand.getRandom();
+            U = rand.getRandom(stream);
             rand.setParam1(1100);
             rand.setParam2(550);
-            D = rand.getRandom();
+            D = rand.getRandom(stream);
             rand.setParam1(50);
             rand.setParam2(25);
-            F = rand.getRandom();
+            F = rand.getRandom(stream);
             spikeDecay.setTimeConstant(3);
         }
         u = U;
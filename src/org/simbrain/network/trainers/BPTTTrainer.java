@@ -31,6 +31,12 @@ import org.simbrain.network.subnetworks.BPTTNetwork;
  * Trainer for backprop through time Networks. As a test use the "Walker"
  * tables.
  *
+ * In matrix mode the network is trained by {@link RecurrentBackprop}, which
+ * propagates error back through the outputs fed back as inputs over a window
+ * of {@link #getTruncation()} steps (the whole sequence by default), and can
+ * train several sequences side by side. Weights are written back as described
+ * in {@link IterableTrainer}.
+ *
  * @author jyoshimi
  */
 public class BPTTTrainer extends IterableTrainer {
@@ -62,6 +68,15 @@ public class BPTTTrainer extends IterableTrainer {
     /** For storing bias deltas. */
     private HashMap<Neuron, Double> biasDeltaMap;
 
+    /** Number of steps unrolled in matrix mode, or 0 for whole sequences. */
+    private int truncation;
+
+    /** Number of sequences trained side by side in matrix mode. */
+    private int sequencesPerBatch = 1;
+
+    /** Whether to split batches of sequences across threads. */
+    private boolean parallel;
+
     /**
      * Construct the SRN trainer.
      *
@@ -80,6 +95,9 @@ public class BPTTTrainer extends IterableTrainer {
 
     @Override
     public void apply() {
+        if (isMatrixMode() && applyRecurrent()) {
+            return;
+        }
         mse = 0;
 
         int numRows = getMinimumNumRows(network);
@@ -142,6 +160,42 @@ public class BPTTTrainer extends IterableTrainer {
 
     }
 
+    /**
+     * One pass through the training data using the recurrent engine.
+     *
+     * @return false if the engine does not support this network, in which
+     *         case nothing was done
+     */
+    private boolean applyRecurrent() {
+        int numRows = getMinimumNumRows(network);
+        if ((numRows == 0) || (network.getInputNeurons().size() == 0)) {
+            return true;
+        }
+        RecurrentBackprop engine = (RecurrentBackprop) loadEngine();
+        if (engine == null) {
+            return false;
+        }
+        engine.setParallel(parallel);
+        double sse = engine.train(network.getTrainingSet().getInputData(),
+                network.getTrainingSet().getTargetData(), numRows,
+                bptt.getStepsPerSequences(), truncation, sequencesPerBatch,
+                learningRate, momentum);
+        mse = sse / (numRows * network.getOutputNeurons().size());
+        endEnginePass();
+        for (int row = 0; row < numRows; row++) {
+            incrementIteration();
+        }
+        fireErrorUpdated();
+        return true;
+    }
+
+    @Override
+    protected TrainingEngine createEngine() {
+        return RecurrentBackprop.createWithFeedback(bptt.getInputLayer()
+                .getNeuronList(), bptt.getHiddenLayer().getNeuronList(), bptt
+                .getOutputLayer().getNeuronList());
+    }
+
     /**
      * True if this is the iteration that begans a training series.
      *
@@ -249,6 +303,7 @@ public class BPTTTrainer extends IterableTrainer {
 
     @Override
     public void randomize() {
+        discardEngine();
         randomize(bptt.getHiddenLayer().getNeuronList());
         randomize(bptt.getOutputLayer().getNeuronList());
         revalidateSynapseGroups();
@@ -298,4 +353,51 @@ public class BPTTTrainer extends IterableTrainer {
         this.momentum = momentum;
     }
 
+    /**
+     * @return the number of steps unrolled in matrix mode, or 0 for whole
+     *         sequences
+     */
+    public int getTruncation() {
+        return truncation;
+    }
+
+    /**
+     * @param truncation
+     *            the number of steps to unroll in matrix mode, or 0 for whole
+     *            sequences
+     */
+    public void setTruncation(int truncation) {
+        this.truncation = Math.max(0, truncation);
+    }
+
+    /**
+     * @return the number of sequences trained side by side in matrix mode
+     */
+    public int getSequencesPerBatch() {
+        return sequencesPerBatch;
+    }
+
+    /**
+     * @param sequencesPerBatch
+     *            the number of sequences to train side by side in matrix mode
+     */
+    public void setSequencesPerBatch(int sequencesPerBatch) {
+        this.sequencesPerBatch = Math.max(1, sequencesPerBatch);
+    }
+
+    /**
+     * @return whether batches of sequences are split across threads
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * @param parallel
+     *            whether to split batches of sequences across threads
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
 }
@@ -27,10 +27,20 @@ import org.simbrain.network.core.Synapse;
 import org.simbrain.network.neuron_update_rules.interfaces.BiasedUpdateRule;
 import org.simbrain.network.neuron_update_rules.interfaces.DifferentiableUpdateRule;
 
+import umontreal.iro.lecuyer.rng.RandomStream;
+
 /**
  * Backprop trainer. An implementation of the backpropagation learning
  * algorithm.
  *
+ * In matrix mode strictly layered networks are trained by
+ * {@link MatrixBackprop}, which copies the weights into dense matrices when
+ * training starts, processes the training data in mini-batches of
+ * {@link #getBatchSize()} rows, and writes the weights back as described in
+ * {@link IterableTrainer}. A batch size of one gives the same
+ * results as the online algorithm. Networks the matrix engine does not
+ * support are trained online as before.
+ *
  * @author jyoshimi
  */
 public class BackpropTrainer extends IterableTrainer {
@@ -62,6 +72,12 @@ public class BackpropTrainer extends IterableTrainer {
     /** Internal representation of network. */
     private List<List<Neuron>> layers;
 
+    /** Number of training rows per weight update in matrix mode. */
+    private int batchSize = 1;
+
+    /** Whether to split mini-batches across threads in matrix mode. */
+    private boolean parallel;
+
     /**
      * Construct the backprop trainer.
      *
@@ -84,6 +100,9 @@ public class BackpropTrainer extends IterableTrainer {
     // One pass through the training data
     @Override
     public void apply() {
+        if (isMatrixMode() && applyMatrix()) {
+            return;
+        }
         mse = 0;
 
         int numRows = getMinimumNumRows(network);
@@ -137,6 +156,44 @@ public class BackpropTrainer extends IterableTrainer {
         fireErrorUpdated();
     }
 
+    /**
+     * One pass through the training data using the matrix engine.
+     *
+     * @return false if the matrix engine does not support this network, in
+     *         which case nothing was done
+     */
+    private boolean applyMatrix() {
+        int numRows = getMinimumNumRows(network);
+        int numInputs = network.getInputNeurons().size();
+        if ((numRows == 0) || (numInputs == 0)) {
+            return true;
+        }
+        MatrixBackprop engine = (MatrixBackprop) loadEngine();
+        if (engine == null) {
+            return false;
+        }
+        engine.setParallel(parallel);
+        double sse = engine.train(network.getTrainingSet().getInputData(),
+                network.getTrainingSet().getTargetData(), numRows, batchSize,
+                learningRate, momentum);
+        mse = sse / (numRows * network.getOutputNeurons().size());
+        endEnginePass();
+        incrementIteration();
+        fireErrorUpdated();
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Subclasses which update the network in some other way than layer by
+     * layer must override this.
+     */
+    @Override
+    protected TrainingEngine createEngine() {
+        return MatrixBackprop.create(layers);
+    }
+
     /**
      * Compute error contribution for all nodes using backprop algorithm.
      *
@@ -228,6 +285,7 @@ public class BackpropTrainer extends IterableTrainer {
      * Randomize the network.
      */
     public void randomize() {
+        discardEngine();
         for (List<Neuron> layer : layers) {
             // Don't update input layer
             if (layers.indexOf(layer) > 0) {
@@ -247,11 +305,12 @@ public class BackpropTrainer extends IterableTrainer {
             neuron.clear(); // Looks nicer in the GUI
             // Randomize uniformly in -.05,.05.
             // TODO: Make this settable and use randomizer framework.
+            RandomStream stream = neuron.getRandomStream();
             for (Synapse synapse : neuron.getFanIn()) {
-                synapse.setStrength(.1 * Math.random() - .05);
+                synapse.setStrength(.1 * stream.nextDouble() - .05);
             }
-            ((BiasedUpdateRule) neuron.getUpdateRule()).setBias(.1 * Math
-                    .random() - .05);
+            ((BiasedUpdateRule) neuron.getUpdateRule()).setBias(.1 * stream
+                    .nextDouble() - .05);
         }
         revalidateSynapseGroups();
     }
@@ -263,6 +322,16 @@ public class BackpropTrainer extends IterableTrainer {
         return mse;
     }
 
+    /**
+     * Sets the current error. For subclasses with their own training engine.
+     *
+     * @param mse
+     *            the mean squared error
+     */
+    protected void setError(double mse) {
+        this.mse = mse;
+    }
+
     /**
      * Update internally constructed network.
      */
@@ -289,6 +358,36 @@ public class BackpropTrainer extends IterableTrainer {
         this.learningRate = learningRate;
     }
 
+    /**
+     * @return the number of training rows per weight update in matrix mode
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize
+     *            the number of training rows per weight update in matrix mode
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * @return whether mini-batches are split across threads in matrix mode
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * @param parallel
+     *            whether to split mini-batches across threads in matrix mode
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
     // /**
     // * Test method.
     // *
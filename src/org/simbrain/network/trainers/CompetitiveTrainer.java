@@ -60,10 +60,18 @@ public class CompetitiveTrainer extends Trainer {
         }
 
         int numRows = network.getTrainingSet().getInputData().length;
-        for (int row = 0; row < numRows; row++) {
-            double[] inputs = network.getTrainingSet().getInputData()[row];
-            network.getInputLayer().forceSetActivations(inputs);
-            network.getCompetitive().update(); // Call a function here to be overriden in subclasses?
+        // Work on a dense copy of the weights for the whole epoch
+        boolean held = network.getCompetitive().holdWeights();
+        try {
+            for (int row = 0; row < numRows; row++) {
+                double[] inputs = network.getTrainingSet().getInputData()[row];
+                network.getInputLayer().forceSetActivations(inputs);
+                network.getCompetitive().update(); // Call a function here to be overriden in subclasses?
+            }
+        } finally {
+            if (held) {
+                network.getCompetitive().commitWeights();
+            }
         }
         incrementIteration();
 
@@ -0,0 +1,460 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.trainers;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronUpdateRule.InputType;
+import org.simbrain.network.core.Synapse;
+import org.simbrain.network.neuron_update_rules.BinaryRule;
+import org.simbrain.network.subnetworks.Hopfield;
+
+/**
+ * The weights of a fully connected Hopfield network, kept as the packed upper
+ * triangle of a symmetric matrix, with the neurons' states in a primitive
+ * vector. Used by {@link HopfieldTrainer} to store patterns and by
+ * {@link Hopfield} to recall them without walking synapse objects.
+ *
+ * Every neuron must have one synapse from every other neuron and none from
+ * itself. The synapses must be enabled, undelayed and unfrozen, come from
+ * non-polarized neurons, and share bounds which include zero. Recall also
+ * needs every neuron to use a {@link BinaryRule} with weighted inputs, and
+ * the weights to be symmetric.
+ */
+public final class HopfieldMatrix {
+
+    /** Number of neurons whose weights are computed in one pass. */
+    private static final int ROW_BLOCK = 16;
+
+    /** The neurons. */
+    private final Neuron[] neurons;
+
+    /** Number of neurons. */
+    private final int size;
+
+    /**
+     * Synapse from i to j, for i < j, at the same place as its weight in the
+     * packed triangle.
+     */
+    private final Synapse[] forward;
+
+    /** Synapse from j to i, for i < j. */
+    private final Synapse[] backward;
+
+    /** Packed upper triangle of the weights: w(i, j) for i < j. */
+    private final double[] weights;
+
+    /** Lower bound of the weights. */
+    private double floor;
+
+    /** Upper bound of the weights. */
+    private double ceil;
+
+    /** Activations. */
+    private final double[] state;
+
+    /** Threshold of each neuron. */
+    private final double[] thresholds;
+
+    /** Bias of each neuron. */
+    private final double[] biases;
+
+    /** Upper value of each neuron. */
+    private final double[] uppers;
+
+    /** Lower value of each neuron. */
+    private final double[] lowers;
+
+    /** External input to each neuron. */
+    private final double[] inputs;
+
+    /** True for clamped neurons, which recall leaves alone. */
+    private final boolean[] clamped;
+
+    /** Scratch space for a synchronous update. */
+    private final double[] next;
+
+    /** Whether to split work across threads. */
+    private boolean parallel;
+
+    /**
+     * @param neurons
+     *            the neurons
+     */
+    private HopfieldMatrix(final Neuron[] neurons) {
+        this.neurons = neurons;
+        size = neurons.length;
+        int numWeights = size * (size - 1) / 2;
+        forward = new Synapse[numWeights];
+        backward = new Synapse[numWeights];
+        weights = new double[numWeights];
+        state = new double[size];
+        thresholds = new double[size];
+        biases = new double[size];
+        uppers = new double[size];
+        lowers = new double[size];
+        inputs = new double[size];
+        clamped = new boolean[size];
+        next = new double[size];
+    }
+
+    /**
+     * Collects the synapses connecting a list of neurons, or returns null if
+     * they are not supported (see above).
+     *
+     * @param neuronList
+     *            the neurons
+     * @return the matrix, or null
+     */
+    public static HopfieldMatrix create(final List<Neuron> neuronList) {
+        int n = neuronList.size();
+        if (n < 2) {
+            return null;
+        }
+        HopfieldMatrix hm = new HopfieldMatrix(
+                neuronList.toArray(new Neuron[n]));
+        Map<Neuron, Integer> index = new IdentityHashMap<Neuron, Integer>();
+        for (int i = 0; i < n; i++) {
+            index.put(hm.neurons[i], i);
+        }
+        boolean first = true;
+        for (int t = 0; t < n; t++) {
+            List<Synapse> fanIn = hm.neurons[t].getFanIn();
+            if (fanIn.size() != n - 1) {
+                return null;
+            }
+            for (Synapse s : fanIn) {
+                Integer src = index.get(s.getSource());
+                if (src == null || src == t || !s.isEnabled()
+                        || s.getDelay() != 0 || s.isFrozen()
+                        || s.getSource().isPolarized()) {
+                    return null;
+                }
+                if (first) {
+                    hm.floor = s.getLowerBound();
+                    hm.ceil = s.getUpperBound();
+                    first = false;
+                } else if (s.getLowerBound() != hm.floor
+                        || s.getUpperBound() != hm.ceil) {
+                    return null;
+                }
+                Synapse[] side = src < t ? hm.forward : hm.backward;
+                int k = hm.index(Math.min(src, t), Math.max(src, t));
+                if (side[k] != null) {
+                    return null;
+                }
+                side[k] = s;
+            }
+        }
+        if (hm.floor > 0 || hm.ceil < 0) {
+            return null;
+        }
+        return hm;
+    }
+
+    /**
+     * Whether this matrix still matches a list of neurons: the same neurons
+     * with fan-ins of the same size. Other changes are not detected.
+     *
+     * @param neuronList
+     *            the neurons
+     * @return true if the matrix can still be used for the neurons
+     */
+    public boolean isCurrent(final List<Neuron> neuronList) {
+        if (neuronList.size() != size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            Neuron n = neuronList.get(i);
+            if (n != neurons[i] || n.getFanIn().size() != size - 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Position of w(i, j), i < j, in the packed triangle.
+     *
+     * @param i
+     *            row
+     * @param j
+     *            column, greater than i
+     * @return the index
+     */
+    private int index(final int i, final int j) {
+        return i * (2 * size - i - 1) / 2 + (j - i - 1);
+    }
+
+    /**
+     * @return the number of neurons
+     */
+    public int getNumNeurons() {
+        return size;
+    }
+
+    /**
+     * Copies the current strengths from the synapses.
+     *
+     * @return false if the weights are not symmetric, in which case the
+     *         matrix must not be used for recall
+     */
+    public boolean load() {
+        boolean symmetric = true;
+        for (int k = 0; k < weights.length; k++) {
+            weights[k] = forward[k].getStrength();
+            symmetric &= backward[k].getStrength() == weights[k];
+        }
+        return symmetric;
+    }
+
+    /**
+     * Writes the weights back into the synapses, in both directions.
+     */
+    public void store() {
+        for (int k = 0; k < weights.length; k++) {
+            forward[k].setStrength(weights[k]);
+            backward[k].setStrength(weights[k]);
+        }
+    }
+
+    /**
+     * Sets the weights to those the Hebbian rule gives for a set of binary
+     * patterns: starting from zero, for each pattern in turn, the product of
+     * the bipolar values of each pair of neurons is added to the weight
+     * between them, clipped to the bounds. Done one block of neurons at a
+     * time, so that each neuron's pattern values are read once per block.
+     * When no weight can reach a bound the clipping is skipped.
+     *
+     * @param patterns
+     *            the patterns, one per row, with one value per neuron
+     * @throws IllegalArgumentException
+     *             if a pattern does not have one value per neuron
+     */
+    public void train(final double[][] patterns) {
+        if (!fits(patterns)) {
+            throw new IllegalArgumentException(
+                    "Patterns must have one value per neuron");
+        }
+        final int numPatterns = patterns.length;
+        // Pattern values, one run of numPatterns per neuron
+        final double[] values = new double[size * numPatterns];
+        double maxAbs = 0;
+        for (int p = 0; p < numPatterns; p++) {
+            for (int i = 0; i < size; i++) {
+                double v = Hopfield.bipolar(patterns[p][i]);
+                values[i * numPatterns + p] = v;
+                maxAbs = Math.max(maxAbs, Math.abs(v));
+            }
+        }
+        final double start = clip(0);
+        final boolean clipping = numPatterns * maxAbs * maxAbs > Math.min(
+                ceil - start, start - floor);
+        int numBlocks = (size + ROW_BLOCK - 1) / ROW_BLOCK;
+        ParallelRange.run(parallel, numBlocks, (long) ROW_BLOCK * size
+                * numPatterns / 2, new ParallelRange.Kernel() {
+            @Override
+            void run(final int lo, final int hi) {
+                for (int b = lo; b < hi; b++) {
+                    int i0 = b * ROW_BLOCK;
+                    int i1 = Math.min(size, i0 + ROW_BLOCK);
+                    for (int j = i0 + 1; j < size; j++) {
+                        int jBase = j * numPatterns;
+                        int i = i0;
+                        if (!clipping) {
+                            // Four rows at a time, each summed in order
+                            for (; i + 3 < i1 && i + 3 < j; i += 4) {
+                                int base = i * numPatterns;
+                                double w0 = start;
+                                double w1 = start;
+                                double w2 = start;
+                                double w3 = start;
+                                for (int p = 0; p < numPatterns; p++) {
+                                    double v = values[jBase + p];
+                                    w0 += values[base + p] * v;
+                                    w1 += values[base + numPatterns + p] * v;
+                                    w2 += values[base + 2 * numPatterns + p]
+                                            * v;
+                                    w3 += values[base + 3 * numPatterns + p]
+                                            * v;
+                                }
+                                weights[index(i, j)] = w0;
+                                weights[index(i + 1, j)] = w1;
+                                weights[index(i + 2, j)] = w2;
+                                weights[index(i + 3, j)] = w3;
+                            }
+                        }
+                        for (; i < i1 && i < j; i++) {
+                            int iBase = i * numPatterns;
+                            double w = start;
+                            if (clipping) {
+                                for (int p = 0; p < numPatterns; p++) {
+                                    w = clip(w + values[iBase + p]
+                                            * values[jBase + p]);
+                                }
+                            } else {
+                                for (int p = 0; p < numPatterns; p++) {
+                                    w += values[iBase + p]
+                                            * values[jBase + p];
+                                }
+                            }
+                            weights[index(i, j)] = w;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Whether a set of patterns can be passed to {@link #train(double[][])}.
+     *
+     * @param patterns
+     *            the patterns
+     * @return true if every pattern has one value per neuron
+     */
+    public boolean fits(final double[][] patterns) {
+        for (double[] pattern : patterns) {
+            if (pattern.length != size) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the neurons' activations, external inputs and update rule
+     * parameters.
+     *
+     * @return false if some neuron's update rule is not supported, in which
+     *         case the matrix must not be used for recall
+     */
+    public boolean loadState() {
+        for (int i = 0; i < size; i++) {
+            Neuron n = neurons[i];
+            if (!(n.getUpdateRule() instanceof BinaryRule)) {
+                return false;
+            }
+            BinaryRule rule = (BinaryRule) n.getUpdateRule();
+            if (rule.getInputType() != InputType.WEIGHTED) {
+                return false;
+            }
+            thresholds[i] = rule.getThreshold();
+            biases[i] = rule.getBias();
+            uppers[i] = rule.getUpperBound();
+            lowers[i] = rule.getLowerBound();
+            inputs[i] = n.getInputValue();
+            clamped[i] = n.isClamped();
+            state[i] = n.getActivation();
+        }
+        return true;
+    }
+
+    /**
+     * Writes the activations back into the neurons (and their buffers).
+     * Clamped neurons are left alone.
+     */
+    public void storeState() {
+        for (int i = 0; i < size; i++) {
+            if (!clamped[i]) {
+                neurons[i].setBuffer(state[i]);
+                neurons[i].setActivation(state[i]);
+            }
+        }
+    }
+
+    /**
+     * The new activation of a neuron given the current state, as its
+     * {@link BinaryRule} would compute it. The weighted inputs are summed in
+     * order of source neuron.
+     *
+     * @param i
+     *            the neuron
+     * @return its new activation
+     */
+    private double activation(final int i) {
+        double sum = inputs[i];
+        // Column i of the upper triangle holds w(j, i) for j < i
+        for (int j = 0, k = i - 1; j < i; j++) {
+            sum += state[j] * weights[k];
+            k += size - j - 2;
+        }
+        for (int j = i + 1, k = index(i, i + 1); j < size; j++, k++) {
+            sum += state[j] * weights[k];
+        }
+        return sum + biases[i] > thresholds[i] ? uppers[i] : lowers[i];
+    }
+
+    /**
+     * Updates every neuron at once from the current state.
+     */
+    public void updateSynchronous() {
+        ParallelRange.run(parallel, size, size, new ParallelRange.Kernel() {
+            @Override
+            void run(final int lo, final int hi) {
+                for (int i = lo; i < hi; i++) {
+                    next[i] = clamped[i] ? state[i] : activation(i);
+                }
+            }
+        });
+        System.arraycopy(next, 0, state, 0, size);
+    }
+
+    /**
+     * Updates the neurons one at a time, each seeing the updates before it.
+     *
+     * @param order
+     *            the neurons to update, in order
+     */
+    public void updateSequential(final int[] order) {
+        for (int i : order) {
+            if (!clamped[i]) {
+                state[i] = activation(i);
+            }
+        }
+    }
+
+    /**
+     * Clips a weight to the bounds of the synapses.
+     *
+     * @param w
+     *            the weight
+     * @return the clipped weight
+     */
+    private double clip(final double w) {
+        if (w > ceil) {
+            return ceil;
+        } else if (w < floor) {
+            return floor;
+        }
+        return w;
+    }
+
+    /**
+     * @param parallel
+     *            whether to split work across threads
+     */
+    public void setParallel(final boolean parallel) {
+        this.parallel = parallel;
+    }
+
+}
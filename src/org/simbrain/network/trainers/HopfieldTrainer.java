@@ -60,22 +60,34 @@ public class HopfieldTrainer extends Trainer {
         float normConstant = 1 / (float) numRows;
 
         double[] vals = new double[numInputs * numInputs - numInputs];
-        for (int row = 0; row < numRows; row++) {
-            double[] pattern = hopfield.getTrainingSet().getInputData()[row];
-            Neuron[] neurons = hopfield.getSynapseGroup().getSourceNeurons()
-                .toArray(new Neuron[pattern.length]);
-            for (int i = 0; i < pattern.length; i++) {
-                for (int j = 0; j < pattern.length; j++) {
-                    if (i != j) {
-                        Synapse s = neurons[i].getFanOut().get(neurons[j]);
-                        s.setStrength(s.getStrength()
-                                + Hopfield.bipolar(pattern[i])
-                                * Hopfield.bipolar(pattern[j]));
+        HopfieldMatrix matrix = HopfieldMatrix.create(hopfield
+                .getSynapseGroup().getSourceNeurons());
+        if (matrix != null && matrix.fits(hopfield.getTrainingSet()
+                .getInputData())) {
+            matrix.setParallel(hopfield.isParallel());
+            matrix.train(hopfield.getTrainingSet().getInputData());
+            matrix.store();
+        } else {
+            for (int row = 0; row < numRows; row++) {
+                double[] pattern = hopfield.getTrainingSet()
+                    .getInputData()[row];
+                Neuron[] neurons = hopfield.getSynapseGroup()
+                    .getSourceNeurons().toArray(new Neuron[pattern.length]);
+                for (int i = 0; i < pattern.length; i++) {
+                    for (int j = 0; j < pattern.length; j++) {
+                        if (i != j) {
+                            Synapse s = neurons[i].getFanOut()
+                                .get(neurons[j]);
+                            s.setStrength(s.getStrength()
+                                    + Hopfield.bipolar(pattern[i])
+                                    * Hopfield.bipolar(pattern[j]));
+                        }
                     }
                 }
             }
         }
         vals = SimbrainMath.multVector(vals, normConstant);
+        hopfield.invalidateWeights();
 
         // Make sure excitatory/inhibitory are in proper lists
         revalidateSynapseGroups();
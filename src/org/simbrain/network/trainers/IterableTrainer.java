@@ -25,6 +25,13 @@ import org.simbrain.util.propertyeditor.ComboBoxWrapper;
  * Superclass for all types of trainer which can be iterated and which return an
  * error when they are iterated.
  *
+ * Trainers which have a {@link TrainingEngine} (see {@link #createEngine()})
+ * can train on copies of the network's weights in matrix mode. The weights are
+ * copied into the engine when it is first used and written back when
+ * {@link #iterate()} or a single pass returns, or when
+ * {@link #commitWeights()} is called. Matrix mode has no effect on other
+ * trainers.
+ *
  * @author jyoshimi
  */
 public abstract class IterableTrainer extends Trainer {
@@ -81,6 +88,27 @@ public abstract class IterableTrainer extends Trainer {
     /** Current stopping condition. */
     private StoppingCondition stoppingCondition = StoppingCondition.NONE;
 
+    /** Whether to train with the engine where possible. */
+    private boolean matrixMode;
+
+    /**
+     * Training engine, created when first needed. Null if not yet created or
+     * if the network is not supported.
+     */
+    private TrainingEngine engine;
+
+    /** True if the engine could not be created for this network. */
+    private boolean engineUnsupported;
+
+    /**
+     * True while the engine holds weights which have not been written back to
+     * the network.
+     */
+    private boolean engineLoaded;
+
+    /** True while inside {@link #iterate()} in matrix mode. */
+    private boolean iterating;
+
     /**
      * Construct the iterable trainer.
      *
@@ -115,11 +143,31 @@ public abstract class IterableTrainer extends Trainer {
 
     /**
      * Iterate the training algorithm and stop iteration based on the selected
-     * stopping condition.
+     * stopping condition. In matrix mode the weights are held in the engine
+     * for all the passes made by this call, and written back at the end.
      *
      * @throws DataNotInitializedException if input or target data not set
      */
     public void iterate() throws DataNotInitializedException {
+        if (!matrixMode || iterating) {
+            iterateUntilStopped();
+            return;
+        }
+        iterating = true;
+        try {
+            iterateUntilStopped();
+        } finally {
+            iterating = false;
+            commitWeights();
+        }
+    }
+
+    /**
+     * Applies the training algorithm until the stopping condition is met.
+     *
+     * @throws DataNotInitializedException if input or target data not set
+     */
+    private void iterateUntilStopped() throws DataNotInitializedException {
 
         if (getTrainableNetwork().getTrainingSet().getInputData() == null) {
             throw new DataNotInitializedException("Input data not initalized");
@@ -157,6 +205,86 @@ public abstract class IterableTrainer extends Trainer {
 
     }
 
+    /**
+     * Creates the engine used in matrix mode. Called when matrix mode training
+     * first needs an engine, and again after {@link #discardEngine()}.
+     *
+     * @return a new engine for the network being trained, or null if the
+     *         network cannot be trained by one
+     */
+    protected TrainingEngine createEngine() {
+        return null;
+    }
+
+    /**
+     * Returns the engine, creating it if needed, with the network's current
+     * weights loaded unless it already holds weights not yet written back.
+     *
+     * @return the engine, or null if the network cannot be trained by one
+     */
+    protected TrainingEngine loadEngine() {
+        if (engine == null && !engineUnsupported) {
+            engine = createEngine();
+            engineUnsupported = engine == null;
+        }
+        if (engine != null && !engineLoaded) {
+            engine.load();
+            engineLoaded = true;
+        }
+        return engine;
+    }
+
+    /**
+     * Ends a pass made with the engine: writes its weights back unless inside
+     * {@link #iterate()}, which does so once all its passes are done.
+     */
+    protected void endEnginePass() {
+        if (!iterating) {
+            commitWeights();
+        }
+    }
+
+    /**
+     * Writes weights and biases held by the engine back into the network's
+     * synapses and neurons. Does nothing if the engine holds no pending
+     * changes.
+     */
+    public void commitWeights() {
+        if (engineLoaded) {
+            engine.store();
+            engineLoaded = false;
+        }
+    }
+
+    /**
+     * Discards the engine and any weights it holds, so that it is rebuilt from
+     * the network the next time it is used. Call after changing the structure
+     * of the network between iterations.
+     */
+    public void discardEngine() {
+        engine = null;
+        engineUnsupported = false;
+        engineLoaded = false;
+    }
+
+    /**
+     * @return whether the engine is used where possible
+     */
+    public boolean isMatrixMode() {
+        return matrixMode;
+    }
+
+    /**
+     * @param matrixMode
+     *            whether to use the engine where possible
+     */
+    public void setMatrixMode(boolean matrixMode) {
+        if (!matrixMode) {
+            commitWeights();
+        }
+        this.matrixMode = matrixMode;
+    }
+
     /**
      * Notify listeners that the error value has been updated. Only makes sense
      * for iterable methods.
@@ -27,10 +27,6 @@ package org.simbrain.network.trainers;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 
-import org.ojalgo.access.Access2D.Builder;
-import org.ojalgo.matrix.BasicMatrix;
-import org.ojalgo.matrix.BasicMatrix.Factory;
-import org.ojalgo.matrix.PrimitiveMatrix;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.groups.Subnetwork;
 import org.simbrain.network.groups.SynapseGroup;
@@ -45,6 +41,12 @@ import Jama.Matrix;
 /**
  * Offline/Batch Learning with least mean squares.
  *
+ * The Wiener-Hopf solution accumulates the correlation matrices one row of
+ * data at a time (see {@link NormalEquations}). Given a {@link StateStream}
+ * the trainer takes its rows from the stream instead of the training set, so
+ * the state matrix is never held in memory; the stream's targets are used as
+ * they are and only the Wiener-Hopf solution is available.
+ *
  * @author ztosi
  * @author jyoshimi
  */
@@ -68,6 +70,9 @@ public class LMSOffline extends Trainer {
      */
     private Randomizer noiseGen = new Randomizer();
 
+    /** If not null, the source of training rows. */
+    private final StateStream stateStream;
+
     {
         // Distribution defaults to uniform
         noiseGen.setParam1(-0.001); // Floor
@@ -82,7 +87,21 @@ public class LMSOffline extends Trainer {
      *            the network to train
      */
     public LMSOffline(Trainable network) {
+        this(network, null);
+    }
+
+    /**
+     * Construct an LMSOffline object which takes its training rows from a
+     * stream rather than the trainable network's training set.
+     *
+     * @param network
+     *            the network to train
+     * @param stateStream
+     *            the source of training rows, or null to use the training set
+     */
+    public LMSOffline(Trainable network, StateStream stateStream) {
         super(network);
+        this.stateStream = stateStream;
     }
 
     /**
@@ -114,6 +133,14 @@ public class LMSOffline extends Trainer {
     @Override
     public void apply() throws DataNotInitializedException {
 
+        if (stateStream != null) {
+            fireTrainingBegin();
+            weinerHopfSolution(network);
+            fireTrainingEnd();
+            revalidateSynapseGroups();
+            return;
+        }
+
         if (getTrainableNetwork().getTrainingSet().getInputData() == null) {
             throw new DataNotInitializedException(
                 "Input data not initalized");
@@ -190,78 +217,39 @@ public class LMSOffline extends Trainer {
      */
     public void weinerHopfSolution(Trainable network) {
         long start = System.nanoTime();
-        double[][] inputMatrix = network.getTrainingSet().getInputData();
-        double[][] trainingMatrix = network.getTrainingSet()
-            .getTargetData();
         try {
-
-            Factory<?> mf = PrimitiveMatrix.FACTORY;
-
-            Builder<?> tmpBuilder = mf.getBuilder(inputMatrix.length,
-                inputMatrix[0].length);
-            for (int i = 0; i < tmpBuilder.countRows(); i++) {
-                for (int j = 0; j < tmpBuilder.countColumns(); j++) {
-                    tmpBuilder.set(i, j, inputMatrix[i][j]);
+            NormalEquations equations;
+            if (stateStream != null) {
+                equations = new NormalEquations(stateStream.getNumStates(),
+                    stateStream.getNumTargets());
+                if (noiseAdded) {
+                    equations.setNoise(noiseGen);
                 }
-            }
-
-            BasicMatrix stateMat = (BasicMatrix) tmpBuilder.build();
-
-            tmpBuilder = mf.getBuilder(trainingMatrix.length,
-                trainingMatrix[0].length);
-            for (int i = 0; i < tmpBuilder.countRows(); i++) {
-                for (int j = 0; j < tmpBuilder.countColumns(); j++) {
-                    tmpBuilder.set(i, j, trainingMatrix[i][j]);
-                    if (Double.isInfinite(trainingMatrix[i][j])
-                        || Double.isNaN(trainingMatrix[i][j])) {
-                        throw new NumberFormatException("Invalid target"
-                            + " values.");
-                    }
-                }
-            }
-
-            BasicMatrix teachMat = (BasicMatrix) tmpBuilder.build();
-
-            fireProgressUpdate("Correlating State Matrix (R = S'S)...", 0);
-            teachMat = stateMat.transpose().multiplyRight(teachMat);
-
-            fireProgressUpdate(
-                "Cross-Correlating States with Teacher data (P = S'D)...",
-                15);
-            stateMat = stateMat.transpose().multiplyRight(stateMat);
-
-            fireProgressUpdate("Computing Inverse Correlation Matrix...", 30);
-
-            if (ridgeRegression) {
-                tmpBuilder = mf.getBuilder((int) stateMat.countRows(),
-                    (int) stateMat.countColumns());
-                for (int i = 0, n = (int) stateMat.countColumns(); i < n; i++) {
-                    tmpBuilder.set(i, i, alpha * alpha);
+                fireProgressUpdate("Harvesting States (R = S'S, P = S'D)...",
+                    0);
+                stateStream.harvest(equations);
+            } else {
+                double[][] inputMatrix = network.getTrainingSet()
+                    .getInputData();
+                double[][] trainingMatrix = network.getTrainingSet()
+                    .getTargetData();
+                equations = new NormalEquations(inputMatrix[0].length,
+                    trainingMatrix[0].length);
+                fireProgressUpdate(
+                    "Correlating States (R = S'S, P = S'D)...", 0);
+                for (int i = 0; i < inputMatrix.length; i++) {
+                    equations.add(inputMatrix[i], trainingMatrix[i]);
                 }
-                BasicMatrix scaleMat = (BasicMatrix) tmpBuilder.build();
-                stateMat = stateMat.add(scaleMat);
             }
 
-            stateMat = stateMat.invert();
-
-            fireProgressUpdate("Computing Weights...", 80);
-            tmpBuilder =
-                stateMat.multiplyRight(teachMat).copyToBuilder();
-            BasicMatrix finalMat = (BasicMatrix) tmpBuilder.build();
-            double[][] wOut = new double[(int) tmpBuilder.countRows()]
-                [(int) tmpBuilder.countColumns()];
-            for (int i = 0, n = (int) tmpBuilder.countRows(); i < n; i++) {
-                for (int j = 0, m = (int) tmpBuilder.countColumns(); j < m; j++)
-                {
-                    wOut[i][j] = finalMat.doubleValue(i, j);
-                }
-            }
+            fireProgressUpdate("Computing Weights...", 50);
+            double[][] wOut = equations.solve(ridgeRegression ? alpha * alpha
+                : 0);
             fireProgressUpdate("Setting Weights...", 95);
             SimnetUtils.setWeights(network.getInputNeurons(),
                 network.getOutputNeurons(), wOut);
             fireProgressUpdate("Done!", 100);
 
-            // TODO: What error does JAMA actually throw for singular Matrices?
         } catch (RuntimeException e) {
             JOptionPane.showMessageDialog(new JFrame(), ""
                 + "State Correlation Matrix is Singular."
@@ -271,9 +259,6 @@ public class LMSOffline extends Trainer {
             fireProgressUpdate("Training Failed", 0);
         }
 
-        trainingMatrix = null;
-        inputMatrix = null;
-
         long end = System.nanoTime();
         System.out.println("Time: " + (end - start) / Math.pow(10, 9));
     }
@@ -0,0 +1,231 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.trainers;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronUpdateRule;
+import org.simbrain.network.core.NeuronUpdateRule.InputType;
+import org.simbrain.network.neuron_update_rules.LinearRule;
+import org.simbrain.network.neuron_update_rules.SigmoidalRule;
+import org.simbrain.network.neuron_update_rules.interfaces.BiasedUpdateRule;
+import org.simbrain.network.neuron_update_rules.interfaces.DifferentiableUpdateRule;
+import org.simbrain.util.math.SquashingFunction;
+
+/**
+ * The activation functions and biases of a layer of neurons, copied out of
+ * their update rules so that a matrix training engine can apply them to
+ * weighted inputs it has computed itself. Only unclamped neurons using
+ * {@link SigmoidalRule} or {@link LinearRule} without noise are supported.
+ * Neurons which share an update rule instance share its bias.
+ */
+final class LayerRules {
+
+    /** Activation function kinds. */
+    private static final int LINEAR = 0, SIGMOID = 1;
+
+    /** The neurons. */
+    private final Neuron[] neurons;
+
+    /** Activation function kind of each neuron. */
+    private final int[] kinds;
+
+    /** Slope of each neuron's activation function. */
+    private final double[] slopes;
+
+    /** Upper bound of each neuron's activation function or clipping. */
+    private final double[] ceils;
+
+    /** Lower bound of each neuron's activation function or clipping. */
+    private final double[] floors;
+
+    /** Whether each linear neuron clips its activation. */
+    private final boolean[] clipped;
+
+    /** Squashing function of each sigmoidal neuron. */
+    private final SquashingFunction[] squash;
+
+    /** Index into {@link #biases} of each neuron's update rule. */
+    private final int[] slots;
+
+    /** Bias of each distinct update rule. */
+    private double[] biases;
+
+    /**
+     * @param layer
+     *            the neurons
+     */
+    private LayerRules(final List<Neuron> layer) {
+        neurons = layer.toArray(new Neuron[layer.size()]);
+        int n = neurons.length;
+        kinds = new int[n];
+        slopes = new double[n];
+        ceils = new double[n];
+        floors = new double[n];
+        clipped = new boolean[n];
+        squash = new SquashingFunction[n];
+        slots = new int[n];
+        Map<NeuronUpdateRule, Integer> rules =
+                new IdentityHashMap<NeuronUpdateRule, Integer>();
+        for (int i = 0; i < n; i++) {
+            NeuronUpdateRule rule = neurons[i].getUpdateRule();
+            Integer slot = rules.get(rule);
+            if (slot == null) {
+                slot = rules.size();
+                rules.put(rule, slot);
+            }
+            slots[i] = slot;
+        }
+        biases = new double[rules.size()];
+    }
+
+    /**
+     * Copies the activation functions of a layer, or returns null if any of
+     * them is not supported.
+     *
+     * @param layer
+     *            the neurons
+     * @return the layer's rules, or null
+     */
+    static LayerRules create(final List<Neuron> layer) {
+        LayerRules lr = new LayerRules(layer);
+        for (int i = 0; i < lr.neurons.length; i++) {
+            NeuronUpdateRule rule = lr.neurons[i].getUpdateRule();
+            if (lr.neurons[i].isClamped()
+                    || rule.getInputType() != InputType.WEIGHTED) {
+                return null;
+            }
+            if (rule instanceof SigmoidalRule) {
+                SigmoidalRule sr = (SigmoidalRule) rule;
+                if (sr.getAddNoise()) {
+                    return null;
+                }
+                lr.kinds[i] = SIGMOID;
+                lr.squash[i] = sr.getSquashFunctionType();
+                lr.slopes[i] = sr.getSlope();
+                lr.ceils[i] = sr.getUpperBound();
+                lr.floors[i] = sr.getLowerBound();
+            } else if (rule instanceof LinearRule) {
+                LinearRule rl = (LinearRule) rule;
+                if (rl.getAddNoise()) {
+                    return null;
+                }
+                lr.kinds[i] = LINEAR;
+                lr.slopes[i] = rl.getSlope();
+                lr.ceils[i] = rl.getUpperBound();
+                lr.floors[i] = rl.getLowerBound();
+                lr.clipped[i] = rl.isClipped();
+            } else {
+                return null;
+            }
+        }
+        return lr;
+    }
+
+    /**
+     * @return the number of neurons
+     */
+    int size() {
+        return neurons.length;
+    }
+
+    /**
+     * @return the neurons
+     */
+    Neuron[] getNeurons() {
+        return neurons;
+    }
+
+    /**
+     * Adds a per-neuron bias gradient times a rate to the biases.
+     *
+     * @param gradient
+     *            gradient of each neuron's bias
+     * @param rate
+     *            the rate
+     */
+    void addToBiases(final double[] gradient, final double rate) {
+        for (int i = 0; i < neurons.length; i++) {
+            biases[slots[i]] += rate * gradient[i];
+        }
+    }
+
+    /**
+     * Copies the current biases from the neurons.
+     */
+    void loadBiases() {
+        for (int i = 0; i < neurons.length; i++) {
+            biases[slots[i]] = ((BiasedUpdateRule) neurons[i]
+                    .getUpdateRule()).getBias();
+        }
+    }
+
+    /**
+     * Writes the biases back into the neurons.
+     */
+    void storeBiases() {
+        for (int i = 0; i < neurons.length; i++) {
+            ((BiasedUpdateRule) neurons[i].getUpdateRule())
+                    .setBias(biases[slots[i]]);
+        }
+    }
+
+    /**
+     * The activation of a neuron given its weighted input, as computed by its
+     * update rule.
+     *
+     * @param i
+     *            neuron
+     * @param net
+     *            weighted input
+     * @return activation
+     */
+    double activation(final int i, final double net) {
+        double val;
+        if (kinds[i] == SIGMOID) {
+            val = squash[i].valueOf(net + biases[slots[i]], ceils[i], floors[i],
+                    slopes[i]);
+        } else {
+            val = slopes[i] * net + biases[slots[i]];
+            if (clipped[i]) {
+                val = Math.max(floors[i], Math.min(ceils[i], val));
+            }
+        }
+        return val;
+    }
+
+    /**
+     * The derivative of a neuron's activation function, as used by
+     * {@link BackpropTrainer}.
+     *
+     * @param i
+     *            neuron
+     * @param net
+     *            its weighted input
+     * @return the derivative
+     */
+    double derivative(final int i, final double net) {
+        return ((DifferentiableUpdateRule) neurons[i].getUpdateRule())
+                .getDerivative(net);
+    }
+
+}
@@ -0,0 +1,388 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.trainers;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.neuron_update_rules.LinearRule;
+import org.simbrain.network.neuron_update_rules.SigmoidalRule;
+
+/**
+ * Dense matrix implementation of backpropagation for strictly layered
+ * feed-forward networks, used by {@link BackpropTrainer} in matrix mode. The
+ * weights between each pair of layers are copied once into a row-major
+ * matrix, and forward and backward passes are run over a mini-batch of
+ * training rows at a time as matrix-matrix products. Work on a batch can be
+ * split across a shared fork/join pool. Synapses and biases are only written
+ * back when {@link #store()} is called.
+ *
+ * Only networks whose non-input neurons are unclamped and use
+ * {@link SigmoidalRule} or {@link LinearRule} without noise, and whose
+ * synapses are enabled, undelayed, come from non-polarized neurons in the
+ * previous layer and share their bounds within each layer, are supported; see
+ * {@link #create(List)}.
+ */
+final class MatrixBackprop implements TrainingEngine {
+
+    /** Number of neurons in each layer. */
+    private final int[] sizes;
+
+    /** Activation functions and biases of each layer. Layer 0 has none. */
+    private final LayerRules[] rules;
+
+    /** Weights into each layer from the previous one. Layer 0 has none. */
+    private final WeightMatrix[] weights;
+
+    /** Bias gradients of each layer, summed over a batch. */
+    private final double[][] biasGradients;
+
+    /** Whether to split batches across the pool. */
+    private boolean parallel;
+
+    /** Number of rows the buffers below are sized for. */
+    private int capacity;
+
+    /** Activations, per layer, [row * n + i]. */
+    private double[][] acts;
+
+    /** Weighted inputs (without bias), per layer, [row * n + i]. */
+    private double[][] nets;
+
+    /** Error signals, per layer, [row * n + i]. */
+    private double[][] deltas;
+
+    /** Sum of squared output errors of each row of a batch. */
+    private double[] rowErrors;
+
+    /**
+     * Creates an engine for the given number of layers.
+     *
+     * @param numLayers
+     *            the number of layers
+     */
+    private MatrixBackprop(final int numLayers) {
+        sizes = new int[numLayers];
+        rules = new LayerRules[numLayers];
+        weights = new WeightMatrix[numLayers];
+        biasGradients = new double[numLayers][];
+    }
+
+    /**
+     * Creates an engine for the given layers, or returns null if the network
+     * they form cannot be trained with matrices.
+     *
+     * @param layers
+     *            the layers, input first
+     * @return the engine, or null
+     */
+    static MatrixBackprop create(final List<List<Neuron>> layers) {
+        if (layers.size() < 2) {
+            return null;
+        }
+        MatrixBackprop mb = new MatrixBackprop(layers.size());
+        mb.sizes[0] = layers.get(0).size();
+        for (int l = 1; l < layers.size(); l++) {
+            LayerRules lr = LayerRules.create(layers.get(l));
+            if (lr == null) {
+                return null;
+            }
+            WeightMatrix wm = WeightMatrix.create(layers.get(l - 1),
+                    lr.getNeurons());
+            if (wm == null || wm.getNumSynapses() != fanInSize(lr)) {
+                return null;
+            }
+            mb.sizes[l] = lr.size();
+            mb.rules[l] = lr;
+            mb.weights[l] = wm;
+            mb.biasGradients[l] = new double[lr.size()];
+        }
+        return mb;
+    }
+
+    /**
+     * The total number of synapses into a layer.
+     *
+     * @param lr
+     *            the layer
+     * @return the size of its fan-in
+     */
+    static int fanInSize(final LayerRules lr) {
+        int n = 0;
+        for (Neuron neuron : lr.getNeurons()) {
+            n += neuron.getFanIn().size();
+        }
+        return n;
+    }
+
+    @Override
+    public void load() {
+        for (int l = 1; l < sizes.length; l++) {
+            weights[l].load();
+            rules[l].loadBiases();
+        }
+    }
+
+    @Override
+    public void store() {
+        for (int l = 1; l < sizes.length; l++) {
+            weights[l].store();
+            rules[l].storeBiases();
+        }
+    }
+
+    /**
+     * Sets all weight changes remembered for momentum to zero.
+     */
+    void clearMomentum() {
+        for (int l = 1; l < sizes.length; l++) {
+            weights[l].clearMomentum();
+        }
+    }
+
+    /**
+     * @param parallel
+     *            whether to split batches across threads
+     */
+    void setParallel(final boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Runs one pass through the training data in mini-batches, updating the
+     * weights after each batch by the mean gradient over the batch plus
+     * momentum. With a batch size of one this is the same as the online
+     * algorithm of {@link BackpropTrainer}.
+     *
+     * @param inputs
+     *            input data, one row per example
+     * @param targets
+     *            target data, one row per example
+     * @param numRows
+     *            number of rows to train on
+     * @param batchSize
+     *            number of rows per batch
+     * @param learningRate
+     *            learning rate
+     * @param momentum
+     *            momentum
+     * @return sum of squared output errors over all rows
+     */
+    double train(final double[][] inputs, final double[][] targets,
+            final int numRows, final int batchSize, final double learningRate,
+            final double momentum) {
+        int batch = Math.max(1, Math.min(batchSize, numRows));
+        ensureCapacity(batch);
+        double sse = 0;
+        for (int start = 0; start < numRows; start += batch) {
+            int rows = Math.min(batch, numRows - start);
+            int numIn = sizes[0];
+            for (int r = 0; r < rows; r++) {
+                System.arraycopy(inputs[start + r], 0, acts[0], r * numIn,
+                        numIn);
+            }
+            for (int l = 1; l < sizes.length; l++) {
+                forward(l, rows);
+            }
+            sse += outputDeltas(targets, start, rows);
+            for (int l = sizes.length - 2; l > 0; l--) {
+                hiddenDeltas(l, rows);
+            }
+            for (int l = 1; l < sizes.length; l++) {
+                gradients(l, rows);
+                update(l, rows, learningRate, momentum);
+            }
+        }
+        return sse;
+    }
+
+    /**
+     * Grows the batch buffers.
+     *
+     * @param rows
+     *            number of rows in a batch
+     */
+    private void ensureCapacity(final int rows) {
+        if (capacity >= rows) {
+            return;
+        }
+        capacity = rows;
+        acts = new double[sizes.length][];
+        nets = new double[sizes.length][];
+        deltas = new double[sizes.length][];
+        for (int l = 0; l < sizes.length; l++) {
+            acts[l] = new double[rows * sizes[l]];
+            nets[l] = new double[rows * sizes[l]];
+            deltas[l] = new double[rows * sizes[l]];
+        }
+        rowErrors = new double[rows];
+    }
+
+    /**
+     * Forward pass for one layer: nets = W acts[l - 1], then the activation
+     * function.
+     *
+     * @param l
+     *            the layer
+     * @param rows
+     *            rows in the batch
+     */
+    private void forward(final int l, final int rows) {
+        final int n = sizes[l];
+        final WeightMatrix w = weights[l];
+        final LayerRules lr = rules[l];
+        final double[] in = acts[l - 1];
+        final double[] z = nets[l];
+        final double[] out = acts[l];
+        ParallelRange.run(parallel, rows, (long) n * sizes[l - 1],
+                new ParallelRange.Kernel() {
+                    @Override
+                    void run(final int lo, final int hi) {
+                        Arrays.fill(z, lo * n, hi * n, 0);
+                        w.multiply(in, z, lo, hi);
+                        for (int k = lo * n; k < hi * n; k++) {
+                            out[k] = lr.activation(k % n, z[k]);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Error signals of the output layer.
+     *
+     * @param targets
+     *            target data
+     * @param start
+     *            first row of the batch
+     * @param rows
+     *            rows in the batch
+     * @return sum of squared errors over the batch
+     */
+    private double outputDeltas(final double[][] targets, final int start,
+            final int rows) {
+        final int l = sizes.length - 1;
+        final int n = sizes[l];
+        final LayerRules lr = rules[l];
+        final double[] out = acts[l];
+        final double[] z = nets[l];
+        final double[] d = deltas[l];
+        ParallelRange.run(parallel, rows, n, new ParallelRange.Kernel() {
+            @Override
+            void run(final int lo, final int hi) {
+                for (int r = lo; r < hi; r++) {
+                    double[] target = targets[start + r];
+                    double sse = 0;
+                    for (int i = 0; i < n; i++) {
+                        int k = r * n + i;
+                        double error = target[i] - out[k];
+                        sse += error * error;
+                        d[k] = error * lr.derivative(i, z[k]);
+                    }
+                    rowErrors[r] = sse;
+                }
+            }
+        });
+        double sse = 0;
+        for (int r = 0; r < rows; r++) {
+            sse += rowErrors[r];
+        }
+        return sse;
+    }
+
+    /**
+     * Error signals of a hidden layer: W[l + 1]^T deltas[l + 1], times the
+     * derivative of each neuron's activation function.
+     *
+     * @param l
+     *            the layer
+     * @param rows
+     *            rows in the batch
+     */
+    private void hiddenDeltas(final int l, final int rows) {
+        final int m = sizes[l];
+        final WeightMatrix w = weights[l + 1];
+        final LayerRules lr = rules[l];
+        final double[] next = deltas[l + 1];
+        final double[] z = nets[l];
+        final double[] d = deltas[l];
+        ParallelRange.run(parallel, rows, (long) sizes[l + 1] * m,
+                new ParallelRange.Kernel() {
+                    @Override
+                    void run(final int lo, final int hi) {
+                        Arrays.fill(d, lo * m, hi * m, 0);
+                        w.multiplyTransposed(next, d, lo, hi);
+                        for (int k = lo * m; k < hi * m; k++) {
+                            d[k] *= lr.derivative(k % m, z[k]);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Gradients of a layer summed over the batch.
+     *
+     * @param l
+     *            the layer
+     * @param rows
+     *            rows in the batch
+     */
+    private void gradients(final int l, final int rows) {
+        final int n = sizes[l];
+        final WeightMatrix w = weights[l];
+        final double[] d = deltas[l];
+        final double[] in = acts[l - 1];
+        w.clearGradient();
+        ParallelRange.run(parallel, n, (long) rows * sizes[l - 1],
+                new ParallelRange.Kernel() {
+                    @Override
+                    void run(final int lo, final int hi) {
+                        w.accumulate(d, in, rows, lo, hi);
+                    }
+                });
+        double[] bg = biasGradients[l];
+        Arrays.fill(bg, 0);
+        for (int r = 0; r < rows; r++) {
+            for (int i = 0; i < n; i++) {
+                bg[i] += d[r * n + i];
+            }
+        }
+    }
+
+    /**
+     * Applies the mean gradient of a batch to a layer, with momentum on the
+     * weights.
+     *
+     * @param l
+     *            the layer
+     * @param rows
+     *            rows in the batch
+     * @param learningRate
+     *            learning rate
+     * @param momentum
+     *            momentum
+     */
+    private void update(final int l, final int rows,
+            final double learningRate, final double momentum) {
+        double rate = learningRate / rows;
+        weights[l].update(rate, momentum);
+        rules[l].addToBiases(biasGradients[l], rate);
+    }
+
+}
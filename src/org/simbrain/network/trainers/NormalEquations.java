@@ -0,0 +1,320 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.trainers;
+
+import org.simbrain.util.randomizer.Randomizer;
+
+import Jama.CholeskyDecomposition;
+import Jama.Matrix;
+
+/**
+ * Accumulates the normal equations of a least squares problem, the state
+ * correlation matrix R = S'S and the cross-correlation matrix P = S'D, one
+ * sample (row of S and D) at a time, so that the state matrix S never has to
+ * be held in memory. Memory use is proportional to the square of the number
+ * of states, regardless of the number of samples.
+ *
+ * Samples are buffered into blocks which are added to R and P as rank-k
+ * updates, stored so that every product is a dot product of contiguous
+ * arrays. Only the upper triangle of R is accumulated. The work of a block
+ * can be split across threads.
+ */
+public final class NormalEquations {
+
+    /** Default number of samples per block. */
+    public static final int DEFAULT_BLOCK_SIZE = 256;
+
+    /** Number of states (columns of S). */
+    private final int numStates;
+
+    /** Number of targets (columns of D). */
+    private final int numTargets;
+
+    /** Number of samples per block. */
+    private final int blockSize;
+
+    /** Upper triangle of R, row-major. */
+    private final double[] correlation;
+
+    /** P, row-major, one row per state. */
+    private final double[] crossCorrelation;
+
+    /** Buffered states, one column per sample: [state * blockSize + sample]. */
+    private final double[] stateBlock;
+
+    /** Buffered targets, one column per sample. */
+    private final double[] targetBlock;
+
+    /** Number of samples in the current block. */
+    private int count;
+
+    /** Number of samples added so far. */
+    private long numSamples;
+
+    /** Whether to split blocks across threads. */
+    private boolean parallel;
+
+    /** If not null, noise added to every state. */
+    private Randomizer noise;
+
+    /**
+     * Creates empty normal equations with the default block size.
+     *
+     * @param numStates
+     *            number of states per sample
+     * @param numTargets
+     *            number of targets per sample
+     */
+    public NormalEquations(final int numStates, final int numTargets) {
+        this(numStates, numTargets, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates empty normal equations.
+     *
+     * @param numStates
+     *            number of states per sample
+     * @param numTargets
+     *            number of targets per sample
+     * @param blockSize
+     *            number of samples buffered per rank-k update
+     */
+    public NormalEquations(final int numStates, final int numTargets,
+            final int blockSize) {
+        if (numStates <= 0 || numTargets <= 0 || blockSize <= 0) {
+            throw new IllegalArgumentException("Sizes must be positive");
+        }
+        this.numStates = numStates;
+        this.numTargets = numTargets;
+        this.blockSize = blockSize;
+        correlation = new double[numStates * numStates];
+        crossCorrelation = new double[numStates * numTargets];
+        stateBlock = new double[numStates * blockSize];
+        targetBlock = new double[numTargets * blockSize];
+    }
+
+    /**
+     * Adds a sample.
+     *
+     * @param state
+     *            the states, a row of S
+     * @param target
+     *            the targets, a row of D
+     */
+    public void add(final double[] state, final double[] target) {
+        double check = sum(target);
+        if (Double.isNaN(check) || Double.isInfinite(check)) {
+            throw new NumberFormatException("Invalid target values.");
+        }
+        for (int i = 0; i < numStates; i++) {
+            double s = state[i];
+            if (noise != null) {
+                s += noise.getRandom();
+            }
+            stateBlock[i * blockSize + count] = s;
+        }
+        for (int o = 0; o < numTargets; o++) {
+            targetBlock[o * blockSize + count] = target[o];
+        }
+        numSamples++;
+        if (++count == blockSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Sum of the first numTargets entries of an array, used to reject
+     * non-finite targets.
+     *
+     * @param target
+     *            the targets
+     * @return their sum
+     */
+    private double sum(final double[] target) {
+        double s = 0;
+        for (int o = 0; o < numTargets; o++) {
+            s += target[o];
+        }
+        return s;
+    }
+
+    /**
+     * Adds the buffered samples to R and P.
+     */
+    public void flush() {
+        if (count == 0) {
+            return;
+        }
+        final int k = count;
+        ParallelRange.run(parallel, numStates, (long) (numStates + numTargets)
+                * k, new ParallelRange.Kernel() {
+            @Override
+            void run(final int lo, final int hi) {
+                for (int i = lo; i < hi; i++) {
+                    int a = i * blockSize;
+                    for (int j = i; j < numStates; j++) {
+                        correlation[i * numStates + j] += dot(stateBlock, a,
+                                stateBlock, j * blockSize, k);
+                    }
+                    for (int o = 0; o < numTargets; o++) {
+                        crossCorrelation[i * numTargets + o] += dot(
+                                stateBlock, a, targetBlock, o * blockSize, k);
+                    }
+                }
+            }
+        });
+        count = 0;
+    }
+
+    /**
+     * Dot product of two runs of values.
+     *
+     * @param x
+     *            first array
+     * @param xOff
+     *            start of first run
+     * @param y
+     *            second array
+     * @param yOff
+     *            start of second run
+     * @param n
+     *            length of the runs
+     * @return the dot product
+     */
+    private static double dot(final double[] x, final int xOff,
+            final double[] y, final int yOff, final int n) {
+        double sum = 0;
+        for (int r = 0; r < n; r++) {
+            sum += x[xOff + r] * y[yOff + r];
+        }
+        return sum;
+    }
+
+    /**
+     * Solves (R + ridge I) W = P for the weights W, using a Cholesky
+     * decomposition, or an LU decomposition if R is not positive definite.
+     *
+     * @param ridge
+     *            amount added to the diagonal of R
+     * @return W, one row per state and one column per target
+     * @throws RuntimeException
+     *             if the matrix is singular
+     */
+    public double[][] solve(final double ridge) {
+        flush();
+        Matrix r = new Matrix(numStates, numStates);
+        for (int i = 0; i < numStates; i++) {
+            for (int j = i; j < numStates; j++) {
+                double v = correlation[i * numStates + j];
+                r.set(i, j, v);
+                r.set(j, i, v);
+            }
+            r.set(i, i, r.get(i, i) + ridge);
+        }
+        Matrix p = new Matrix(numStates, numTargets);
+        for (int i = 0; i < numStates; i++) {
+            for (int o = 0; o < numTargets; o++) {
+                p.set(i, o, crossCorrelation[i * numTargets + o]);
+            }
+        }
+        CholeskyDecomposition chol = r.chol();
+        if (chol.isSPD()) {
+            return choleskySolve(chol.getL().getArray(), p.getArray());
+        }
+        return r.solve(p).getArray();
+    }
+
+    /**
+     * Solves L L' W = P by forward and back substitution. The solve method of
+     * the Jama Cholesky decomposition is not used as it is broken in the
+     * version of Jama we ship.
+     *
+     * @param l
+     *            the lower triangular Cholesky factor
+     * @param p
+     *            the right hand side, overwritten with W
+     * @return W
+     */
+    private static double[][] choleskySolve(final double[][] l,
+            final double[][] p) {
+        int n = l.length;
+        int m = p[0].length;
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < i; k++) {
+                double lik = l[i][k];
+                for (int o = 0; o < m; o++) {
+                    p[i][o] -= lik * p[k][o];
+                }
+            }
+            for (int o = 0; o < m; o++) {
+                p[i][o] /= l[i][i];
+            }
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            for (int k = i + 1; k < n; k++) {
+                double lki = l[k][i];
+                for (int o = 0; o < m; o++) {
+                    p[i][o] -= lki * p[k][o];
+                }
+            }
+            for (int o = 0; o < m; o++) {
+                p[i][o] /= l[i][i];
+            }
+        }
+        return p;
+    }
+
+    /**
+     * @return the number of samples added so far
+     */
+    public long getNumSamples() {
+        return numSamples;
+    }
+
+    /**
+     * @return the number of states per sample
+     */
+    public int getNumStates() {
+        return numStates;
+    }
+
+    /**
+     * @return the number of targets per sample
+     */
+    public int getNumTargets() {
+        return numTargets;
+    }
+
+    /**
+     * @param parallel
+     *            whether to split the work of each block across threads
+     */
+    public void setParallel(final boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * @param noise
+     *            noise added to every state as it is added, or null for none
+     */
+    public void setNoise(final Randomizer noise) {
+        this.noise = noise;
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.trainers;
+
+import java.util.concurrent.RecursiveAction;
+
+import org.simbrain.network.update_actions.concurrency_tools.SharedForkJoinPool;
+
+/**
+ * Runs work on a range of items, splitting it across a shared fork/join pool
+ * when there is enough of it. Used by the matrix training engines to split a
+ * batch of training rows (or the rows of a weight matrix) across threads.
+ */
+final class ParallelRange {
+
+    /** Below this many multiply-adds work runs on the calling thread. */
+    private static final long MIN_PARALLEL_WORK = 1 << 16;
+
+    /**
+     * Work on a range of items.
+     */
+    abstract static class Kernel {
+
+        /**
+         * @param lo
+         *            first item (inclusive)
+         * @param hi
+         *            last item (exclusive)
+         */
+        abstract void run(int lo, int hi);
+    }
+
+    /**
+     * Not instantiated.
+     */
+    private ParallelRange() {
+    }
+
+    /**
+     * Runs a kernel over [0, n), split across the pool if parallel and the
+     * work is large enough.
+     *
+     * @param parallel
+     *            whether the work may be split across threads
+     * @param n
+     *            number of items
+     * @param costPerItem
+     *            multiply-adds per item
+     * @param kernel
+     *            the kernel
+     */
+    static void run(final boolean parallel, final int n,
+            final long costPerItem, final Kernel kernel) {
+        if (!parallel || n < 2 || n * costPerItem < MIN_PARALLEL_WORK) {
+            kernel.run(0, n);
+            return;
+        }
+        int grain = Math.max(1, Math.max(
+                n / (SharedForkJoinPool.getParallelism() * 4),
+                (int) (MIN_PARALLEL_WORK / Math.max(1, costPerItem))));
+        SharedForkJoinPool.invoke(new RangeTask(kernel, 0, n, grain));
+    }
+
+    /**
+     * Splits a kernel's range in halves down to the grain size.
+     */
+    private static final class RangeTask extends RecursiveAction {
+
+        /** Generated serial id. */
+        private static final long serialVersionUID = 1L;
+
+        /** The kernel. */
+        private final Kernel kernel;
+
+        /** Start of range (inclusive). */
+        private final int lo;
+
+        /** End of range (exclusive). */
+        private final int hi;
+
+        /** Largest range run without splitting. */
+        private final int grain;
+
+        /**
+         * @param kernel
+         *            the kernel
+         * @param lo
+         *            start of range (inclusive)
+         * @param hi
+         *            end of range (exclusive)
+         * @param grain
+         *            largest range run without splitting
+         */
+        RangeTask(final Kernel kernel, final int lo, final int hi,
+                final int grain) {
+            this.kernel = kernel;
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= grain) {
+                kernel.run(lo, hi);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new RangeTask(kernel, lo, mid, grain), new RangeTask(
+                    kernel, mid, hi, grain));
+        }
+    }
+
+}
@@ -0,0 +1,654 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.trainers;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.Synapse;
+
+/**
+ * The prototype (incoming weight) vectors of the units of a self-organizing
+ * map or competitive group, copied into a dense row-major matrix with one row
+ * per unit and one column per input neuron, together with the positions of the
+ * units. Used by {@link org.simbrain.network.subnetworks.SOMGroup} and
+ * {@link org.simbrain.network.subnetworks.CompetitiveGroup} to search for
+ * winners and update prototypes without walking synapse objects.
+ *
+ * Every unit must have one synapse from each of the same input neurons. The
+ * synapses must be enabled, undelayed and unfrozen, come from non-polarized
+ * neurons, and share their bounds; weights are clipped to those bounds as
+ * {@link Synapse#setStrength(double)} would. Changes are only seen by the
+ * synapses when they are stored.
+ *
+ * Neighborhoods are found from a table of the units within some distance of
+ * each unit, built when first needed and kept as long as the neighborhood
+ * does not grow past it. When that table would be too big the positions are
+ * scanned instead.
+ */
+public final class PrototypeMatrix {
+
+    /** Number of data rows whose distances are found in one pass. */
+    private static final int ROW_BLOCK = 32;
+
+    /** Largest number of entries in the neighbor table. */
+    private static final long MAX_TABLE_ENTRIES = 1 << 22;
+
+    /** The units, one per row. */
+    private final Neuron[] units;
+
+    /** The input neurons, one per column. */
+    private final Neuron[] sources;
+
+    /** Number of units (rows). */
+    private final int rows;
+
+    /** Number of inputs (columns). */
+    private final int cols;
+
+    /** Synapse for each weight. */
+    private final Synapse[] synapses;
+
+    /** The weights. */
+    private final double[] weights;
+
+    /** The current input vector. */
+    private final double[] input;
+
+    /** Squared distance from the input to each prototype. */
+    private final double[] distances;
+
+    /** Lower bound of the weights. */
+    private double floor;
+
+    /** Upper bound of the weights. */
+    private double ceil;
+
+    /** Horizontal positions of the units. */
+    private final double[] xs;
+
+    /** Vertical positions of the units. */
+    private final double[] ys;
+
+    /**
+     * Start of each unit's neighbors in the table: unit i's neighbors are
+     * [tableStart[i], tableStart[i + 1]). Null if there is no table.
+     */
+    private int[] tableStart;
+
+    /** Neighbors of each unit. */
+    private int[] tableUnits;
+
+    /** Distance to each neighbor. */
+    private double[] tableDistances;
+
+    /** Distance within which the table holds every neighbor. */
+    private double tableRadius = -1;
+
+    /** Smallest radius for which the table was too big, or infinity. */
+    private double tooBigRadius = Double.POSITIVE_INFINITY;
+
+    /** Activation functions of the units, created when first needed. */
+    private LayerRules rules;
+
+    /** True if the units' activations cannot be computed from the matrix. */
+    private boolean rulesUnsupported;
+
+    /** Whether to split work across threads. */
+    private boolean parallel;
+
+    /**
+     * @param units
+     *            the units
+     * @param sources
+     *            the input neurons
+     */
+    private PrototypeMatrix(final Neuron[] units, final Neuron[] sources) {
+        this.units = units;
+        this.sources = sources;
+        rows = units.length;
+        cols = sources.length;
+        synapses = new Synapse[rows * cols];
+        weights = new double[rows * cols];
+        input = new double[cols];
+        distances = new double[rows];
+        xs = new double[rows];
+        ys = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            xs[i] = units[i].getX();
+            ys[i] = units[i].getY();
+        }
+    }
+
+    /**
+     * Collects the prototypes of a list of units, or returns null if they are
+     * not supported (see above).
+     *
+     * @param unitList
+     *            the units
+     * @return the matrix, or null
+     */
+    public static PrototypeMatrix create(final List<Neuron> unitList) {
+        if (unitList.isEmpty()) {
+            return null;
+        }
+        List<Synapse> first = unitList.get(0).getFanIn();
+        int cols = first.size();
+        if (cols == 0) {
+            return null;
+        }
+        Neuron[] sources = new Neuron[cols];
+        Map<Neuron, Integer> index = new IdentityHashMap<Neuron, Integer>();
+        for (int j = 0; j < cols; j++) {
+            sources[j] = first.get(j).getSource();
+            if (index.put(sources[j], j) != null) {
+                return null;
+            }
+        }
+        PrototypeMatrix pm = new PrototypeMatrix(
+                unitList.toArray(new Neuron[unitList.size()]), sources);
+        pm.floor = first.get(0).getLowerBound();
+        pm.ceil = first.get(0).getUpperBound();
+        for (int i = 0; i < pm.rows; i++) {
+            List<Synapse> fanIn = pm.units[i].getFanIn();
+            if (fanIn.size() != cols) {
+                return null;
+            }
+            for (Synapse s : fanIn) {
+                Integer j = index.get(s.getSource());
+                if (j == null || pm.synapses[i * cols + j] != null
+                        || !s.isEnabled() || s.getDelay() != 0
+                        || s.isFrozen() || s.getSource().isPolarized()
+                        || s.getLowerBound() != pm.floor
+                        || s.getUpperBound() != pm.ceil) {
+                    return null;
+                }
+                pm.synapses[i * cols + j] = s;
+            }
+        }
+        return pm;
+    }
+
+    /**
+     * Whether this matrix still matches a list of units: the same units, in
+     * the same places, with fan-ins of the same size. Other changes (e.g. to
+     * synapse bounds) are not detected.
+     *
+     * @param unitList
+     *            the units
+     * @return true if the matrix can still be used for the units
+     */
+    public boolean isCurrent(final List<Neuron> unitList) {
+        if (unitList.size() != rows) {
+            return false;
+        }
+        for (int i = 0; i < rows; i++) {
+            Neuron n = unitList.get(i);
+            if (n != units[i] || n.getFanIn().size() != cols
+                    || n.getX() != xs[i] || n.getY() != ys[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of units
+     */
+    public int getNumUnits() {
+        return rows;
+    }
+
+    /**
+     * @return the number of inputs
+     */
+    public int getNumInputs() {
+        return cols;
+    }
+
+    /**
+     * Finds where each input neuron is in a list of neurons, so that rows of
+     * data laid out like the list can be used as inputs.
+     *
+     * @param neurons
+     *            the neurons
+     * @return the index of each input neuron in the list, or null if some
+     *         input neuron is not in the list
+     */
+    public int[] columnsOf(final List<Neuron> neurons) {
+        Map<Neuron, Integer> index = new IdentityHashMap<Neuron, Integer>();
+        for (int i = 0; i < neurons.size(); i++) {
+            index.put(neurons.get(i), i);
+        }
+        int[] columns = new int[cols];
+        for (int j = 0; j < cols; j++) {
+            Integer i = index.get(sources[j]);
+            if (i == null) {
+                return null;
+            }
+            columns[j] = i;
+        }
+        return columns;
+    }
+
+    /**
+     * Copies the current strengths from the synapses.
+     */
+    public void load() {
+        for (int k = 0; k < synapses.length; k++) {
+            weights[k] = synapses[k].getStrength();
+        }
+    }
+
+    /**
+     * Writes all the weights back into the synapses.
+     */
+    public void store() {
+        for (int k = 0; k < synapses.length; k++) {
+            synapses[k].setStrength(weights[k]);
+        }
+    }
+
+    /**
+     * Writes one unit's weights back into its synapses.
+     *
+     * @param unit
+     *            the unit
+     */
+    public void store(final int unit) {
+        for (int k = unit * cols, end = k + cols; k < end; k++) {
+            synapses[k].setStrength(weights[k]);
+        }
+    }
+
+    /**
+     * Copies the current activations of the input neurons into the input
+     * vector.
+     *
+     * @return the sum of the inputs
+     */
+    public double loadInput() {
+        double sum = 0;
+        for (int j = 0; j < cols; j++) {
+            input[j] = sources[j].getActivation();
+            sum += input[j];
+        }
+        return sum;
+    }
+
+    /**
+     * Finds the unit whose prototype is closest (in Euclidean distance) to the
+     * input vector. Ties go to the first unit.
+     *
+     * @return the winning unit, or -1 if no distance is less than infinity
+     */
+    public int nearest() {
+        ParallelRange.run(parallel, rows, cols, new ParallelRange.Kernel() {
+            @Override
+            void run(final int lo, final int hi) {
+                for (int i = lo; i < hi; i++) {
+                    double sum = 0;
+                    for (int j = 0, k = i * cols; j < cols; j++, k++) {
+                        double d = weights[k] - input[j];
+                        sum += d * d;
+                    }
+                    distances[i] = sum;
+                }
+            }
+        });
+        int winner = -1;
+        double winDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < rows; i++) {
+            if (distances[i] < winDistance) {
+                winDistance = distances[i];
+                winner = i;
+            }
+        }
+        return winner;
+    }
+
+    /**
+     * Finds the unit whose prototype is closest to each row of a data set.
+     * The data is taken a block of rows at a time, so that each prototype is
+     * read once per block rather than once per row.
+     *
+     * @param data
+     *            the data, one input vector per row
+     * @param columns
+     *            the index in a data row of each input (see
+     *            {@link #columnsOf(List)})
+     * @return the winning unit for each row, or -1 where there is none
+     */
+    public int[] nearest(final double[][] data, final int[] columns) {
+        final int[] winners = new int[data.length];
+        int numBlocks = (data.length + ROW_BLOCK - 1) / ROW_BLOCK;
+        ParallelRange.run(parallel, numBlocks, (long) ROW_BLOCK * rows * cols,
+                new ParallelRange.Kernel() {
+                    @Override
+                    void run(final int lo, final int hi) {
+                        double[] block = new double[ROW_BLOCK * cols];
+                        double[] best = new double[ROW_BLOCK];
+                        for (int b = lo; b < hi; b++) {
+                            int first = b * ROW_BLOCK;
+                            int n = Math.min(ROW_BLOCK, data.length - first);
+                            for (int r = 0; r < n; r++) {
+                                double[] row = data[first + r];
+                                for (int j = 0; j < cols; j++) {
+                                    block[r * cols + j] = row[columns[j]];
+                                }
+                                best[r] = Double.POSITIVE_INFINITY;
+                                winners[first + r] = -1;
+                            }
+                            for (int i = 0; i < rows; i++) {
+                                int base = i * cols;
+                                for (int r = 0; r < n; r++) {
+                                    double sum = 0;
+                                    for (int j = 0, k = r * cols; j < cols;
+                                            j++, k++) {
+                                        double d = weights[base + j]
+                                                - block[k];
+                                        sum += d * d;
+                                    }
+                                    if (sum < best[r]) {
+                                        best[r] = sum;
+                                        winners[first + r] = i;
+                                    }
+                                }
+                            }
+                        }
+                    }
+                });
+        return winners;
+    }
+
+    /**
+     * Computes the activation of each unit from the input vector, as its
+     * update rule would (see {@link LayerRules}).
+     *
+     * @param activations
+     *            filled with the activation of each unit
+     * @return false if the units' update rules are not supported, in which
+     *         case nothing is computed
+     */
+    public boolean activations(final double[] activations) {
+        if (rules == null && !rulesUnsupported) {
+            rules = LayerRules.create(Arrays.asList(units));
+            rulesUnsupported = rules == null;
+        }
+        if (rules == null) {
+            return false;
+        }
+        rules.loadBiases();
+        ParallelRange.run(parallel, rows, cols, new ParallelRange.Kernel() {
+            @Override
+            void run(final int lo, final int hi) {
+                for (int i = lo; i < hi; i++) {
+                    double sum = units[i].getInputValue();
+                    for (int j = 0, k = i * cols; j < cols; j++, k++) {
+                        sum += weights[k] * input[j];
+                    }
+                    activations[i] = rules.activation(i, sum);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Moves the prototypes of a range of units toward the input vector:
+     * w += rate * (input / divisor - w).
+     *
+     * @param lo
+     *            first unit (inclusive)
+     * @param hi
+     *            last unit (exclusive)
+     * @param rate
+     *            the learning rate
+     * @param divisor
+     *            the input is divided by this, e.g. to normalize it
+     */
+    public void moveToward(final int lo, final int hi, final double rate,
+            final double divisor) {
+        ParallelRange.run(parallel && hi - lo > 1, hi - lo, cols,
+                new ParallelRange.Kernel() {
+                    @Override
+                    void run(final int from, final int to) {
+                        for (int i = lo + from; i < lo + to; i++) {
+                            for (int j = 0, k = i * cols; j < cols; j++, k++) {
+                                double a = divisor == 1 ? input[j] : input[j]
+                                        / divisor;
+                                weights[k] = clip(weights[k] + rate
+                                        * (a - weights[k]));
+                            }
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Adds a multiple of the input vector, less an offset, to a unit's
+     * prototype: w += rate * (input - offset).
+     *
+     * @param unit
+     *            the unit
+     * @param rate
+     *            the multiple
+     * @param offset
+     *            subtracted from each input
+     */
+    public void addInput(final int unit, final double rate,
+            final double offset) {
+        for (int j = 0, k = unit * cols; j < cols; j++, k++) {
+            weights[k] = clip(weights[k] + rate * (input[j] - offset));
+        }
+    }
+
+    /**
+     * Decays every weight by a fraction of its value (see
+     * {@link Synapse#decay(double)}).
+     *
+     * @param percent
+     *            the fraction
+     */
+    public void decay(final double percent) {
+        ParallelRange.run(parallel, rows, cols, new ParallelRange.Kernel() {
+            @Override
+            void run(final int lo, final int hi) {
+                for (int k = lo * cols, end = hi * cols; k < end; k++) {
+                    weights[k] = clip(weights[k] - percent * weights[k]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Replaces every prototype by the mean of the data rows won by the units
+     * in its neighborhood, the batch version of the self-organizing map rule.
+     * Prototypes with no such rows are left alone.
+     *
+     * @param data
+     *            the data, one input vector per row
+     * @param columns
+     *            the index in a data row of each input
+     * @param radius
+     *            the neighborhood radius
+     * @return the winning unit for each row, as found before the update
+     */
+    public int[] batchUpdate(final double[][] data, final int[] columns,
+            final double radius) {
+        int[] winners = nearest(data, columns);
+        final double[] sums = new double[rows * cols];
+        final int[] counts = new int[rows];
+        for (int r = 0; r < data.length; r++) {
+            int w = winners[r];
+            if (w < 0) {
+                continue;
+            }
+            counts[w]++;
+            double[] row = data[r];
+            for (int j = 0, k = w * cols; j < cols; j++, k++) {
+                sums[k] += row[columns[j]];
+            }
+        }
+        prepareNeighbors(radius);
+        ParallelRange.run(parallel, rows, cols * 8L,
+                new ParallelRange.Kernel() {
+                    @Override
+                    void run(final int lo, final int hi) {
+                        int[] neighbors = new int[rows];
+                        double[] mean = new double[cols];
+                        for (int i = lo; i < hi; i++) {
+                            int n = neighbors(i, radius, neighbors);
+                            long total = 0;
+                            Arrays.fill(mean, 0);
+                            for (int m = 0; m < n; m++) {
+                                int u = neighbors[m];
+                                if (counts[u] == 0) {
+                                    continue;
+                                }
+                                total += counts[u];
+                                for (int j = 0, k = u * cols; j < cols;
+                                        j++, k++) {
+                                    mean[j] += sums[k];
+                                }
+                            }
+                            if (total == 0) {
+                                continue;
+                            }
+                            for (int j = 0, k = i * cols; j < cols; j++, k++) {
+                                weights[k] = clip(mean[j] / total);
+                            }
+                        }
+                    }
+                });
+        return winners;
+    }
+
+    /**
+     * Builds the neighbor table for a radius if there is no table covering it
+     * and the table would not be too big.
+     *
+     * @param radius
+     *            the neighborhood radius
+     */
+    public void prepareNeighbors(final double radius) {
+        if (radius <= tableRadius || radius >= tooBigRadius / 2) {
+            return;
+        }
+        long entries = 0;
+        for (int i = 0; i < rows; i++) {
+            for (int m = 0; m < rows; m++) {
+                if (distance(i, m) <= radius) {
+                    entries++;
+                }
+            }
+        }
+        if (entries > MAX_TABLE_ENTRIES) {
+            tooBigRadius = radius;
+            return;
+        }
+        tableStart = new int[rows + 1];
+        tableUnits = new int[(int) entries];
+        tableDistances = new double[(int) entries];
+        int e = 0;
+        for (int i = 0; i < rows; i++) {
+            tableStart[i] = e;
+            for (int m = 0; m < rows; m++) {
+                double d = distance(i, m);
+                if (d <= radius) {
+                    tableUnits[e] = m;
+                    tableDistances[e++] = d;
+                }
+            }
+        }
+        tableStart[rows] = e;
+        tableRadius = radius;
+    }
+
+    /**
+     * Finds the units within a distance of a unit (including the unit).
+     *
+     * @param unit
+     *            the unit
+     * @param radius
+     *            the distance
+     * @param out
+     *            filled with the neighbors; must have room for every unit
+     * @return the number of neighbors
+     */
+    public int neighbors(final int unit, final double radius,
+            final int[] out) {
+        int n = 0;
+        if (radius <= tableRadius) {
+            for (int e = tableStart[unit]; e < tableStart[unit + 1]; e++) {
+                if (tableDistances[e] <= radius) {
+                    out[n++] = tableUnits[e];
+                }
+            }
+        } else {
+            for (int m = 0; m < rows; m++) {
+                if (distance(unit, m) <= radius) {
+                    out[n++] = m;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @param i
+     *            a unit
+     * @param m
+     *            another unit
+     * @return the distance between their positions
+     */
+    private double distance(final int i, final int m) {
+        double dx = xs[m] - xs[i];
+        double dy = ys[m] - ys[i];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Clips a weight to the bounds of the synapses.
+     *
+     * @param w
+     *            the weight
+     * @return the clipped weight
+     */
+    private double clip(final double w) {
+        if (w > ceil) {
+            return ceil;
+        } else if (w < floor) {
+            return floor;
+        }
+        return w;
+    }
+
+    /**
+     * @param parallel
+     *            whether to split work across threads
+     */
+    public void setParallel(final boolean parallel) {
+        this.parallel = parallel;
+    }
+
+}
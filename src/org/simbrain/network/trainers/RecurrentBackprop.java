@@ -0,0 +1,614 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.trainers;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.simbrain.network.core.Neuron;
+
+/**
+ * Truncated backpropagation through time for networks with one hidden layer
+ * whose recurrence is either a context layer holding the previous hidden
+ * state (as in a {@link org.simbrain.network.subnetworks.SimpleRecurrentNetwork}
+ * ) or the previous output fed back as the next input (as in a
+ * {@link org.simbrain.network.subnetworks.BPTTNetwork}). Used by
+ * {@link SRNTrainer} and {@link BPTTTrainer} in matrix mode.
+ *
+ * The training data is divided into independent sequences of a fixed number
+ * of rows, each starting from the initial state. Several sequences are run
+ * side by side as a batch, and each sequence is unrolled over a window of a
+ * fixed number of steps at a time. The activations of every step in a window
+ * are recorded in preallocated tapes, and at the end of the window the error
+ * is propagated back through all its steps in one sweep and the weights are
+ * changed by the mean gradient plus momentum. State carries over from one
+ * window to the next but gradients do not.
+ *
+ * The layers must satisfy the same conditions as those of
+ * {@link MatrixBackprop}. Synapses and biases are only written back when
+ * {@link #store()} is called.
+ */
+final class RecurrentBackprop implements TrainingEngine {
+
+    /** Number of inputs. */
+    private final int numIn;
+
+    /** Number of hidden (and context) neurons. */
+    private final int numHidden;
+
+    /** Number of outputs. */
+    private final int numOut;
+
+    /** Activation functions and biases of the hidden layer. */
+    private final LayerRules hiddenRules;
+
+    /** Activation functions and biases of the output layer. */
+    private final LayerRules outputRules;
+
+    /** Weights from the input layer to the hidden layer. */
+    private final WeightMatrix inToHidden;
+
+    /** Weights from the context layer to the hidden layer, or null. */
+    private final WeightMatrix contextToHidden;
+
+    /** Weights from the hidden layer to the output layer. */
+    private final WeightMatrix hiddenToOut;
+
+    /** True if outputs are fed back as the next inputs. */
+    private final boolean feedback;
+
+    /** Value of every context unit at the start of a sequence. */
+    private final double initialContext;
+
+    /** Hidden bias gradient. */
+    private final double[] hiddenBiasGradient;
+
+    /** Output bias gradient. */
+    private final double[] outBiasGradient;
+
+    /** Whether to split batches across threads. */
+    private boolean parallel;
+
+    /** Number of steps the tapes hold. */
+    private int window;
+
+    /** Number of sequences the tapes hold. */
+    private int batch;
+
+    /** Tape of inputs, [step][seq * numIn + i]. */
+    private double[][] inTape;
+
+    /** Tape of context values, [step][seq * numHidden + i]. */
+    private double[][] contextTape;
+
+    /** Tape of hidden weighted inputs. */
+    private double[][] hiddenNetTape;
+
+    /** Tape of hidden activations. */
+    private double[][] hiddenTape;
+
+    /** Tape of output weighted inputs. */
+    private double[][] outNetTape;
+
+    /** Tape of outputs. */
+    private double[][] outTape;
+
+    /** Tape of output errors (target minus output), zero where inactive. */
+    private double[][] errorTape;
+
+    /** Output error signals of the current step of the backward sweep. */
+    private double[] outDeltas;
+
+    /** Hidden error signals of the current step of the backward sweep. */
+    private double[] hiddenDeltas;
+
+    /** Error on the previous hidden state, carried back one step. */
+    private double[] hiddenCarry;
+
+    /** Error on the previous output, carried back one step. */
+    private double[] outCarry;
+
+    /** Hidden state carried from one window to the next. */
+    private double[] hiddenState;
+
+    /** Output carried from one window to the next. */
+    private double[] outState;
+
+    /** Sum of squared errors of each sequence in the current window. */
+    private double[] seqErrors;
+
+    /**
+     * @param hiddenRules
+     *            hidden layer rules
+     * @param outputRules
+     *            output layer rules
+     * @param inToHidden
+     *            input to hidden weights
+     * @param contextToHidden
+     *            context to hidden weights, or null
+     * @param hiddenToOut
+     *            hidden to output weights
+     * @param feedback
+     *            whether outputs are fed back as inputs
+     * @param initialContext
+     *            initial value of the context
+     */
+    private RecurrentBackprop(final LayerRules hiddenRules,
+            final LayerRules outputRules, final WeightMatrix inToHidden,
+            final WeightMatrix contextToHidden,
+            final WeightMatrix hiddenToOut, final boolean feedback,
+            final double initialContext) {
+        this.hiddenRules = hiddenRules;
+        this.outputRules = outputRules;
+        this.inToHidden = inToHidden;
+        this.contextToHidden = contextToHidden;
+        this.hiddenToOut = hiddenToOut;
+        this.feedback = feedback;
+        this.initialContext = initialContext;
+        numIn = inToHidden.getCols();
+        numHidden = hiddenRules.size();
+        numOut = outputRules.size();
+        hiddenBiasGradient = new double[numHidden];
+        outBiasGradient = new double[numOut];
+    }
+
+    /**
+     * Creates an engine for a network with a context layer, or returns null
+     * if it is not supported.
+     *
+     * @param inputs
+     *            input neurons
+     * @param context
+     *            context neurons, one per hidden neuron, holding the previous
+     *            hidden state
+     * @param hidden
+     *            hidden neurons
+     * @param outputs
+     *            output neurons
+     * @param initialContext
+     *            value of the context at the start of each sequence
+     * @return the engine, or null
+     */
+    static RecurrentBackprop createWithContext(final List<Neuron> inputs,
+            final List<Neuron> context, final List<Neuron> hidden,
+            final List<Neuron> outputs, final double initialContext) {
+        if (context.size() != hidden.size()) {
+            return null;
+        }
+        return create(inputs, context, hidden, outputs, false,
+                initialContext);
+    }
+
+    /**
+     * Creates an engine for a network whose outputs become its next inputs,
+     * or returns null if it is not supported.
+     *
+     * @param inputs
+     *            input neurons
+     * @param hidden
+     *            hidden neurons
+     * @param outputs
+     *            output neurons, one per input
+     * @return the engine, or null
+     */
+    static RecurrentBackprop createWithFeedback(final List<Neuron> inputs,
+            final List<Neuron> hidden, final List<Neuron> outputs) {
+        if (inputs.size() != outputs.size()) {
+            return null;
+        }
+        return create(inputs, null, hidden, outputs, true, 0);
+    }
+
+    /**
+     * Creates an engine, or returns null if the layers are not supported.
+     *
+     * @param inputs
+     *            input neurons
+     * @param context
+     *            context neurons or null
+     * @param hidden
+     *            hidden neurons
+     * @param outputs
+     *            output neurons
+     * @param feedback
+     *            whether outputs are fed back as inputs
+     * @param initialContext
+     *            initial context value
+     * @return the engine, or null
+     */
+    private static RecurrentBackprop create(final List<Neuron> inputs,
+            final List<Neuron> context, final List<Neuron> hidden,
+            final List<Neuron> outputs, final boolean feedback,
+            final double initialContext) {
+        LayerRules hr = LayerRules.create(hidden);
+        LayerRules or = LayerRules.create(outputs);
+        if (hr == null || or == null) {
+            return null;
+        }
+        WeightMatrix ih = WeightMatrix.create(inputs, hr.getNeurons());
+        WeightMatrix ch = context == null ? null : WeightMatrix.create(
+                context, hr.getNeurons());
+        WeightMatrix ho = WeightMatrix.create(hidden, or.getNeurons());
+        if (ih == null || ho == null || (context != null && ch == null)) {
+            return null;
+        }
+        int hiddenSynapses = ih.getNumSynapses()
+                + (ch == null ? 0 : ch.getNumSynapses());
+        if (hiddenSynapses != MatrixBackprop.fanInSize(hr)
+                || ho.getNumSynapses() != MatrixBackprop.fanInSize(or)) {
+            return null;
+        }
+        return new RecurrentBackprop(hr, or, ih, ch, ho, feedback,
+                initialContext);
+    }
+
+    @Override
+    public void load() {
+        inToHidden.load();
+        if (contextToHidden != null) {
+            contextToHidden.load();
+        }
+        hiddenToOut.load();
+        hiddenRules.loadBiases();
+        outputRules.loadBiases();
+    }
+
+    @Override
+    public void store() {
+        inToHidden.store();
+        if (contextToHidden != null) {
+            contextToHidden.store();
+        }
+        hiddenToOut.store();
+        hiddenRules.storeBiases();
+        outputRules.storeBiases();
+    }
+
+    /**
+     * @param parallel
+     *            whether to split batches across threads
+     */
+    void setParallel(final boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Runs one pass through the training data.
+     *
+     * @param inputs
+     *            input data, one row per step
+     * @param targets
+     *            target data, one row per step
+     * @param numRows
+     *            number of rows to train on
+     * @param sequenceLength
+     *            rows per independent sequence, or 0 for a single sequence
+     * @param truncation
+     *            steps per window, or 0 to unroll whole sequences
+     * @param sequencesPerBatch
+     *            number of sequences run side by side
+     * @param learningRate
+     *            learning rate
+     * @param momentum
+     *            momentum
+     * @return sum of squared output errors over all rows
+     */
+    double train(final double[][] inputs, final double[][] targets,
+            final int numRows, final int sequenceLength,
+            final int truncation, final int sequencesPerBatch,
+            final double learningRate, final double momentum) {
+        int seqLength = sequenceLength <= 0 ? numRows : Math.min(
+                sequenceLength, numRows);
+        int numSeqs = (numRows + seqLength - 1) / seqLength;
+        int steps = truncation <= 0 ? seqLength : Math.min(truncation,
+                seqLength);
+        int seqs = Math.max(1, Math.min(sequencesPerBatch, numSeqs));
+        ensureCapacity(steps, seqs);
+        double sse = 0;
+        int[] starts = new int[seqs];
+        int[] lengths = new int[seqs];
+        for (int first = 0; first < numSeqs; first += seqs) {
+            int b = Math.min(seqs, numSeqs - first);
+            for (int s = 0; s < b; s++) {
+                starts[s] = (first + s) * seqLength;
+                lengths[s] = Math.min(seqLength, numRows - starts[s]);
+            }
+            Arrays.fill(hiddenState, 0, b * numHidden, initialContext);
+            Arrays.fill(outState, 0, b * numOut, 0);
+            for (int t0 = 0; t0 < lengths[0]; t0 += steps) {
+                int n = Math.min(steps, lengths[0] - t0);
+                sse += runWindow(inputs, targets, starts, lengths, b, t0, n,
+                        learningRate, momentum);
+            }
+        }
+        return sse;
+    }
+
+    /**
+     * Grows the tapes.
+     *
+     * @param steps
+     *            steps per window
+     * @param seqs
+     *            sequences per batch
+     */
+    private void ensureCapacity(final int steps, final int seqs) {
+        if (window >= steps && batch >= seqs) {
+            return;
+        }
+        window = Math.max(window, steps);
+        batch = Math.max(batch, seqs);
+        inTape = new double[window][batch * numIn];
+        contextTape = new double[window][batch * numHidden];
+        hiddenNetTape = new double[window][batch * numHidden];
+        hiddenTape = new double[window][batch * numHidden];
+        outNetTape = new double[window][batch * numOut];
+        outTape = new double[window][batch * numOut];
+        errorTape = new double[window][batch * numOut];
+        outDeltas = new double[batch * numOut];
+        hiddenDeltas = new double[batch * numHidden];
+        hiddenCarry = new double[batch * numHidden];
+        outCarry = new double[batch * numIn];
+        hiddenState = new double[batch * numHidden];
+        outState = new double[batch * numOut];
+        seqErrors = new double[batch];
+    }
+
+    /**
+     * Runs a batch of sequences forward through one window, then propagates
+     * the error back through it and updates the weights.
+     *
+     * @param inputs
+     *            input data
+     * @param targets
+     *            target data
+     * @param starts
+     *            first row of each sequence
+     * @param lengths
+     *            number of rows in each sequence
+     * @param b
+     *            number of sequences in the batch
+     * @param t0
+     *            first step of the window
+     * @param n
+     *            number of steps in the window
+     * @param learningRate
+     *            learning rate
+     * @param momentum
+     *            momentum
+     * @return sum of squared errors in the window
+     */
+    private double runWindow(final double[][] inputs,
+            final double[][] targets, final int[] starts, final int[] lengths,
+            final int b, final int t0, final int n, final double learningRate,
+            final double momentum) {
+        int active = 0;
+        for (int s = 0; s < b; s++) {
+            active += Math.max(0, Math.min(n, lengths[s] - t0));
+        }
+        double sse = 0;
+        for (int t = 0; t < n; t++) {
+            sse += forward(inputs, targets, starts, lengths, b, t0, t);
+        }
+        inToHidden.clearGradient();
+        if (contextToHidden != null) {
+            contextToHidden.clearGradient();
+        }
+        hiddenToOut.clearGradient();
+        Arrays.fill(hiddenBiasGradient, 0);
+        Arrays.fill(outBiasGradient, 0);
+        for (int t = n - 1; t >= 0; t--) {
+            backward(b, t, t == n - 1);
+        }
+        double rate = learningRate / Math.max(1, active);
+        inToHidden.update(rate, momentum);
+        if (contextToHidden != null) {
+            contextToHidden.update(rate, momentum);
+        }
+        hiddenToOut.update(rate, momentum);
+        hiddenRules.addToBiases(hiddenBiasGradient, rate);
+        outputRules.addToBiases(outBiasGradient, rate);
+        return sse;
+    }
+
+    /**
+     * Runs one step forward for every sequence in the batch, recording it on
+     * the tapes.
+     *
+     * @param inputs
+     *            input data
+     * @param targets
+     *            target data
+     * @param starts
+     *            first row of each sequence
+     * @param lengths
+     *            number of rows in each sequence
+     * @param b
+     *            number of sequences
+     * @param t0
+     *            first step of the window
+     * @param t
+     *            step within the window
+     * @return sum of squared errors of the step
+     */
+    private double forward(final double[][] inputs, final double[][] targets,
+            final int[] starts, final int[] lengths, final int b,
+            final int t0, final int t) {
+        final double[] in = inTape[t];
+        final double[] ctx = contextTape[t];
+        final double[] zh = hiddenNetTape[t];
+        final double[] h = hiddenTape[t];
+        final double[] zy = outNetTape[t];
+        final double[] y = outTape[t];
+        final double[] err = errorTape[t];
+        final int step = t0 + t;
+        ParallelRange.run(parallel, b, (long) numHidden
+                * (numIn + numHidden + numOut), new ParallelRange.Kernel() {
+            @Override
+            void run(final int lo, final int hi) {
+                for (int s = lo; s < hi; s++) {
+                    boolean live = step < lengths[s];
+                    int row = starts[s] + step;
+                    if (!live) {
+                        Arrays.fill(in, s * numIn, (s + 1) * numIn, 0);
+                    } else if (feedback && step > 0) {
+                        System.arraycopy(outState, s * numOut, in, s * numIn,
+                                numIn);
+                    } else {
+                        System.arraycopy(inputs[row], 0, in, s * numIn,
+                                numIn);
+                    }
+                    System.arraycopy(hiddenState, s * numHidden, ctx, s
+                            * numHidden, numHidden);
+                }
+                Arrays.fill(zh, lo * numHidden, hi * numHidden, 0);
+                inToHidden.multiply(in, zh, lo, hi);
+                if (contextToHidden != null) {
+                    contextToHidden.multiply(ctx, zh, lo, hi);
+                }
+                for (int k = lo * numHidden; k < hi * numHidden; k++) {
+                    h[k] = hiddenRules.activation(k % numHidden, zh[k]);
+                }
+                Arrays.fill(zy, lo * numOut, hi * numOut, 0);
+                hiddenToOut.multiply(h, zy, lo, hi);
+                for (int s = lo; s < hi; s++) {
+                    boolean live = step < lengths[s];
+                    double[] target = live ? targets[starts[s] + step] : null;
+                    double sum = 0;
+                    for (int i = 0; i < numOut; i++) {
+                        int k = s * numOut + i;
+                        y[k] = outputRules.activation(i, zy[k]);
+                        err[k] = live ? target[i] - y[k] : 0;
+                        sum += err[k] * err[k];
+                    }
+                    seqErrors[s] = sum;
+                    if (live) {
+                        System.arraycopy(h, s * numHidden, hiddenState, s
+                                * numHidden, numHidden);
+                        System.arraycopy(y, s * numOut, outState,
+                                s * numOut, numOut);
+                    }
+                }
+            }
+        });
+        double sse = 0;
+        for (int s = 0; s < b; s++) {
+            sse += seqErrors[s];
+        }
+        return sse;
+    }
+
+    /**
+     * Propagates error back through one step of the window, adding to the
+     * gradients.
+     *
+     * @param b
+     *            number of sequences
+     * @param t
+     *            step within the window
+     * @param last
+     *            true for the last step of the window, where nothing is
+     *            carried back from later steps
+     */
+    private void backward(final int b, final int t, final boolean last) {
+        final double[] zh = hiddenNetTape[t];
+        final double[] zy = outNetTape[t];
+        final double[] err = errorTape[t];
+        ParallelRange.run(parallel, b, (long) numHidden
+                * (numIn + numHidden + numOut), new ParallelRange.Kernel() {
+            @Override
+            void run(final int lo, final int hi) {
+                for (int k = lo * numOut; k < hi * numOut; k++) {
+                    double e = err[k];
+                    if (feedback && !last) {
+                        e += outCarry[k];
+                    }
+                    outDeltas[k] = e * outputRules.derivative(k % numOut,
+                            zy[k]);
+                }
+                if (contextToHidden != null && !last) {
+                    System.arraycopy(hiddenCarry, lo * numHidden,
+                            hiddenDeltas, lo * numHidden, (hi - lo)
+                                    * numHidden);
+                } else {
+                    Arrays.fill(hiddenDeltas, lo * numHidden, hi * numHidden,
+                            0);
+                }
+                hiddenToOut.multiplyTransposed(outDeltas, hiddenDeltas, lo,
+                        hi);
+                for (int k = lo * numHidden; k < hi * numHidden; k++) {
+                    hiddenDeltas[k] *= hiddenRules.derivative(k % numHidden,
+                            zh[k]);
+                }
+                if (contextToHidden != null) {
+                    Arrays.fill(hiddenCarry, lo * numHidden, hi * numHidden,
+                            0);
+                    contextToHidden.multiplyTransposed(hiddenDeltas,
+                            hiddenCarry, lo, hi);
+                }
+                if (feedback) {
+                    Arrays.fill(outCarry, lo * numIn, hi * numIn, 0);
+                    inToHidden.multiplyTransposed(hiddenDeltas, outCarry, lo,
+                            hi);
+                }
+            }
+        });
+        accumulate(hiddenToOut, outDeltas, hiddenTape[t], b, numHidden);
+        accumulate(inToHidden, hiddenDeltas, inTape[t], b, numIn);
+        if (contextToHidden != null) {
+            accumulate(contextToHidden, hiddenDeltas, contextTape[t], b,
+                    numHidden);
+        }
+        for (int s = 0; s < b; s++) {
+            for (int i = 0; i < numOut; i++) {
+                outBiasGradient[i] += outDeltas[s * numOut + i];
+            }
+            for (int i = 0; i < numHidden; i++) {
+                hiddenBiasGradient[i] += hiddenDeltas[s * numHidden + i];
+            }
+        }
+    }
+
+    /**
+     * Adds a batch of outer products to a weight matrix's gradient, split
+     * over its rows.
+     *
+     * @param w
+     *            the weights
+     * @param deltas
+     *            target error signals
+     * @param in
+     *            source activations
+     * @param b
+     *            number of sequences
+     * @param cols
+     *            number of sources
+     */
+    private void accumulate(final WeightMatrix w, final double[] deltas,
+            final double[] in, final int b, final int cols) {
+        ParallelRange.run(parallel, w.getRows(), (long) b * cols,
+                new ParallelRange.Kernel() {
+                    @Override
+                    void run(final int lo, final int hi) {
+                        w.accumulate(deltas, in, b, lo, hi);
+                    }
+                });
+    }
+
+}
@@ -18,6 +18,7 @@
  */
 package org.simbrain.network.trainers;
 
+import org.simbrain.network.subnetworks.SOMGroup;
 import org.simbrain.network.subnetworks.SOMNetwork;
 
 /**
@@ -40,6 +41,13 @@ public class SOMTrainer extends Trainer {
     /** Iteration number. An epoch. */
     private int iteration = 0;
 
+    /**
+     * Whether each epoch trains on the whole training set at once with the
+     * batch SOM rule (see {@link SOMGroup#trainBatch}) rather than updating
+     * on one row at a time.
+     */
+    private boolean batchMode;
+
     /**
      * Construct the UnsupervisedNeuronGroupTrainer trainer.
      *
@@ -59,11 +67,25 @@ public class SOMTrainer extends Trainer {
             throw new DataNotInitializedException("Input data not initalized");
         }
 
-        int numRows = network.getTrainingSet().getInputData().length;
-        for (int row = 0; row < numRows; row++) {
-            double[] inputs = network.getTrainingSet().getInputData()[row];
-            network.getInputLayer().forceSetActivations(inputs);
-            network.getSom().update(); // Call a function here to be overriden in subclasses?
+        double[][] data = network.getTrainingSet().getInputData();
+        int numRows = data.length;
+        SOMGroup som = network.getSom();
+        if (batchMode && numRows > 0
+                && som.trainBatch(data, network.getInputNeurons())) {
+            network.getInputLayer().forceSetActivations(data[numRows - 1]);
+        } else {
+            // Work on a dense copy of the weights for the whole epoch
+            boolean held = som.holdWeights();
+            try {
+                for (int row = 0; row < numRows; row++) {
+                    network.getInputLayer().forceSetActivations(data[row]);
+                    som.update(); // Call a function here to be overriden in subclasses?
+                }
+            } finally {
+                if (held) {
+                    som.commitWeights();
+                }
+            }
         }
         incrementIteration();
 
@@ -102,6 +124,20 @@ public class SOMTrainer extends Trainer {
         this.iteration = iteration;
     }
 
+    /**
+     * @return whether each epoch uses the batch SOM rule
+     */
+    public boolean isBatchMode() {
+        return batchMode;
+    }
+
+    /**
+     * @param batchMode whether each epoch uses the batch SOM rule
+     */
+    public void setBatchMode(boolean batchMode) {
+        this.batchMode = batchMode;
+    }
+
     /**
      * Return the current iteration.
      *
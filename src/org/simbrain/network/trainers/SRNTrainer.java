@@ -27,6 +27,11 @@ import org.simbrain.network.subnetworks.SimpleRecurrentNetwork;
  * Example: 5_binary_orth.csv &#62; 5_binary_orth_offset.csv. Manually set inputs to
  * test. 0 error is possible with defaults.
  *
+ * In matrix mode the network is trained by {@link RecurrentBackprop}, which
+ * unrolls the context layer over a window of {@link #getTruncation()} steps.
+ * With a window of one step and a single sequence this gives the same results
+ * as the usual training.
+ *
  * @author jyoshimi
  */
 public class SRNTrainer extends BackpropTrainer {
@@ -34,6 +39,21 @@ public class SRNTrainer extends BackpropTrainer {
     /** Reference to srn being trained. */
     private final SimpleRecurrentNetwork srn;
 
+    /** Value of the context layer at the start of a sequence. */
+    private static final double INITIAL_CONTEXT = .5;
+
+    /** Number of steps unrolled in matrix mode, or 0 for whole sequences. */
+    private int truncation = 1;
+
+    /**
+     * Number of training rows in each independent sequence in matrix mode, or
+     * 0 if the training data is one sequence.
+     */
+    private int sequenceLength;
+
+    /** Number of sequences trained side by side in matrix mode. */
+    private int sequencesPerBatch = 1;
+
     /**
      * Construct the SRN trainer.
      *
@@ -44,8 +64,51 @@ public class SRNTrainer extends BackpropTrainer {
         this.srn = srn;
     }
 
+    @Override
+    public void apply() {
+        if (isMatrixMode() && applyRecurrent()) {
+            return;
+        }
+        super.apply();
+    }
+
+    /**
+     * One pass through the training data using the recurrent engine.
+     *
+     * @return false if the engine does not support this network, in which
+     *         case nothing was done
+     */
+    private boolean applyRecurrent() {
+        int numRows = getMinimumNumRows(network);
+        if ((numRows == 0) || (network.getInputNeurons().size() == 0)) {
+            return true;
+        }
+        RecurrentBackprop engine = (RecurrentBackprop) loadEngine();
+        if (engine == null) {
+            return false;
+        }
+        engine.setParallel(isParallel());
+        double sse = engine.train(network.getTrainingSet().getInputData(),
+                network.getTrainingSet().getTargetData(), numRows,
+                sequenceLength, truncation, sequencesPerBatch,
+                getLearningRate(), getMomentum());
+        setError(sse / (numRows * network.getOutputNeurons().size()));
+        endEnginePass();
+        incrementIteration();
+        fireErrorUpdated();
+        return true;
+    }
+
+    @Override
+    protected TrainingEngine createEngine() {
+        return RecurrentBackprop.createWithContext(srn.getInputNeurons(), srn
+                .getContextLayer().getNeuronList(), srn.getHiddenLayer()
+                .getNeuronList(), srn.getOutputNeurons(), INITIAL_CONTEXT);
+    }
+
     @Override
     public void randomize() {
+        discardEngine();
         randomize(srn.getHiddenLayer().getNeuronList());
         randomize(srn.getOutputNeurons());
     }
@@ -55,4 +118,53 @@ public class SRNTrainer extends BackpropTrainer {
         srn.update();
     }
 
+    /**
+     * @return the number of steps unrolled in matrix mode, or 0 for whole
+     *         sequences
+     */
+    public int getTruncation() {
+        return truncation;
+    }
+
+    /**
+     * @param truncation
+     *            the number of steps to unroll in matrix mode, or 0 for whole
+     *            sequences
+     */
+    public void setTruncation(int truncation) {
+        this.truncation = Math.max(0, truncation);
+    }
+
+    /**
+     * @return the number of rows in each independent sequence in matrix
+     *         mode, or 0 if the training data is one sequence
+     */
+    public int getSequenceLength() {
+        return sequenceLength;
+    }
+
+    /**
+     * @param sequenceLength
+     *            the number of rows in each independent sequence in matrix
+     *            mode, or 0 if the training data is one sequence
+     */
+    public void setSequenceLength(int sequenceLength) {
+        this.sequenceLength = Math.max(0, sequenceLength);
+    }
+
+    /**
+     * @return the number of sequences trained side by side in matrix mode
+     */
+    public int getSequencesPerBatch() {
+        return sequencesPerBatch;
+    }
+
+    /**
+     * @param sequencesPerBatch
+     *            the number of sequences to train side by side in matrix mode
+     */
+    public void setSequencesPerBatch(int sequencesPerBatch) {
+        this.sequencesPerBatch = Math.max(1, sequencesPerBatch);
+    }
+
 }
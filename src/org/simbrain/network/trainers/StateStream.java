@@ -0,0 +1,47 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.trainers;
+
+/**
+ * A source of training samples which are produced one at a time (for example
+ * by running a network) and are too many to hold in memory. Used by
+ * {@link LMSOffline} to accumulate the normal equations as samples are
+ * produced.
+ */
+public interface StateStream {
+
+    /**
+     * @return the number of states in each sample
+     */
+    int getNumStates();
+
+    /**
+     * @return the number of targets in each sample
+     */
+    int getNumTargets();
+
+    /**
+     * Produces every sample, adding each to the given equations.
+     *
+     * @param equations
+     *            the equations to add samples to
+     */
+    void harvest(NormalEquations equations);
+
+}
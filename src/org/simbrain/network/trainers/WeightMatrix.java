@@ -0,0 +1,302 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.trainers;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.Synapse;
+
+/**
+ * The synapses from one layer of neurons to another, copied into a dense
+ * row-major matrix with one row per target neuron, together with the weight
+ * changes remembered for momentum and a gradient accumulator. Missing and
+ * frozen synapses are held at their current value. Synapses must be enabled
+ * and undelayed, come from non-polarized neurons, and share their bounds.
+ *
+ * The product methods work on a range of rows of a batch stored row-major in
+ * flat arrays, so that engines can split batches across threads.
+ */
+final class WeightMatrix {
+
+    /** Number of target neurons (rows). */
+    private final int rows;
+
+    /** Number of source neurons (columns). */
+    private final int cols;
+
+    /** Synapse for each weight, or null where there is none. */
+    private final Synapse[] synapses;
+
+    /** The weights. */
+    private final double[] weights;
+
+    /**
+     * Which weights may change: false where there is no synapse or the
+     * synapse is frozen. Null if every weight may change.
+     */
+    private boolean[] trainable;
+
+    /** Lower bound of the weights. */
+    private double floor;
+
+    /** Upper bound of the weights. */
+    private double ceil;
+
+    /** Last weight change of each weight, for momentum. */
+    private final double[] velocity;
+
+    /** Accumulated gradient. */
+    private final double[] gradient;
+
+    /** Number of synapses. */
+    private int numSynapses;
+
+    /**
+     * @param rows
+     *            number of targets
+     * @param cols
+     *            number of sources
+     */
+    private WeightMatrix(final int rows, final int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        synapses = new Synapse[rows * cols];
+        weights = new double[rows * cols];
+        velocity = new double[rows * cols];
+        gradient = new double[rows * cols];
+    }
+
+    /**
+     * Collects the synapses from the given sources to the given targets, or
+     * returns null if any of them is not supported. Synapses from other
+     * neurons are ignored.
+     *
+     * @param sources
+     *            source neurons, one per column
+     * @param targets
+     *            target neurons, one per row
+     * @return the matrix, or null
+     */
+    static WeightMatrix create(final List<Neuron> sources,
+            final Neuron[] targets) {
+        WeightMatrix wm = new WeightMatrix(targets.length, sources.size());
+        Map<Neuron, Integer> index = new HashMap<Neuron, Integer>();
+        for (int j = 0; j < sources.size(); j++) {
+            index.put(sources.get(j), j);
+        }
+        boolean[] mask = new boolean[wm.synapses.length];
+        boolean allTrainable = true;
+        for (int i = 0; i < targets.length; i++) {
+            for (Synapse s : targets[i].getFanIn()) {
+                Integer j = index.get(s.getSource());
+                if (j == null) {
+                    continue;
+                }
+                if (!s.isEnabled() || s.getDelay() != 0
+                        || s.getSource().isPolarized()) {
+                    return null;
+                }
+                if (wm.numSynapses == 0) {
+                    wm.floor = s.getLowerBound();
+                    wm.ceil = s.getUpperBound();
+                } else if (s.getLowerBound() != wm.floor
+                        || s.getUpperBound() != wm.ceil) {
+                    return null;
+                }
+                int k = i * wm.cols + j;
+                wm.synapses[k] = s;
+                mask[k] = !s.isFrozen();
+                wm.numSynapses++;
+            }
+        }
+        for (boolean b : mask) {
+            allTrainable &= b;
+        }
+        wm.trainable = allTrainable ? null : mask;
+        return wm;
+    }
+
+    /**
+     * @return the number of synapses in the matrix
+     */
+    int getNumSynapses() {
+        return numSynapses;
+    }
+
+    /**
+     * Copies the current strengths from the synapses.
+     */
+    void load() {
+        for (int k = 0; k < synapses.length; k++) {
+            weights[k] = synapses[k] == null ? 0 : synapses[k].getStrength();
+        }
+    }
+
+    /**
+     * Writes the weights back into the synapses.
+     */
+    void store() {
+        for (int k = 0; k < synapses.length; k++) {
+            if (synapses[k] != null) {
+                synapses[k].setStrength(weights[k]);
+            }
+        }
+    }
+
+    /**
+     * Sets all weight changes remembered for momentum to zero.
+     */
+    void clearMomentum() {
+        Arrays.fill(velocity, 0);
+    }
+
+    /**
+     * Sets the gradient accumulator to zero.
+     */
+    void clearGradient() {
+        Arrays.fill(gradient, 0);
+    }
+
+    /**
+     * Adds the product of a batch of source vectors and the transpose of the
+     * weights to a batch of target vectors: out[r] += W in[r].
+     *
+     * @param in
+     *            source vectors, row-major, cols per row
+     * @param out
+     *            target vectors, row-major, rows per row
+     * @param lo
+     *            first batch row (inclusive)
+     * @param hi
+     *            last batch row (exclusive)
+     */
+    void multiply(final double[] in, final double[] out, final int lo,
+            final int hi) {
+        for (int r = lo; r < hi; r++) {
+            int inBase = r * cols;
+            int outBase = r * rows;
+            for (int i = 0; i < rows; i++) {
+                double sum = 0;
+                for (int j = 0, wBase = i * cols; j < cols; j++) {
+                    sum += weights[wBase + j] * in[inBase + j];
+                }
+                out[outBase + i] += sum;
+            }
+        }
+    }
+
+    /**
+     * Propagates a batch of target error signals back to the sources:
+     * out[r] += W^T deltas[r].
+     *
+     * @param deltas
+     *            target error signals, row-major, rows per row
+     * @param out
+     *            source errors, row-major, cols per row
+     * @param lo
+     *            first batch row (inclusive)
+     * @param hi
+     *            last batch row (exclusive)
+     */
+    void multiplyTransposed(final double[] deltas, final double[] out,
+            final int lo, final int hi) {
+        for (int r = lo; r < hi; r++) {
+            int base = r * cols;
+            for (int i = 0; i < rows; i++) {
+                double e = deltas[r * rows + i];
+                if (e == 0) {
+                    continue;
+                }
+                for (int j = 0, wBase = i * cols; j < cols; j++) {
+                    out[base + j] += e * weights[wBase + j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the outer products of a batch of target error signals and source
+     * activations to the gradient, for a range of target neurons.
+     *
+     * @param deltas
+     *            target error signals, row-major, rows per row
+     * @param in
+     *            source activations, row-major, cols per row
+     * @param batch
+     *            number of batch rows
+     * @param lo
+     *            first target neuron (inclusive)
+     * @param hi
+     *            last target neuron (exclusive)
+     */
+    void accumulate(final double[] deltas, final double[] in,
+            final int batch, final int lo, final int hi) {
+        for (int i = lo; i < hi; i++) {
+            int gBase = i * cols;
+            for (int r = 0; r < batch; r++) {
+                double e = deltas[r * rows + i];
+                if (e == 0) {
+                    continue;
+                }
+                for (int j = 0, inBase = r * cols; j < cols; j++) {
+                    gradient[gBase + j] += e * in[inBase + j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the gradient times a rate, plus momentum, to the weights, clipping
+     * them to their bounds.
+     *
+     * @param rate
+     *            factor applied to the gradient
+     * @param momentum
+     *            momentum
+     */
+    void update(final double rate, final double momentum) {
+        for (int k = 0; k < weights.length; k++) {
+            if (trainable != null && !trainable[k]) {
+                continue;
+            }
+            double delta = rate * gradient[k] + momentum * velocity[k];
+            velocity[k] = delta;
+            weights[k] = Math.max(floor, Math.min(ceil, weights[k] + delta));
+        }
+    }
+
+    /**
+     * @return number of target neurons
+     */
+    int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return number of source neurons
+     */
+    int getCols() {
+        return cols;
+    }
+
+}
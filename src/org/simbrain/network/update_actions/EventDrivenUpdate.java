@@ -0,0 +1,343 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.update_actions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.simbrain.network.core.Network;
+import org.simbrain.network.core.NetworkUpdateAction;
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronUpdateRule;
+import org.simbrain.network.core.SpikePropagator;
+import org.simbrain.network.core.Synapse;
+import org.simbrain.network.core.SynapseUpdateRule;
+import org.simbrain.network.groups.Group;
+import org.simbrain.network.groups.NeuronGroup;
+import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.network.listeners.GroupAdapter;
+import org.simbrain.network.listeners.GroupListener;
+import org.simbrain.network.listeners.NetworkEvent;
+import org.simbrain.network.listeners.NeuronAdapter;
+import org.simbrain.network.listeners.NeuronListener;
+import org.simbrain.network.listeners.SynapseAdapter;
+import org.simbrain.network.listeners.SynapseListener;
+import org.simbrain.network.synapse_update_rules.StaticSynapseRule;
+
+/**
+ * Buffered update of every neuron in a network in which spikes are propagated
+ * as events (see {@link SpikePropagator}). Spiking neurons with synaptic input
+ * read an aggregated post-synaptic response instead of polling their whole
+ * fan-in, and synapses are only touched when their source spikes. Learning
+ * rules are only applied to the fan-in of neurons which have at least one
+ * non-static synapse.
+ *
+ * In other respects this behaves like {@link BufferedUpdate} applied to the
+ * whole network: all neurons are updated, and then all their buffers are
+ * committed. Neurons in neuron groups which are in input mode are skipped, so
+ * the update action for such groups must remain in the update sequence.
+ *
+ * Structural changes (neurons, synapses or groups added or removed, neuron
+ * update rules changed) rebuild the propagator, which takes over the spikes
+ * still in transit. Changes to individual synapses and synapse groups are
+ * applied in place before the next update.
+ */
+public class EventDrivenUpdate implements NetworkUpdateAction {
+
+    /** Reference to network to update. */
+    private final Network network;
+
+    /** The neurons updated by this action. Rebuilt when stale. */
+    private Neuron[] neurons = new Neuron[0];
+
+    /** True for neurons whose fan-in has at least one learning rule. */
+    private boolean[] learns = new boolean[0];
+
+    /** Neuron groups whose compressed inputs must be propagated. */
+    private List<NeuronGroup> neuronGroups = new ArrayList<NeuronGroup>();
+
+    /** Propagator for the current neuron list. */
+    private SpikePropagator propagator;
+
+    /** True once the listeners below have been registered with the network. */
+    private boolean listening;
+
+    /** True if the network structure has changed since the last rebuild. */
+    private volatile boolean stale = true;
+
+    /** True if learning rules have changed since {@link #learns} was set. */
+    private volatile boolean relearn;
+
+    /** Synapses changed since the last update. */
+    private final Queue<Synapse> changedSynapses =
+            new ConcurrentLinkedQueue<Synapse>();
+
+    /** Synapse groups changed since the last update. */
+    private final Queue<SynapseGroup> changedGroups =
+            new ConcurrentLinkedQueue<SynapseGroup>();
+
+    /**
+     * Marks the neuron list stale when groups are added or removed or synapses
+     * are added to or removed from a group, and notes other synapse group
+     * changes.
+     */
+    private final GroupListener groupListener = new GroupAdapter() {
+        @Override
+        public void groupAdded(NetworkEvent<Group> e) {
+            invalidate();
+        }
+
+        @Override
+        public void groupRemoved(NetworkEvent<Group> e) {
+            invalidate();
+        }
+
+        @Override
+        public void groupChanged(NetworkEvent<Group> networkEvent,
+                String changeDescription) {
+            Group group = networkEvent.getObject();
+            if (!(group instanceof SynapseGroup)
+                    || "synapseAdded".equals(changeDescription)
+                    || "synapseRemoved".equals(changeDescription)) {
+                invalidate();
+            } else if ("spikeTraceLearningChanged".equals(changeDescription)) {
+                relearn = true;
+            } else {
+                changedGroups.add((SynapseGroup) group);
+            }
+        }
+    };
+
+    /**
+     * Marks the neuron list stale when neurons are added or removed or change
+     * their update rule.
+     */
+    private final NeuronListener neuronListener = new NeuronAdapter() {
+        @Override
+        public void neuronAdded(NetworkEvent<Neuron> networkEvent) {
+            invalidate();
+        }
+
+        @Override
+        public void neuronRemoved(NetworkEvent<Neuron> networkEvent) {
+            invalidate();
+        }
+
+        @Override
+        public void neuronTypeChanged(
+                NetworkEvent<NeuronUpdateRule> networkEvent) {
+            invalidate();
+        }
+    };
+
+    /**
+     * Marks the event graph stale when synapses are added or removed, and
+     * notes other synapse changes.
+     */
+    private final SynapseListener synapseListener = new SynapseAdapter() {
+        @Override
+        public void synapseAdded(NetworkEvent<Synapse> networkEvent) {
+            invalidate();
+        }
+
+        @Override
+        public void synapseRemoved(NetworkEvent<Synapse> networkEvent) {
+            invalidate();
+        }
+
+        @Override
+        public void synapseChanged(NetworkEvent<Synapse> networkEvent) {
+            changedSynapses.add(networkEvent.getObject());
+        }
+
+        @Override
+        public void synapseTypeChanged(
+                NetworkEvent<SynapseUpdateRule> networkEvent) {
+            relearn = true;
+        }
+    };
+
+    /**
+     * Creates the update action. It registers to hear about structural changes
+     * to the network when first invoked.
+     *
+     * @param network
+     *            the network to update
+     */
+    public EventDrivenUpdate(final Network network) {
+        this.network = network;
+    }
+
+    @Override
+    public void invoke() {
+        if (!listening) {
+            network.addGroupListener(groupListener);
+            network.addNeuronListener(neuronListener);
+            network.addSynapseListener(synapseListener);
+            listening = true;
+            stale = true;
+        }
+        if (stale) {
+            rebuild();
+        } else {
+            applyChanges();
+        }
+        propagator.deliver();
+        for (int i = 0, n = neuronGroups.size(); i < n; i++) {
+            neuronGroups.get(i).propagateCompressedInputs();
+        }
+        for (int i = 0; i < neurons.length; i++) {
+            Neuron n = neurons[i];
+            n.update();
+            if (learns[i] && !n.getUpdateRule().isSkipsSynapticUpdates()) {
+                n.updateFanIn();
+            }
+        }
+        for (int i = 0; i < neurons.length; i++) {
+            neurons[i].setToBufferVals();
+        }
+        propagator.collectSpikes();
+    }
+
+    /**
+     * Marks the neuron list and event graph as stale so that they are rebuilt
+     * before the next update. Spike responder, delay and enabled state
+     * changes made to synapses after the first update, without a synapse or
+     * group change event, require this (or {@link #refresh(Synapse)}).
+     */
+    public void invalidate() {
+        stale = true;
+    }
+
+    /**
+     * Takes account of a change to a synapse's spike responder, delay or
+     * enabled state before the next update, without a rebuild if possible.
+     *
+     * @param synapse
+     *            the changed synapse
+     */
+    public void refresh(final Synapse synapse) {
+        changedSynapses.add(synapse);
+    }
+
+    /**
+     * Applies the synapse and group changes noted since the last update,
+     * rebuilding only if the propagator cannot take one of them in place.
+     */
+    private void applyChanges() {
+        Synapse s;
+        while ((s = changedSynapses.poll()) != null) {
+            if (!propagator.refresh(s)) {
+                rebuild();
+                return;
+            }
+        }
+        SynapseGroup group;
+        while ((group = changedGroups.poll()) != null) {
+            for (Synapse gs : group.getAllSynapses()) {
+                if (!propagator.refresh(gs)) {
+                    rebuild();
+                    return;
+                }
+            }
+        }
+        if (relearn) {
+            relearn = false;
+            findLearners();
+        }
+    }
+
+    /**
+     * Stops listening to the network and returns all neurons to pulling their
+     * input. Call when this action is discarded.
+     */
+    public void shutdown() {
+        if (listening) {
+            network.removeGroupListener(groupListener);
+            network.removeNeuronListener(neuronListener);
+            network.removeSynapseListener(synapseListener);
+            listening = false;
+        }
+        if (propagator != null) {
+            propagator.release();
+            propagator = null;
+        }
+        stale = true;
+    }
+
+    /**
+     * Rebuilds the neuron list and the propagator from the current state of
+     * the network. Spikes in transit are carried over to the new propagator.
+     */
+    private void rebuild() {
+        stale = false;
+        relearn = false;
+        changedSynapses.clear();
+        changedGroups.clear();
+        SpikePropagator previous = propagator;
+        if (previous != null) {
+            previous.release();
+        }
+        List<Neuron> neuronList = new ArrayList<Neuron>(network
+                .getNeuronList());
+        neuronGroups = new ArrayList<NeuronGroup>();
+        for (Group group : network.getFlatGroupList()) {
+            if (group instanceof NeuronGroup) {
+                NeuronGroup ng = (NeuronGroup) group;
+                if (!ng.isInputMode()) {
+                    neuronGroups.add(ng);
+                    neuronList.addAll(ng.getNeuronList());
+                }
+            }
+        }
+        neurons = neuronList.toArray(new Neuron[neuronList.size()]);
+        findLearners();
+        propagator = new SpikePropagator(network, neuronList, previous);
+    }
+
+    /**
+     * Finds the neurons whose fan-in has a learning rule.
+     */
+    private void findLearners() {
+        boolean[] learners = new boolean[neurons.length];
+        for (int i = 0; i < neurons.length; i++) {
+            for (Synapse s : neurons[i].getFanIn()) {
+                if (!(s.getLearningRule() instanceof StaticSynapseRule)
+                        && !s.isLearnedByGroup()) {
+                    learners[i] = true;
+                    break;
+                }
+            }
+        }
+        learns = learners;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Event Driven Update";
+    }
+
+    @Override
+    public String getLongDescription() {
+        return "Buffered Update With Event-Driven Spike Propagation";
+    }
+
+}
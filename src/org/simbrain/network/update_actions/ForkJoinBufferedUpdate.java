@@ -0,0 +1,380 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.update_actions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.simbrain.network.core.Network;
+import org.simbrain.network.core.NetworkUpdateAction;
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronStateStore;
+import org.simbrain.network.groups.Group;
+import org.simbrain.network.groups.NeuronGroup;
+import org.simbrain.network.listeners.GroupAdapter;
+import org.simbrain.network.listeners.GroupListener;
+import org.simbrain.network.listeners.NetworkEvent;
+import org.simbrain.network.listeners.NeuronAdapter;
+import org.simbrain.network.listeners.NeuronListener;
+import org.simbrain.network.update_actions.concurrency_tools.SharedForkJoinPool;
+
+/**
+ * A parallel buffered update of every neuron in a network, run on a shared
+ * fork/join pool. Each invocation has two phases: a compute phase in which
+ * every neuron is updated (setting its buffers) and its afferent synapses are
+ * updated, and a commit phase in which every neuron's buffer values are moved
+ * into its activation (see {@link Neuron#setToBufferVals()}). The result is
+ * the same as a serial buffered update regardless of the order in which
+ * neurons are processed.
+ *
+ * Work is split recursively into chunks of roughly equal cost, where the cost
+ * of a neuron is estimated from the size of its fan-in, and idle workers steal
+ * chunks from busy ones. The neurons of a packed neuron group (see
+ * {@link NeuronGroup#setPacked(boolean)}) share words of spike flags, so
+ * such groups are only split on word boundaries (see
+ * {@link NeuronStateStore#WORD_SIZE}). Changes to the network's structure
+ * only mark the neuron list as stale; it is rebuilt at the start of the next invocation, on
+ * the calling thread, so edits take effect on the very next update.
+ *
+ * Neurons in neuron groups which are in input mode are skipped, so the update
+ * action for such groups must remain in the update sequence.
+ */
+public class ForkJoinBufferedUpdate implements NetworkUpdateAction {
+
+    /**
+     * How many chunks per worker thread to aim for, so that there is enough
+     * slack for work stealing to even out imbalances.
+     */
+    private static final int CHUNKS_PER_WORKER = 8;
+
+    /**
+     * Minimum cost of a chunk, so that small networks are not split into
+     * chunks too small to be worth scheduling.
+     */
+    private static final long MIN_CHUNK_COST = 2048;
+
+    /** Reference to network to update. */
+    private final Network network;
+
+    /** The neurons updated by this action. Rebuilt when stale. */
+    private Neuron[] neurons = new Neuron[0];
+
+    /**
+     * Units of work: unit i covers neurons[unitStart[i]..unitStart[i + 1]).
+     * Each unit is a single neuron, or the neurons of a packed group which
+     * share a word of spike flags.
+     */
+    private int[] unitStart = new int[1];
+
+    /**
+     * Cumulative update cost: the cost of units [0..i) is costs[i]. Used to
+     * split work into chunks of roughly equal cost.
+     */
+    private long[] costs = new long[1];
+
+    /** Neuron groups whose compressed inputs must be propagated. */
+    private List<NeuronGroup> neuronGroups = new ArrayList<NeuronGroup>();
+
+    /** Upper bound on the cost of a chunk in the current neuron list. */
+    private long chunkCost;
+
+    /** True once the listeners below have been registered with the network. */
+    private boolean listening;
+
+    /** True if the network structure has changed since the last rebuild. */
+    private final AtomicBoolean stale = new AtomicBoolean(true);
+
+    /** Marks the neuron list stale on any group change. */
+    private final GroupListener groupListener = new GroupAdapter() {
+        @Override
+        public void groupAdded(NetworkEvent<Group> e) {
+            invalidate();
+        }
+
+        @Override
+        public void groupRemoved(NetworkEvent<Group> e) {
+            invalidate();
+        }
+
+        @Override
+        public void groupChanged(NetworkEvent<Group> networkEvent,
+                String changeDescription) {
+            invalidate();
+        }
+    };
+
+    /** Marks the neuron list stale when loose neurons are added or removed. */
+    private final NeuronListener neuronListener = new NeuronAdapter() {
+        @Override
+        public void neuronAdded(NetworkEvent<Neuron> networkEvent) {
+            invalidate();
+        }
+
+        @Override
+        public void neuronRemoved(NetworkEvent<Neuron> networkEvent) {
+            invalidate();
+        }
+    };
+
+    /**
+     * Creates the update action. It registers to hear about structural changes
+     * to the network when first invoked, so instances which are never used
+     * (e.g. those offered in the update sequence dialog) leave no trace.
+     *
+     * @param network
+     *            the network to update
+     */
+    public ForkJoinBufferedUpdate(final Network network) {
+        this.network = network;
+    }
+
+    @Override
+    public void invoke() {
+        if (!listening) {
+            network.addGroupListener(groupListener);
+            network.addNeuronListener(neuronListener);
+            listening = true;
+            stale.set(true);
+        }
+        if (stale.getAndSet(false)) {
+            rebuild();
+        }
+        for (int i = 0, n = neuronGroups.size(); i < n; i++) {
+            neuronGroups.get(i).propagateCompressedInputs();
+        }
+        int numUnits = unitStart.length - 1;
+        if (numUnits == 0) {
+            return;
+        }
+        SharedForkJoinPool.invoke(new ComputeTask(0, numUnits));
+        SharedForkJoinPool.invoke(new CommitTask(0, numUnits));
+    }
+
+    /**
+     * Marks the list of neurons as stale so that it is rebuilt before the next
+     * update. Safe to call from any thread.
+     */
+    public void invalidate() {
+        stale.set(true);
+    }
+
+    /**
+     * Stops listening to the network. Call when this action is discarded.
+     */
+    public void shutdown() {
+        if (listening) {
+            network.removeGroupListener(groupListener);
+            network.removeNeuronListener(neuronListener);
+            listening = false;
+        }
+    }
+
+    /**
+     * Rebuilds the neuron list and the cumulative cost table from the current
+     * state of the network, and picks the chunk size.
+     */
+    private void rebuild() {
+        List<Neuron> neuronList = new ArrayList<Neuron>(network
+                .getNeuronList());
+        // Packed groups go last, so every loose or unpacked neuron is a unit
+        List<NeuronGroup> packedGroups = new ArrayList<NeuronGroup>();
+        neuronGroups = new ArrayList<NeuronGroup>();
+        for (Group group : network.getFlatGroupList()) {
+            if (group instanceof NeuronGroup) {
+                NeuronGroup ng = (NeuronGroup) group;
+                if (!ng.isInputMode()) {
+                    neuronGroups.add(ng);
+                    if (ng.isPacked()) {
+                        packedGroups.add(ng);
+                    } else {
+                        neuronList.addAll(ng.getNeuronList());
+                    }
+                }
+            }
+        }
+        int wordSize = NeuronStateStore.WORD_SIZE;
+        int numUnits = neuronList.size();
+        for (NeuronGroup ng : packedGroups) {
+            // Bring the store up to date, so slots match list positions
+            ng.getStateStore();
+            numUnits += (ng.size() + wordSize - 1) / wordSize;
+        }
+        unitStart = new int[numUnits + 1];
+        for (int i = 0, n = neuronList.size(); i < n; i++) {
+            unitStart[i + 1] = i + 1;
+        }
+        int unit = neuronList.size();
+        for (NeuronGroup ng : packedGroups) {
+            int first = neuronList.size();
+            neuronList.addAll(ng.getNeuronList());
+            for (int i = wordSize; i < ng.size(); i += wordSize) {
+                unitStart[++unit] = first + i;
+            }
+            if (!ng.isEmpty()) {
+                unitStart[++unit] = neuronList.size();
+            }
+        }
+        neurons = neuronList.toArray(new Neuron[neuronList.size()]);
+        costs = new long[numUnits + 1];
+        for (int i = 0; i < numUnits; i++) {
+            long cost = 0;
+            for (int j = unitStart[i]; j < unitStart[i + 1]; j++) {
+                cost += neuronCost(neurons[j]);
+            }
+            costs[i + 1] = costs[i] + cost;
+        }
+        long target = costs[numUnits]
+                / (SharedForkJoinPool.getParallelism() * CHUNKS_PER_WORKER);
+        chunkCost = Math.max(target, MIN_CHUNK_COST);
+    }
+
+    /**
+     * Estimated cost of updating a neuron: one unit for the neuron itself plus
+     * one for each afferent synapse, which must be read (and usually updated).
+     *
+     * @param n
+     *            the neuron
+     * @return the estimated update cost
+     */
+    private static long neuronCost(final Neuron n) {
+        if (n.isGenerator()) {
+            return 1;
+        }
+        return 1 + n.getFanIn().size();
+    }
+
+    /**
+     * Splits the range of units [lo, hi) at the point which halves its cost.
+     *
+     * @param lo
+     *            start of the range (inclusive)
+     * @param hi
+     *            end of the range (exclusive)
+     * @return the index at which to split, strictly between lo and hi
+     */
+    private int split(final int lo, final int hi) {
+        long half = costs[lo] + (costs[hi] - costs[lo]) / 2;
+        int a = lo + 1;
+        int b = hi - 1;
+        while (a < b) {
+            int mid = (a + b) >>> 1;
+            if (costs[mid] < half) {
+                a = mid + 1;
+            } else {
+                b = mid;
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Compute phase: updates neurons (buffers only) and their fan-in.
+     */
+    private final class ComputeTask extends RecursiveAction {
+
+        /** Generated serial id. */
+        private static final long serialVersionUID = 1L;
+
+        /** First unit of range (inclusive). */
+        private final int lo;
+
+        /** Last unit of range (exclusive). */
+        private final int hi;
+
+        /**
+         * @param lo
+         *            start of range (inclusive)
+         * @param hi
+         *            end of range (exclusive)
+         */
+        ComputeTask(final int lo, final int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1 && costs[hi] - costs[lo] > chunkCost) {
+                int mid = split(lo, hi);
+                invokeAll(new ComputeTask(lo, mid), new ComputeTask(mid, hi));
+                return;
+            }
+            for (int i = unitStart[lo], end = unitStart[hi]; i < end; i++) {
+                Neuron n = neurons[i];
+                n.update();
+                if (!n.isGenerator()
+                        && !n.getUpdateRule().isSkipsSynapticUpdates()) {
+                    n.updateFanIn();
+                }
+            }
+        }
+    }
+
+    /**
+     * Commit phase: moves buffer values into activations.
+     */
+    private final class CommitTask extends RecursiveAction {
+
+        /** Generated serial id. */
+        private static final long serialVersionUID = 1L;
+
+        /** First unit of range (inclusive). */
+        private final int lo;
+
+        /** Last unit of range (exclusive). */
+        private final int hi;
+
+        /**
+         * @param lo
+         *            start of range (inclusive)
+         * @param hi
+         *            end of range (exclusive)
+         */
+        CommitTask(final int lo, final int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            // Committing is cheap and uniform, so split on count alone.
+            if (hi - lo > 1 && unitStart[hi] - unitStart[lo] > MIN_CHUNK_COST) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new CommitTask(lo, mid), new CommitTask(mid, hi));
+                return;
+            }
+            for (int i = unitStart[lo], end = unitStart[hi]; i < end; i++) {
+                neurons[i].setToBufferVals();
+            }
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return "Fork/Join Buffered Update";
+    }
+
+    @Override
+    public String getLongDescription() {
+        return "Parallel Buffered Update (All Neurons, Work Stealing)";
+    }
+
+}
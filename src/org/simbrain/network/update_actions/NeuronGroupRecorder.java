@@ -47,4 +47,11 @@ public class NeuronGroupRecorder implements NetworkUpdateAction {
         return "Write " + group.getLabel() + "'s activities to file";
     }
 
+    /**
+     * @return the group
+     */
+    public NeuronGroup getGroup() {
+        return group;
+    }
+
 }
@@ -0,0 +1,66 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.update_actions.concurrency_tools;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The fork/join pool shared by all of Simbrain's parallel computations:
+ * network updates, training, and world simulation. A single pool sized to
+ * the number of processors keeps parallel work started from several places at
+ * once (e.g. from components updated on their own threads) from
+ * oversubscribing the CPU.
+ */
+public final class SharedForkJoinPool {
+
+    /** The pool. */
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime
+            .getRuntime().availableProcessors());
+
+    /**
+     * Not instantiable.
+     */
+    private SharedForkJoinPool() {
+    }
+
+    /**
+     * Runs a task in the pool and waits for it to finish. When called from a
+     * task which is already running in the pool, the task is run directly in
+     * the calling worker, so nested parallel work uses the same workers.
+     *
+     * @param <T> the type of the task's result
+     * @param task the task
+     * @return the task's result
+     */
+    public static <T> T invoke(final ForkJoinTask<T> task) {
+        if (ForkJoinTask.getPool() == POOL) {
+            return task.invoke();
+        }
+        return POOL.invoke(task);
+    }
+
+    /**
+     * @return the number of workers in the pool
+     */
+    public static int getParallelism() {
+        return POOL.getParallelism();
+    }
+
+}
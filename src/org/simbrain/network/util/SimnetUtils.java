@@ -17,6 +17,7 @@ import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Set;
 
@@ -134,12 +135,13 @@ public class SimnetUtils {
      */
     public static void scaleWeights(List<Neuron> src, List<Neuron> tar,
             double scalar) {
+        Set<Neuron> targets = Collections
+                .newSetFromMap(new IdentityHashMap<Neuron, Boolean>());
+        targets.addAll(tar);
         for (Neuron source : src) {
-            for (Neuron target : tar) {
-                Synapse weight = Network.getSynapse(source, target);
-                if (weight != null) {
-                    Network.getSynapse(source, target).forceSetStrength(
-                            weight.getStrength() * scalar);
+            for (Synapse weight : source.getFanOut().values()) {
+                if (targets.contains(weight.getTarget())) {
+                    weight.forceSetStrength(weight.getStrength() * scalar);
                 }
             }
         }
@@ -179,6 +181,11 @@ public class SimnetUtils {
     }
 
     /**
+     * Scales the weights connecting a list of neurons to itself so that they
+     * have the desired spectral radius. The spectral radius is estimated from
+     * the synapses directly (see {@link SpectralRadiusEstimator}), so the
+     * dense weight matrix is never built.
+     *
      * @param src list of source neurons
      * @param tar list of target neurons
      * @param desiredEigen : the new max eig or spectral radius for the weight
@@ -186,7 +193,27 @@ public class SimnetUtils {
      */
     public static void scaleEigenvalue(List<Neuron> src, List<Neuron> tar,
             double desiredEigen) {
-        double maxEigen = findMaxEig(getWeights(src, tar));
+        scaleEigenvalue(src, tar, desiredEigen, new SpectralRadiusEstimator());
+    }
+
+    /**
+     * Scales the weights connecting a list of neurons to itself so that they
+     * have the desired spectral radius, using the given estimator. Reusing an
+     * estimator when the same weights are rescaled repeatedly lets each
+     * estimate start from the last one. Weights with a spectral radius of
+     * zero are left alone.
+     *
+     * @param src list of source neurons
+     * @param tar list of target neurons
+     * @param desiredEigen the new spectral radius for the weight matrix
+     * @param estimator the spectral radius estimator
+     */
+    public static void scaleEigenvalue(List<Neuron> src, List<Neuron> tar,
+            double desiredEigen, SpectralRadiusEstimator estimator) {
+        double maxEigen = estimator.estimate(src, tar);
+        if (maxEigen == 0) {
+            return;
+        }
         scaleWeights(src, tar, desiredEigen / maxEigen);
     }
 
@@ -0,0 +1,435 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.util;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.Synapse;
+
+import Jama.EigenvalueDecomposition;
+import Jama.Matrix;
+
+/**
+ * Estimates the spectral radius (largest eigenvalue by absolute value) of the
+ * weight matrix connecting a list of neurons to itself, without building the
+ * dense matrix. The synapses are gathered into a sparse matrix and the
+ * estimate is made by restarted Arnoldi iteration: a small Krylov subspace is
+ * built by repeated sparse matrix-vector products, the eigenvalues of its
+ * Hessenberg projection are found directly, and the iteration is restarted
+ * from the dominant Ritz vector until the estimate settles. Unlike plain power
+ * iteration this converges when the dominant eigenvalues are a complex pair.
+ *
+ * The last Ritz vector is kept and used as the starting vector of the next
+ * estimate on a matrix of the same size. Rescaling a matrix does not change
+ * its eigenvectors, so repeated estimates on a reservoir which is being
+ * rescaled usually converge in a single restart.
+ */
+public class SpectralRadiusEstimator {
+
+    /** Default relative tolerance. */
+    public static final double DEFAULT_TOLERANCE = 1E-6;
+
+    /** Default budget of matrix-vector products. */
+    public static final int DEFAULT_MAX_ITERATIONS = 2000;
+
+    /** Default dimension of the Krylov subspace built between restarts. */
+    public static final int DEFAULT_KRYLOV_DIMENSION = 20;
+
+    /**
+     * Estimates this small relative to the largest absolute row sum of the
+     * matrix are taken to be zero. The eigenvalues of a nilpotent matrix are
+     * very sensitive to rounding (a 2 by 2 Jordan block has eigenvalues on the
+     * order of the square root of machine precision), so this is well above
+     * machine precision.
+     */
+    private static final double ZERO_TOLERANCE = 1E-6;
+
+    /**
+     * Relative tolerance on the residual of the dominant Ritz pair and on the
+     * change in the estimate between restarts.
+     */
+    private double tolerance = DEFAULT_TOLERANCE;
+
+    /** Maximum number of matrix-vector products per estimate. */
+    private int maxIterations = DEFAULT_MAX_ITERATIONS;
+
+    /** Dimension of the Krylov subspace built between restarts. */
+    private int krylovDimension = DEFAULT_KRYLOV_DIMENSION;
+
+    /** Starting vector for the next estimate, or null to start fresh. */
+    private double[] warmStart;
+
+    /** Number of matrix-vector products used by the last estimate. */
+    private int lastIterations;
+
+    /** Whether the last estimate met the tolerance within the budget. */
+    private boolean converged;
+
+    /** Row starts of the sparse matrix; row i is [rowStart[i], rowStart[i+1]). */
+    private int[] rowStart;
+
+    /** Column indices of the sparse matrix. */
+    private int[] cols;
+
+    /** Values of the sparse matrix. */
+    private double[] vals;
+
+    /**
+     * Estimates the spectral radius of the weights connecting a list of
+     * neurons to itself. Synapses to or from other neurons are ignored.
+     *
+     * @param neurons the neurons
+     * @return the estimated spectral radius
+     */
+    public double estimate(final List<Neuron> neurons) {
+        return estimate(neurons, neurons);
+    }
+
+    /**
+     * Estimates the spectral radius of the weights connecting a list of source
+     * neurons to a list of target neurons of the same size, as laid out by
+     * {@link SimnetUtils#getWeights(List, List)}.
+     *
+     * @param src the source neurons
+     * @param tar the target neurons
+     * @return the estimated spectral radius
+     */
+    public double estimate(final List<Neuron> src, final List<Neuron> tar) {
+        if (src.size() != tar.size()) {
+            throw new IllegalArgumentException("The weight matrix must be"
+                    + " square.");
+        }
+        int n = src.size();
+        if (n == 0) {
+            return 0;
+        }
+        // Row j holds the fan-in of target j, so the matrix is the transpose
+        // of the weight matrix, which has the same eigenvalues.
+        Map<Neuron, Integer> tarIndex = new IdentityHashMap<Neuron, Integer>(
+                n * 2);
+        for (int j = 0; j < n; j++) {
+            tarIndex.put(tar.get(j), j);
+        }
+        int[] counts = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            for (Map.Entry<Neuron, Synapse> e : src.get(i).getFanOut()
+                    .entrySet()) {
+                Integer j = tarIndex.get(e.getKey());
+                if (j != null) {
+                    counts[j + 1]++;
+                }
+            }
+        }
+        for (int j = 0; j < n; j++) {
+            counts[j + 1] += counts[j];
+        }
+        rowStart = counts.clone();
+        cols = new int[counts[n]];
+        vals = new double[counts[n]];
+        for (int i = 0; i < n; i++) {
+            for (Map.Entry<Neuron, Synapse> e : src.get(i).getFanOut()
+                    .entrySet()) {
+                Integer j = tarIndex.get(e.getKey());
+                if (j != null) {
+                    int k = counts[j]++;
+                    cols[k] = i;
+                    vals[k] = e.getValue().getStrength();
+                }
+            }
+        }
+        try {
+            return estimate(n);
+        } finally {
+            rowStart = null;
+            cols = null;
+            vals = null;
+        }
+    }
+
+    /**
+     * Estimates the spectral radius of the sparse matrix currently held.
+     *
+     * @param n the size of the matrix
+     * @return the estimated spectral radius
+     */
+    private double estimate(final int n) {
+        // The largest absolute row sum bounds the spectral radius
+        double bound = 0;
+        for (int j = 0; j < n; j++) {
+            double sum = 0;
+            for (int k = rowStart[j], end = rowStart[j + 1]; k < end; k++) {
+                sum += Math.abs(vals[k]);
+            }
+            bound = Math.max(bound, sum);
+        }
+        lastIterations = 0;
+        converged = true;
+        if (bound == 0) {
+            return 0;
+        }
+        int m = Math.min(krylovDimension, n);
+        double[][] basis = new double[m + 1][];
+        double[] v = warmStart != null && warmStart.length == n ? warmStart
+                : randomVector(n);
+        converged = false;
+        double radius = -1;
+        while (true) {
+            double norm = norm(v);
+            if (norm == 0) {
+                v = randomVector(n);
+                norm = norm(v);
+            }
+            basis[0] = scale(v, 1 / norm);
+            Matrix h = new Matrix(m + 1, m);
+            int size = m;
+            for (int k = 0; k < m; k++) {
+                double[] w = multiply(basis[k]);
+                lastIterations++;
+                double wNorm = norm(w);
+                // Modified Gram-Schmidt, twice for numerical safety
+                for (int pass = 0; pass < 2; pass++) {
+                    for (int i = 0; i <= k; i++) {
+                        double d = dot(basis[i], w);
+                        h.set(i, k, h.get(i, k) + d);
+                        axpy(-d, basis[i], w);
+                    }
+                }
+                double hNext = norm(w);
+                h.set(k + 1, k, hNext);
+                if (hNext <= 1E-12 * Math.max(wNorm, Double.MIN_NORMAL)) {
+                    // Invariant subspace: the Ritz values are exact
+                    size = k + 1;
+                    break;
+                }
+                basis[k + 1] = scale(w, 1 / hNext);
+            }
+            EigenvalueDecomposition eig = h.getMatrix(0, size - 1, 0,
+                    size - 1).eig();
+            double[] re = eig.getRealEigenvalues();
+            double[] im = eig.getImagEigenvalues();
+            int best = 0;
+            double bestAbs = -1;
+            for (int i = 0; i < size; i++) {
+                double abs = Math.hypot(re[i], im[i]);
+                if (abs > bestAbs) {
+                    bestAbs = abs;
+                    best = i;
+                }
+            }
+            if (bestAbs <= ZERO_TOLERANCE * bound) {
+                // Nilpotent, up to rounding error
+                converged = true;
+                warmStart = null;
+                return 0;
+            }
+            // For a complex pair the first column of V holds the real part
+            // of the eigenvector and the second its imaginary part
+            if (im[best] < 0 && best > 0) {
+                best--;
+            }
+            double[][] ritz = eig.getV().getArray();
+            boolean complex = im[best] != 0 && best + 1 < size;
+            double[] next = new double[n];
+            double ritzNorm = 0;
+            for (int i = 0; i < size; i++) {
+                axpy(ritz[i][best], basis[i], next);
+                ritzNorm += ritz[i][best] * ritz[i][best];
+                if (complex) {
+                    ritzNorm += ritz[i][best + 1] * ritz[i][best + 1];
+                }
+            }
+            double last = ritz[size - 1][best];
+            if (complex) {
+                last = Math.hypot(last, ritz[size - 1][best + 1]);
+            }
+            // The residual of the Ritz pair is h(m+1, m) times the last
+            // component of its (unit) eigenvector in the Krylov basis
+            double residual = size < m ? 0 : h.get(size, size - 1)
+                    * Math.abs(last) / Math.sqrt(ritzNorm);
+            v = next;
+            radius = bestAbs;
+            if (size < m || residual <= tolerance * bestAbs) {
+                converged = true;
+                break;
+            }
+            if (lastIterations + m > maxIterations) {
+                break;
+            }
+        }
+        warmStart = v;
+        return radius;
+    }
+
+    /**
+     * Sparse matrix-vector product.
+     *
+     * @param x the vector
+     * @return the product
+     */
+    private double[] multiply(final double[] x) {
+        double[] y = new double[rowStart.length - 1];
+        for (int j = 0; j < y.length; j++) {
+            double sum = 0;
+            for (int k = rowStart[j], end = rowStart[j + 1]; k < end; k++) {
+                sum += vals[k] * x[cols[k]];
+            }
+            y[j] = sum;
+        }
+        return y;
+    }
+
+    /**
+     * A fixed pseudo-random starting vector, so that estimates are
+     * reproducible.
+     *
+     * @param n the size of the vector
+     * @return the vector
+     */
+    private static double[] randomVector(final int n) {
+        Random random = new Random(n);
+        double[] v = new double[n];
+        for (int i = 0; i < n; i++) {
+            v[i] = random.nextGaussian();
+        }
+        return v;
+    }
+
+    /**
+     * @param x a vector
+     * @return its Euclidean norm
+     */
+    private static double norm(final double[] x) {
+        return Math.sqrt(dot(x, x));
+    }
+
+    /**
+     * @param x first vector
+     * @param y second vector
+     * @return their dot product
+     */
+    private static double dot(final double[] x, final double[] y) {
+        double sum = 0;
+        for (int i = 0; i < x.length; i++) {
+            sum += x[i] * y[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Adds a multiple of one vector to another (y += a x).
+     *
+     * @param a the multiple
+     * @param x the vector added
+     * @param y the vector added to
+     */
+    private static void axpy(final double a, final double[] x,
+            final double[] y) {
+        for (int i = 0; i < x.length; i++) {
+            y[i] += a * x[i];
+        }
+    }
+
+    /**
+     * @param x a vector
+     * @param a a scalar
+     * @return a new vector a x
+     */
+    private static double[] scale(final double[] x, final double a) {
+        double[] y = new double[x.length];
+        for (int i = 0; i < x.length; i++) {
+            y[i] = a * x[i];
+        }
+        return y;
+    }
+
+    /**
+     * Forgets the starting vector kept from the last estimate.
+     */
+    public void reset() {
+        warmStart = null;
+    }
+
+    /**
+     * @return the relative tolerance
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * @param tolerance the relative tolerance on the residual of the
+     *            estimate, or its change between restarts, at which to stop
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * @return the maximum number of matrix-vector products per estimate
+     */
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * @param maxIterations the maximum number of matrix-vector products per
+     *            estimate
+     */
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * @return the dimension of the Krylov subspace built between restarts
+     */
+    public int getKrylovDimension() {
+        return krylovDimension;
+    }
+
+    /**
+     * @param krylovDimension the dimension of the Krylov subspace built
+     *            between restarts
+     */
+    public void setKrylovDimension(int krylovDimension) {
+        if (krylovDimension < 1) {
+            throw new IllegalArgumentException("Krylov dimension must be"
+                    + " positive.");
+        }
+        this.krylovDimension = krylovDimension;
+    }
+
+    /**
+     * @return the number of matrix-vector products used by the last estimate
+     */
+    public int getLastIterations() {
+        return lastIterations;
+    }
+
+    /**
+     * @return whether the last estimate met the tolerance within the budget
+     */
+    public boolean isConverged() {
+        return converged;
+    }
+
+}
@@ -0,0 +1,379 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.util.io_utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.simbrain.network.core.Network;
+import org.simbrain.network.groups.SynapseGroup;
+
+/**
+ * A binary snapshot of a network, for networks too large to save as XML.
+ * Neurons, groups, update rules and the per-group synapse prototypes (which
+ * carry each group's rule parameters) are stored in a small XML skeleton
+ * written with {@link Network#getXStream()}. The connections of each synapse
+ * group, which are the bulk of a large network, are detached from the skeleton
+ * and stored as raw blocks in the encodings the groups already use (see
+ * {@link SynapseGroup#preSaveInit()}): CSR weight and delay arrays for
+ * compressed groups, {@link GroupSerializer} encodings otherwise.
+ * <p>
+ * Layout (big-endian): the magic number {@link #MAGIC}, a version number, the
+ * length of the skeleton and its UTF-8 bytes, the number of blocks, and then
+ * for each block its kind, length and bytes. Everything is moved through a
+ * channel in chunks of {@link #CHUNK_SIZE} bytes using a direct buffer.
+ */
+public final class NetworkSnapshot {
+
+    /** Magic number at the start of every snapshot: "SBNS". */
+    public static final int MAGIC = 0x53424E53;
+
+    /** Version of the format written by this class. */
+    public static final int VERSION = 1;
+
+    /** Size of the direct buffer used to move data through channels. */
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    /** Not instantiated. */
+    private NetworkSnapshot() {
+    }
+
+    /**
+     * Returns true if the given bytes begin a binary snapshot.
+     *
+     * @param header
+     *            the first four (or more) bytes of a file or stream
+     * @return true if they begin with {@link #MAGIC}
+     */
+    public static boolean isSnapshot(final byte[] header) {
+        return header.length >= 4
+                && ByteBuffer.wrap(header, 0, 4).getInt() == MAGIC;
+    }
+
+    /**
+     * Writes a snapshot of a network to a file.
+     *
+     * @param network
+     *            the network to save
+     * @param file
+     *            the file to write
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public static void save(final Network network, final File file)
+            throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            write(network, out.getChannel());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a network from a snapshot file.
+     *
+     * @param file
+     *            the file to read
+     * @return the network
+     * @throws IOException
+     *             if the file cannot be read or is not a snapshot
+     */
+    public static Network load(final File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return read(in.getChannel());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes a snapshot of a network to a stream. The stream is not closed.
+     *
+     * @param network
+     *            the network to save
+     * @param output
+     *            the stream to write to
+     * @throws IOException
+     *             if the stream cannot be written
+     */
+    public static void write(final Network network, final OutputStream output)
+            throws IOException {
+        write(network, Channels.newChannel(output));
+        output.flush();
+    }
+
+    /**
+     * Reads a network from a snapshot on a stream. The stream is not closed.
+     *
+     * @param input
+     *            the stream to read from
+     * @return the network
+     * @throws IOException
+     *             if the stream cannot be read or is not a snapshot
+     */
+    public static Network read(final InputStream input) throws IOException {
+        return read(Channels.newChannel(input));
+    }
+
+    /**
+     * Writes a snapshot of a network to a channel.
+     *
+     * @param network
+     *            the network to save
+     * @param channel
+     *            the channel to write to
+     * @throws IOException
+     *             if the channel cannot be written
+     */
+    public static void write(final Network network,
+            final WritableByteChannel channel) throws IOException {
+        List<SynapseGroup> groups = network.getSynapseGroups();
+        List<SynapseGroup> detached = new ArrayList<SynapseGroup>();
+        List<byte[]> blocks = new ArrayList<byte[]>();
+        List<Byte> kinds = new ArrayList<Byte>();
+        network.preSaveInit();
+        try {
+            for (SynapseGroup group : groups) {
+                byte kind = group.getSavedRepKind();
+                byte[] data = group.takeSavedRep(blocks.size());
+                if (data != null) {
+                    detached.add(group);
+                    blocks.add(data);
+                    kinds.add(kind);
+                }
+            }
+            ByteArrayOutputStream skeleton = new ByteArrayOutputStream();
+            Network.getXStream().toXML(network, skeleton);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putLong(skeleton.size());
+            put(channel, buffer, skeleton.toByteArray());
+            ensureRoom(channel, buffer, 4);
+            buffer.putInt(blocks.size());
+            for (int i = 0; i < blocks.size(); i++) {
+                ensureRoom(channel, buffer, 9);
+                buffer.put(kinds.get(i));
+                buffer.putLong(blocks.get(i).length);
+                put(channel, buffer, blocks.get(i));
+            }
+            flush(channel, buffer);
+        } finally {
+            for (int i = 0; i < detached.size(); i++) {
+                detached.get(i).returnSavedRep(kinds.get(i), blocks.get(i));
+            }
+            network.postSaveReInit();
+        }
+    }
+
+    /**
+     * Reads a network from a snapshot on a channel.
+     *
+     * @param channel
+     *            the channel to read from
+     * @return the network
+     * @throws IOException
+     *             if the channel cannot be read or is not a snapshot
+     */
+    public static Network read(final ReadableByteChannel channel)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        buffer.flip();
+        require(channel, buffer, 16);
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a network snapshot");
+        }
+        int version = buffer.getInt();
+        if (version > VERSION) {
+            throw new IOException("Unsupported network snapshot version "
+                    + version);
+        }
+        byte[] skeleton = get(channel, buffer, buffer.getLong());
+        Network network = (Network) Network.getXStream().fromXML(
+                new ByteArrayInputStream(skeleton));
+
+        require(channel, buffer, 4);
+        int numBlocks = buffer.getInt();
+        byte[] kinds = new byte[numBlocks];
+        byte[][] blocks = new byte[numBlocks][];
+        for (int i = 0; i < numBlocks; i++) {
+            require(channel, buffer, 9);
+            kinds[i] = buffer.get();
+            blocks[i] = get(channel, buffer, buffer.getLong());
+        }
+        for (SynapseGroup group : network.getSynapseGroups()) {
+            int block = group.getSnapshotBlock();
+            if (block >= 0) {
+                if (block >= numBlocks) {
+                    throw new IOException("Missing block " + block
+                            + " for synapse group " + group.getLabel());
+                }
+                group.restoreSavedRep(kinds[block], blocks[block]);
+                blocks[block] = null;
+            }
+        }
+        return network;
+    }
+
+    /**
+     * Copies an array into the buffer, writing the buffer to the channel
+     * whenever it fills.
+     *
+     * @param channel
+     *            the channel to write to
+     * @param buffer
+     *            the buffer, in write mode
+     * @param data
+     *            the bytes to write
+     * @throws IOException
+     *             if the channel cannot be written
+     */
+    private static void put(final WritableByteChannel channel,
+            final ByteBuffer buffer, final byte[] data) throws IOException {
+        int offset = 0;
+        while (offset < data.length) {
+            if (!buffer.hasRemaining()) {
+                flush(channel, buffer);
+            }
+            int n = Math.min(buffer.remaining(), data.length - offset);
+            buffer.put(data, offset, n);
+            offset += n;
+        }
+    }
+
+    /**
+     * Writes the buffer to the channel if it has less than the given room
+     * left.
+     *
+     * @param channel
+     *            the channel to write to
+     * @param buffer
+     *            the buffer, in write mode
+     * @param room
+     *            the number of bytes about to be put
+     * @throws IOException
+     *             if the channel cannot be written
+     */
+    private static void ensureRoom(final WritableByteChannel channel,
+            final ByteBuffer buffer, final int room) throws IOException {
+        if (buffer.remaining() < room) {
+            flush(channel, buffer);
+        }
+    }
+
+    /**
+     * Writes the contents of the buffer to the channel and clears it.
+     *
+     * @param channel
+     *            the channel to write to
+     * @param buffer
+     *            the buffer, in write mode
+     * @throws IOException
+     *             if the channel cannot be written
+     */
+    private static void flush(final WritableByteChannel channel,
+            final ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Reads from the channel until the buffer holds at least the given number
+     * of unread bytes.
+     *
+     * @param channel
+     *            the channel to read from
+     * @param buffer
+     *            the buffer, in read mode
+     * @param count
+     *            the number of bytes needed
+     * @throws IOException
+     *             if the channel ends first
+     */
+    private static void require(final ReadableByteChannel channel,
+            final ByteBuffer buffer, final int count) throws IOException {
+        if (buffer.remaining() >= count) {
+            return;
+        }
+        buffer.compact();
+        while (buffer.position() < count) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Network snapshot is truncated");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Reads the given number of bytes into a new array, refilling the buffer
+     * from the channel as needed.
+     *
+     * @param channel
+     *            the channel to read from
+     * @param buffer
+     *            the buffer, in read mode
+     * @param length
+     *            the number of bytes to read
+     * @return the bytes
+     * @throws IOException
+     *             if the channel ends first or the length is too large
+     */
+    private static byte[] get(final ReadableByteChannel channel,
+            final ByteBuffer buffer, final long length) throws IOException {
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("Invalid block length " + length);
+        }
+        byte[] data = new byte[(int) length];
+        int offset = 0;
+        while (offset < data.length) {
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Network snapshot is truncated");
+                }
+                buffer.flip();
+            }
+            int n = Math.min(buffer.remaining(), data.length - offset);
+            buffer.get(data, offset, n);
+            offset += n;
+        }
+        return data;
+    }
+
+}
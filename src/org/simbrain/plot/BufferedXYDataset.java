@@ -0,0 +1,375 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.plot;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.jfree.data.xy.AbstractXYDataset;
+
+/**
+ * A JFreeChart dataset showing a decimated view of a list of series buffers,
+ * so that the chart only ever draws about as many points as it has pixels
+ * however long the run. The view is recomputed by {@link #refresh(double,
+ * int, int)}, which charts call from the Swing thread at a fixed rate rather
+ * than on every point added; nothing else about the dataset changes, so the
+ * chart never sees it change while drawing.
+ *
+ * Line charts keep, for each pixel column, the first, lowest, highest and
+ * last points falling in it, in their original order, which draws the same
+ * picture as every point. Scatter charts keep one point for each pixel a
+ * column's points fall on.
+ */
+public class BufferedXYDataset extends AbstractXYDataset {
+
+    /** Default serial version id. */
+    private static final long serialVersionUID = 1L;
+
+    /** The series shown, in order. */
+    private final List<SeriesBuffer> series;
+
+    /** Whether points are joined by lines (otherwise, a scatter plot). */
+    private final boolean lines;
+
+    /** X values of the points shown, by series. */
+    private double[][] viewX = new double[0][];
+
+    /** Y values of the points shown, by series. */
+    private double[][] viewY = new double[0][];
+
+    /** Number of points shown, by series. */
+    private int[] viewCount = new int[0];
+
+    /** Buffers shown at the last refresh. */
+    private SeriesBuffer[] seen = new SeriesBuffer[0];
+
+    /** Points added to each buffer as of the last refresh. */
+    private long[] seenWritten = new long[0];
+
+    /** Points cleared from each buffer as of the last refresh. */
+    private long[] seenStart = new long[0];
+
+    /** View parameters of the last refresh. */
+    private double seenWindow = Double.NaN;
+
+    /** See above. */
+    private int seenWidth = -1;
+
+    /** See above. */
+    private int seenHeight = -1;
+
+    /** Points copied out of each buffer. */
+    private double[][] copyX = new double[0][];
+
+    /** See above. */
+    private double[][] copyY = new double[0][];
+
+    /** Number of points copied out of each buffer. */
+    private int[] copyCount = new int[0];
+
+    /** Pixel rows already holding a point in the current column. */
+    private boolean[] rowUsed = new boolean[0];
+
+    /** Rows to reset in the array above when the column changes. */
+    private int[] usedRows = new int[0];
+
+    /**
+     * Construct a view of a list of buffers. The list is read each time the
+     * view is refreshed, so series may be added and removed.
+     *
+     * @param series the buffers, one per series
+     * @param lines true for line charts, false for scatter charts
+     */
+    public BufferedXYDataset(final List<SeriesBuffer> series,
+            final boolean lines) {
+        this.series = series;
+        this.lines = lines;
+    }
+
+    /**
+     * Recompute the view if any series has changed. The x range shown is the
+     * most recent window of x values, or all of them if the window is not
+     * positive. Must be called from the Swing thread.
+     *
+     * @param window width of the x range shown, or 0 for all of it
+     * @param width width in pixels of the chart's data area
+     * @param height height in pixels of the chart's data area
+     */
+    public void refresh(final double window, final int width,
+            final int height) {
+        SeriesBuffer[] buffers = series.toArray(new SeriesBuffer[0]);
+        int n = buffers.length;
+        boolean changed = n != seen.length || window != seenWindow
+                || width != seenWidth || height != seenHeight;
+        for (int s = 0; !changed && s < n; s++) {
+            changed = buffers[s] != seen[s]
+                    || buffers[s].getWritten() != seenWritten[s]
+                    || buffers[s].getStart() != seenStart[s];
+        }
+        if (!changed) {
+            return;
+        }
+        if (n != seen.length) {
+            seenWritten = new long[n];
+            seenStart = new long[n];
+            copyX = Arrays.copyOf(copyX, n);
+            copyY = Arrays.copyOf(copyY, n);
+            copyCount = new int[n];
+            viewX = Arrays.copyOf(viewX, n);
+            viewY = Arrays.copyOf(viewY, n);
+            viewCount = Arrays.copyOf(viewCount, n);
+        }
+        seen = buffers;
+        seenWindow = window;
+        seenWidth = width;
+        seenHeight = height;
+
+        // Copy every series out, noting the range of x and y values
+        double minX = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int s = 0; s < n; s++) {
+            seenWritten[s] = buffers[s].getWritten();
+            seenStart[s] = buffers[s].getStart();
+            int size = buffers[s].size();
+            if (copyX[s] == null || copyX[s].length < size) {
+                copyX[s] = new double[size];
+                copyY[s] = new double[size];
+            }
+            int count = buffers[s].read(copyX[s], copyY[s]);
+            copyCount[s] = count;
+            for (int i = 0; i < count; i++) {
+                double x = copyX[s][i];
+                double y = copyY[s][i];
+                minX = Math.min(minX, x);
+                maxX = Math.max(maxX, x);
+                minY = Math.min(minY, y);
+                maxY = Math.max(maxY, y);
+            }
+        }
+        if (window > 0) {
+            minX = maxX - window;
+        }
+        int columns = Math.max(1, width);
+        int rows = Math.max(1, height);
+        if (!lines && rowUsed.length < rows) {
+            rowUsed = new boolean[rows];
+            usedRows = new int[rows];
+        }
+        for (int s = 0; s < n; s++) {
+            if (lines) {
+                decimateLines(s, minX, maxX, columns);
+            } else {
+                decimatePoints(s, minX, maxX, columns, minY, maxY, rows);
+            }
+        }
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns the pixel column of an x value. Values left or right of the
+     * range fall in columns -1 and <code>columns</code>.
+     *
+     * @param x the x value
+     * @param minX left of the range
+     * @param maxX right of the range
+     * @param columns number of columns
+     * @return the column
+     */
+    private static int column(final double x, final double minX,
+            final double maxX, final int columns) {
+        if (x < minX) {
+            return -1;
+        } else if (x > maxX) {
+            return columns;
+        } else if (maxX <= minX) {
+            return 0;
+        }
+        return Math.min(columns - 1, (int) ((x - minX) / (maxX - minX)
+                * columns));
+    }
+
+    /**
+     * Keep the first, lowest, highest and last points of each run of points
+     * in the same column.
+     *
+     * @param s the series
+     * @param minX left of the range
+     * @param maxX right of the range
+     * @param columns number of columns
+     */
+    private void decimateLines(final int s, final double minX,
+            final double maxX, final int columns) {
+        double[] x = copyX[s];
+        double[] y = copyY[s];
+        int count = copyCount[s];
+        ensureView(s, Math.min(count, 4 * (columns + 2)));
+        int out = 0;
+        int i = 0;
+        while (i < count) {
+            int column = column(x[i], minX, maxX, columns);
+            int first = i;
+            int low = i;
+            int high = i;
+            i++;
+            while (i < count && column(x[i], minX, maxX, columns) == column) {
+                if (y[i] < y[low]) {
+                    low = i;
+                } else if (y[i] > y[high]) {
+                    high = i;
+                }
+                i++;
+            }
+            int last = i - 1;
+            int a = Math.min(low, high);
+            int b = Math.max(low, high);
+            out = append(s, out, first);
+            if (a != first) {
+                out = append(s, out, a);
+            }
+            if (b != a) {
+                out = append(s, out, b);
+            }
+            if (last != b) {
+                out = append(s, out, last);
+            }
+        }
+        viewCount[s] = out;
+    }
+
+    /**
+     * Append a copied point to a series' view.
+     *
+     * @param s the series
+     * @param out number of points in the view so far
+     * @param i the point
+     * @return number of points in the view after
+     */
+    private int append(final int s, final int out, final int i) {
+        ensureView(s, out + 1);
+        viewX[s][out] = copyX[s][i];
+        viewY[s][out] = copyY[s][i];
+        return out + 1;
+    }
+
+    /**
+     * Keep the first point falling on each pixel of each run of points in
+     * the same column.
+     *
+     * @param s the series
+     * @param minX left of the range
+     * @param maxX right of the range
+     * @param columns number of columns
+     * @param minY bottom of the range
+     * @param maxY top of the range
+     * @param rows number of rows
+     */
+    private void decimatePoints(final int s, final double minX,
+            final double maxX, final int columns, final double minY,
+            final double maxY, final int rows) {
+        double[] x = copyX[s];
+        double[] y = copyY[s];
+        int count = copyCount[s];
+        int out = 0;
+        int used = 0;
+        int column = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            int c = column(x[i], minX, maxX, columns);
+            if (c != column) {
+                for (int j = 0; j < used; j++) {
+                    rowUsed[usedRows[j]] = false;
+                }
+                used = 0;
+                column = c;
+            }
+            int row = maxY <= minY ? 0 : Math.min(rows - 1,
+                    (int) ((y[i] - minY) / (maxY - minY) * rows));
+            if (!rowUsed[row]) {
+                rowUsed[row] = true;
+                usedRows[used++] = row;
+                out = append(s, out, i);
+            }
+        }
+        for (int j = 0; j < used; j++) {
+            rowUsed[usedRows[j]] = false;
+        }
+        viewCount[s] = out;
+    }
+
+    /**
+     * Make sure a series' view can hold some number of points.
+     *
+     * @param s the series
+     * @param length number of points
+     */
+    private void ensureView(final int s, final int length) {
+        if (viewX[s] == null || viewX[s].length < length) {
+            int newLength = Math.max(length, viewX[s] == null ? 0
+                    : 2 * viewX[s].length);
+            viewX[s] = viewX[s] == null ? new double[newLength] : Arrays
+                    .copyOf(viewX[s], newLength);
+            viewY[s] = viewY[s] == null ? new double[newLength] : Arrays
+                    .copyOf(viewY[s], newLength);
+        }
+    }
+
+    /**
+     * The number of series is that of the buffer list, so that it is up to
+     * date even if the view has not been refreshed; series not yet refreshed
+     * show no points.
+     *
+     * @return number of series
+     */
+    @Override
+    public int getSeriesCount() {
+        return series.size();
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Comparable getSeriesKey(final int s) {
+        return Integer.valueOf(s + 1);
+    }
+
+    @Override
+    public int getItemCount(final int s) {
+        return s < viewCount.length ? viewCount[s] : 0;
+    }
+
+    @Override
+    public Number getX(final int s, final int item) {
+        return viewX[s][item];
+    }
+
+    @Override
+    public double getXValue(final int s, final int item) {
+        return viewX[s][item];
+    }
+
+    @Override
+    public Number getY(final int s, final int item) {
+        return viewY[s][item];
+    }
+
+    @Override
+    public double getYValue(final int s, final int item) {
+        return viewY[s][item];
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.plot;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * The points of one series of a chart, held in a ring buffer of fixed
+ * capacity so that long runs do not use up memory. Once the buffer is full
+ * each new point replaces the oldest one, which is written to a stream first
+ * if one has been set (see {@link #setSpill(OutputStream)}).
+ *
+ * Points are added by a single thread (normally the workspace updater) and
+ * can be read by any other thread without locking: a reader copies the
+ * points out, reads {@link #claimed} again, and then discards those the
+ * writer may have replaced while it was copying, or copies again if that was
+ * all of them. The arrays only grow up to the capacity as points are added,
+ * so a buffer with few points is small, and saves small.
+ */
+public final class SeriesBuffer {
+
+    /** Default maximum number of points held. */
+    public static final int DEFAULT_CAPACITY = 100000;
+
+    /** Length of the arrays when the first point is added. */
+    private static final int INITIAL_LENGTH = 64;
+
+    /** Maximum number of points held. */
+    private final int capacity;
+
+    /** X values. Point i is at index i % capacity. */
+    private double[] xs = new double[0];
+
+    /** Y values, laid out as above. */
+    private double[] ys = new double[0];
+
+    /** Number of points ever added. Written last, so readers see the rest. */
+    private volatile long written;
+
+    /**
+     * Number of points ever added, counting one being added now. Written
+     * first, so readers can tell which points may have been replaced while
+     * they were copying.
+     */
+    private volatile long claimed;
+
+    /** Number of points added before the buffer was last cleared. */
+    private volatile long start;
+
+    /**
+     * Written by readers after copying points and before reading
+     * {@link #claimed} again, so that the copy cannot be reordered after that
+     * read.
+     */
+    private transient volatile long readFence;
+
+    /** Where points are written when they are replaced, or null. */
+    private transient volatile DataOutputStream spill;
+
+    /**
+     * Construct an empty buffer.
+     *
+     * @param capacity maximum number of points held
+     */
+    public SeriesBuffer(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Add a point, replacing the oldest one if the buffer is full. Must only
+     * be called from one thread at a time.
+     *
+     * @param x x value
+     * @param y y value
+     */
+    public void add(final double x, final double y) {
+        long n = written;
+        int index;
+        if (n < capacity) {
+            index = (int) n;
+            if (index == xs.length) {
+                int length = (int) Math.min(capacity, Math.max(
+                        INITIAL_LENGTH, 2L * xs.length));
+                xs = Arrays.copyOf(xs, length);
+                ys = Arrays.copyOf(ys, length);
+            }
+        } else {
+            index = (int) (n % capacity);
+            if (n - capacity >= start) {
+                spill(xs[index], ys[index]);
+            }
+        }
+        claimed = n + 1;
+        xs[index] = x;
+        ys[index] = y;
+        written = n + 1;
+    }
+
+    /**
+     * Write a point which is about to be replaced to the spill stream, if
+     * there is one. If writing fails, spilling stops.
+     *
+     * @param x x value
+     * @param y y value
+     */
+    private void spill(final double x, final double y) {
+        DataOutputStream out = spill;
+        if (out != null) {
+            try {
+                out.writeDouble(x);
+                out.writeDouble(y);
+            } catch (IOException e) {
+                // Stream closed under us, or disk trouble; either way the
+                // history can no longer be complete
+                spill = null;
+            }
+        }
+    }
+
+    /**
+     * Remove all points. Safe to call while points are being added, though
+     * a point added at the same time may survive.
+     */
+    public void clear() {
+        start = written;
+    }
+
+    /**
+     * @return the number of points held
+     */
+    public int size() {
+        long n = written;
+        return (int) (n - Math.max(start, n - capacity));
+    }
+
+    /**
+     * @return the maximum number of points held
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of points ever added, which changes whenever one is
+     */
+    long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return number of points added before the last clear, which changes
+     *         whenever the buffer is cleared
+     */
+    long getStart() {
+        return start;
+    }
+
+    /**
+     * Copy the most recent points, oldest first, into arrays. As many points
+     * as fit are copied, up to all those held.
+     *
+     * @param destX array for x values
+     * @param destY array for y values, at least as long
+     * @return the number of points copied
+     */
+    public int read(final double[] destX, final double[] destY) {
+        while (true) {
+            long n = written;
+            double[] bx = xs;
+            double[] by = ys;
+            long first = Math.max(Math.max(start, n - capacity), n
+                    - destX.length);
+            int count = 0;
+            for (long s = first; s < n; s++) {
+                int i = (int) (s % capacity);
+                destX[count] = bx[i];
+                destY[count] = by[i];
+                count++;
+            }
+            readFence = n;
+            // The writer may have replaced the oldest points while we copied
+            long valid = claimed - capacity;
+            if (valid <= first) {
+                return count;
+            }
+            if (valid >= n) {
+                continue;
+            }
+            int skip = (int) (valid - first);
+            count -= skip;
+            System.arraycopy(destX, skip, destX, 0, count);
+            System.arraycopy(destY, skip, destY, 0, count);
+            return count;
+        }
+    }
+
+    /**
+     * Returns a buffer of another capacity holding the most recent points of
+     * this one. The spill stream, if any, passes to the new buffer, and any
+     * points which do not fit are written to it. Points added to this buffer
+     * meanwhile may be missed.
+     *
+     * @param newCapacity capacity of the new buffer
+     * @return the new buffer
+     */
+    public SeriesBuffer resize(final int newCapacity) {
+        SeriesBuffer ret = new SeriesBuffer(newCapacity);
+        int length = size();
+        double[] x = new double[length];
+        double[] y = new double[length];
+        int count = read(x, y);
+        ret.spill = spill;
+        spill = null;
+        for (int i = 0; i < count; i++) {
+            ret.add(x[i], y[i]);
+        }
+        return ret;
+    }
+
+    /**
+     * Start writing points to a stream as they are replaced, as pairs of
+     * doubles (see {@link DataOutputStream#writeDouble(double)}). Together
+     * with the points still held, the stream then records the full history
+     * of the series. Any previous stream is closed.
+     *
+     * @param output the stream, or null to stop
+     * @throws IOException if the previous stream cannot be closed
+     */
+    public void setSpill(final OutputStream output) throws IOException {
+        DataOutputStream old = spill;
+        spill = output == null ? null : new DataOutputStream(
+                new BufferedOutputStream(output));
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    /**
+     * @return whether replaced points are being written to a stream
+     */
+    public boolean isSpilling() {
+        return spill != null;
+    }
+
+    /**
+     * Standard method call made to objects after they are deserialized. See:
+     * http://java.sun.com/developer/JDCTechTips/2002/tt0205.html#tip2
+     * http://xstream.codehaus.org/faq.html
+     *
+     * @return Initialized object.
+     */
+    private Object readResolve() {
+        if (xs == null || ys == null || xs.length != ys.length) {
+            xs = new double[0];
+            ys = new double[0];
+            written = 0;
+            start = 0;
+        }
+        claimed = written;
+        return this;
+    }
+}
@@ -18,6 +18,7 @@
  */
 package org.simbrain.plot.rasterchart;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
@@ -192,7 +193,11 @@ public class RasterPlotComponent extends WorkspaceComponent {
 
     @Override
     public void closing() {
-        // TODO Auto-generated method stub
+        try {
+            model.stopSpilling();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     @Override
@@ -18,9 +18,17 @@
  */
 package org.simbrain.plot.timeseries;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import org.jfree.data.xy.XYSeries;
 import org.jfree.data.xy.XYSeriesCollection;
+import org.simbrain.plot.BufferedXYDataset;
 import org.simbrain.plot.ChartModel;
+import org.simbrain.plot.SeriesBuffer;
 
 import com.thoughtworks.xstream.XStream;
 
@@ -29,8 +37,23 @@ import com.thoughtworks.xstream.XStream;
  */
 public class TimeSeriesModel extends ChartModel {
 
-    /** Time Series Data. */
-    private XYSeriesCollection dataset = new XYSeriesCollection();
+    /** Points of each series. */
+    private List<SeriesBuffer> series = new CopyOnWriteArrayList<SeriesBuffer>();
+
+    /** Decimated view of the series, for charts. */
+    private transient BufferedXYDataset view;
+
+    /**
+     * Data saved before series were buffered. Only read when opening such
+     * files, and moved into the buffers.
+     */
+    private XYSeriesCollection dataset;
+
+    /** Maximum number of points held for each series. */
+    private int historySize = SeriesBuffer.DEFAULT_CAPACITY;
+
+    /** Directory points dropped from memory are written to, or null. */
+    private transient File spillDirectory;
 
     /** Default number of data sources for plot initialization. */
     private static final int INITIAL_DATA_SOURCES = 5;
@@ -89,9 +112,8 @@ public class TimeSeriesModel extends ChartModel {
      * Clears the plot.
      */
     public void clearData() {
-        int seriesCount = dataset.getSeriesCount();
-        for (int i = 0; seriesCount > i; ++i) {
-            dataset.getSeries(i).clear();
+        for (SeriesBuffer buffer : series) {
+            buffer.clear();
         }
     }
 
@@ -99,11 +121,16 @@ public class TimeSeriesModel extends ChartModel {
      * Removes a data source from the chart.
      */
     public void removeDataSource() {
-        Integer lastSeriesIndex = dataset.getSeriesCount() - 1;
+        Integer lastSeriesIndex = series.size() - 1;
 
         if (lastSeriesIndex >= 0) {
             this.fireDataSourceRemoved(lastSeriesIndex);
-            dataset.removeSeries(lastSeriesIndex);
+            SeriesBuffer removed = series.remove((int) lastSeriesIndex);
+            try {
+                removed.setSpill(null);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
 
@@ -111,16 +138,79 @@ public class TimeSeriesModel extends ChartModel {
      * Adds a data source to the chart.
      */
     public void addDataSource() {
-        Integer currentSize = dataset.getSeriesCount();
-        dataset.addSeries(new XYSeries(currentSize + 1));
+        Integer currentSize = series.size();
+        SeriesBuffer buffer = new SeriesBuffer(historySize);
+        if (spillDirectory != null) {
+            try {
+                buffer.setSpill(new FileOutputStream(spillFile(currentSize)));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        series.add(buffer);
         this.fireDataSourceAdded(currentSize);
     }
 
     /**
+     * Returns the data set charts should show: a view of the series
+     * decimated to the chart's size, which the chart refreshes (see
+     * {@link BufferedXYDataset#refresh(double, int, int)}).
+     *
      * @return JFreeChart data set.
      */
-    public XYSeriesCollection getDataset() {
-        return dataset;
+    public BufferedXYDataset getDataset() {
+        if (view == null) {
+            view = new BufferedXYDataset(series, true);
+        }
+        return view;
+    }
+
+    /**
+     * Returns the points of a series. Only the most recent
+     * {@link #getHistorySize()} points are held.
+     *
+     * @param index index of the series
+     * @return the series' buffer
+     */
+    public SeriesBuffer getSeries(final int index) {
+        return series.get(index);
+    }
+
+    /**
+     * Start writing points to disk as they are dropped from memory, to one
+     * file per series in a directory, named <code>series1.dat</code> and so
+     * on (see {@link SeriesBuffer#setSpill(java.io.OutputStream)}). With the
+     * points still in memory these files make up the full history of a run.
+     *
+     * @param directory directory to write to
+     * @throws IOException if a file cannot be opened
+     */
+    public void spillHistory(final File directory) throws IOException {
+        stopSpilling();
+        spillDirectory = directory;
+        for (int i = 0; i < series.size(); i++) {
+            series.get(i).setSpill(new FileOutputStream(spillFile(i)));
+        }
+    }
+
+    /**
+     * Stop writing points to disk, and close the files.
+     *
+     * @throws IOException if a file cannot be closed
+     */
+    public void stopSpilling() throws IOException {
+        spillDirectory = null;
+        for (SeriesBuffer buffer : series) {
+            buffer.setSpill(null);
+        }
+    }
+
+    /**
+     * @param index index of a series
+     * @return the file its dropped points are written to
+     */
+    private File spillFile(final int index) {
+        return new File(spillDirectory, "series" + (index + 1) + ".dat");
     }
 
     /**
@@ -141,9 +231,51 @@ public class TimeSeriesModel extends ChartModel {
      * @return Initialized object.
      */
     private Object readResolve() {
+        if (series == null) {
+            series = new CopyOnWriteArrayList<SeriesBuffer>();
+        }
+        if (historySize <= 0) {
+            historySize = SeriesBuffer.DEFAULT_CAPACITY;
+        }
+        if (dataset != null) {
+            for (int i = 0; i < dataset.getSeriesCount(); i++) {
+                XYSeries xySeries = dataset.getSeries(i);
+                SeriesBuffer buffer = new SeriesBuffer(historySize);
+                for (int j = 0; j < xySeries.getItemCount(); j++) {
+                    buffer.add(xySeries.getX(j).doubleValue(), xySeries
+                            .getY(j).doubleValue());
+                }
+                series.add(buffer);
+            }
+            dataset = null;
+        }
         return this;
     }
 
+    /**
+     * @return the maximum number of points held in memory for each series
+     */
+    public int getHistorySize() {
+        return historySize;
+    }
+
+    /**
+     * Set the maximum number of points held in memory for each series,
+     * keeping the most recent points.
+     *
+     * @param historySize the historySize to set
+     */
+    public void setHistorySize(final int historySize) {
+        if (historySize <= 0 || historySize == this.historySize) {
+            return;
+        }
+        this.historySize = historySize;
+        for (int i = 0; i < series.size(); i++) {
+            series.set(i, series.get(i).resize(historySize));
+        }
+        fireSettingsChanged();
+    }
+
     /**
      * @return the fixedWidth
      */
@@ -228,37 +360,15 @@ public class TimeSeriesModel extends ChartModel {
      */
     public void addData(final int dataSourceIndex, final double time,
             final double value) {
-        getDataset().getSeries(dataSourceIndex).add(time, value);
+        series.get(dataSourceIndex).add(time, value);
     }
 
     /**
-     * Update the model; currently used to remove unused data when in
+     * Update the model. Nothing needs doing: each series only holds its most
+     * recent points, and charts show the most recent window of them when in
      * "fixed width" mode.
      */
     public void update() {
-
-        // Trim appropriately if fixed width
-
-        // TODO: This does not work well in trainer.gui. Concurrency issues. So
-        // disabling for now.
-        // if (isFixedWidth()) {
-        // System.out.println("Dataset Size: " +
-        // dataset.getSeries(0).getItemCount());
-        // for (Iterator iterator = getDataset().getSeries().iterator();
-        // iterator
-        // .hasNext();) {
-        // XYSeries series = (XYSeries) iterator.next();
-        // if (series.getItemCount() > getWindowSize()) {
-        // int diff = Math
-        // .abs(series.getItemCount() - getWindowSize());
-        // System.out.println("diff:" + diff);
-        // for (int i = 0; i < diff; i++) {
-        // series.remove(i);
-        // }
-        // }
-        // }
-        // }
-
     }
 
 }
@@ -18,6 +18,7 @@
  */
 package org.simbrain.plot.timeseries;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
@@ -192,7 +193,11 @@ public class TimeSeriesPlotComponent extends WorkspaceComponent {
 
     @Override
     public void closing() {
-        // TODO Auto-generated method stub
+        try {
+            model.stopSpilling();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     @Override
@@ -20,10 +20,14 @@ package org.simbrain.plot.timeseries;
 
 import java.awt.BorderLayout;
 import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.geom.Rectangle2D;
 
 import javax.swing.JButton;
 import javax.swing.JDialog;
 import javax.swing.JPanel;
+import javax.swing.Timer;
 
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartPanel;
@@ -53,6 +57,17 @@ public class TimeSeriesPlotPanel extends JPanel {
     /** Data model. */
     private TimeSeriesModel model;
 
+    /** Milliseconds between refreshes of the chart's view of the data. */
+    private static final int REFRESH_INTERVAL = 40;
+
+    /** Refreshes the chart's view of the data while the panel is showing. */
+    private final Timer refreshTimer = new Timer(REFRESH_INTERVAL,
+            new ActionListener() {
+                public void actionPerformed(final ActionEvent e) {
+                    refreshDataset();
+                }
+            });
+
     /** Button panel. */
     private JPanel buttonPanel = new JPanel();
 
@@ -125,6 +140,36 @@ public class TimeSeriesPlotPanel extends JPanel {
         model.fireSettingsChanged();
     }
 
+    /**
+     * Decimate the data to the size of the chart's data area, if it has
+     * changed. Called from the Swing thread at a fixed rate, so that the
+     * chart is redrawn at most that often however fast data arrives.
+     */
+    public void refreshDataset() {
+        Rectangle2D area = chartPanel.getScreenDataArea();
+        int width = (int) area.getWidth();
+        int height = (int) area.getHeight();
+        if (width <= 0 || height <= 0) {
+            width = chartPanel.getWidth();
+            height = chartPanel.getHeight();
+        }
+        model.getDataset().refresh(
+                model.isFixedWidth() ? model.getWindowSize() : 0, width,
+                height);
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        refreshTimer.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        refreshTimer.stop();
+        super.removeNotify();
+    }
+
     /**
      * Remove all buttons from the button panel; used when customzing the
      * buttons on this panel.
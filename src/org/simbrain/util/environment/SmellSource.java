@@ -292,39 +292,79 @@ public class SmellSource {
                 if (distance >= peak) {
                     ret = (returnVector.clone());
                 }
-            } else if (decayFunction == DecayFunction.LINEAR) {
-                if (distance < peak) {
-                    double scalingFactor = (stimulusDispersion - (2 * peak) + distance)
-                            / (stimulusDispersion - peak);
+            } else {
+                ret = SimbrainMath.multVector(returnVector,
+                        getScalingFactor(distance));
+            }
+        }
 
-                    if (scalingFactor < 0) {
-                        scalingFactor = 0;
-                    }
+        return ret;
+    }
 
-                    ret = SimbrainMath.multVector(returnVector, scalingFactor);
-                } else {
-                    double scalingFactor = (stimulusDispersion - distance)
-                            / (stimulusDispersion - peak);
-                    ret = SimbrainMath.multVector(returnVector, scalingFactor);
+    /**
+     * Add the proximal stimulus this object gives rise to at the given
+     * distance (see {@link #getStimulus(double)}) to an existing vector,
+     * without allocating a new one.
+     *
+     * @param distance distance of creature from object
+     * @param dest vector to add the stimulus to, at least as long as the
+     *            stimulus vector
+     */
+    public void addStimulus(final double distance, final double[] dest) {
+        if (returnVector == null) {
+            returnVector = stimulusVector;
+        }
+        if (distance < stimulusDispersion) {
+            if (decayFunction == DecayFunction.STEP) {
+                if (distance >= peak) {
+                    for (int i = 0; i < returnVector.length; i++) {
+                        dest[i] += returnVector[i];
+                    }
                 }
-            } else if (decayFunction == DecayFunction.GAUSSIAN) {
-                double temp = distance;
-                temp -= peak;
-                double sigma = .5 * (stimulusDispersion - peak);
-                double scalingFactor = Math.exp(-(temp * temp)
-                        / (2 * sigma * sigma));
-                ret = SimbrainMath.multVector(returnVector, scalingFactor);
-            } else if (decayFunction == DecayFunction.QUADRATIC) {
-                double scalingFactor = 1 - Math.pow((distance - peak)
-                        / (stimulusDispersion - peak), 2);
+            } else {
+                double scalingFactor = getScalingFactor(distance);
+                for (int i = 0; i < returnVector.length; i++) {
+                    dest[i] += returnVector[i] * scalingFactor;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the factor by which the stimulus is scaled at a distance within
+     * the dispersion, for the decay functions other than step.
+     *
+     * @param distance distance of creature from object
+     * @return the scaling factor
+     */
+    private double getScalingFactor(final double distance) {
+        if (decayFunction == DecayFunction.LINEAR) {
+            if (distance < peak) {
+                double scalingFactor = (stimulusDispersion - (2 * peak) + distance)
+                        / (stimulusDispersion - peak);
+
                 if (scalingFactor < 0) {
                     scalingFactor = 0;
                 }
-                ret = SimbrainMath.multVector(returnVector, scalingFactor);
+                return scalingFactor;
+            } else {
+                return (stimulusDispersion - distance)
+                        / (stimulusDispersion - peak);
+            }
+        } else if (decayFunction == DecayFunction.GAUSSIAN) {
+            double temp = distance;
+            temp -= peak;
+            double sigma = .5 * (stimulusDispersion - peak);
+            return Math.exp(-(temp * temp) / (2 * sigma * sigma));
+        } else if (decayFunction == DecayFunction.QUADRATIC) {
+            double scalingFactor = 1 - Math.pow((distance - peak)
+                    / (stimulusDispersion - peak), 2);
+            if (scalingFactor < 0) {
+                scalingFactor = 0;
             }
+            return scalingFactor;
         }
-
-        return ret;
+        return 0;
     }
 
     /**
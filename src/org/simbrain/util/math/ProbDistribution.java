@@ -18,8 +18,6 @@
  */
 package org.simbrain.util.math;
 
-import java.util.concurrent.ThreadLocalRandom;
-
 import umontreal.iro.lecuyer.probdist.Distribution;
 import umontreal.iro.lecuyer.probdist.ExponentialDist;
 import umontreal.iro.lecuyer.probdist.GammaDist;
@@ -41,8 +39,9 @@ public enum ProbDistribution {
     EXPONENTIAL {
 
         @Override
-        public double nextRand(double lambda, double nullVar) {
-            return ExponentialGen.nextDouble(DEFAULT_RANDOM_STREAM, lambda);
+        public double nextRand(RandomStream stream, double lambda,
+                double nullVar) {
+            return ExponentialGen.nextDouble(stream, lambda);
         }
 
         @Override
@@ -99,8 +98,9 @@ public enum ProbDistribution {
     GAMMA {
 
         @Override
-        public double nextRand(double shape, double scale) {
-            return GammaGen.nextDouble(DEFAULT_RANDOM_STREAM, shape, scale);
+        public double nextRand(RandomStream stream, double shape,
+                double scale) {
+            return GammaGen.nextDouble(stream, shape, scale);
         }
 
         @Override
@@ -157,7 +157,8 @@ public enum ProbDistribution {
     LOGNORMAL {
 
         @Override
-        public double nextRand(double mean, double std) {
+        public double nextRand(RandomStream stream, double mean,
+                double std) {
             // Convert mean and std so that they are the mean and
             // standard deviation of the resulting lognormal distribution
             // rather than the mean and standard deviation of the normal
@@ -165,8 +166,8 @@ public enum ProbDistribution {
             double mos = std / mean;
             double correctedStd = Math.sqrt(Math.log((mos * mos) + 1));
             double correctedMean = Math.log(mean / correctedStd);
-            return LognormalGen.nextDouble(DEFAULT_RANDOM_STREAM,
-                correctedMean, correctedStd);
+            return LognormalGen.nextDouble(stream, correctedMean,
+                correctedStd);
         }
 
         @Override
@@ -223,14 +224,22 @@ public enum ProbDistribution {
     NORMAL {
 
         /**
+         * @param stream
+         *            the source of randomness
          * @param mean
          *            the mean for this normal distribution
          * @param std
          *            the standard deviation for this normal distribution
          */
         @Override
-        public double nextRand(double mean, double std) {
-            return (ThreadLocalRandom.current().nextGaussian() + mean) * std;
+        public double nextRand(RandomStream stream, double mean, double std) {
+            double gaussian;
+            if (stream instanceof SplittableRandomStream) {
+                gaussian = ((SplittableRandomStream) stream).nextGaussian();
+            } else {
+                gaussian = NormalGen.nextDouble(stream, 0, 1);
+            }
+            return (gaussian + mean) * std;
         }
 
         /**
@@ -293,8 +302,9 @@ public enum ProbDistribution {
     PARETO {
 
         @Override
-        public double nextRand(double slope, double min) {
-            return ParetoGen.nextDouble(DEFAULT_RANDOM_STREAM, slope, min);
+        public double nextRand(RandomStream stream, double slope,
+                double min) {
+            return ParetoGen.nextDouble(stream, slope, min);
         }
 
         @Override
@@ -351,14 +361,17 @@ public enum ProbDistribution {
     UNIFORM {
 
         /**
+         * @param stream
+         *            the source of randomness
          * @param floor
          *            the lowest value of the interval
          * @param ceil
          *            the highest value of the interval
          */
         @Override
-        public double nextRand(double floor, double ceil) {
-            return ThreadLocalRandom.current().nextDouble(floor, ceil);
+        public double nextRand(RandomStream stream, double floor,
+                double ceil) {
+            return floor + (ceil - floor) * stream.nextDouble();
         }
 
         /**
@@ -457,9 +470,77 @@ public enum ProbDistribution {
     // }
     // };
 
+    /**
+     * A stream shared by all threads. Not thread safe, so no longer used
+     * here: draws without a stream come from {@link #THREAD_STREAMS}.
+     */
     public static final RandomStream DEFAULT_RANDOM_STREAM = new LFSR113();
 
-    public abstract double nextRand(double var1, double var2);
+    /**
+     * Streams for draws which are not given one, one per thread so that
+     * threads neither contend nor corrupt each other's state. Their seeds
+     * differ from run to run; pass a seeded stream to
+     * {@link #nextRand(RandomStream, double, double)} for reproducible draws.
+     */
+    private static final ThreadLocal<SplittableRandomStream> THREAD_STREAMS =
+            new ThreadLocal<SplittableRandomStream>() {
+                @Override
+                protected SplittableRandomStream initialValue() {
+                    return new SplittableRandomStream();
+                }
+            };
+
+    /**
+     * Draws a number from this distribution using the calling thread's
+     * stream.
+     *
+     * @param var1
+     *            the first parameter (see {@link #getParam1Name()})
+     * @param var2
+     *            the second parameter (see {@link #getParam2Name()})
+     * @return the number drawn
+     */
+    public double nextRand(double var1, double var2) {
+        return nextRand(THREAD_STREAMS.get(), var1, var2);
+    }
+
+    /**
+     * Draws a number from this distribution.
+     *
+     * @param stream
+     *            the source of randomness
+     * @param var1
+     *            the first parameter (see {@link #getParam1Name()})
+     * @param var2
+     *            the second parameter (see {@link #getParam2Name()})
+     * @return the number drawn
+     */
+    public abstract double nextRand(RandomStream stream, double var1,
+        double var2);
+
+    /**
+     * Fills part of an array with numbers drawn from this distribution, e.g.
+     * a vector of noise for a whole neuron group.
+     *
+     * @param stream
+     *            the source of randomness
+     * @param var1
+     *            the first parameter (see {@link #getParam1Name()})
+     * @param var2
+     *            the second parameter (see {@link #getParam2Name()})
+     * @param out
+     *            the array to fill
+     * @param offset
+     *            the first entry to fill
+     * @param length
+     *            the number of entries to fill
+     */
+    public void fill(RandomStream stream, double var1, double var2,
+        double[] out, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            out[i] = nextRand(stream, var1, var2);
+        }
+    }
 
     public abstract int nextRandInt(int var1, int var2);
 
@@ -116,6 +116,57 @@ public class SimbrainMath {
         return permute;
     }
 
+    /**
+     * Returns a random permutation of all the integers between floor
+     * (inclusive) and ceil (exclusive), drawn from the given stream.
+     *
+     * @param floor the smallest integer
+     * @param ceil one more than the largest integer
+     * @param stream the source of randomness
+     * @return the permutation
+     */
+    public static int[] randPermute(int floor, int ceil, RandomStream stream) {
+        int[] permute = new int[ceil - floor];
+        for (int i = floor; i < ceil; i++) {
+            int j = stream.nextInt(0, i - floor);
+            if (j != i - floor) {
+                permute[i - floor] = permute[j];
+            }
+            permute[j] = i;
+        }
+        return permute;
+    }
+
+    /**
+     * Returns a random permutation of all the integers between floor
+     * (inclusive) and ceil (exclusive) except one, drawn from the given
+     * stream.
+     *
+     * @param floor the smallest integer
+     * @param ceil one more than the largest integer
+     * @param excluded the integer to leave out
+     * @param stream the source of randomness
+     * @return the permutation
+     */
+    public static int[] randPermuteWithExclusion(int floor, int ceil,
+            int excluded, RandomStream stream) {
+        int[] permute = new int[ceil - floor - 1];
+        int k = floor - 1;
+        for (int i = floor; i < ceil; i++) {
+            if (i == excluded) {
+                continue;
+            } else {
+                k++;
+            }
+            int j = stream.nextInt(0, k - floor);
+            if (j != k - floor) {
+                permute[k - floor] = permute[j];
+            }
+            permute[j] = i;
+        }
+        return permute;
+    }
+
     /**
      * Finds the entry-wise product of a vector and scalar.  Analogous
      * to matlab's .* operator.   E.g. a .* (b c) = (ab ac).
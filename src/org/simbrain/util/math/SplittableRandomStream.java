@@ -0,0 +1,234 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.util.math;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import umontreal.iro.lecuyer.rng.RandomStream;
+
+/**
+ * A small, fast random stream (SplitMix64) which can be split into any number
+ * of independent child streams, each identified by a key. A child depends
+ * only on the seed of its parent and on its key, not on how many numbers have
+ * been drawn or in what order children were made, so a simulation which gives
+ * each neuron, group or worker its own child stream produces exactly the same
+ * numbers however its work is divided among threads.
+ *
+ * Implements SSJ's {@link RandomStream}, so it can be passed to SSJ's
+ * generators (e.g. through {@link ProbDistribution#nextRand(RandomStream,
+ * double, double)}). Substreams are children keyed by their index. Like other
+ * streams, instances are not thread safe; give each thread its own child.
+ */
+public final class SplittableRandomStream implements RandomStream {
+
+    /** Odd constant by which the state advances (the golden ratio). */
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    /** Source of seeds for streams created without one. */
+    private static final AtomicLong SEEDER = new AtomicLong(mix64(System
+            .nanoTime()) ^ mix64(System.currentTimeMillis()));
+
+    /** The seed: the state at the start of the stream. */
+    private final long seed;
+
+    /** The state at the start of the current substream. */
+    private long substreamStart;
+
+    /** Index of the current substream. */
+    private long substream;
+
+    /** Current state. */
+    private long state;
+
+    /** Second normal deviate of the last pair generated, if not yet used. */
+    private double nextGaussian;
+
+    /** True if {@link #nextGaussian} holds an unused deviate. */
+    private boolean haveNextGaussian;
+
+    /**
+     * Creates a stream with a seed that differs from run to run.
+     */
+    public SplittableRandomStream() {
+        this(mix64(SEEDER.getAndAdd(GOLDEN_GAMMA)));
+    }
+
+    /**
+     * Creates a stream with a given seed. Streams with the same seed produce
+     * the same numbers.
+     *
+     * @param seed
+     *            the seed
+     */
+    public SplittableRandomStream(final long seed) {
+        this.seed = seed;
+        substreamStart = seed;
+        state = seed;
+    }
+
+    /**
+     * Returns the child stream with the given key. Splitting twice with the
+     * same key gives two streams producing the same numbers.
+     *
+     * @param key
+     *            the key
+     * @return the child stream
+     */
+    public SplittableRandomStream split(final long key) {
+        return new SplittableRandomStream(mix64(seed ^ mix64(key
+                + GOLDEN_GAMMA)));
+    }
+
+    /**
+     * Returns the child stream with the given key (e.g. a neuron or group id).
+     *
+     * @param key
+     *            the key
+     * @return the child stream
+     */
+    public SplittableRandomStream split(final String key) {
+        // 64 bit FNV-1a, since String.hashCode() collides too easily
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0, n = key.length(); i < n; i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return split(h);
+    }
+
+    /**
+     * @return the seed of this stream
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return 64 uniformly distributed random bits
+     */
+    public long nextLong() {
+        state += GOLDEN_GAMMA;
+        return mix64(state);
+    }
+
+    /**
+     * Returns a uniform random number strictly between 0 and 1, as required
+     * by SSJ's generators.
+     *
+     * @return the next number
+     */
+    @Override
+    public double nextDouble() {
+        return ((nextLong() >>> 11) + 0.5) * 0x1.0p-53;
+    }
+
+    /**
+     * Returns a standard normal deviate, using the polar method. Deviates
+     * are generated in pairs and the second one is kept for the next call.
+     *
+     * @return the next normal deviate
+     */
+    public double nextGaussian() {
+        if (haveNextGaussian) {
+            haveNextGaussian = false;
+            return nextGaussian;
+        }
+        double v1;
+        double v2;
+        double s;
+        do {
+            v1 = 2 * nextDouble() - 1;
+            v2 = 2 * nextDouble() - 1;
+            s = v1 * v1 + v2 * v2;
+        } while (s >= 1);
+        double multiplier = Math.sqrt(-2 * Math.log(s) / s);
+        nextGaussian = v2 * multiplier;
+        haveNextGaussian = true;
+        return v1 * multiplier;
+    }
+
+    @Override
+    public void nextArrayOfDouble(final double[] u, final int start,
+            final int n) {
+        for (int i = start, end = start + n; i < end; i++) {
+            u[i] = nextDouble();
+        }
+    }
+
+    /**
+     * Returns a uniform random integer between i and j, both inclusive.
+     *
+     * @param i
+     *            the smallest possible value
+     * @param j
+     *            the largest possible value
+     * @return the next integer
+     */
+    @Override
+    public int nextInt(final int i, final int j) {
+        return i + (int) (nextDouble() * (j - i + 1.0));
+    }
+
+    @Override
+    public void nextArrayOfInt(final int i, final int j, final int[] u,
+            final int start, final int n) {
+        for (int k = start, end = start + n; k < end; k++) {
+            u[k] = nextInt(i, j);
+        }
+    }
+
+    @Override
+    public void resetStartStream() {
+        substream = 0;
+        substreamStart = seed;
+        resetStartSubstream();
+    }
+
+    @Override
+    public void resetStartSubstream() {
+        state = substreamStart;
+        haveNextGaussian = false;
+    }
+
+    @Override
+    public void resetNextSubstream() {
+        substreamStart = split(++substream).seed;
+        resetStartSubstream();
+    }
+
+    @Override
+    public String toString() {
+        return "SplittableRandomStream [seed=" + seed + ", substream="
+                + substream + "]";
+    }
+
+    /**
+     * The SplitMix64 finalizer, which scrambles the bits of a long.
+     *
+     * @param z
+     *            the value to scramble
+     * @return the scrambled value
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+}
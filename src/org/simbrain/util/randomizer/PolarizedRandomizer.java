@@ -21,6 +21,8 @@ package org.simbrain.util.randomizer;
 import org.simbrain.util.SimbrainConstants.Polarity;
 import org.simbrain.util.math.ProbDistribution;
 
+import umontreal.iro.lecuyer.rng.RandomStream;
+
 /**
  *
  * A tentative solution to some of the issues involving randomizers....
@@ -115,6 +117,40 @@ public class PolarizedRandomizer extends Randomizer {
         }
     }
 
+    /**
+     * Returns a random number of this randomizer's polarity drawn from the
+     * given stream.
+     *
+     * @param stream the source of randomness
+     * @return the next random number
+     */
+    @Override
+    public double getRandom(final RandomStream stream) {
+        if (clipping) {
+            return clip(pdf.nextRand(stream, param1, param2));
+        } else {
+            return polarity.value(pdf.nextRand(stream, param1, param2));
+        }
+    }
+
+    /**
+     * Fills part of an array with random numbers of this randomizer's
+     * polarity drawn from the given stream.
+     *
+     * @param stream the source of randomness
+     * @param out the array to fill
+     * @param offset the first entry to fill
+     * @param length the number of entries to fill
+     */
+    @Override
+    public void fillRandom(final RandomStream stream, final double[] out,
+            final int offset, final int length) {
+        pdf.fill(stream, param1, param2, out, offset, length);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            out[i] = clipping ? clip(out[i]) : polarity.value(out[i]);
+        }
+    }
+
     /**
      * Clip <code>val</code> to upper and lower bounds.
      *
@@ -20,6 +20,8 @@ package org.simbrain.util.randomizer;
 
 import org.simbrain.util.math.ProbDistribution;
 
+import umontreal.iro.lecuyer.rng.RandomStream;
+
 /**
  * @author Zach Tosi
  * @author Jeff Yoshimi
@@ -119,6 +121,42 @@ public class Randomizer {
         }
     }
 
+    /**
+     * Returns a random number drawn from the given stream, e.g. a neuron's or
+     * a group's own stream (see
+     * {@link org.simbrain.network.core.Network#getRandomStream(String)}), so
+     * that the number is the same each time a seeded simulation is run.
+     *
+     * @param stream the source of randomness
+     * @return the next random number
+     */
+    public double getRandom(final RandomStream stream) {
+        if (clipping) {
+            return clip(pdf.nextRand(stream, param1, param2));
+        } else {
+            return pdf.nextRand(stream, param1, param2);
+        }
+    }
+
+    /**
+     * Fills part of an array with random numbers drawn from the given stream
+     * in one call, e.g. a vector of noise for a whole group.
+     *
+     * @param stream the source of randomness
+     * @param out the array to fill
+     * @param offset the first entry to fill
+     * @param length the number of entries to fill
+     */
+    public void fillRandom(final RandomStream stream, final double[] out,
+            final int offset, final int length) {
+        pdf.fill(stream, param1, param2, out, offset, length);
+        if (clipping) {
+            for (int i = offset, end = offset + length; i < end; i++) {
+                out[i] = clip(out[i]);
+            }
+        }
+    }
+
     /**
      * Clip <code>val</code> to upper and lower bounds.
      *
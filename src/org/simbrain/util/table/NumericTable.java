@@ -123,9 +123,20 @@ public class NumericTable extends MutableTable<Double> implements
      * @param data the values to use in setting the current row
      */
     public void setVectorCurrentRow(double[] data) {
+        setVectorCurrentRow(data, data.length);
+    }
+
+    /**
+     * Set the current row using the first <code>count</code> values of an
+     * array of doubles.
+     *
+     * @param data the values to use in setting the current row
+     * @param count the number of values to use
+     */
+    public void setVectorCurrentRow(double[] data, int count) {
         int i = getCurrentRow();
-        for (int j = 0; j < data.length; j++) {
-            if (j < this.getColumnCount()) {
+        for (int j = 0; j < count; j++) {
+            if (j < this.getLogicalColumnCount()) {
                 this.setLogicalValue(i, j, data[j], false);
             }
         }
@@ -138,12 +149,22 @@ public class NumericTable extends MutableTable<Double> implements
      * @return the values of the current row
      */
     public double[] getVectorCurrentRow() {
-        double[] retVec = new double[this.getColumnCount()];
+        double[] retVec = new double[this.getLogicalColumnCount()];
+        readVectorCurrentRow(retVec);
+        return retVec;
+    }
+
+    /**
+     * Copy the current row into an existing array, which must have at least
+     * as many elements as there are (logical) columns.
+     *
+     * @param dest the array to copy the current row into
+     */
+    public void readVectorCurrentRow(double[] dest) {
         int currRow = getCurrentRow();
-        for (int i = 0; i < this.getColumnCount(); i++) {
-            retVec[i] = this.getLogicalValueAt(currRow, i);
+        for (int i = 0; i < this.getLogicalColumnCount(); i++) {
+            dest[i] = this.getLogicalValueAt(currRow, i);
         }
-        return retVec;
     }
 
     /**
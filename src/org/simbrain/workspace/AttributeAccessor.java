@@ -0,0 +1,173 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.workspace;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * A getter or setter on a particular object, with any auxiliary arguments
+ * already bound, compiled once into method handles. Used in place of
+ * reflective <code>Method.invoke</code> calls when transferring coupling
+ * values. For attributes of type double a primitive handle is also kept, so
+ * that values can be moved without boxing.
+ *
+ * @see Attribute
+ * @see CouplingManager
+ */
+final class AttributeAccessor {
+
+    /** Handle of type ()Object (getters) or (Object)void (setters). */
+    private final MethodHandle generic;
+
+    /**
+     * Handle of type ()double (getters) or (double)void (setters), or null if
+     * the attribute's data type is not double.
+     */
+    private final MethodHandle primitive;
+
+    /**
+     * @param generic boxed handle
+     * @param primitive primitive handle, or null
+     */
+    private AttributeAccessor(final MethodHandle generic,
+            final MethodHandle primitive) {
+        this.generic = generic;
+        this.primitive = primitive;
+    }
+
+    /**
+     * Compile an accessor for the getter wrapped by an attribute (normally a
+     * producer).
+     *
+     * @param attribute the attribute
+     * @return the compiled accessor
+     * @throws ReflectiveOperationException if the method cannot be found or
+     *             accessed
+     */
+    static AttributeAccessor forGetter(final Attribute attribute)
+            throws ReflectiveOperationException {
+        MethodHandle handle = bind(attribute, 0);
+        MethodHandle primitive = null;
+        if (attribute.getDataType() == double.class
+                && handle.type().returnType() == double.class) {
+            primitive = handle;
+        }
+        return new AttributeAccessor(handle.asType(MethodType
+                .methodType(Object.class)), primitive);
+    }
+
+    /**
+     * Compile an accessor for the setter wrapped by an attribute (normally a
+     * consumer). The first argument of the setter receives the value; the
+     * attribute's argument values are bound to the rest.
+     *
+     * @param attribute the attribute
+     * @return the compiled accessor
+     * @throws ReflectiveOperationException if the method cannot be found or
+     *             accessed
+     */
+    static AttributeAccessor forSetter(final Attribute attribute)
+            throws ReflectiveOperationException {
+        MethodHandle handle = bind(attribute, 1);
+        MethodHandle primitive = null;
+        if (attribute.getDataType() == double.class
+                && handle.type().parameterType(0) == double.class) {
+            primitive = handle.asType(MethodType.methodType(void.class,
+                    double.class));
+        }
+        return new AttributeAccessor(handle.asType(MethodType.methodType(
+                void.class, Object.class)), primitive);
+    }
+
+    /**
+     * Look up an attribute's method and bind its base object and auxiliary
+     * argument values.
+     *
+     * @param attribute the attribute
+     * @param pos position of the first auxiliary argument
+     * @return a handle taking only the leading (unbound) arguments
+     * @throws ReflectiveOperationException if the method cannot be found or
+     *             accessed
+     */
+    private static MethodHandle bind(final Attribute attribute, final int pos)
+            throws ReflectiveOperationException {
+        Object base = attribute.getBaseObject();
+        Class<?>[] argTypes = attribute.getArgumentDataTypes();
+        Method method;
+        if (argTypes == null) {
+            method = base.getClass().getMethod(attribute.getMethodName());
+        } else {
+            method = base.getClass().getMethod(attribute.getMethodName(),
+                    argTypes);
+        }
+        // Public methods of non-public classes (e.g. anonymous classes)
+        method.setAccessible(true);
+        MethodHandle handle = MethodHandles.lookup().unreflect(method)
+                .bindTo(base);
+        Object[] argValues = attribute.getArgumentValues();
+        if (argValues != null && argValues.length > 0
+                && handle.type().parameterCount() > pos) {
+            handle = MethodHandles.insertArguments(handle, pos, argValues);
+        }
+        return handle;
+    }
+
+    /**
+     * @return true if values can be moved as primitive doubles.
+     */
+    boolean isPrimitive() {
+        return primitive != null;
+    }
+
+    /**
+     * @return the value of the getter
+     * @throws Throwable anything thrown by the getter
+     */
+    Object get() throws Throwable {
+        return (Object) generic.invokeExact();
+    }
+
+    /**
+     * @return the value of a double getter, unboxed
+     * @throws Throwable anything thrown by the getter
+     */
+    double getDouble() throws Throwable {
+        return (double) primitive.invokeExact();
+    }
+
+    /**
+     * @param value the value to pass to the setter
+     * @throws Throwable anything thrown by the setter
+     */
+    void set(final Object value) throws Throwable {
+        generic.invokeExact(value);
+    }
+
+    /**
+     * @param value the value to pass to a double setter
+     * @throws Throwable anything thrown by the setter
+     */
+    void setDouble(final double value) throws Throwable {
+        primitive.invokeExact(value);
+    }
+
+}
@@ -17,9 +17,6 @@
  */
 package org.simbrain.workspace;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-
 /**
  * The main usage of this class by API users is to create potential attributes
  * (PotentialConsumer and PotentialProducer), which are in turn used to create
@@ -76,18 +73,12 @@ public class AttributeManager {
 
         Producer<?> producer = new Producer() {
 
-            private Method theMethod;
+            private AttributeAccessor accessor;
 
             // Static initializer
             {
                 try {
-                    if (argumentDataTypes == null) {
-                        theMethod = parentObject.getClass().getMethod(
-                                methodName);
-                    } else {
-                        theMethod = parentObject.getClass().getMethod(
-                                methodName, argumentDataTypes);
-                    }
+                    accessor = AttributeAccessor.forGetter(this);
                 } catch (SecurityException e1) {
                     e1.printStackTrace();
                 } catch (NoSuchMethodException e1) {
@@ -95,6 +86,8 @@ public class AttributeManager {
                             + " with return type of "
                             + dataType.getCanonicalName());
                     e1.printStackTrace();
+                } catch (ReflectiveOperationException e1) {
+                    e1.printStackTrace();
                 }
 
             }
@@ -104,15 +97,8 @@ public class AttributeManager {
              */
             public Object getValue() {
                 try {
-                    return theMethod.invoke(parentObject, argumentValues);
-                } catch (IllegalArgumentException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                } catch (IllegalAccessException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                } catch (InvocationTargetException e) {
-                    // TODO Auto-generated catch block
+                    return accessor.get();
+                } catch (Throwable e) {
                     e.printStackTrace();
                 }
                 return null;
@@ -210,14 +196,13 @@ public class AttributeManager {
 
         Consumer<?> consumer = new Consumer() {
 
-            private Method theMethod;
+            private AttributeAccessor accessor;
 
             // Static initializer
             {
                 // System.out.println(Arrays.asList(argumentDataTypes));
                 try {
-                    theMethod = parentObject.getClass().getMethod(methodName,
-                            argumentDataTypes);
+                    accessor = AttributeAccessor.forSetter(this);
                 } catch (SecurityException e1) {
                     e1.printStackTrace();
                 } catch (NoSuchMethodException e1) {
@@ -231,6 +216,8 @@ public class AttributeManager {
                         System.err.println();
                     }
                     e1.printStackTrace();
+                } catch (ReflectiveOperationException e1) {
+                    e1.printStackTrace();
                 }
             }
 
@@ -239,24 +226,8 @@ public class AttributeManager {
              */
             public void setValue(Object value) {
                 try {
-
-                    if (argumentDataTypes.length == 1) {
-                        theMethod.invoke(parentObject, new Object[] { value });
-                    } else {
-                        Object[] concatArray = new Object[argumentValues.length + 1];
-                        concatArray[0] = value;
-                        System.arraycopy(argumentValues, 0, concatArray, 1,
-                                argumentValues.length);
-                        theMethod.invoke(parentObject, concatArray);
-                    }
-                } catch (IllegalArgumentException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                } catch (IllegalAccessException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                } catch (InvocationTargetException e) {
-                    // TODO Auto-generated catch block
+                    accessor.set(value);
+                } catch (Throwable e) {
                     e.printStackTrace();
                 }
             }
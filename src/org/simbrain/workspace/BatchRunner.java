@@ -0,0 +1,561 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.workspace;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a saved workspace without a GUI, for a fixed number of iterations,
+ * once for every combination of a set of parameter values. Runs are
+ * independent copies of the workspace, loaded from the same archive, and are
+ * executed in parallel. Each run is iterated on a single thread with
+ * {@link Workspace#iterateHeadless(int)}, so there is no update delay and no
+ * listener traffic.
+ *
+ * Parameters and recorded values are referred to as
+ * <code>component:objectKey:methodName</code>, where the component is named as
+ * in the workspace and the object key is the one used to save couplings (see
+ * {@link WorkspaceComponent#getKeyFromObject(Object)}). For example
+ * <code>Network1:Neuron_3:setUpperBound</code>. Parameters are setters taking
+ * a double; recorded values are getters returning a double or an array of
+ * doubles.
+ *
+ * Results are written to an output directory: <code>runs.csv</code> lists the
+ * parameter values of each run, and <code>run_N.csv</code> holds one column per
+ * recorded value and one row per sample. A sample is recorded after every
+ * <code>interval</code> iterations, and after the last iteration.
+ *
+ * From the command line:
+ *
+ * <pre>
+ * java -cp Simbrain.jar org.simbrain.workspace.BatchRunner workspace.zip
+ *     -iterations 1000 -threads 8 -interval 10 -out results
+ *     -param Network1:Neuron_1:setUpperBound=0.5,1,2
+ *     -record Network1:Neuron_2:getActivation
+ * </pre>
+ */
+public class BatchRunner {
+
+    /** The number of bytes to read at a time from the archive. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The workspace archive, read once and deserialized for every run. */
+    private final byte[] archive;
+
+    /** Number of iterations per run. */
+    private int iterations = 1000;
+
+    /** Number of iterations between recorded samples. */
+    private int recordInterval = 1;
+
+    /** Number of runs to execute at once. */
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    /** References of the swept parameters. */
+    private final List<String> parameterRefs = new ArrayList<String>();
+
+    /** Values of the swept parameters, in the same order as the references. */
+    private final List<double[]> parameterValues = new ArrayList<double[]>();
+
+    /** References of the recorded values. */
+    private final List<String> recordingRefs = new ArrayList<String>();
+
+    /**
+     * Create a batch runner for a workspace archive on disk.
+     *
+     * @param file the zipped workspace
+     * @throws IOException if the file cannot be read
+     */
+    public BatchRunner(final File file) throws IOException {
+        this(readArchive(file));
+    }
+
+    /**
+     * Create a batch runner for a workspace archive held in memory.
+     *
+     * @param archive the contents of a zipped workspace
+     */
+    public BatchRunner(final byte[] archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Read a whole file into memory.
+     *
+     * @param file the file
+     * @return its contents
+     * @throws IOException if the file cannot be read
+     */
+    private static byte[] readArchive(final File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int read; (read = input.read(buffer)) >= 0;) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Add a parameter to sweep. Every combination of the values of all
+     * parameters is run.
+     *
+     * @param ref reference to a setter taking a double, as
+     *            <code>component:objectKey:methodName</code>
+     * @param values the values to sweep over
+     */
+    public void addParameter(final String ref, final double... values) {
+        parseRef(ref);
+        if (values.length == 0) {
+            throw new IllegalArgumentException("No values for " + ref);
+        }
+        parameterRefs.add(ref);
+        parameterValues.add(values.clone());
+    }
+
+    /**
+     * Add a value to record in every run.
+     *
+     * @param ref reference to a getter returning a double or an array of
+     *            doubles, as <code>component:objectKey:methodName</code>
+     */
+    public void addRecording(final String ref) {
+        parseRef(ref);
+        recordingRefs.add(ref);
+    }
+
+    /**
+     * @return the number of runs, one per combination of parameter values
+     */
+    public int getNumRuns() {
+        int runs = 1;
+        for (double[] values : parameterValues) {
+            runs *= values.length;
+        }
+        return runs;
+    }
+
+    /**
+     * Return the parameter values used in a run.
+     *
+     * @param run index of the run
+     * @return the value of each parameter, in the order they were added
+     */
+    public double[] getRunParameters(final int run) {
+        double[] ret = new double[parameterValues.size()];
+        int rest = run;
+        for (int i = ret.length - 1; i >= 0; i--) {
+            double[] values = parameterValues.get(i);
+            ret[i] = values[rest % values.length];
+            rest /= values.length;
+        }
+        return ret;
+    }
+
+    /**
+     * Execute all runs and write their results to a directory, which is
+     * created if need be. Runs that fail are reported and do not stop the
+     * others.
+     *
+     * @param outputDir the directory to write results to
+     * @return the number of runs that failed
+     * @throws IOException if the output directory cannot be written
+     * @throws InterruptedException if interrupted while waiting for runs
+     */
+    public int run(final File outputDir) throws IOException,
+            InterruptedException {
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Could not create " + outputDir);
+        }
+        writeIndex(new File(outputDir, "runs.csv"));
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        int failures = 0;
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int run = 0, n = getNumRuns(); run < n; run++) {
+                final int index = run;
+                final File file = new File(outputDir, "run_" + run + ".csv");
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        try {
+                            runOnce(index, file);
+                        } catch (Exception e) {
+                            throw e;
+                        } catch (Error e) {
+                            throw e;
+                        } catch (Throwable t) {
+                            throw new Exception(t);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (int run = 0; run < futures.size(); run++) {
+                try {
+                    futures.get(run).get();
+                } catch (ExecutionException e) {
+                    failures++;
+                    System.err.println("Run " + run + " failed:");
+                    e.getCause().printStackTrace();
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return failures;
+    }
+
+    /**
+     * Write the table of parameter values for every run.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    private void writeIndex(final File file) throws IOException {
+        Writer out = new BufferedWriter(new FileWriter(file));
+        try {
+            out.write("run");
+            for (String ref : parameterRefs) {
+                out.write("," + ref);
+            }
+            out.write("\n");
+            for (int run = 0, n = getNumRuns(); run < n; run++) {
+                out.write(Integer.toString(run));
+                for (double value : getRunParameters(run)) {
+                    out.write("," + value);
+                }
+                out.write("\n");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Load a fresh copy of the workspace, apply one run's parameters, iterate
+     * it and record the results.
+     *
+     * @param run index of the run
+     * @param file the file to write results to
+     * @throws Throwable if the run fails
+     */
+    private void runOnce(final int run, final File file) throws Throwable {
+        Workspace workspace = new Workspace();
+        try {
+            new WorkspaceSerializer(workspace)
+                    .deserialize(new ByteArrayInputStream(archive));
+            double[] values = getRunParameters(run);
+            for (int i = 0; i < values.length; i++) {
+                AttributeAccessor setter = resolveSetter(workspace,
+                        parameterRefs.get(i));
+                if (setter.isPrimitive()) {
+                    setter.setDouble(values[i]);
+                } else {
+                    setter.set(values[i]);
+                }
+            }
+            AttributeAccessor[] getters = new AttributeAccessor[recordingRefs
+                    .size()];
+            for (int i = 0; i < getters.length; i++) {
+                getters[i] = resolveGetter(workspace, recordingRefs.get(i));
+            }
+            Writer out = new BufferedWriter(new FileWriter(file));
+            try {
+                boolean header = true;
+                int time = 0;
+                while (time < iterations) {
+                    int steps = Math.min(recordInterval, iterations - time);
+                    workspace.iterateHeadless(steps);
+                    time += steps;
+                    Object[] samples = new Object[getters.length];
+                    for (int i = 0; i < getters.length; i++) {
+                        samples[i] = getters[i].isPrimitive() ? getters[i]
+                                .getDouble() : getters[i].get();
+                    }
+                    if (header) {
+                        writeHeader(out, samples);
+                        header = false;
+                    }
+                    out.write(Integer.toString(time));
+                    for (Object sample : samples) {
+                        if (sample instanceof double[]) {
+                            for (double value : (double[]) sample) {
+                                out.write("," + value);
+                            }
+                        } else {
+                            out.write("," + sample);
+                        }
+                    }
+                    out.write("\n");
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            workspace.removeAllComponents();
+        }
+    }
+
+    /**
+     * Write the column names of a results file. Arrays get one column per
+     * element, sized from the first sample.
+     *
+     * @param out the results file
+     * @param samples the first sample of each recorded value
+     * @throws IOException if the file cannot be written
+     */
+    private void writeHeader(final Writer out, final Object[] samples)
+            throws IOException {
+        out.write("iteration");
+        for (int i = 0; i < samples.length; i++) {
+            String ref = recordingRefs.get(i);
+            if (samples[i] instanceof double[]) {
+                for (int j = 0; j < ((double[]) samples[i]).length; j++) {
+                    out.write("," + ref + "[" + j + "]");
+                }
+            } else {
+                out.write("," + ref);
+            }
+        }
+        out.write("\n");
+    }
+
+    /**
+     * Split a reference into component name, object key and method name. The
+     * object key may itself contain colons.
+     *
+     * @param ref the reference
+     * @return the three parts
+     */
+    private static String[] parseRef(final String ref) {
+        int first = ref.indexOf(':');
+        int last = ref.lastIndexOf(':');
+        if (first < 0 || last == first) {
+            throw new IllegalArgumentException("Expected component:key:method"
+                    + " but got " + ref);
+        }
+        return new String[] {ref.substring(0, first),
+                ref.substring(first + 1, last), ref.substring(last + 1) };
+    }
+
+    /**
+     * Find the component named in a reference.
+     *
+     * @param workspace the workspace
+     * @param parts the parsed reference
+     * @return the component
+     */
+    private static WorkspaceComponent getComponent(final Workspace workspace,
+            final String[] parts) {
+        WorkspaceComponent component = workspace.getComponent(parts[0]);
+        if (component == null) {
+            throw new IllegalArgumentException("No component named "
+                    + parts[0]);
+        }
+        return component;
+    }
+
+    /**
+     * Find the object named in a reference.
+     *
+     * @param component the component
+     * @param parts the parsed reference
+     * @return the object
+     */
+    private static Object getBaseObject(final WorkspaceComponent component,
+            final String[] parts) {
+        Object base = component.getObjectFromKey(parts[1]);
+        if (base == null) {
+            throw new IllegalArgumentException("No object with key "
+                    + parts[1] + " in " + parts[0]);
+        }
+        return base;
+    }
+
+    /**
+     * Compile the setter a parameter refers to.
+     *
+     * @param workspace the workspace
+     * @param ref the reference
+     * @return the setter
+     * @throws ReflectiveOperationException if there is no such setter
+     */
+    private static AttributeAccessor resolveSetter(final Workspace workspace,
+            final String ref) throws ReflectiveOperationException {
+        String[] parts = parseRef(ref);
+        WorkspaceComponent component = getComponent(workspace, parts);
+        Consumer<?> consumer = component.getAttributeManager().createConsumer(
+                getBaseObject(component, parts), parts[2],
+                new Class<?>[] {double.class }, null, ref);
+        return AttributeAccessor.forSetter(consumer);
+    }
+
+    /**
+     * Compile the getter a recording refers to.
+     *
+     * @param workspace the workspace
+     * @param ref the reference
+     * @return the getter
+     * @throws ReflectiveOperationException if there is no such getter
+     */
+    private static AttributeAccessor resolveGetter(final Workspace workspace,
+            final String ref) throws ReflectiveOperationException {
+        String[] parts = parseRef(ref);
+        WorkspaceComponent component = getComponent(workspace, parts);
+        Object base = getBaseObject(component, parts);
+        Class<?> type = base.getClass().getMethod(parts[2]).getReturnType();
+        if (type != double.class && type != double[].class) {
+            throw new IllegalArgumentException(ref
+                    + " does not return double or double[]");
+        }
+        Producer<?> producer = component.getAttributeManager().createProducer(
+                base, parts[2], type, null, null, ref);
+        return AttributeAccessor.forGetter(producer);
+    }
+
+    /**
+     * @return the number of iterations per run
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @param iterations the number of iterations per run
+     */
+    public void setIterations(final int iterations) {
+        this.iterations = iterations;
+    }
+
+    /**
+     * @return the number of iterations between recorded samples
+     */
+    public int getRecordInterval() {
+        return recordInterval;
+    }
+
+    /**
+     * @param recordInterval the number of iterations between recorded samples
+     */
+    public void setRecordInterval(final int recordInterval) {
+        if (recordInterval < 1) {
+            throw new IllegalArgumentException("Interval must be at least 1");
+        }
+        this.recordInterval = recordInterval;
+    }
+
+    /**
+     * @return the number of runs executed at once
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * @param numThreads the number of runs to execute at once
+     */
+    public void setNumThreads(final int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("Need at least one thread");
+        }
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Command line entry point. See the class documentation for usage.
+     *
+     * @param args command line arguments
+     */
+    public static void main(final String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: BatchRunner workspace.zip"
+                    + " [-iterations n] [-threads n] [-interval n]"
+                    + " [-out dir] [-param component:key:method=v1,v2,...]"
+                    + " [-record component:key:method]");
+            System.exit(1);
+        }
+        System.setProperty("java.awt.headless", "true");
+        try {
+            BatchRunner runner = new BatchRunner(new File(args[0]));
+            File out = new File("batch_results");
+            for (int i = 1; i < args.length; i++) {
+                String arg = args[i];
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for "
+                            + arg);
+                }
+                String value = args[++i];
+                if (arg.equals("-iterations")) {
+                    runner.setIterations(Integer.parseInt(value));
+                } else if (arg.equals("-threads")) {
+                    runner.setNumThreads(Integer.parseInt(value));
+                } else if (arg.equals("-interval")) {
+                    runner.setRecordInterval(Integer.parseInt(value));
+                } else if (arg.equals("-out")) {
+                    out = new File(value);
+                } else if (arg.equals("-param")) {
+                    int eq = value.lastIndexOf('=');
+                    if (eq < 0) {
+                        throw new IllegalArgumentException(
+                                "Expected ref=v1,v2,... but got " + value);
+                    }
+                    String[] tokens = value.substring(eq + 1).split(",");
+                    double[] values = new double[tokens.length];
+                    for (int j = 0; j < tokens.length; j++) {
+                        values[j] = Double.parseDouble(tokens[j].trim());
+                    }
+                    runner.addParameter(value.substring(0, eq), values);
+                } else if (arg.equals("-record")) {
+                    runner.addRecording(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            long start = System.currentTimeMillis();
+            int failures = runner.run(out);
+            System.out.println(runner.getNumRuns() + " runs, " + failures
+                    + " failed, in " + (System.currentTimeMillis() - start)
+                    + " ms. Results in " + out);
+            System.exit(failures == 0 ? 0 : 2);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+}
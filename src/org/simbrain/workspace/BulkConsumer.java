@@ -0,0 +1,50 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.workspace;
+
+/**
+ * Writes the values for a consumer of type <code>double[]</code> through a
+ * preallocated destination array. Workspace components supply these for
+ * consumers which support them (see
+ * {@link WorkspaceComponent#getBulkConsumer(Consumer)}), and the coupling
+ * manager then copies values into {@link #getBulkBuffer()} and calls
+ * {@link #bulkBufferWritten(int)} instead of calling the consumer's setter.
+ *
+ * @see BulkProducer
+ */
+public interface BulkConsumer {
+
+    /**
+     * Return the array into which values should be copied. The array is
+     * reused between calls, and its length is the number of values the
+     * consumer accepts.
+     *
+     * @return the destination array
+     */
+    double[] getBulkBuffer();
+
+    /**
+     * Called once values have been copied into the destination array, so that
+     * they can be applied if the array is not itself the consumer's state.
+     *
+     * @param count the number of values copied, starting at index 0
+     */
+    void bulkBufferWritten(int count);
+
+}
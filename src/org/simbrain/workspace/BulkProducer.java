@@ -0,0 +1,47 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.workspace;
+
+/**
+ * Reads the values of a producer of type <code>double[]</code> straight into
+ * a caller's array, without allocating. Workspace components supply these for
+ * producers which support them (see
+ * {@link WorkspaceComponent#getBulkProducer(Producer)}), and the coupling
+ * manager then reads through them instead of calling the producer's getter.
+ *
+ * @see BulkConsumer
+ */
+public interface BulkProducer {
+
+    /**
+     * Return the number of values currently produced.
+     *
+     * @return the number of values
+     */
+    int getBulkLength();
+
+    /**
+     * Copy the values the producer would return into the first
+     * <code>getBulkLength()</code> elements of an array.
+     *
+     * @param dest the array to copy into, at least as long as the values
+     */
+    void readBulk(double[] dest);
+
+}
@@ -0,0 +1,318 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.workspace;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * A fixed set of couplings compiled for fast repeated updating. Each
+ * coupling's producer and consumer are compiled into method handles (see
+ * {@link AttributeAccessor}), and values of type double are moved through a
+ * preallocated primitive array rather than being boxed. Arrays of doubles are
+ * copied through a preallocated array owned by the coupling when both
+ * components supply bulk access to the attributes (see
+ * {@link WorkspaceComponent#getBulkProducer(Producer)}), so that nothing is
+ * allocated on each update. Couplings are grouped
+ * by the component they read from and the component they write to, so that
+ * each component's locks are taken once per update instead of once per
+ * coupling.
+ *
+ * As with {@link CouplingManager#updateAllCouplings()}, all values are read
+ * before any are written. Couplings whose attributes cannot be compiled are
+ * updated in the usual way. Values moved by compiled couplings are not
+ * stored in {@link Coupling#buffer}.
+ *
+ * Instances are immutable as to which couplings they contain; the coupling
+ * manager discards them whenever its couplings change.
+ */
+final class CompiledCouplings {
+
+    /** Values moved as objects, through compiled accessors. */
+    private static final byte GENERIC = 0;
+
+    /** Values moved as primitive doubles, through compiled accessors. */
+    private static final byte PRIMITIVE = 1;
+
+    /** Arrays copied from a bulk producer to a bulk consumer. */
+    private static final byte BULK = 2;
+
+    /** How each coupling's values are moved. */
+    private final byte[] modes;
+
+    /** Compiled getters, indexed by coupling; null for bulk couplings. */
+    private final AttributeAccessor[] getters;
+
+    /** Compiled setters, indexed by coupling; null for bulk couplings. */
+    private final AttributeAccessor[] setters;
+
+    /** Bulk producers, indexed by coupling; null for other couplings. */
+    private final BulkProducer[] bulkProducers;
+
+    /** Bulk consumers, indexed by coupling; null for other couplings. */
+    private final BulkConsumer[] bulkConsumers;
+
+    /** Buffered values of primitive couplings. */
+    private final double[] values;
+
+    /** Buffered values of generic couplings. */
+    private final Object[] objects;
+
+    /** Buffers of bulk couplings, reallocated only when lengths change. */
+    private final double[][] arrays;
+
+    /** Read stages, one per producing component. */
+    private final Stage[] reads;
+
+    /** Write stages, one per consuming component. */
+    private final Stage[] writes;
+
+    /** Couplings which could not be compiled. */
+    private final Coupling<?>[] fallback;
+
+    /**
+     * Compile a list of couplings.
+     *
+     * @param couplings the couplings to compile
+     */
+    CompiledCouplings(final List<? extends Coupling<?>> couplings) {
+        List<AttributeAccessor> getterList = new ArrayList<AttributeAccessor>();
+        List<AttributeAccessor> setterList = new ArrayList<AttributeAccessor>();
+        List<BulkProducer> bulkProducerList = new ArrayList<BulkProducer>();
+        List<BulkConsumer> bulkConsumerList = new ArrayList<BulkConsumer>();
+        List<Coupling<?>> fallbackList = new ArrayList<Coupling<?>>();
+        Map<WorkspaceComponent, List<Integer>> byProducer = new LinkedHashMap<WorkspaceComponent, List<Integer>>();
+        Map<WorkspaceComponent, List<Integer>> byConsumer = new LinkedHashMap<WorkspaceComponent, List<Integer>>();
+        for (Coupling<?> coupling : couplings) {
+            Producer<?> producer = coupling.getProducer();
+            Consumer<?> consumer = coupling.getConsumer();
+            if (producer == null || consumer == null) {
+                continue;
+            }
+            AttributeAccessor getter = null;
+            AttributeAccessor setter = null;
+            BulkProducer bulkProducer = null;
+            BulkConsumer bulkConsumer = null;
+            if (producer.getDataType() == double[].class
+                    && consumer.getDataType() == double[].class) {
+                bulkProducer = producer.getParentComponent().getBulkProducer(
+                        producer);
+                bulkConsumer = consumer.getParentComponent().getBulkConsumer(
+                        consumer);
+            }
+            if (bulkProducer == null || bulkConsumer == null) {
+                bulkProducer = null;
+                bulkConsumer = null;
+                try {
+                    getter = AttributeAccessor.forGetter(producer);
+                    setter = AttributeAccessor.forSetter(consumer);
+                } catch (ReflectiveOperationException e) {
+                    fallbackList.add(coupling);
+                    continue;
+                } catch (RuntimeException e) {
+                    fallbackList.add(coupling);
+                    continue;
+                }
+            }
+            Integer index = getterList.size();
+            getterList.add(getter);
+            setterList.add(setter);
+            bulkProducerList.add(bulkProducer);
+            bulkConsumerList.add(bulkConsumer);
+            addToStage(byProducer, producer.getParentComponent(), index);
+            addToStage(byConsumer, consumer.getParentComponent(), index);
+        }
+        int n = getterList.size();
+        getters = getterList.toArray(new AttributeAccessor[n]);
+        setters = setterList.toArray(new AttributeAccessor[n]);
+        bulkProducers = bulkProducerList.toArray(new BulkProducer[n]);
+        bulkConsumers = bulkConsumerList.toArray(new BulkConsumer[n]);
+        modes = new byte[n];
+        for (int i = 0; i < n; i++) {
+            if (bulkProducers[i] != null) {
+                modes[i] = BULK;
+            } else if (getters[i].isPrimitive() && setters[i].isPrimitive()) {
+                modes[i] = PRIMITIVE;
+            } else {
+                modes[i] = GENERIC;
+            }
+        }
+        values = new double[n];
+        objects = new Object[n];
+        arrays = new double[n][];
+        fallback = fallbackList.toArray(new Coupling<?>[fallbackList.size()]);
+        reads = new Stage[byProducer.size()];
+        int i = 0;
+        for (Map.Entry<WorkspaceComponent, List<Integer>> entry : byProducer
+                .entrySet()) {
+            reads[i++] = new Stage(entry.getKey(), entry.getValue(), true);
+        }
+        writes = new Stage[byConsumer.size()];
+        i = 0;
+        for (Map.Entry<WorkspaceComponent, List<Integer>> entry : byConsumer
+                .entrySet()) {
+            writes[i++] = new Stage(entry.getKey(), entry.getValue(), false);
+        }
+    }
+
+    /**
+     * Add a coupling index to the stage for a component.
+     *
+     * @param stages stages indexed by component
+     * @param component the component
+     * @param index the coupling index
+     */
+    private static void addToStage(
+            final Map<WorkspaceComponent, List<Integer>> stages,
+            final WorkspaceComponent component, final Integer index) {
+        List<Integer> list = stages.get(component);
+        if (list == null) {
+            list = new ArrayList<Integer>();
+            stages.put(component, list);
+        }
+        list.add(index);
+    }
+
+    /**
+     * Update all the couplings: read every producer, then write every
+     * consumer.
+     */
+    void update() {
+        for (Stage stage : reads) {
+            stage.run();
+        }
+        for (Coupling<?> coupling : fallback) {
+            coupling.setBuffer();
+        }
+        for (Stage stage : writes) {
+            stage.run();
+        }
+        for (Coupling<?> coupling : fallback) {
+            coupling.update();
+        }
+    }
+
+    /**
+     * Copy a bulk producer's values into the coupling's buffer.
+     *
+     * @param i coupling index
+     */
+    private void readBulk(final int i) {
+        int length = bulkProducers[i].getBulkLength();
+        if (arrays[i] == null || arrays[i].length != length) {
+            arrays[i] = new double[length];
+        }
+        bulkProducers[i].readBulk(arrays[i]);
+    }
+
+    /**
+     * Copy the coupling's buffer into a bulk consumer.
+     *
+     * @param i coupling index
+     */
+    private void writeBulk(final int i) {
+        double[] dest = bulkConsumers[i].getBulkBuffer();
+        int count = Math.min(arrays[i].length, dest.length);
+        System.arraycopy(arrays[i], 0, dest, 0, count);
+        bulkConsumers[i].bulkBufferWritten(count);
+    }
+
+    /**
+     * The reads from, or writes to, a single component, made while holding
+     * that component's locks.
+     */
+    private final class Stage implements Callable<Void> {
+
+        /** The component read from or written to. */
+        private final WorkspaceComponent component;
+
+        /** Indices of the couplings in this stage. */
+        private final int[] indices;
+
+        /** True if this stage reads producers, false if it writes consumers. */
+        private final boolean read;
+
+        /**
+         * @param component the component
+         * @param indices coupling indices
+         * @param read whether this is a read stage
+         */
+        Stage(final WorkspaceComponent component, final List<Integer> indices,
+                final boolean read) {
+            this.component = component;
+            this.indices = new int[indices.size()];
+            for (int i = 0; i < this.indices.length; i++) {
+                this.indices[i] = indices.get(i);
+            }
+            this.read = read;
+        }
+
+        /**
+         * Run this stage while holding the component's locks.
+         */
+        void run() {
+            try {
+                Workspace.syncRest(component.getLocks().iterator(), this);
+            } catch (Exception e) {
+                // TODO exception service?
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Void call() {
+            for (int i : indices) {
+                try {
+                    if (read) {
+                        switch (modes[i]) {
+                        case PRIMITIVE:
+                            values[i] = getters[i].getDouble();
+                            break;
+                        case BULK:
+                            readBulk(i);
+                            break;
+                        default:
+                            objects[i] = getters[i].get();
+                        }
+                    } else {
+                        switch (modes[i]) {
+                        case PRIMITIVE:
+                            setters[i].setDouble(values[i]);
+                            break;
+                        case BULK:
+                            writeBulk(i);
+                            break;
+                        default:
+                            setters[i].set(objects[i]);
+                        }
+                    }
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+            return null;
+        }
+    }
+
+}
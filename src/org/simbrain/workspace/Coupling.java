@@ -135,7 +135,9 @@ public final class Coupling<E> {
             e.printStackTrace();
         }
 
-        LOGGER.debug("buffer set: " + buffer);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("buffer set: " + buffer);
+        }
     }
 
     /**
@@ -150,13 +152,15 @@ public final class Coupling<E> {
                         new Callable<E>() {
                             public E call() throws Exception {
                                 consumer.setValue(buffer);
-                                LOGGER.debug(consumer.getParentComponent()
-                                        .getName()
-                                        + " just consumed "
-                                        + producer.getValue()
-                                        + " from "
-                                        + producer.getParentComponent()
-                                                .getName());
+                                if (LOGGER.isDebugEnabled()) {
+                                    LOGGER.debug(consumer.getParentComponent()
+                                            .getName()
+                                            + " just consumed "
+                                            + buffer
+                                            + " from "
+                                            + producer.getParentComponent()
+                                                    .getName());
+                                }
 
                                 return null;
                             }
@@ -68,6 +68,15 @@ public class CouplingManager {
      */
     private Map<Consumer<?>, Coupling<?>> consumers = newMap();
 
+    /**
+     * The couplings compiled for fast updating, or null if they must be
+     * recompiled because couplings have been added or removed.
+     */
+    private CompiledCouplings compiled;
+
+    /** Guards {@link #compiled}. */
+    private final Object compiledLock = new Object();
+
     /** Default priority. */
     private static final int DEFAULT_PRIORITY = 0;
 
@@ -172,6 +181,7 @@ public class CouplingManager {
      */
     public void clearCouplings() {
         couplingList.clear();
+        invalidateCompiled();
     }
 
     /**
@@ -197,17 +207,29 @@ public class CouplingManager {
     }
 
     /**
-     * Updates all couplings in the workspace.
+     * Updates all couplings in the workspace. The couplings are compiled (see
+     * {@link CompiledCouplings}) the first time they are updated after a
+     * change.
      */
     public void updateAllCouplings() {
         LOGGER.debug("updating all couplings");
-        for (Coupling<?> coupling : getCouplings()) {
-            LOGGER.trace(coupling.getClass());
-            coupling.setBuffer();
+        CompiledCouplings local;
+        synchronized (compiledLock) {
+            if (compiled == null) {
+                compiled = new CompiledCouplings(couplingList);
+            }
+            local = compiled;
         }
+        local.update();
+    }
 
-        for (Coupling<?> coupling : getCouplings()) {
-            coupling.update();
+    /**
+     * Discard the compiled couplings, so that they are recompiled on the next
+     * update. Called after every change to the coupling list.
+     */
+    private void invalidateCompiled() {
+        synchronized (compiledLock) {
+            compiled = null;
         }
     }
 
@@ -323,6 +345,7 @@ public class CouplingManager {
             throw new UmatchedAttributesException(warning);
         }
         couplingList.add(coupling);
+        invalidateCompiled();
 
         // Populate source / target maps (used to return lists of couplings
         // connecting particular workspace components together)
@@ -470,6 +493,7 @@ public class CouplingManager {
         // consumingAttributes.remove(coupling.getConsumingAttribute());
 
         couplingList.remove(coupling);
+        invalidateCompiled();
 
         removeCouplingFromList(sourceTargetCouplings.get(sourceTarget),
                 coupling);
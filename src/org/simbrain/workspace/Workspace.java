@@ -302,6 +302,21 @@ public class Workspace {
         updateStopped();
     }
 
+    /**
+     * Iterate for a specified number of steps on the calling thread, without
+     * notifying any listeners. Used when running workspaces without a GUI,
+     * e.g. in batch runs.
+     *
+     * @param numIterations number of times to iterate the workspace.
+     * @see WorkspaceUpdater#iterateHeadless(int)
+     */
+    public void iterateHeadless(final int numIterations) {
+        synchronized (updaterLock) {
+            updater.iterateHeadless(numIterations);
+        }
+        updateStopped();
+    }
+
     /**
      * Iterated for a specified number of iterations using a latch. Used in
      * scripts when making a series of events occur, e.g. set some neurons, run
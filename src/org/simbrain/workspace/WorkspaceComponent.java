@@ -294,6 +294,32 @@ public abstract class WorkspaceComponent {
         return Collections.singleton(this);
     }
 
+    /**
+     * Returns an object through which a producer of type
+     * <code>double[]</code> can be read without allocating, or null if the
+     * producer does not support this. Override in components whose array
+     * producers are updated often.
+     *
+     * @param producer a producer belonging to this component
+     * @return the bulk producer, or null
+     */
+    public BulkProducer getBulkProducer(final Producer<?> producer) {
+        return null;
+    }
+
+    /**
+     * Returns an object through which a consumer of type
+     * <code>double[]</code> can be written without allocating, or null if
+     * the consumer does not support this. Override in components whose array
+     * consumers are updated often.
+     *
+     * @param consumer a consumer belonging to this component
+     * @return the bulk consumer, or null
+     */
+    public BulkConsumer getBulkConsumer(final Consumer<?> consumer) {
+        return null;
+    }
+
     /**
      * Called by Workspace to notify that updates have stopped.
      */
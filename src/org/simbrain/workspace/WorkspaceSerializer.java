@@ -131,8 +131,10 @@ public class WorkspaceSerializer {
             zipStream.putNextEntry(entry);
             serializer.serializeComponent(component);
 
-            GuiComponent<?> desktopComponent = SimbrainDesktop.getDesktop(
-                    workspace).getDesktopComponent(component);
+            GuiComponent<?> desktopComponent = null;
+            if (desktop != null) {
+                desktopComponent = desktop.getDesktopComponent(component);
+            }
 
             /*
              * If there is a desktop component associated with the component
@@ -220,7 +222,9 @@ public class WorkspaceSerializer {
                 // created
                 workspace.addWorkspaceComponent(wc);
 
-                if (archivedComponent.getDesktopComponent() != null) {
+                // No desktop when running headless
+                if (desktop != null
+                        && archivedComponent.getDesktopComponent() != null) {
                     Rectangle bounds = (Rectangle) new XStream(new DomDriver())
                             .fromXML(new ByteArrayInputStream(entries
                                     .get(archivedComponent
@@ -85,6 +85,16 @@ public class ComponentUpdatePart {
         return description;
     }
 
+    /**
+     * Runs this part on the calling thread, without notifying listeners. Used
+     * by headless updates.
+     */
+    void runInline() {
+        synchronized (lock) {
+            runnable.run();
+        }
+    }
+
     /**
      * Get's a runnable that counts down the latch after completion.
      *
@@ -78,6 +78,12 @@ public class WorkspaceUpdater {
     /** Whether updates should continue to run. */
     private volatile boolean run = false;
 
+    /**
+     * Whether a headless iteration is in progress, in which case components
+     * are updated on the calling thread and listeners are not notified.
+     */
+    private volatile boolean headless = false;
+
     /** The number of times the update has run. */
     private volatile int time;
 
@@ -529,6 +535,38 @@ public class WorkspaceUpdater {
         });
     }
 
+    /**
+     * Iterate the updater for a specified number of iterations on the calling
+     * thread, without a GUI. There is no update delay, listeners are not
+     * notified, the task synchronization manager is not used, and components
+     * are updated in turn instead of being handed to the component executor.
+     * Returns when all iterations are complete.
+     *
+     * @param numIterations number of times to iterate updater.
+     */
+    public void iterateHeadless(final int numIterations) {
+        headless = true;
+        try {
+            for (int i = 0; i < numIterations; i++) {
+                time++;
+                for (UpdateAction action : updateActionManager.getActionList()) {
+                    action.invoke();
+                }
+            }
+        } finally {
+            headless = false;
+        }
+    }
+
+    /**
+     * Returns whether a headless iteration is in progress.
+     *
+     * @return true if iterating headless
+     */
+    public boolean isHeadless() {
+        return headless;
+    }
+
     /** A synch-manager where the methods do nothing. */
     private static final TaskSynchronizationManager NO_ACTION_SYNCH_MANAGER = new TaskSynchronizationManager() {
         public void queueTasks() {
@@ -609,6 +647,14 @@ public class WorkspaceUpdater {
 
         Collection<ComponentUpdatePart> parts = component.getUpdateParts();
 
+        if (headless) {
+            for (ComponentUpdatePart part : parts) {
+                part.runInline();
+            }
+            signal.done();
+            return;
+        }
+
         final LatchCompletionSignal partsSignal = new LatchCompletionSignal(
                 parts.size()) {
             public void done() {
@@ -636,7 +682,9 @@ public class WorkspaceUpdater {
     public void updateCouplings() {
         workspace.getCouplingManager().updateAllCouplings();
         LOGGER.trace("couplings updated");
-        workspace.getUpdater().notifyCouplingsUpdated();
+        if (!headless) {
+            workspace.getUpdater().notifyCouplingsUpdated();
+        }
     }
 
     /**
@@ -29,8 +29,12 @@ import javax.swing.event.TableModelListener;
 import org.apache.log4j.Logger;
 import org.simbrain.util.table.NumericTable;
 import org.simbrain.workspace.AttributeType;
+import org.simbrain.workspace.BulkConsumer;
+import org.simbrain.workspace.BulkProducer;
+import org.simbrain.workspace.Consumer;
 import org.simbrain.workspace.PotentialConsumer;
 import org.simbrain.workspace.PotentialProducer;
+import org.simbrain.workspace.Producer;
 import org.simbrain.workspace.WorkspaceComponent;
 
 /**
@@ -162,6 +166,53 @@ public class DataWorldComponent extends WorkspaceComponent {
         return returnList;
     }
 
+    /**
+     * The current row can be read in bulk.
+     */
+    @Override
+    public BulkProducer getBulkProducer(final Producer<?> producer) {
+        if (producer.getBaseObject() != dataTable
+                || !producer.getMethodName().equals("getVectorCurrentRow")) {
+            return null;
+        }
+        return new BulkProducer() {
+
+            public int getBulkLength() {
+                return dataTable.getLogicalColumnCount();
+            }
+
+            public void readBulk(double[] dest) {
+                dataTable.readVectorCurrentRow(dest);
+            }
+        };
+    }
+
+    /**
+     * The current row can be written in bulk.
+     */
+    @Override
+    public BulkConsumer getBulkConsumer(final Consumer<?> consumer) {
+        if (consumer.getBaseObject() != dataTable
+                || !consumer.getMethodName().equals("setVectorCurrentRow")) {
+            return null;
+        }
+        return new BulkConsumer() {
+
+            private double[] buffer = new double[0];
+
+            public double[] getBulkBuffer() {
+                if (buffer.length != dataTable.getLogicalColumnCount()) {
+                    buffer = new double[dataTable.getLogicalColumnCount()];
+                }
+                return buffer;
+            }
+
+            public void bulkBufferWritten(int count) {
+                dataTable.setVectorCurrentRow(buffer, count);
+            }
+        };
+    }
+
     @Override
     public List<PotentialProducer> getPotentialProducers() {
         List<PotentialProducer> returnList = new ArrayList<PotentialProducer>();
@@ -0,0 +1,1061 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.world.odorworld;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+import org.simbrain.network.update_actions.concurrency_tools.SharedForkJoinPool;
+import org.simbrain.util.environment.SmellSource;
+import org.simbrain.util.math.SimbrainMath;
+import org.simbrain.world.odorworld.effectors.Effector;
+import org.simbrain.world.odorworld.effectors.StraightMovement;
+import org.simbrain.world.odorworld.effectors.Turning;
+import org.simbrain.world.odorworld.entities.OdorWorldEntity;
+import org.simbrain.world.odorworld.entities.RotatingEntity;
+import org.simbrain.world.odorworld.sensors.Sensor;
+import org.simbrain.world.odorworld.sensors.SmellSensor;
+
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * Independent copies of the layout of an odor world, simulated together. The
+ * agents of a template world (its {@link RotatingEntity} instances) are
+ * replicated in every copy, and their positions, headings, smell sensor
+ * values and effector amounts are held in flat arrays indexed by copy, so
+ * that a whole population of agents can be read and driven through single
+ * attributes (see {@link BatchedOdorWorldComponent}). Copies do not interact,
+ * so they are stepped in parallel.
+ *
+ * Within a copy, entities are updated in the order of the template's entity
+ * list, as in {@link OdorWorld#update(int)}, so that each copy follows the
+ * same trajectory the template world would given the same effector amounts.
+ * Only agents move; other entities are stationary smell sources and
+ * obstacles. Smell sensors and straight movement and turning effectors are
+ * simulated. Other sensors and effectors, behaviors, velocities and smell
+ * noise are not.
+ *
+ * The layout is read from the template when this world is created and each
+ * time it is reset, so later changes to the template take effect on the next
+ * call to {@link #reset()}.
+ */
+public final class BatchedOdorWorld {
+
+    /** Minimum estimated cost of the copies stepped by one task. */
+    private static final long MIN_CHUNK_COST = 1 << 14;
+
+    /** Maximum number of cells in the grid of stationary entities. */
+    private static final int MAX_CELLS = 1 << 14;
+
+    /** Degrees in a circle. */
+    private static final double DEGREES_IN_A_CIRCLE = 360;
+
+    /** World whose layout is replicated. */
+    private final OdorWorld template;
+
+    /** Number of copies. */
+    private final int copies;
+
+    /** Whether copies are stepped in parallel. */
+    private boolean parallel = true;
+
+    /** Width of the world. */
+    private transient int worldWidth;
+
+    /** Height of the world. */
+    private transient int worldHeight;
+
+    /** Whether agents wrap around the edges of the world. */
+    private transient boolean wrapAround;
+
+    /** Whether collisions block agents. */
+    private transient boolean blocking;
+
+    /** Number of agents in each copy. */
+    private transient int numAgents;
+
+    /** Position of each agent in the template's entity list. */
+    private transient int[] agentSlot;
+
+    /** Width of each agent. */
+    private transient int[] agentWidth;
+
+    /** Height of each agent. */
+    private transient int[] agentHeight;
+
+    /** Smell source of each agent, or null. */
+    private transient SmellSource[] agentSource;
+
+    /** Whether each agent's sensors are enabled. */
+    private transient boolean[] sensorsEnabled;
+
+    /** Whether each agent's effectors are enabled. */
+    private transient boolean[] effectorsEnabled;
+
+    /** Smell sensors of agent a are sensorStart[a]..sensorStart[a + 1]. */
+    private transient int[] sensorStart;
+
+    /** Angle of each smell sensor relative to its agent's heading. */
+    private transient double[] sensorTheta;
+
+    /** Distance of each smell sensor from its agent's center. */
+    private transient double[] sensorRadius;
+
+    /** Effectors of agent a are effectorStart[a]..effectorStart[a + 1]. */
+    private transient int[] effectorStart;
+
+    /** True for turning effectors, false for straight movement. */
+    private transient boolean[] effectorTurns;
+
+    /** Direction of each turning effector, or scaling of each movement. */
+    private transient double[] effectorFactor;
+
+    /** Length of each smell sensor's value: the longest stimulus. */
+    private transient int smellDimension;
+
+    /** Number of stationary entities. */
+    private transient int numStatics;
+
+    /** Position of each stationary entity in the template's entity list. */
+    private transient int[] staticSlot;
+
+    /** Center of each stationary entity. */
+    private transient double[] staticX;
+
+    /** See above. */
+    private transient double[] staticY;
+
+    /** Smell source of each stationary entity, or null. */
+    private transient SmellSource[] staticSource;
+
+    /** Reduced bounds of each stationary entity: x, y, width, height. */
+    private transient int[] staticBounds;
+
+    /** Side of a cell of the grid of stationary entities. */
+    private transient double cellSize;
+
+    /** Number of columns of cells. */
+    private transient int columns;
+
+    /** Number of rows of cells. */
+    private transient int rows;
+
+    /** Stationary sources reaching each cell, in increasing order. */
+    private transient int[][] smellCells;
+
+    /** Stationary sources reaching most cells, in increasing order. */
+    private transient int[] smellEverywhere;
+
+    /** Stationary entities whose reduced bounds overlap each cell. */
+    private transient int[][] bodyCells;
+
+    /** Estimated cost of stepping one copy. */
+    private transient long copyCost;
+
+    /** Upper left x coordinate of every agent, by copy then agent. */
+    private transient float[] x;
+
+    /** Upper left y coordinate of every agent, by copy then agent. */
+    private transient float[] y;
+
+    /** Heading of every agent, in degrees, by copy then agent. */
+    private transient double[] heading;
+
+    /** Whether every agent has collided, by copy then agent. */
+    private transient boolean[] collided;
+
+    /** Amount of every effector, by copy then agent then effector. */
+    private transient double[] amounts;
+
+    /** Value of every smell sensor, by copy then agent then sensor. */
+    private transient double[] sensorValues;
+
+    /**
+     * Construct copies of the layout of a world.
+     *
+     * @param template the world whose layout is replicated
+     * @param copies number of copies
+     */
+    public BatchedOdorWorld(final OdorWorld template, final int copies) {
+        if (copies < 1) {
+            throw new IllegalArgumentException("At least one copy is needed");
+        }
+        this.template = template;
+        this.copies = copies;
+        reset();
+    }
+
+    /**
+     * Reads the layout of the template again, and puts the agents of every
+     * copy where they are in the template. Effector amounts are cleared.
+     */
+    public void reset() {
+        readLayout();
+        layOutGrid();
+        int n = copies * numAgents;
+        x = new float[n];
+        y = new float[n];
+        heading = new double[n];
+        collided = new boolean[n];
+        amounts = new double[copies * effectorStart[numAgents]];
+        sensorValues = new double[copies * sensorStart[numAgents]
+                * smellDimension];
+        List<OdorWorldEntity> entities = template.getObjectList();
+        for (int a = 0; a < numAgents; a++) {
+            RotatingEntity agent = (RotatingEntity) entities.get(agentSlot[a]);
+            // Stationary entities listed before an agent mark it as collided
+            // in the first update, before it moves
+            boolean hit = agent.hasCollided()
+                    || hitsStatic(a, agent.getX(), agent.getY(), agentSlot[a]);
+            for (int c = 0; c < copies; c++) {
+                int i = c * numAgents + a;
+                x[i] = agent.getX();
+                y[i] = agent.getY();
+                heading[i] = agent.getHeading();
+                collided[i] = hit;
+            }
+        }
+    }
+
+    /**
+     * Reads agents, their sensors and effectors, and stationary entities
+     * from the template.
+     */
+    private void readLayout() {
+        List<OdorWorldEntity> entities = template.getObjectList();
+        worldWidth = template.getWidth();
+        worldHeight = template.getHeight();
+        wrapAround = template.getWrapAround();
+        blocking = template.isObjectsBlockMovement();
+
+        numAgents = 0;
+        int numSensors = 0;
+        int numEffectors = 0;
+        for (OdorWorldEntity entity : entities) {
+            if (entity instanceof RotatingEntity) {
+                numAgents++;
+                for (Sensor sensor : entity.getSensors()) {
+                    if (sensor instanceof SmellSensor) {
+                        numSensors++;
+                    }
+                }
+                for (Effector effector : entity.getEffectors()) {
+                    if (effector instanceof StraightMovement
+                            || effector instanceof Turning) {
+                        numEffectors++;
+                    }
+                }
+            }
+        }
+        numStatics = entities.size() - numAgents;
+        agentSlot = new int[numAgents];
+        agentWidth = new int[numAgents];
+        agentHeight = new int[numAgents];
+        agentSource = new SmellSource[numAgents];
+        sensorsEnabled = new boolean[numAgents];
+        effectorsEnabled = new boolean[numAgents];
+        sensorStart = new int[numAgents + 1];
+        sensorTheta = new double[numSensors];
+        sensorRadius = new double[numSensors];
+        effectorStart = new int[numAgents + 1];
+        effectorTurns = new boolean[numEffectors];
+        effectorFactor = new double[numEffectors];
+        staticSlot = new int[numStatics];
+        staticX = new double[numStatics];
+        staticY = new double[numStatics];
+        staticSource = new SmellSource[numStatics];
+        staticBounds = new int[numStatics * 4];
+        smellDimension = 0;
+
+        int a = 0;
+        int s = 0;
+        int k = 0;
+        int e = 0;
+        for (int slot = 0; slot < entities.size(); slot++) {
+            OdorWorldEntity entity = entities.get(slot);
+            SmellSource source = copySource(entity.getSmellSource());
+            if (source != null) {
+                smellDimension = Math.max(smellDimension, source
+                        .getStimulusDimension());
+            }
+            if (entity instanceof RotatingEntity) {
+                agentSlot[a] = slot;
+                agentWidth[a] = entity.getWidth();
+                agentHeight[a] = entity.getHeight();
+                agentSource[a] = source;
+                sensorsEnabled[a] = entity.isSensorsEnabled();
+                effectorsEnabled[a] = entity.isEffectorsEnabled();
+                for (Sensor sensor : entity.getSensors()) {
+                    if (sensor instanceof SmellSensor) {
+                        sensorTheta[k] = ((SmellSensor) sensor).getTheta();
+                        sensorRadius[k] = ((SmellSensor) sensor).getRadius();
+                        k++;
+                    }
+                }
+                for (Effector effector : entity.getEffectors()) {
+                    if (effector instanceof StraightMovement) {
+                        effectorTurns[e] = false;
+                        effectorFactor[e] = ((StraightMovement) effector)
+                                .getScalingFactor();
+                        e++;
+                    } else if (effector instanceof Turning) {
+                        effectorTurns[e] = true;
+                        effectorFactor[e] = ((Turning) effector)
+                                .getDirection();
+                        e++;
+                    }
+                }
+                a++;
+                sensorStart[a] = k;
+                effectorStart[a] = e;
+            } else {
+                staticSlot[s] = slot;
+                staticX[s] = entity.getCenterX();
+                staticY[s] = entity.getCenterY();
+                staticSource[s] = source;
+                Rectangle bounds = entity.getReducedBounds();
+                staticBounds[s * 4] = bounds.x;
+                staticBounds[s * 4 + 1] = bounds.y;
+                staticBounds[s * 4 + 2] = bounds.width;
+                staticBounds[s * 4 + 3] = bounds.height;
+                s++;
+            }
+        }
+    }
+
+    /**
+     * Returns a noiseless copy of a smell source, which can be read from
+     * several threads at once.
+     *
+     * @param source the source to copy, or null
+     * @return the copy, or null
+     */
+    private static SmellSource copySource(final SmellSource source) {
+        if (source == null || source.getStimulusVector() == null) {
+            return null;
+        }
+        SmellSource copy = new SmellSource(source.getStimulusVector().clone(),
+                source.getDecayFunction(), source.getDispersion(), false, 0);
+        copy.setPeak(source.getPeak());
+        copy.update();
+        return copy;
+    }
+
+    /**
+     * Lays out a uniform grid over the world, with cells about as large as
+     * the average dispersion of the stationary sources, and lists each
+     * stationary source in the cells it reaches and each stationary entity
+     * in the cells its reduced bounds overlap. Positions outside the world
+     * are treated as lying in the nearest border cell.
+     */
+    private void layOutGrid() {
+        double totalDispersion = 0;
+        int numSources = 0;
+        for (int s = 0; s < numStatics; s++) {
+            SmellSource source = staticSource[s];
+            if (source != null && source.getDispersion() > 0
+                    && source.getDispersion() < Double.POSITIVE_INFINITY) {
+                totalDispersion += source.getDispersion();
+                numSources++;
+            }
+        }
+        double area = Math.max(1, worldWidth) * (double) Math.max(1,
+                worldHeight);
+        cellSize = Math.max(1, numSources == 0 ? Math.max(worldWidth,
+                worldHeight) : totalDispersion / numSources);
+        cellSize = Math.max(cellSize, Math.sqrt(area / MAX_CELLS));
+        columns = Math.max(1, (int) Math.ceil(worldWidth / cellSize));
+        rows = Math.max(1, (int) Math.ceil(worldHeight / cellSize));
+
+        // Ranges of cells, four entries per entity as for bounds
+        int[] smellRanges = new int[numStatics * 4];
+        int[] bodyRanges = new int[numStatics * 4];
+        for (int s = 0; s < numStatics; s++) {
+            SmellSource source = staticSource[s];
+            if (source == null) {
+                smellRanges[s * 4] = -1;
+            } else {
+                double d = source.getDispersion();
+                setRange(smellRanges, s, staticX[s] - d, staticX[s] + d,
+                        staticY[s] - d, staticY[s] + d);
+            }
+            int w = staticBounds[s * 4 + 2];
+            int h = staticBounds[s * 4 + 3];
+            if (w <= 0 || h <= 0) {
+                bodyRanges[s * 4] = -1;
+            } else {
+                double bx = staticBounds[s * 4];
+                double by = staticBounds[s * 4 + 1];
+                setRange(bodyRanges, s, bx, bx + w - 1, by, by + h - 1);
+            }
+        }
+        int everywhere = 0;
+        int half = columns * rows / 2;
+        for (int s = 0; s < numStatics; s++) {
+            if (smellRanges[s * 4] >= 0 && rangeSize(smellRanges, s) > half) {
+                smellRanges[s * 4] = -2;
+                everywhere++;
+            }
+        }
+        smellEverywhere = new int[everywhere];
+        everywhere = 0;
+        for (int s = 0; s < numStatics; s++) {
+            if (smellRanges[s * 4] == -2) {
+                smellEverywhere[everywhere++] = s;
+            }
+        }
+        smellCells = fillCells(smellRanges);
+        bodyCells = blocking ? fillCells(bodyRanges) : null;
+
+        long listed = 0;
+        for (int[] cell : smellCells) {
+            listed += cell.length;
+        }
+        long candidates = listed / smellCells.length + everywhere;
+        int numSensors = sensorStart[numAgents];
+        copyCost = 1 + numAgents * (long) numAgents + numSensors
+                * (numAgents + candidates);
+    }
+
+    /**
+     * Records the range of cells covering a rectangle.
+     *
+     * @param ranges first and last column and row of each entity's range
+     * @param s the entity
+     * @param minX left edge
+     * @param maxX right edge
+     * @param minY top edge
+     * @param maxY bottom edge
+     */
+    private void setRange(final int[] ranges, final int s, final double minX,
+            final double maxX, final double minY, final double maxY) {
+        ranges[s * 4] = column(minX);
+        ranges[s * 4 + 1] = column(maxX);
+        ranges[s * 4 + 2] = row(minY);
+        ranges[s * 4 + 3] = row(maxY);
+    }
+
+    /**
+     * @param ranges first and last column and row of each entity's range
+     * @param s the entity
+     * @return number of cells in its range
+     */
+    private static int rangeSize(final int[] ranges, final int s) {
+        return (ranges[s * 4 + 1] - ranges[s * 4] + 1)
+                * (ranges[s * 4 + 3] - ranges[s * 4 + 2] + 1);
+    }
+
+    /**
+     * Lists each entity with a range in the cells of its range.
+     *
+     * @param ranges first and last column and row of each entity's range,
+     *            the first being negative for entities not to be listed
+     * @return entities listed in each cell, in increasing order
+     */
+    private int[][] fillCells(final int[] ranges) {
+        int[] counts = new int[columns * rows];
+        for (int pass = 0; pass < 2; pass++) {
+            int[][] cells = pass == 0 ? null : new int[counts.length][];
+            if (cells != null) {
+                for (int i = 0; i < counts.length; i++) {
+                    cells[i] = new int[counts[i]];
+                    counts[i] = 0;
+                }
+            }
+            for (int s = 0; s < numStatics; s++) {
+                if (ranges[s * 4] < 0) {
+                    continue;
+                }
+                for (int row = ranges[s * 4 + 2]; row <= ranges[s * 4 + 3]; row++) {
+                    for (int col = ranges[s * 4]; col <= ranges[s * 4 + 1]; col++) {
+                        int cell = row * columns + col;
+                        if (cells != null) {
+                            cells[cell][counts[cell]] = s;
+                        }
+                        counts[cell]++;
+                    }
+                }
+            }
+            if (cells != null) {
+                return cells;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param px an x coordinate
+     * @return the column of cells it lies in, or the nearest one
+     */
+    private int column(final double px) {
+        return Math.min(columns - 1, Math.max(0,
+                (int) Math.floor(px / cellSize)));
+    }
+
+    /**
+     * @param py a y coordinate
+     * @return the row of cells it lies in, or the nearest one
+     */
+    private int row(final double py) {
+        return Math.min(rows - 1, Math.max(0,
+                (int) Math.floor(py / cellSize)));
+    }
+
+    /**
+     * Update every copy once, as {@link OdorWorld#update(int)} would: for
+     * each agent in turn its smell sensors are read, its effectors applied
+     * and its collisions found.
+     */
+    public void update() {
+        if (numAgents == 0) {
+            return;
+        }
+        long chunk = Math.max(1, MIN_CHUNK_COST / copyCost);
+        if (parallel && copies > chunk) {
+            SharedForkJoinPool.invoke(new StepTask(0, copies,
+                    (int) Math.min(copies, chunk)));
+        } else {
+            Scratch scratch = new Scratch();
+            for (int c = 0; c < copies; c++) {
+                step(c, scratch);
+            }
+        }
+    }
+
+    /**
+     * Update one copy.
+     *
+     * @param copy the copy
+     * @param scratch work space for the calling thread
+     */
+    private void step(final int copy, final Scratch scratch) {
+        int base = copy * numAgents;
+        int effectorBase = copy * effectorStart[numAgents];
+        for (int a = 0; a < numAgents; a++) {
+            int i = base + a;
+            if (sensorsEnabled[a]) {
+                for (int k = sensorStart[a]; k < sensorStart[a + 1]; k++) {
+                    smell(copy, a, k, scratch);
+                }
+            }
+            if (effectorsEnabled[a]) {
+                for (int e = effectorStart[a]; e < effectorStart[a + 1]; e++) {
+                    double amount = amounts[effectorBase + e];
+                    if (effectorTurns[e]) {
+                        turn(i, effectorFactor[e] * amount);
+                    } else {
+                        goStraight(a, i, amount * effectorFactor[e]);
+                    }
+                }
+            }
+            if (blocking) {
+                // As in OdorWorld, an entity clears its own flag and marks
+                // the entities it overlaps
+                collided[i] = false;
+                for (int b = 0; b < numAgents; b++) {
+                    if (b != a && agentsOverlap(a, i, b, base + b)) {
+                        collided[base + b] = true;
+                    }
+                }
+            }
+            heading[i] = computeAngle(heading[i]);
+            if (blocking) {
+                // The agent stays put until its next turn, by which time
+                // every stationary entity has marked it if they overlap
+                collided[i] = hitsStatic(a, x[i], y[i], Integer.MAX_VALUE);
+            }
+        }
+    }
+
+    /**
+     * Sums the stimuli of the sources of all entities in a copy other than a
+     * sensor's agent at the sensor's location, visiting sources in the order
+     * of the template's entity list, as
+     * {@link SmellSensor#update()} does.
+     *
+     * @param copy the copy
+     * @param a the agent
+     * @param k the sensor
+     * @param scratch work space for the calling thread
+     */
+    private void smell(final int copy, final int a, final int k,
+            final Scratch scratch) {
+        int base = copy * numAgents;
+        int i = base + a;
+        double radians = (heading[i] * Math.PI) / 180;
+        double[] from = scratch.from;
+        double[] to = scratch.to;
+        double[] value = scratch.value;
+        from[0] = (double) (x[i] + (agentWidth[a] / 2))
+                + (sensorRadius[k] * Math.cos(radians + sensorTheta[k]));
+        from[1] = (double) (y[i] + (agentHeight[a] / 2))
+                - (sensorRadius[k] * Math.sin(radians + sensorTheta[k]));
+        Arrays.fill(value, 0);
+
+        int count = scratch.collect(smellCells[row(from[1]) * columns
+                + column(from[0])], smellEverywhere);
+        int[] candidates = scratch.candidates;
+        int p = 0;
+        int b = 0;
+        while (p < count || b < numAgents) {
+            if (b < numAgents
+                    && (p == count || agentSlot[b] < staticSlot[candidates[p]])) {
+                if (b != a && agentSource[b] != null) {
+                    to[0] = x[base + b] + (agentWidth[b] / 2);
+                    to[1] = y[base + b] + (agentHeight[b] / 2);
+                    agentSource[b].addStimulus(
+                            SimbrainMath.distance(from, to), value);
+                }
+                b++;
+            } else {
+                int s = candidates[p++];
+                to[0] = staticX[s];
+                to[1] = staticY[s];
+                staticSource[s].addStimulus(SimbrainMath.distance(from, to),
+                        value);
+            }
+        }
+        System.arraycopy(value, 0, sensorValues, (copy
+                * sensorStart[numAgents] + k)
+                * smellDimension, smellDimension);
+    }
+
+    /**
+     * Turn an agent, as {@link RotatingEntity#turn(double)} does.
+     *
+     * @param i the agent's index in the state arrays
+     * @param amount amount to turn
+     */
+    private void turn(final int i, final double amount) {
+        if (amount == 0) {
+            return;
+        }
+        if (!(blocking && collided[i])) {
+            heading[i] += amount;
+        }
+    }
+
+    /**
+     * Move an agent, as {@link RotatingEntity#goStraight(double)} does.
+     *
+     * @param a the agent
+     * @param i the agent's index in the state arrays
+     * @param amount amount to move
+     */
+    private void goStraight(final int a, final int i, final double amount) {
+        if (amount == 0) {
+            return;
+        }
+        if (!(blocking && collided[i])) {
+            double radians = (heading[i] * Math.PI) / 180;
+            x[i] = moveTo(x[i], x[i] + (float) (amount * Math.cos(radians)),
+                    agentWidth[a], worldWidth);
+            y[i] = moveTo(y[i], y[i] - (float) (amount * Math.sin(radians)),
+                    agentHeight[a], worldHeight);
+        }
+    }
+
+    /**
+     * Returns the coordinate an agent ends up at when moved along one axis,
+     * as {@link OdorWorldEntity#setX(float)} and
+     * {@link OdorWorldEntity#setY(float)} compute it.
+     *
+     * @param old current coordinate
+     * @param target coordinate moved to
+     * @param size size of the agent along the axis
+     * @param extent size of the world along the axis
+     * @return new coordinate
+     */
+    private float moveTo(final float old, final float target, final int size,
+            final int extent) {
+        if (wrapAround) {
+            if (target <= 0) {
+                return extent - (Math.abs(target) % extent);
+            } else if (target > extent) {
+                return target % extent;
+            } else {
+                return target;
+            }
+        } else if ((target < 0) || ((target + size) > extent)) {
+            return old;
+        }
+        return target;
+    }
+
+    /**
+     * Ensures that an angle lies between 0 and 360, as
+     * {@link RotatingEntity#update()} does.
+     *
+     * @param val the angle
+     * @return the angle in range
+     */
+    private static double computeAngle(final double val) {
+        double retVal = val;
+        if (val >= DEGREES_IN_A_CIRCLE) {
+            retVal -= DEGREES_IN_A_CIRCLE;
+        }
+        if (val < 0) {
+            retVal += DEGREES_IN_A_CIRCLE;
+        }
+        return retVal;
+    }
+
+    /**
+     * Whether the reduced bounds of two agents in a copy intersect.
+     *
+     * @param a first agent
+     * @param i its index in the state arrays
+     * @param b second agent
+     * @param j its index in the state arrays
+     * @return true if they intersect
+     */
+    private boolean agentsOverlap(final int a, final int i, final int b,
+            final int j) {
+        int w = agentWidth[a];
+        int h = agentHeight[a];
+        int ow = agentWidth[b];
+        int oh = agentHeight[b];
+        return intersects((int) x[i] + h / 5, (int) y[i] + w / 5, w - 2
+                * (h / 5), h - 2 * (w / 5), (int) x[j] + oh / 5, (int) y[j]
+                + ow / 5, ow - 2 * (oh / 5), oh - 2 * (ow / 5));
+    }
+
+    /**
+     * Whether the reduced bounds of an agent at a position intersect those
+     * of a stationary entity listed before a given slot.
+     *
+     * @param a the agent
+     * @param px upper left x coordinate of the agent
+     * @param py upper left y coordinate of the agent
+     * @param beforeSlot only entities before this slot are considered
+     * @return true if they intersect
+     */
+    private boolean hitsStatic(final int a, final float px, final float py,
+            final int beforeSlot) {
+        if (!blocking) {
+            return false;
+        }
+        int w = agentWidth[a];
+        int h = agentHeight[a];
+        // Reduced bounds, as in OdorWorldEntity#getReducedBounds()
+        int rx = (int) px + h / 5;
+        int ry = (int) py + w / 5;
+        int rw = w - 2 * (h / 5);
+        int rh = h - 2 * (w / 5);
+        if (rw <= 0 || rh <= 0) {
+            return false;
+        }
+        int minCol = column(rx);
+        int maxCol = column(rx + (double) rw - 1);
+        int maxRow = row(ry + (double) rh - 1);
+        for (int row = row(ry); row <= maxRow; row++) {
+            for (int col = minCol; col <= maxCol; col++) {
+                for (int s : bodyCells[row * columns + col]) {
+                    if (staticSlot[s] < beforeSlot
+                            && intersects(rx, ry, rw, rh, staticBounds[s * 4],
+                                    staticBounds[s * 4 + 1],
+                                    staticBounds[s * 4 + 2],
+                                    staticBounds[s * 4 + 3])) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether two rectangles intersect, as in
+     * {@link Rectangle#intersects(Rectangle)}.
+     *
+     * @param ax first rectangle's x
+     * @param ay first rectangle's y
+     * @param aw first rectangle's width
+     * @param ah first rectangle's height
+     * @param bx second rectangle's x
+     * @param by second rectangle's y
+     * @param bw second rectangle's width
+     * @param bh second rectangle's height
+     * @return true if they intersect
+     */
+    private static boolean intersects(final int ax, final int ay,
+            final int aw, final int ah, final int bx, final int by,
+            final int bw, final int bh) {
+        if (aw <= 0 || ah <= 0 || bw <= 0 || bh <= 0) {
+            return false;
+        }
+        return ax < bx + bw && bx < ax + aw && ay < by + bh && by < ay + ah;
+    }
+
+    /**
+     * Work space for the thread stepping a range of copies.
+     */
+    private final class Scratch {
+
+        /** Sensor location. */
+        private final double[] from = new double[2];
+
+        /** Source location. */
+        private final double[] to = new double[2];
+
+        /** Sum of stimuli at a sensor. */
+        private final double[] value = new double[smellDimension];
+
+        /** Stationary sources reaching a sensor, in increasing order. */
+        private final int[] candidates = new int[numStatics];
+
+        /**
+         * Merges two increasing lists of stationary sources into the
+         * candidates.
+         *
+         * @param first first list
+         * @param second second list
+         * @return the number of candidates
+         */
+        int collect(final int[] first, final int[] second) {
+            int i = 0;
+            int j = 0;
+            int count = 0;
+            while (i < first.length && j < second.length) {
+                if (first[i] < second[j]) {
+                    candidates[count++] = first[i++];
+                } else {
+                    candidates[count++] = second[j++];
+                }
+            }
+            while (i < first.length) {
+                candidates[count++] = first[i++];
+            }
+            while (j < second.length) {
+                candidates[count++] = second[j++];
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Steps a range of copies, splitting it until it is small enough.
+     */
+    private final class StepTask extends RecursiveAction {
+
+        /** Generated serial id. */
+        private static final long serialVersionUID = 1L;
+
+        /** First copy of range (inclusive). */
+        private final int lo;
+
+        /** Last copy of range (exclusive). */
+        private final int hi;
+
+        /** Largest number of copies not to split. */
+        private final int chunk;
+
+        /**
+         * @param lo start of range (inclusive)
+         * @param hi end of range (exclusive)
+         * @param chunk largest number of copies not to split
+         */
+        StepTask(final int lo, final int hi, final int chunk) {
+            this.lo = lo;
+            this.hi = hi;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > chunk) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new StepTask(lo, mid, chunk), new StepTask(mid, hi,
+                        chunk));
+                return;
+            }
+            Scratch scratch = new Scratch();
+            for (int c = lo; c < hi; c++) {
+                step(c, scratch);
+            }
+        }
+    }
+
+    /**
+     * @return the world whose layout is replicated
+     */
+    public OdorWorld getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return the number of copies
+     */
+    public int getCopies() {
+        return copies;
+    }
+
+    /**
+     * @return the number of agents in each copy
+     */
+    public int getNumAgents() {
+        return numAgents;
+    }
+
+    /**
+     * @return the number of smell sensors in each copy
+     */
+    public int getNumSensors() {
+        return sensorStart[numAgents];
+    }
+
+    /**
+     * @return the number of movement and turning effectors in each copy
+     */
+    public int getNumEffectors() {
+        return effectorStart[numAgents];
+    }
+
+    /**
+     * @return the length of the value of each smell sensor
+     */
+    public int getSmellDimension() {
+        return smellDimension;
+    }
+
+    /**
+     * Returns the values of all smell sensors as of the last update: for each
+     * copy, for each agent in the order of the template's entity list, the
+     * values of its smell sensors in order, each
+     * {@link #getSmellDimension()} long. The array is live, and is replaced
+     * when the world is reset.
+     *
+     * @return the sensor values
+     */
+    public double[] getSensorValues() {
+        return sensorValues;
+    }
+
+    /**
+     * Returns the amounts of all movement and turning effectors, ordered by
+     * copy, then agent, then effector. The array is live: amounts written to
+     * it are applied on the next update. It is replaced when the world is
+     * reset.
+     *
+     * @return the effector amounts
+     */
+    public double[] getEffectorAmounts() {
+        return amounts;
+    }
+
+    /**
+     * Copy the upper left coordinates of every agent, as x and y pairs by
+     * copy then agent, into an array at least twice as long as the number of
+     * agents in all copies.
+     *
+     * @param dest the array to copy locations into
+     */
+    public void readLocations(final double[] dest) {
+        for (int i = 0, n = x.length; i < n; i++) {
+            dest[i * 2] = x[i];
+            dest[i * 2 + 1] = y[i];
+        }
+    }
+
+    /**
+     * @param copy the copy
+     * @param agent the agent, counting only agents in the entity list
+     * @return the upper left x coordinate of the agent in the copy
+     */
+    public float getX(final int copy, final int agent) {
+        return x[copy * numAgents + agent];
+    }
+
+    /**
+     * @param copy the copy
+     * @param agent the agent, counting only agents in the entity list
+     * @return the upper left y coordinate of the agent in the copy
+     */
+    public float getY(final int copy, final int agent) {
+        return y[copy * numAgents + agent];
+    }
+
+    /**
+     * @param copy the copy
+     * @param agent the agent, counting only agents in the entity list
+     * @return the heading of the agent in the copy, in degrees
+     */
+    public double getHeading(final int copy, final int agent) {
+        return heading[copy * numAgents + agent];
+    }
+
+    /**
+     * Place an agent in one copy, for example to vary starting positions
+     * across a population.
+     *
+     * @param copy the copy
+     * @param agent the agent, counting only agents in the entity list
+     * @param newX upper left x coordinate
+     * @param newY upper left y coordinate
+     * @param newHeading heading in degrees
+     */
+    public void setAgent(final int copy, final int agent, final float newX,
+            final float newY, final double newHeading) {
+        int i = copy * numAgents + agent;
+        x[i] = newX;
+        y[i] = newY;
+        heading[i] = newHeading;
+        collided[i] = hitsStatic(agent, newX, newY, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return whether copies are stepped in parallel
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Copies are independent, so the result is the same either way.
+     *
+     * @param parallel whether copies should be stepped in parallel
+     */
+    public void setParallel(final boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Returns a properly initialized xstream object.
+     *
+     * @return the XStream object
+     */
+    static XStream getXStream() {
+        return OdorWorld.getXStream();
+    }
+
+    /**
+     * Standard method call made to objects after they are deserialized. See:
+     * http://java.sun.com/developer/JDCTechTips/2002/tt0205.html#tip2
+     * http://xstream.codehaus.org/faq.html
+     *
+     * @return Initialized object.
+     */
+    private Object readResolve() {
+        reset();
+        return this;
+    }
+
+}
@@ -0,0 +1,272 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.world.odorworld;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.simbrain.workspace.AttributeType;
+import org.simbrain.workspace.BulkConsumer;
+import org.simbrain.workspace.BulkProducer;
+import org.simbrain.workspace.Consumer;
+import org.simbrain.workspace.PotentialConsumer;
+import org.simbrain.workspace.PotentialProducer;
+import org.simbrain.workspace.Producer;
+import org.simbrain.workspace.WorkspaceComponent;
+
+/**
+ * Workspace component for a {@link BatchedOdorWorld}. The smell sensors, the
+ * locations and the effectors of the agents in every copy are each exposed
+ * as one array valued attribute, so that a population of agents can be
+ * coupled to a network with three couplings. There is no desktop view yet,
+ * so the component is meant for scripts and batch runs.
+ */
+public class BatchedOdorWorldComponent extends WorkspaceComponent {
+
+    /** Key of this component's own attributes. */
+    private static final String KEY = "Batch";
+
+    /** Reference to model world. */
+    private final BatchedOdorWorld world;
+
+    /** Attribute types. */
+    AttributeType sensorsType = (new AttributeType(this, "Sensors",
+            "getSensorValues", double[].class, true));
+    AttributeType locationsType = (new AttributeType(this, "Locations",
+            "getLocations", double[].class, true));
+    AttributeType effectorsType = (new AttributeType(this, "Effectors",
+            "setEffectorValues", double[].class, true));
+
+    /**
+     * Construct a component simulating copies of the layout of a world.
+     *
+     * @param name name of component
+     * @param template the world whose layout is replicated
+     * @param copies number of copies
+     */
+    public BatchedOdorWorldComponent(final String name,
+            final OdorWorld template, final int copies) {
+        this(name, new BatchedOdorWorld(template, copies));
+    }
+
+    /**
+     * Constructor used in deserializing.
+     *
+     * @param name name of component
+     * @param world model world
+     */
+    public BatchedOdorWorldComponent(final String name,
+            final BatchedOdorWorld world) {
+        super(name);
+        this.world = world;
+        addProducerType(sensorsType);
+        addProducerType(locationsType);
+        addConsumerType(effectorsType);
+    }
+
+    @Override
+    public List<PotentialProducer> getPotentialProducers() {
+        List<PotentialProducer> returnList = new ArrayList<PotentialProducer>();
+        if (sensorsType.isVisible()) {
+            PotentialProducer producer = getAttributeManager()
+                    .createPotentialProducer(this, sensorsType);
+            producer.setCustomDescription("Smell sensors of all copies");
+            returnList.add(producer);
+        }
+        if (locationsType.isVisible()) {
+            PotentialProducer producer = getAttributeManager()
+                    .createPotentialProducer(this, locationsType);
+            producer.setCustomDescription("Locations of all copies");
+            returnList.add(producer);
+        }
+        return returnList;
+    }
+
+    @Override
+    public List<PotentialConsumer> getPotentialConsumers() {
+        List<PotentialConsumer> returnList = new ArrayList<PotentialConsumer>();
+        if (effectorsType.isVisible()) {
+            PotentialConsumer consumer = getAttributeManager()
+                    .createPotentialConsumer(this, effectorsType);
+            consumer.setCustomDescription("Effectors of all copies");
+            returnList.add(consumer);
+        }
+        return returnList;
+    }
+
+    /**
+     * Returns the values of the smell sensors of all copies (see
+     * {@link BatchedOdorWorld#getSensorValues()}).
+     *
+     * @return the sensor values
+     */
+    public double[] getSensorValues() {
+        return world.getSensorValues().clone();
+    }
+
+    /**
+     * Returns the upper left coordinates of the agents of all copies, as x
+     * and y pairs by copy then agent.
+     *
+     * @return the locations
+     */
+    public double[] getLocations() {
+        double[] locations = new double[getLocationsLength()];
+        world.readLocations(locations);
+        return locations;
+    }
+
+    /**
+     * @return the number of values returned by {@link #getLocations()}
+     */
+    private int getLocationsLength() {
+        return world.getCopies() * world.getNumAgents() * 2;
+    }
+
+    /**
+     * Sets the amounts of the movement and turning effectors of all copies
+     * (see {@link BatchedOdorWorld#getEffectorAmounts()}). Extra values are
+     * ignored, and effectors without a value keep their amount.
+     *
+     * @param values the effector amounts
+     */
+    public void setEffectorValues(final double[] values) {
+        double[] amounts = world.getEffectorAmounts();
+        System.arraycopy(values, 0, amounts, 0, Math.min(values.length,
+                amounts.length));
+    }
+
+    /**
+     * Sensor values and locations can be read in bulk.
+     */
+    @Override
+    public BulkProducer getBulkProducer(final Producer<?> producer) {
+        if (producer.getBaseObject() != this) {
+            return null;
+        }
+        if (producer.getMethodName().equals("getSensorValues")) {
+            return new BulkProducer() {
+
+                public int getBulkLength() {
+                    return world.getSensorValues().length;
+                }
+
+                public void readBulk(double[] dest) {
+                    double[] values = world.getSensorValues();
+                    System.arraycopy(values, 0, dest, 0, values.length);
+                }
+            };
+        } else if (producer.getMethodName().equals("getLocations")) {
+            return new BulkProducer() {
+
+                public int getBulkLength() {
+                    return getLocationsLength();
+                }
+
+                public void readBulk(double[] dest) {
+                    world.readLocations(dest);
+                }
+            };
+        }
+        return null;
+    }
+
+    /**
+     * Effector amounts are written in bulk, straight into the world.
+     */
+    @Override
+    public BulkConsumer getBulkConsumer(final Consumer<?> consumer) {
+        if (consumer.getBaseObject() != this
+                || !consumer.getMethodName().equals("setEffectorValues")) {
+            return null;
+        }
+        return new BulkConsumer() {
+
+            public double[] getBulkBuffer() {
+                return world.getEffectorAmounts();
+            }
+
+            public void bulkBufferWritten(int count) {
+                // The buffer is the world's own state
+            }
+        };
+    }
+
+    @Override
+    public String getKeyFromObject(Object object) {
+        if (object == this) {
+            return KEY;
+        }
+        return null;
+    }
+
+    @Override
+    public Object getObjectFromKey(String objectKey) {
+        if (KEY.equals(objectKey)) {
+            return this;
+        }
+        return null;
+    }
+
+    /**
+     * Recreates an instance of this class from a saved component. Only the
+     * template and the number of copies are saved, so every copy starts out
+     * where the template's agents are.
+     *
+     * @param input stream to read from
+     * @param name name of component
+     * @param format format of stream
+     * @return the component
+     */
+    public static BatchedOdorWorldComponent open(InputStream input,
+            String name, String format) {
+        BatchedOdorWorld newWorld = (BatchedOdorWorld) BatchedOdorWorld
+                .getXStream().fromXML(input);
+        return new BatchedOdorWorldComponent(name, newWorld);
+    }
+
+    @Override
+    public String getXML() {
+        return BatchedOdorWorld.getXStream().toXML(world);
+    }
+
+    @Override
+    public void save(final OutputStream output, final String format) {
+        BatchedOdorWorld.getXStream().toXML(world, output);
+    }
+
+    @Override
+    public void update() {
+        world.update();
+    }
+
+    @Override
+    protected void closing() {
+        // empty
+    }
+
+    /**
+     * @return the batched world
+     */
+    public BatchedOdorWorld getWorld() {
+        return world;
+    }
+}
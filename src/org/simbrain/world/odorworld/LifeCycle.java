@@ -106,7 +106,8 @@ public class LifeCycle {
      */
     public void update() {
         if (isDead) {
-            if (Math.random() < this.getResurrectionProb()) {
+            if (parent.getParentWorld().getRandomStream(parent.getId())
+                    .nextDouble() < this.getResurrectionProb()) {
                 isDead = false; // Resurrect
                 bites = 0;
             }
@@ -21,10 +21,13 @@ package org.simbrain.world.odorworld;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.simbrain.util.SimpleId;
 import org.simbrain.util.math.SimbrainMath;
+import org.simbrain.util.math.SplittableRandomStream;
 import org.simbrain.world.odorworld.effectors.Effector;
 import org.simbrain.world.odorworld.effectors.StraightMovement;
 import org.simbrain.world.odorworld.effectors.Turning;
@@ -74,6 +77,20 @@ public class OdorWorld {
     /** Agent Name generator. */
     private SimpleId agentNameGenerator = new SimpleId("Agent", 1);
 
+    /** Index of entities used for sensing and collisions during updates. */
+    private transient SpatialIndex spatialIndex;
+
+    /**
+     * Seed of the random streams handed out by
+     * {@link #getRandomStream(String)}. Chosen at random when first needed
+     * unless set, and saved with the world.
+     */
+    private Long randomSeed;
+
+    /** The random streams handed out so far, by key. */
+    private transient ConcurrentMap<String, SplittableRandomStream> randomStreams =
+            new ConcurrentHashMap<String, SplittableRandomStream>();
+
     /**
      * Default constructor.
      */
@@ -86,15 +103,38 @@ public class OdorWorld {
      * @param time an integer representation of time.
      */
     public void update(int time) {
-        for (OdorWorldEntity object : entityList) {
-            object.updateSmellSource();
-            object.updateSensors();
-            object.applyEffectors();
-            updateEntity(object, time);
+        if (spatialIndex == null) {
+            spatialIndex = new SpatialIndex(this);
+        }
+        spatialIndex.sync(entityList);
+        try {
+            for (OdorWorldEntity object : entityList) {
+                object.updateSmellSource();
+                object.updateSensors();
+                object.applyEffectors();
+                updateEntity(object, time);
+                spatialIndex.update(object);
+            }
+        } finally {
+            spatialIndex.invalidate();
         }
         fireUpdateEvent();
     }
 
+    /**
+     * Returns the spatial index of entities, if it can be used: that is,
+     * while the world is being updated and no entity has been added or
+     * removed since the update began. Every entity is searched otherwise.
+     *
+     * @return the spatial index, or null
+     */
+    public SpatialIndex getSpatialIndex() {
+        if (spatialIndex != null && spatialIndex.isValid()) {
+            return spatialIndex;
+        }
+        return null;
+    }
+
     /**
      * Add an Odor World Entity.
      *
@@ -108,6 +148,9 @@ public class OdorWorld {
         // Add entity to the map
         // map.addSprite(entity);
         entityList.add(entity);
+        if (spatialIndex != null) {
+            spatialIndex.invalidate();
+        }
 
         // Fire entity added event
         fireEntityAdded(entity);
@@ -230,6 +273,9 @@ public class OdorWorld {
         // map.removeSprite(entity);
         if (entityList.contains(entity)) {
             entityList.remove(entity);
+            if (spatialIndex != null) {
+                spatialIndex.invalidate();
+            }
             for (Sensor sensor : entity.getSensors()) {
                 fireSensorRemoved(sensor);
             }
@@ -281,6 +327,46 @@ public class OdorWorld {
         return xstream;
     }
 
+    /**
+     * Returns the random stream for a key, such as an entity id. The stream
+     * depends only on the world's seed and the key.
+     *
+     * @param key the key
+     * @return the stream for that key
+     */
+    public SplittableRandomStream getRandomStream(final String key) {
+        SplittableRandomStream stream = randomStreams.get(key);
+        if (stream == null) {
+            SplittableRandomStream created = new SplittableRandomStream(
+                    getRandomSeed()).split(String.valueOf(key));
+            stream = randomStreams.putIfAbsent(key, created);
+            if (stream == null) {
+                stream = created;
+            }
+        }
+        return stream;
+    }
+
+    /**
+     * Sets the seed of the world's random streams and restarts them all.
+     *
+     * @param seed the seed
+     */
+    public synchronized void setRandomSeed(final long seed) {
+        randomSeed = seed;
+        randomStreams.clear();
+    }
+
+    /**
+     * @return the seed of the world's random streams
+     */
+    public synchronized long getRandomSeed() {
+        if (randomSeed == null) {
+            randomSeed = new SplittableRandomStream().getSeed();
+        }
+        return randomSeed;
+    }
+
     /**
      * Standard method call made to objects after they are deserialized. See:
      * http://java.sun.com/developer/JDCTechTips/2002/tt0205.html#tip2
@@ -290,6 +376,7 @@ public class OdorWorld {
      */
     private Object readResolve() {
         listenerList = new ArrayList<WorldListener>();
+        randomStreams = new ConcurrentHashMap<String, SplittableRandomStream>();
         if (agentNameGenerator == null) {
             agentNameGenerator = new SimpleId("Agent", 1);
         }
@@ -327,13 +414,18 @@ public class OdorWorld {
 
         // Handle sprite collisions
         entity.setHasCollided(false);
-        for (OdorWorldEntity otherEntity : entityList) {
-            if (entity == otherEntity) {
-                continue;
-            }
-            if (otherEntity.getReducedBounds().intersects(
-                    entity.getReducedBounds())) {
-                otherEntity.setHasCollided(true);
+        SpatialIndex index = getSpatialIndex();
+        if (index != null) {
+            index.markCollisions(entity);
+        } else {
+            for (OdorWorldEntity otherEntity : entityList) {
+                if (entity == otherEntity) {
+                    continue;
+                }
+                if (otherEntity.getReducedBounds().intersects(
+                        entity.getReducedBounds())) {
+                    otherEntity.setHasCollided(true);
+                }
             }
         }
         //
@@ -0,0 +1,525 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.world.odorworld;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.simbrain.util.environment.SmellSource;
+import org.simbrain.util.math.SimbrainMath;
+import org.simbrain.world.odorworld.entities.OdorWorldEntity;
+
+/**
+ * Uniform grid over an odor world, used to avoid visiting every entity when
+ * sensing smells and detecting collisions. Each smell source is listed in
+ * every cell its dispersion reaches, so that a smell sensor need only look at
+ * the sources listed in the cell it is in. Each entity is also listed in the
+ * cells its (reduced) bounds overlap. Positions outside the world are treated
+ * as lying in the nearest border cell, so the index works whether or not the
+ * world wraps around.
+ *
+ * The index is brought up to date at the start of each world update and
+ * after each entity moves; it is only handed out (see
+ * {@link OdorWorld#getSpatialIndex()}) while the world is updating and no
+ * entity has been added or removed.
+ */
+public final class SpatialIndex {
+
+    /** Maximum number of cells in the grid. */
+    private static final int MAX_CELLS = 1 << 14;
+
+    /** The world indexed. */
+    private final OdorWorld world;
+
+    /** Entities, in the order of the world's entity list. */
+    private OdorWorldEntity[] entities = new OdorWorldEntity[0];
+
+    /** Position of each entity in the array above. */
+    private final Map<OdorWorldEntity, Integer> slots =
+            new IdentityHashMap<OdorWorldEntity, Integer>();
+
+    /** Width of the world when the grid was laid out. */
+    private int worldWidth = -1;
+
+    /** Height of the world when the grid was laid out. */
+    private int worldHeight = -1;
+
+    /** Side of a cell. */
+    private double cellSize = 1;
+
+    /** Number of columns of cells. */
+    private int columns = 1;
+
+    /** Number of rows of cells. */
+    private int rows = 1;
+
+    /** Cells reached by each smell source. */
+    private final Grid smells = new Grid();
+
+    /** Cells overlapped by each entity's bounds. */
+    private final Grid bodies = new Grid();
+
+    /** Smell source each entity is listed with, or null. */
+    private SmellSource[] sources = new SmellSource[0];
+
+    /** Largest stimulus dimension of any source. */
+    private int maxDimension;
+
+    /** Slot of an entity whose source has the largest dimension, or -1. */
+    private int maxDimensionSlot = -1;
+
+    /** Largest stimulus dimension of the sources of all other entities. */
+    private int secondDimension;
+
+    /** Scratch list of candidate entities for a query. */
+    private int[] candidates = new int[0];
+
+    /** Query on which each entity was last made a candidate. */
+    private int[] stamps = new int[0];
+
+    /** Number of the current query, for the stamps above. */
+    private int stamp;
+
+    /** Scratch coordinates for distance computations. */
+    private final double[] from = new double[2];
+
+    /** See above. */
+    private final double[] to = new double[2];
+
+    /** Whether the index is up to date. */
+    private boolean valid;
+
+    /**
+     * Construct an index for a world.
+     *
+     * @param world the world
+     */
+    SpatialIndex(final OdorWorld world) {
+        this.world = world;
+    }
+
+    /**
+     * Brings the index up to date with a list of entities: lays the grid out
+     * again if the list or the size of the world has changed, and otherwise
+     * relists the entities whose position, size, source or dispersion has
+     * changed.
+     *
+     * @param entityList the entities of the world, in order
+     */
+    void sync(final List<OdorWorldEntity> entityList) {
+        boolean same = entityList.size() == entities.length
+                && world.getWidth() == worldWidth
+                && world.getHeight() == worldHeight;
+        for (int i = 0; same && i < entities.length; i++) {
+            same = entityList.get(i) == entities[i];
+        }
+        if (same) {
+            for (int i = 0; i < entities.length; i++) {
+                refresh(i);
+            }
+        } else {
+            rebuild(entityList);
+        }
+        computeDimensions();
+        valid = true;
+    }
+
+    /**
+     * Brings the entries of one entity up to date, after it has moved.
+     *
+     * @param entity the entity
+     */
+    void update(final OdorWorldEntity entity) {
+        Integer slot = slots.get(entity);
+        if (slot != null) {
+            refresh(slot);
+        }
+    }
+
+    /**
+     * Marks the index as out of date until the next call to
+     * {@link #sync(List)}.
+     */
+    void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * @return whether the index is up to date
+     */
+    boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Lays the grid out for the current size of the world and the average
+     * dispersion of the sources, and lists every entity.
+     *
+     * @param entityList the entities of the world, in order
+     */
+    private void rebuild(final List<OdorWorldEntity> entityList) {
+        int n = entityList.size();
+        entities = entityList.toArray(new OdorWorldEntity[n]);
+        slots.clear();
+        for (int i = 0; i < n; i++) {
+            slots.put(entities[i], i);
+        }
+        worldWidth = world.getWidth();
+        worldHeight = world.getHeight();
+        double totalDispersion = 0;
+        int numSources = 0;
+        for (OdorWorldEntity entity : entities) {
+            SmellSource source = entity.getSmellSource();
+            if (source != null && source.getDispersion() > 0
+                    && source.getDispersion() < Double.POSITIVE_INFINITY) {
+                totalDispersion += source.getDispersion();
+                numSources++;
+            }
+        }
+        double area = Math.max(1, worldWidth) * (double) Math.max(1,
+                worldHeight);
+        cellSize = Math.max(1, numSources == 0 ? Math.max(worldWidth,
+                worldHeight) : totalDispersion / numSources);
+        cellSize = Math.max(cellSize, Math.sqrt(area / MAX_CELLS));
+        columns = Math.max(1, (int) Math.ceil(worldWidth / cellSize));
+        rows = Math.max(1, (int) Math.ceil(worldHeight / cellSize));
+        smells.clear(n);
+        bodies.clear(n);
+        sources = new SmellSource[n];
+        candidates = new int[n];
+        stamps = new int[n];
+        for (int i = 0; i < n; i++) {
+            refresh(i);
+        }
+    }
+
+    /**
+     * Lists an entity in the cells its source reaches and its bounds overlap
+     * now, if they have changed.
+     *
+     * @param slot the entity's slot
+     */
+    private void refresh(final int slot) {
+        OdorWorldEntity entity = entities[slot];
+        SmellSource source = entity.getSmellSource();
+        if (source != null && source.getStimulusVector() != null) {
+            double d = source.getDispersion();
+            double x = entity.getCenterX();
+            double y = entity.getCenterY();
+            if (source != sources[slot]) {
+                smells.unlist(slot);
+            }
+            smells.list(slot, column(x - d), column(x + d), row(y - d),
+                    row(y + d));
+        } else {
+            smells.unlist(slot);
+        }
+        sources[slot] = source;
+        Rectangle bounds = entity.getReducedBounds();
+        if (bounds.width > 0 && bounds.height > 0) {
+            bodies.list(slot, column(bounds.x), column(bounds.x
+                    + (double) bounds.width - 1), row(bounds.y),
+                    row(bounds.y + (double) bounds.height - 1));
+        } else {
+            bodies.unlist(slot);
+        }
+    }
+
+    /**
+     * @param x an x coordinate
+     * @return the column of cells it lies in, or the nearest one
+     */
+    private int column(final double x) {
+        return Math.min(columns - 1, Math.max(0,
+                (int) Math.floor(x / cellSize)));
+    }
+
+    /**
+     * @param y a y coordinate
+     * @return the row of cells it lies in, or the nearest one
+     */
+    private int row(final double y) {
+        return Math.min(rows - 1, Math.max(0,
+                (int) Math.floor(y / cellSize)));
+    }
+
+    /**
+     * Finds the two largest stimulus dimensions, so that the length of a
+     * sensor's value can be found without visiting every source.
+     */
+    private void computeDimensions() {
+        maxDimension = 0;
+        maxDimensionSlot = -1;
+        secondDimension = 0;
+        for (int i = 0; i < entities.length; i++) {
+            SmellSource source = entities[i].getSmellSource();
+            if (source == null) {
+                continue;
+            }
+            int dimension = source.getStimulusDimension();
+            if (dimension > maxDimension) {
+                secondDimension = maxDimension;
+                maxDimension = dimension;
+                maxDimensionSlot = i;
+            } else if (dimension > secondDimension) {
+                secondDimension = dimension;
+            }
+        }
+    }
+
+    /**
+     * Sums the stimuli of the sources of all entities other than one at a
+     * location, as {@link org.simbrain.world.odorworld.sensors.SmellSensor}
+     * does: sources are visited in the order of the world's entity list, and
+     * the result is as long as the longest stimulus vector or the previous
+     * value, whichever is longer. Only sources listed in the location's cell
+     * are visited, since the others contribute nothing.
+     *
+     * @param self the entity sensing, which does not smell itself
+     * @param location the location of the sensor
+     * @param previous the previous value of the sensor, reused if it is long
+     *            enough
+     * @return the summed stimuli
+     */
+    public double[] smell(final OdorWorldEntity self, final double[] location,
+            final double[] previous) {
+        Integer selfSlot = slots.get(self);
+        int length = Math.max(previous.length,
+                (selfSlot != null && selfSlot == maxDimensionSlot)
+                        ? secondDimension : maxDimension);
+        double[] ret = previous;
+        if (ret.length == length) {
+            Arrays.fill(ret, 0);
+        } else {
+            ret = new double[length];
+        }
+
+        int col = column(location[0]);
+        int row = row(location[1]);
+        int count = smells.collect(col, col, row, row, ++stamp, 0);
+        Arrays.sort(candidates, 0, count);
+
+        from[0] = location[0];
+        from[1] = location[1];
+        for (int i = 0; i < count; i++) {
+            OdorWorldEntity entity = entities[candidates[i]];
+            if (entity == self) {
+                continue;
+            }
+            SmellSource source = entity.getSmellSource();
+            if (source != null) {
+                to[0] = entity.getCenterX();
+                to[1] = entity.getCenterY();
+                source.addStimulus(SimbrainMath.distance(from, to), ret);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Marks every other entity whose reduced bounds intersect those of an
+     * entity as having collided.
+     *
+     * @param entity the entity
+     */
+    public void markCollisions(final OdorWorldEntity entity) {
+        Rectangle bounds = entity.getReducedBounds();
+        if (bounds.width <= 0 || bounds.height <= 0) {
+            return;
+        }
+        int count = bodies.collect(column(bounds.x), column(bounds.x
+                + (double) bounds.width - 1), row(bounds.y), row(bounds.y
+                + (double) bounds.height - 1), ++stamp, 0);
+        for (int i = 0; i < count; i++) {
+            OdorWorldEntity other = entities[candidates[i]];
+            if (other != entity
+                    && other.getReducedBounds().intersects(bounds)) {
+                other.setHasCollided(true);
+            }
+        }
+    }
+
+    /**
+     * Lists of entities by cell, with the range of cells each entity is
+     * listed in. Entities whose range covers most of the grid are listed once,
+     * separately, and returned by every query.
+     */
+    private final class Grid {
+
+        /** Slots of the entities listed in each cell, in any order. */
+        private int[][] cells = new int[0][];
+
+        /** Number of entities listed in each cell. */
+        private int[] counts = new int[0];
+
+        /** Slots of entities listed for every query. */
+        private int[] everywhere = new int[0];
+
+        /** Number of such entities. */
+        private int everywhereCount;
+
+        /**
+         * Cells each entity is listed in, four entries per entity: first and
+         * last column, first and last row. The first is -1 if the entity is
+         * not listed, and the number of columns if it is listed for every
+         * query.
+         */
+        private int[] ranges = new int[0];
+
+        /**
+         * Empties the grid, for the current number of cells.
+         *
+         * @param numEntities number of entity slots
+         */
+        void clear(final int numEntities) {
+            cells = new int[columns * rows][];
+            counts = new int[columns * rows];
+            everywhereCount = 0;
+            ranges = new int[4 * numEntities];
+            for (int i = 0; i < ranges.length; i += 4) {
+                ranges[i] = -1;
+            }
+        }
+
+        /**
+         * Lists an entity in a range of cells, unless it already is.
+         *
+         * @param slot the entity's slot
+         * @param x0 first column
+         * @param x1 last column
+         * @param y0 first row
+         * @param y1 last row
+         */
+        void list(final int slot, int x0, int x1, int y0, int y1) {
+            if ((x1 - x0 + 1) * (y1 - y0 + 1) > columns * rows / 2) {
+                x0 = columns;
+                x1 = columns;
+                y0 = rows;
+                y1 = rows;
+            }
+            int r = 4 * slot;
+            if (ranges[r] == x0 && ranges[r + 1] == x1 && ranges[r + 2] == y0
+                    && ranges[r + 3] == y1) {
+                return;
+            }
+            unlist(slot);
+            ranges[r] = x0;
+            ranges[r + 1] = x1;
+            ranges[r + 2] = y0;
+            ranges[r + 3] = y1;
+            if (x0 == columns) {
+                if (everywhereCount == everywhere.length) {
+                    everywhere = Arrays.copyOf(everywhere,
+                            2 * everywhereCount + 4);
+                }
+                everywhere[everywhereCount++] = slot;
+                return;
+            }
+            for (int row = y0; row <= y1; row++) {
+                for (int col = x0; col <= x1; col++) {
+                    int cell = row * columns + col;
+                    if (cells[cell] == null) {
+                        cells[cell] = new int[4];
+                    } else if (counts[cell] == cells[cell].length) {
+                        cells[cell] = Arrays.copyOf(cells[cell],
+                                2 * counts[cell]);
+                    }
+                    cells[cell][counts[cell]++] = slot;
+                }
+            }
+        }
+
+        /**
+         * Removes an entity from the cells it is listed in, if any.
+         *
+         * @param slot the entity's slot
+         */
+        void unlist(final int slot) {
+            int r = 4 * slot;
+            if (ranges[r] == columns) {
+                remove(everywhere, everywhereCount--, slot);
+            } else if (ranges[r] >= 0) {
+                for (int row = ranges[r + 2]; row <= ranges[r + 3]; row++) {
+                    for (int col = ranges[r]; col <= ranges[r + 1]; col++) {
+                        int cell = row * columns + col;
+                        remove(cells[cell], counts[cell]--, slot);
+                    }
+                }
+            }
+            ranges[r] = -1;
+        }
+
+        /**
+         * Appends the entities listed in a range of cells, or for every
+         * query, to the candidate list, each once.
+         *
+         * @param x0 first column
+         * @param x1 last column
+         * @param y0 first row
+         * @param y1 last row
+         * @param query number of this query
+         * @param start number of candidates already in the list
+         * @return the number of candidates in the list
+         */
+        int collect(final int x0, final int x1, final int y0, final int y1,
+                final int query, final int start) {
+            int count = start;
+            for (int row = y0; row <= y1; row++) {
+                for (int col = x0; col <= x1; col++) {
+                    int cell = row * columns + col;
+                    int[] list = cells[cell];
+                    for (int i = 0, n = counts[cell]; i < n; i++) {
+                        if (stamps[list[i]] != query) {
+                            stamps[list[i]] = query;
+                            candidates[count++] = list[i];
+                        }
+                    }
+                }
+            }
+            for (int i = 0; i < everywhereCount; i++) {
+                if (stamps[everywhere[i]] != query) {
+                    stamps[everywhere[i]] = query;
+                    candidates[count++] = everywhere[i];
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Removes a value from the first <code>count</code> entries of an array,
+     * moving the last of them into its place.
+     *
+     * @param list the array
+     * @param count number of entries in use
+     * @param value the value, which must be present
+     */
+    private static void remove(final int[] list, final int count,
+            final int value) {
+        for (int i = 0; i < count; i++) {
+            if (list[i] == value) {
+                list[i] = list[count - 1];
+                return;
+            }
+        }
+    }
+}
@@ -20,6 +20,7 @@ package org.simbrain.world.odorworld.sensors;
 
 import org.simbrain.util.environment.SmellSource;
 import org.simbrain.util.math.SimbrainMath;
+import org.simbrain.world.odorworld.SpatialIndex;
 import org.simbrain.world.odorworld.entities.OdorWorldEntity;
 import org.simbrain.world.odorworld.entities.RotatingEntity;
 
@@ -83,6 +84,11 @@ public class SmellSensor extends Sensor {
      * {@inheritDoc}
      */
     public void update() {
+        SpatialIndex index = parent.getParentWorld().getSpatialIndex();
+        if (index != null) {
+            currentValue = index.smell(parent, getLocation(), currentValue);
+            return;
+        }
         double[] temp = new double[currentValue.length];
         for (OdorWorldEntity entity : parent.getParentWorld().getObjectList()) {
 
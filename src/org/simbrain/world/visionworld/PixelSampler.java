@@ -0,0 +1,302 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.world.visionworld;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveAction;
+
+import org.simbrain.network.update_actions.concurrency_tools.SharedForkJoinPool;
+
+/**
+ * Samples every sensor of a sensor matrix from a single decoding of the pixel
+ * matrix, instead of viewing the pixel matrix through each sensor's receptive
+ * field.
+ *
+ * <p>
+ * The image of the pixel matrix is read into an array of pixels once per
+ * frame. Sensors with a {@link PixelCountFilter} count pixels in that array.
+ * When the receptive fields using such a filter cover more pixels than the
+ * image, a summed-area table of the pixels it counts is built, so that each
+ * sensor then costs four lookups. Counting is split across threads for large
+ * sensor matrices. Sensors with an {@link ImageIndependentFilter} do not read
+ * the pixels at all. Other sensors, sensors whose receptive field does not
+ * lie within the image, and pixel matrices whose image is not a
+ * <code>BufferedImage</code> of the same size are sampled as before (see
+ * {@link Sensor#sample(PixelMatrix)}). Empty entries of sparse sensor
+ * matrices are skipped.
+ * </p>
+ */
+public final class PixelSampler {
+
+    /** Number of pixels worth counting on another thread. */
+    private static final long MIN_PARALLEL_WORK = 1 << 16;
+
+    /** Width of the current image. */
+    private int width;
+
+    /** Height of the current image. */
+    private int height;
+
+    /** Pixels of the current image, row by row. */
+    private int[] pixels = new int[0];
+
+    /**
+     * Summed-area tables of the current image, by filter: entry
+     * <code>y * (width + 1) + x</code> is the number of pixels above and to
+     * the left of (x, y) which the filter counts.
+     */
+    private final Map<PixelCountFilter, int[]> tables =
+            new IdentityHashMap<PixelCountFilter, int[]>();
+
+    /** Sensors with a pixel count filter, for the current frame. */
+    private final List<Sensor> counted = new ArrayList<Sensor>();
+
+    /**
+     * Sample every sensor of the specified sensor matrix from the specified
+     * pixel matrix. Sensors are sampled in the same order as by sampling
+     * them one by one, column by column.
+     *
+     * @param sensorMatrix sensor matrix, must not be null
+     * @param pixelMatrix pixel matrix, must not be null
+     */
+    public void sample(final SensorMatrix sensorMatrix,
+            final PixelMatrix pixelMatrix) {
+        if (sensorMatrix == null) {
+            throw new IllegalArgumentException(
+                    "sensorMatrix must not be null");
+        }
+        if (pixelMatrix == null) {
+            throw new IllegalArgumentException("pixelMatrix must not be null");
+        }
+        int columns = sensorMatrix.columns();
+        int rows = sensorMatrix.rows();
+        if (!load(pixelMatrix)) {
+            for (int column = 0; column < columns; column++) {
+                for (int row = 0; row < rows; row++) {
+                    Sensor sensor = sensorMatrix.getSensor(row, column);
+                    if (sensor != null) {
+                        sensor.sample(pixelMatrix);
+                    }
+                }
+            }
+            return;
+        }
+
+        // Find out how many pixels each counting filter covers
+        Map<PixelCountFilter, Long> areas =
+                new IdentityHashMap<PixelCountFilter, Long>();
+        counted.clear();
+        long work = 0;
+        for (int column = 0; column < columns; column++) {
+            for (int row = 0; row < rows; row++) {
+                Sensor sensor = sensorMatrix.getSensor(row, column);
+                if (sensor != null
+                        && sensor.getFilter() instanceof PixelCountFilter
+                        && contains(sensor.getReceptiveField())) {
+                    PixelCountFilter filter = (PixelCountFilter) sensor
+                            .getFilter();
+                    ReceptiveField field = sensor.getReceptiveField();
+                    long area = (long) field.getWidth() * field.getHeight();
+                    Long total = areas.get(filter);
+                    areas.put(filter, total == null ? area : total + area);
+                    counted.add(sensor);
+                    work += area;
+                }
+            }
+        }
+        for (Map.Entry<PixelCountFilter, Long> entry : areas.entrySet()) {
+            if (entry.getValue() > (long) width * height) {
+                tables.put(entry.getKey(), buildTable(entry.getKey()));
+                work -= entry.getValue();
+            }
+        }
+
+        if (work < MIN_PARALLEL_WORK || counted.size() < 2) {
+            countRange(0, counted.size());
+        } else {
+            int grain = Math.max(1, counted.size()
+                    / (SharedForkJoinPool.getParallelism() * 8));
+            SharedForkJoinPool.invoke(new CountTask(0, counted.size(),
+                    grain));
+        }
+
+        for (int column = 0; column < columns; column++) {
+            for (int row = 0; row < rows; row++) {
+                Sensor sensor = sensorMatrix.getSensor(row, column);
+                if (sensor == null) {
+                    continue;
+                }
+                Filter filter = sensor.getFilter();
+                if (filter instanceof ImageIndependentFilter) {
+                    sensor.setLastSample(((ImageIndependentFilter) filter)
+                            .value());
+                } else if (!(filter instanceof PixelCountFilter)
+                        || !contains(sensor.getReceptiveField())) {
+                    sensor.sample(pixelMatrix);
+                }
+            }
+        }
+        tables.clear();
+        counted.clear();
+    }
+
+    /**
+     * Read the pixels of the specified pixel matrix.
+     *
+     * @param pixelMatrix pixel matrix
+     * @return false if the image of the pixel matrix is not a
+     *         <code>BufferedImage</code> of the size of the pixel matrix
+     */
+    private boolean load(final PixelMatrix pixelMatrix) {
+        Image image = pixelMatrix.getImage();
+        if (!(image instanceof BufferedImage)) {
+            return false;
+        }
+        BufferedImage bufferedImage = (BufferedImage) image;
+        width = bufferedImage.getWidth();
+        height = bufferedImage.getHeight();
+        if (width != pixelMatrix.getWidth()
+                || height != pixelMatrix.getHeight()) {
+            return false;
+        }
+        if (pixels.length != width * height) {
+            pixels = new int[width * height];
+        }
+        bufferedImage.getRGB(0, 0, width, height, pixels, 0, width);
+        return true;
+    }
+
+    /**
+     * Return true if the specified receptive field lies within the current
+     * image and is not empty.
+     *
+     * @param field receptive field
+     * @return true if the receptive field lies within the current image
+     */
+    private boolean contains(final ReceptiveField field) {
+        return field.getX() >= 0 && field.getY() >= 0
+                && field.getWidth() > 0 && field.getHeight() > 0
+                && field.getX() + field.getWidth() <= width
+                && field.getY() + field.getHeight() <= height;
+    }
+
+    /**
+     * Build a summed-area table of the pixels counted by the specified filter.
+     *
+     * @param filter filter
+     * @return the summed-area table
+     */
+    private int[] buildTable(final PixelCountFilter filter) {
+        int stride = width + 1;
+        int[] table = new int[stride * (height + 1)];
+        for (int y = 0; y < height; y++) {
+            int rowSum = 0;
+            int in = y * width;
+            int out = (y + 1) * stride + 1;
+            for (int x = 0; x < width; x++) {
+                if (filter.accept(pixels[in + x])) {
+                    rowSum++;
+                }
+                table[out + x] = table[out + x - stride] + rowSum;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Sample the counted sensors in the specified range.
+     *
+     * @param lo first sensor (inclusive)
+     * @param hi last sensor (exclusive)
+     */
+    private void countRange(final int lo, final int hi) {
+        for (int i = lo; i < hi; i++) {
+            Sensor sensor = counted.get(i);
+            PixelCountFilter filter = (PixelCountFilter) sensor.getFilter();
+            ReceptiveField field = sensor.getReceptiveField();
+            int x0 = field.getX();
+            int y0 = field.getY();
+            int x1 = x0 + field.getWidth();
+            int y1 = y0 + field.getHeight();
+            int count = 0;
+            int[] table = tables.get(filter);
+            if (table != null) {
+                int stride = width + 1;
+                count = table[y1 * stride + x1] - table[y0 * stride + x1]
+                        - table[y1 * stride + x0] + table[y0 * stride + x0];
+            } else {
+                for (int y = y0; y < y1; y++) {
+                    for (int p = y * width + x0, end = p + x1 - x0; p < end;
+                            p++) {
+                        if (filter.accept(pixels[p])) {
+                            count++;
+                        }
+                    }
+                }
+            }
+            sensor.setLastSample(filter.value(count, field.getWidth()
+                    * field.getHeight()));
+        }
+    }
+
+    /**
+     * Samples a range of counted sensors, splitting it across threads.
+     */
+    private final class CountTask extends RecursiveAction {
+
+        /** Generated serial id. */
+        private static final long serialVersionUID = 1L;
+
+        /** First sensor of range (inclusive). */
+        private final int lo;
+
+        /** Last sensor of range (exclusive). */
+        private final int hi;
+
+        /** Number of sensors not worth splitting further. */
+        private final int grain;
+
+        /**
+         * @param lo start of range (inclusive)
+         * @param hi end of range (exclusive)
+         * @param grain number of sensors not worth splitting further
+         */
+        CountTask(final int lo, final int hi, final int grain) {
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > grain) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new CountTask(lo, mid, grain), new CountTask(mid,
+                        hi, grain));
+                return;
+            }
+            countRange(lo, hi);
+        }
+    }
+}
@@ -134,6 +134,16 @@ public final class Sensor {
         return sample;
     }
 
+    /**
+     * Set the last sample value for this sensor, for samples computed by a
+     * {@link PixelSampler}.
+     *
+     * @param sample sample value
+     */
+    void setLastSample(final double sample) {
+        this.sample = sample;
+    }
+
     /**
      * Return the filter for this sensor. The filter will not be null.
      *
@@ -24,7 +24,9 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.simbrain.workspace.AttributeType;
+import org.simbrain.workspace.BulkProducer;
 import org.simbrain.workspace.PotentialProducer;
+import org.simbrain.workspace.Producer;
 import org.simbrain.workspace.WorkspaceComponent;
 
 /**
@@ -35,6 +37,9 @@ public final class VisionWorldComponent extends WorkspaceComponent {
     /** Vision world. */
     private final VisionWorld visionWorld;
 
+    /** Samples the sensors on each update. */
+    private final PixelSampler pixelSampler = new PixelSampler();
+
     /**
      * Create a new vision world frame with the specified name.
      *
@@ -64,6 +69,8 @@ public final class VisionWorldComponent extends WorkspaceComponent {
         if (getProducerTypes().size() == 0) {
             addProducerType(new AttributeType(this, "Sensor", "getValue",
                     double.class, true));
+            addProducerType(new AttributeType(this, "SensorMatrix",
+                    "getSensorValues", double[].class, true));
         }
         visionWorld.getModel().addModelListener(new VisionWorldModelListener() {
 
@@ -95,13 +102,76 @@ public final class VisionWorldComponent extends WorkspaceComponent {
                         returnList.add(producer);
                     }
                 }
+            } else if (type.getTypeName().equalsIgnoreCase("SensorMatrix")) {
+                PotentialProducer producer = getAttributeManager()
+                        .createPotentialProducer(this, type);
+                producer.setCustomDescription("Sensor matrix");
+                returnList.add(producer);
             }
         }
         return returnList;
     }
 
+    /**
+     * Returns the last sample of every sensor, in row-major order.
+     *
+     * @return the sensor values
+     */
+    public double[] getSensorValues() {
+        SensorMatrix sensorMatrix = getVisionWorld().getModel()
+                .getSensorMatrix();
+        double[] values = new double[sensorMatrix.rows()
+                * sensorMatrix.columns()];
+        readSensorValues(values);
+        return values;
+    }
+
+    /**
+     * Copy the last sample of every sensor, in row-major order, into an
+     * existing array with at least one element per sensor.
+     *
+     * @param dest the array to copy sensor values into
+     */
+    public void readSensorValues(final double[] dest) {
+        SensorMatrix sensorMatrix = getVisionWorld().getModel()
+                .getSensorMatrix();
+        int i = 0;
+        for (int row = 0, rows = sensorMatrix.rows(); row < rows; row++) {
+            for (int column = 0, columns = sensorMatrix.columns(); column < columns; column++) {
+                Sensor sensor = sensorMatrix.getSensor(row, column);
+                dest[i++] = sensor == null ? 0 : sensor.getLastSample();
+            }
+        }
+    }
+
+    /**
+     * The sensor matrix can be read in bulk.
+     */
+    @Override
+    public BulkProducer getBulkProducer(final Producer<?> producer) {
+        if (producer.getBaseObject() != this
+                || !producer.getMethodName().equals("getSensorValues")) {
+            return null;
+        }
+        return new BulkProducer() {
+
+            public int getBulkLength() {
+                SensorMatrix sensorMatrix = getVisionWorld().getModel()
+                        .getSensorMatrix();
+                return sensorMatrix.rows() * sensorMatrix.columns();
+            }
+
+            public void readBulk(double[] dest) {
+                readSensorValues(dest);
+            }
+        };
+    }
+
     @Override
     public Object getObjectFromKey(String objectKey) {
+        if (objectKey.equals("SensorMatrix")) {
+            return this;
+        }
         String[] rowCol = objectKey.split(","); // todo check that string is
                                                 // valid
         int row = Integer.parseInt(rowCol[0]);
@@ -114,6 +184,8 @@ public final class VisionWorldComponent extends WorkspaceComponent {
     public String getKeyFromObject(Object object) {
         if (object instanceof Sensor) {
             return ((Sensor) object).getKey();
+        } else if (object == this) {
+            return "SensorMatrix";
         }
         return null;
     }
@@ -151,12 +223,7 @@ public final class VisionWorldComponent extends WorkspaceComponent {
         VisionWorldModel model = visionWorld.getModel();
         PixelMatrix pixelMatrix = model.getPixelMatrix();
         SensorMatrix sensorMatrix = model.getSensorMatrix();
-        for (int column = 0, columns = sensorMatrix.columns(); column < columns; column++) {
-            for (int row = 0, rows = sensorMatrix.rows(); row < rows; row++) {
-                Sensor sensor = sensorMatrix.getSensor(row, column);
-                sensor.sample(pixelMatrix);
-            }
-        }
+        pixelSampler.sample(sensorMatrix, pixelMatrix);
     }
 
     /**
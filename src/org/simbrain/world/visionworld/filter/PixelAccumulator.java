@@ -20,12 +20,12 @@ package org.simbrain.world.visionworld.filter;
 
 import java.awt.image.BufferedImage;
 
-import org.simbrain.world.visionworld.Filter;
+import org.simbrain.world.visionworld.PixelCountFilter;
 
 /**
  * Pixel accumulator.
  */
-public final class PixelAccumulator implements Filter {
+public final class PixelAccumulator implements PixelCountFilter {
 
     /** Display name. */
     private static final String DISPLAY_NAME = "Pixel accumulator";
@@ -36,21 +36,25 @@ public final class PixelAccumulator implements Filter {
         for (int x = 0; x < image.getWidth(); x++) {
             for (int y = 0; y < image.getHeight(); y++) {
                 int rgb = image.getRGB(x, y);
-                // hack!
-                if (rgb == -16777216) {
+                if (accept(rgb)) {
                     pixels++;
                 }
-                // ...because this isn't giving the right value
-                /*
-                 * int r = (rgb >> 16) & 255; int g = (rgb >> 8) & 255; int b =
-                 * rgb & 255; if ((r == 0) && (g == 0) && (b == 0)) { pixels++;
-                 * }
-                 */
             }
         }
         return pixels;
     }
 
+    /** {@inheritDoc} */
+    public boolean accept(final int rgb) {
+        // hack!
+        return rgb == -16777216;
+    }
+
+    /** {@inheritDoc} */
+    public double value(final int pixels, final int total) {
+        return pixels;
+    }
+
     public String getDescription() {
         return DISPLAY_NAME;
     }
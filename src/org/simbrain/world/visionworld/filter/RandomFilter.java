@@ -21,12 +21,12 @@ package org.simbrain.world.visionworld.filter;
 import java.awt.image.BufferedImage;
 import java.util.Random;
 
-import org.simbrain.world.visionworld.Filter;
+import org.simbrain.world.visionworld.ImageIndependentFilter;
 
 /**
  * Random filter.
  */
-public final class RandomFilter implements Filter {
+public final class RandomFilter implements ImageIndependentFilter {
 
     /** Display name. */
     private static final String DISPLAY_NAME = "Random filter";
@@ -82,6 +82,11 @@ public final class RandomFilter implements Filter {
 
     /** {@inheritDoc} */
     public double filter(final BufferedImage image) {
+        return value();
+    }
+
+    /** {@inheritDoc} */
+    public double value() {
         double r = random.nextDouble();
         double value = minimumValue + (r * difference);
         return value;
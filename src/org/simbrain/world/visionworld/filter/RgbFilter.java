@@ -3,7 +3,7 @@ package org.simbrain.world.visionworld.filter;
 import java.awt.image.BufferedImage;
 
 import org.apache.log4j.Logger;
-import org.simbrain.world.visionworld.Filter;
+import org.simbrain.world.visionworld.PixelCountFilter;
 
 /**
  * Filters pixels against the provided thresholds and provides the fraction of
@@ -17,7 +17,7 @@ import org.simbrain.world.visionworld.Filter;
  *
  * @author Matt Watson
  */
-public class RgbFilter implements Filter {
+public class RgbFilter implements PixelCountFilter {
     /** static logger for this class. */
     private static final Logger LOGGER = Logger.getLogger(RgbFilter.class);
 
@@ -76,17 +76,7 @@ public class RgbFilter implements Filter {
 
         for (int x = 0; x < width; x++) {
             for (int y = 0; y < height; y++) {
-                int rgb = image.getRGB(x, y);
-                int b = rgb & BYTE_MASK;
-                rgb = rgb >>> BITS_IN_A_BYTE;
-                int g = rgb & BYTE_MASK;
-                rgb = rgb >>> BITS_IN_A_BYTE;
-                int r = rgb & BYTE_MASK;
-
-                LOGGER.debug("rgb(" + x + "," + y + "): " + r + ", " + g + ", "
-                        + b);
-
-                if (eval(r, red) && eval(g, green) && eval(b, blue)) {
+                if (accept(image.getRGB(x, y))) {
                     pixels++;
                 }
             }
@@ -95,6 +85,28 @@ public class RgbFilter implements Filter {
         return scale(pixels, width * height);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public boolean accept(final int rgb) {
+        int b = rgb & BYTE_MASK;
+        int g = (rgb >>> BITS_IN_A_BYTE) & BYTE_MASK;
+        int r = (rgb >>> (2 * BITS_IN_A_BYTE)) & BYTE_MASK;
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("rgb: " + r + ", " + g + ", " + b);
+        }
+
+        return eval(r, red) && eval(g, green) && eval(b, blue);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double value(final int pixels, final int total) {
+        return scale(pixels, total);
+    }
+
     // private static final String getString(int x) {
     // StringBuffer buffer = new StringBuffer();
     // int mask = 0x00000001;
@@ -115,13 +127,9 @@ public class RgbFilter implements Filter {
      * @return Whether the given value meets the threshold.
      */
     private boolean eval(final int value, final int threshold) {
-        LOGGER.debug("eval: " + value + ", " + threshold);
-
         if (threshold < 0) {
-            LOGGER.debug(value < Math.abs(threshold));
             return value < Math.abs(threshold);
         } else {
-            LOGGER.debug(value >= Math.abs(threshold));
             return value >= threshold;
         }
     }
@@ -139,8 +147,10 @@ public class RgbFilter implements Filter {
 
         double fraction = ((double) pixels) / total;
 
-        LOGGER.debug("pixels: " + pixels + " total: " + total + " scaled: "
-                + fraction * distance);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("pixels: " + pixels + " total: " + total
+                    + " scaled: " + fraction * distance);
+        }
 
         return fraction * distance;
     }
@@ -20,12 +20,12 @@ package org.simbrain.world.visionworld.filter;
 
 import java.awt.image.BufferedImage;
 
-import org.simbrain.world.visionworld.Filter;
+import org.simbrain.world.visionworld.ImageIndependentFilter;
 
 /**
  * Uniform filter.
  */
-public final class UniformFilter implements Filter {
+public final class UniformFilter implements ImageIndependentFilter {
 
     /** Display name. */
     private static final String DISPLAY_NAME = "Uniform filter";
@@ -56,6 +56,11 @@ public final class UniformFilter implements Filter {
         return value;
     }
 
+    /** {@inheritDoc} */
+    public double value() {
+        return value;
+    }
+
     public String getDescription() {
         return DISPLAY_NAME + ", value=" + value;
     }